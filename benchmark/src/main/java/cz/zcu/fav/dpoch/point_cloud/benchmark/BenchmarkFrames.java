@@ -0,0 +1,96 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Frames and scratch directories shared by the benchmarks.
+ */
+final class BenchmarkFrames {
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * Creates a frame resembling Tango depth data, rows of points of a surface about two meters
+     * in front of the sensor with random confidence.
+     */
+    static PointCloudFrame create(int numPoints) {
+        float[] points = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        int columns = Math.max(1, (int) Math.sqrt(numPoints * 4.0 / 3));
+        Random random = new Random(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            float depth = 2 + 0.2f * (float) Math.sin(i * 0.001) + 0.002f * (float) random.nextGaussian();
+            points[i * 4] = ((i % columns) - columns / 2f) / columns * depth;
+            points[i * 4 + 1] = ((i / columns) - columns * 3 / 8f) / columns * depth;
+            points[i * 4 + 2] = depth;
+            points[i * 4 + 3] = random.nextFloat();
+        }
+        PointCloudFrame frame = new PointCloudFrame(numPoints);
+        frame.set(123.456, FloatBuffer.wrap(points), numPoints);
+        frame.setPose(new double[]{0.1, 0.2, 0.3}, new double[]{0, 0, 0, 1});
+        return frame;
+    }
+
+    /**
+     * Creates a compacted octree of a merged scan, noisy walls and floor of a 10 x 10 x 3 m room
+     * with one point in a hundred flying in the middle of it.
+     */
+    static Octree createScene(int numPoints) {
+        Octree tree = new Octree(numPoints);
+        Random random = new Random(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            float u = random.nextFloat();
+            float v = random.nextFloat();
+            float noise = 0.005f * (float) random.nextGaussian();
+            switch (i % 6) {
+                case 0:
+                    tree.insertPoint(u * 10, v * 10, noise, 1);
+                    break;
+                case 1:
+                    tree.insertPoint(u * 10, noise, v * 3, 1);
+                    break;
+                case 2:
+                    tree.insertPoint(u * 10, 10 + noise, v * 3, 1);
+                    break;
+                case 3:
+                    tree.insertPoint(noise, u * 10, v * 3, 1);
+                    break;
+                case 4:
+                    tree.insertPoint(10 + noise, u * 10, v * 3, 1);
+                    break;
+                default:
+                    if (i % 100 == 5) {
+                        tree.insertPoint(u * 10, v * 10, random.nextFloat() * 3, 0.1f);
+                    } else {
+                        tree.insertPoint(u * 10, v * 10, 3 + noise, 1);
+                    }
+            }
+        }
+        tree.compact();
+        return tree;
+    }
+
+    static File createDirectory() throws IOException {
+        File directory = File.createTempFile("point-cloud-benchmark", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory.getPath());
+        }
+        return directory;
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,81 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+
+/**
+ * Encoding and decoding speed of {@link FrameCodec} in its configurations, without file I/O.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"1000", "10000", "40000", "100000"})
+    public int numPoints;
+
+    @Param({"planes", "delta", "deflate"})
+    public String configuration;
+
+    private PointCloudFrame frame;
+    private PointCloudFrame decoded;
+    private FrameCodec codec;
+    private ByteBuffer encoded;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.frame = BenchmarkFrames.create(this.numPoints);
+        this.decoded = new PointCloudFrame(this.numPoints);
+        if ("planes".equals(this.configuration)) {
+            this.codec = new FrameCodec(FrameCodec.DEFAULT_RESOLUTION, false, false);
+        } else if ("delta".equals(this.configuration)) {
+            this.codec = new FrameCodec(FrameCodec.DEFAULT_RESOLUTION, true, false);
+        } else {
+            this.codec = new FrameCodec();
+        }
+        this.buffer = FrameCodec.allocateBuffer(this.numPoints);
+        this.encoded = FrameCodec.allocateBuffer(this.numPoints);
+        this.codec.encode(this.frame, this.encoded);
+        this.encoded.flip();
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        this.codec.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        this.buffer.clear();
+        return this.codec.encode(this.frame, this.buffer);
+    }
+
+    @Benchmark
+    public PointCloudFrame decode() throws IOException {
+        this.encoded.rewind();
+        this.codec.decode(this.encoded, this.decoded);
+        return this.decoded;
+    }
+}
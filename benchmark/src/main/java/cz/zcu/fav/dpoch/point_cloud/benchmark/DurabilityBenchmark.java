@@ -0,0 +1,78 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.DurableSessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+
+/**
+ * Cost of group commit. {@code durableSessionWriter} forces the session and its journal once per
+ * batch, a batch of 1 forces every frame; {@code sessionWriter} never forces and is the upper
+ * bound. The time window is disabled so only the batch size decides when to commit.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DurabilityBenchmark {
+
+    @Param({"40000"})
+    public int numPoints;
+
+    @Param({"1", "4", "16", "64"})
+    public int batchFrames;
+
+    private PointCloudFrame frame;
+    private File directory;
+    private SessionWriter sessionWriter;
+    private DurableSessionWriter durableSessionWriter;
+
+    @Setup(Level.Trial)
+    public void createFrame() {
+        this.frame = BenchmarkFrames.create(this.numPoints);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriters() throws IOException {
+        this.directory = BenchmarkFrames.createDirectory();
+        this.sessionWriter = new SessionWriter(new File(this.directory, "plain.pcs"));
+        this.durableSessionWriter = new DurableSessionWriter(new File(this.directory, "durable.pcs"),
+                null, this.batchFrames, Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriters() throws IOException {
+        this.sessionWriter.close();
+        this.durableSessionWriter.close();
+        BenchmarkFrames.deleteDirectory(this.directory);
+    }
+
+    @Benchmark
+    public void sessionWriter() throws IOException {
+        this.sessionWriter.write(this.frame);
+    }
+
+    @Benchmark
+    public void durableSessionWriter() throws IOException {
+        this.durableSessionWriter.write(this.frame);
+    }
+}
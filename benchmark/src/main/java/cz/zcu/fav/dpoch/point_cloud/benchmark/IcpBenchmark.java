@@ -0,0 +1,76 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.processing.IcpRegistration;
+
+/**
+ * Point-to-plane ICP of single frames of a room against a model of it, with the pose drifted by
+ * a few centimeters and about a degree. A frame must take well below 200 ms to keep up with
+ * replayed sessions at 5 Hz.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IcpBenchmark {
+
+    private static final double[] DRIFT_TRANSLATION = {0.03, -0.02, 0.01};
+    private static final double[] DRIFT_ROTATION = {0, 0, 0.0087, 0.99996};
+
+    @Param({"20000", "60000"})
+    public int numPoints;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private PointCloudFrame scene;
+    private PointCloudFrame frame;
+    private ForkJoinPool pool;
+    private IcpRegistration registration;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.scene = new PointCloudFrame(this.numPoints);
+        BenchmarkFrames.createScene(this.numPoints).export(this.scene);
+        this.frame = new PointCloudFrame(this.numPoints);
+        this.pool = new ForkJoinPool(this.threads);
+        this.registration = new IcpRegistration(IcpRegistration.DEFAULT_MAX_MODEL_POINTS,
+                IcpRegistration.DEFAULT_MODEL_SPACING,
+                IcpRegistration.DEFAULT_MAX_CORRESPONDENCE_DISTANCE,
+                IcpRegistration.DEFAULT_MAX_ITERATIONS, this.pool);
+        this.frame.set(0, this.scene.getPoints(), this.numPoints);
+        this.registration.filter(this.frame);
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public int register() {
+        this.frame.set(0, this.scene.getPoints(), this.numPoints);
+        this.frame.setPose(DRIFT_TRANSLATION, DRIFT_ROTATION);
+        this.registration.filter(this.frame);
+        return this.registration.getLastResult().getIterations();
+    }
+}
@@ -0,0 +1,65 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.processing.StatisticalOutlierFilter;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Statistical outlier removal over a merged cloud of 1M and 10M points with a growing number of
+ * fork-join workers, showing how the stage scales with cores. Needs a heap of about 2 GB for the
+ * larger cloud.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class OutlierBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int numPoints;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Octree tree;
+    private ForkJoinPool pool;
+    private StatisticalOutlierFilter filter;
+    private boolean[] outliers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.tree = BenchmarkFrames.createScene(this.numPoints);
+        this.pool = new ForkJoinPool(this.threads);
+        this.filter = new StatisticalOutlierFilter(StatisticalOutlierFilter.DEFAULT_NEIGHBOURS,
+                StatisticalOutlierFilter.DEFAULT_STDDEV_MULTIPLIER, this.pool);
+        this.outliers = new boolean[this.numPoints];
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public int findOutliers() {
+        return this.filter.findOutliers(this.tree, this.outliers);
+    }
+}
@@ -0,0 +1,78 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.AsciiFloatParser;
+
+/**
+ * Parsing of a legacy text frame with one float per line, by {@link AsciiFloatParser} from a
+ * direct buffer like a mapped file and by {@link Float#parseFloat(String)} on a string per line
+ * as the old replay did. Divide the text size by the time per operation for MB/s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    @Param({"40000"})
+    public int numPoints;
+
+    private byte[] text;
+    private ByteBuffer bytes;
+    private float[] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PointCloudFrame frame = BenchmarkFrames.create(this.numPoints);
+        FloatBuffer points = frame.getPoints();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.numPoints * PointCloudFrame.FLOATS_PER_POINT; i++) {
+            builder.append(points.get(i)).append('\n');
+        }
+        this.text = builder.toString().getBytes(StandardCharsets.US_ASCII);
+        this.bytes = ByteBuffer.allocateDirect(this.text.length);
+        this.bytes.put(this.text);
+        this.values = new float[this.numPoints * PointCloudFrame.FLOATS_PER_POINT];
+    }
+
+    @Benchmark
+    public int asciiFloatParser() throws IOException {
+        this.bytes.clear();
+        return AsciiFloatParser.parse(this.bytes, this.values, 0);
+    }
+
+    @Benchmark
+    public int parseFloat() {
+        int count = 0;
+        int lineStart = 0;
+        for (int i = 0; i < this.text.length; i++) {
+            if (this.text[i] == '\n') {
+                this.values[count++] = Float.parseFloat(
+                        new String(this.text, lineStart, i - lineStart, StandardCharsets.US_ASCII));
+                lineStart = i + 1;
+            }
+        }
+        return count;
+    }
+}
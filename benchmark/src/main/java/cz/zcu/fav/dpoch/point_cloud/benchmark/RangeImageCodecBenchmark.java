@@ -0,0 +1,309 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CameraIntrinsics;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.RangeImageCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker;
+import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
+import cz.zcu.fav.dpoch.point_cloud.core.source.SessionReplaySource;
+import cz.zcu.fav.dpoch.point_cloud.core.source.SyntheticSource;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Encoding and decoding speed of {@link RangeImageCodec} against {@link FrameCodec} on the
+ * frames of a session replayed by {@link SessionReplaySource}, a recorded one with the intrinsics
+ * of its depth camera, or by default a synthetic one recorded in the world frame as the generator
+ * application writes it. Every invocation encodes or decodes the next frame of the session.
+ *
+ * <p>The size and the round trip error over all frames are reported as auxiliary counters of
+ * {@code decode}. Every original point is matched to its nearest decoded point, since the range
+ * image reorders points and moves some of them behind the image as floats.</p>
+ *
+ * <pre>gradle jmh -PjmhArgs="RangeImageCodecBenchmark -p session=scan.pcs
+ *         -p intrinsics=320:180:252.1:252.3:160.2:90.4"</pre>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeImageCodecBenchmark {
+
+    // Frames of the synthetic session, recorded at 5 Hz.
+    private static final int SYNTHETIC_FRAMES = 50;
+
+    /** Session file to replay, or empty to record a synthetic session. */
+    @Param({""})
+    public String session;
+
+    /** Intrinsics of the depth camera of the session as width:height:fx:fy:cx:cy. */
+    @Param({""})
+    public String intrinsics;
+
+    /** Number of points in the frames of the synthetic session. */
+    @Param({"40000"})
+    public int numPoints;
+
+    @Param({"frame", "planes", "deflate"})
+    public String configuration;
+
+    private final List<PointCloudFrame> frames = new ArrayList<PointCloudFrame>();
+    private final List<ByteBuffer> encodedFrames = new ArrayList<ByteBuffer>();
+    private PointCloudFrame decoded;
+    private FrameCodec frameCodec;
+    private RangeImageCodec rangeImageCodec;
+    private ByteBuffer buffer;
+    private int nextFrame;
+    private double bytesPerPoint;
+    private double maxErrorMillimeters;
+    private double rmsErrorMillimeters;
+    private double overflowPercent;
+
+    /**
+     * Size and round trip error of the benchmarked configuration over the whole session.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Accuracy {
+
+        public double bytesPerPoint;
+        public double maxErrorMillimeters;
+        public double rmsErrorMillimeters;
+        // Share of the points the range image could not hold, stored as floats after it.
+        public double overflowPercent;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        File file;
+        CameraIntrinsics cameraIntrinsics;
+        if (this.session.isEmpty()) {
+            file = File.createTempFile("range-image", SessionFormat.FILE_EXTENSION);
+            cameraIntrinsics = recordSynthetic(file, this.numPoints);
+        } else {
+            file = new File(this.session);
+            cameraIntrinsics = parseIntrinsics(this.intrinsics);
+        }
+        try {
+            replay(file);
+        } finally {
+            if (this.session.isEmpty()) {
+                file.delete();
+            }
+        }
+
+        if ("frame".equals(this.configuration)) {
+            this.frameCodec = new FrameCodec();
+        } else if ("planes".equals(this.configuration)) {
+            this.rangeImageCodec = new RangeImageCodec(cameraIntrinsics,
+                    RangeImageCodec.DEFAULT_DEPTH_STEP, RangeImageCodec.DEFAULT_MAX_RAY_DISTANCE,
+                    false);
+        } else {
+            this.rangeImageCodec = new RangeImageCodec(cameraIntrinsics);
+        }
+        int maxPoints = 0;
+        for (PointCloudFrame frame : this.frames) {
+            maxPoints = Math.max(maxPoints, frame.getNumPoints());
+        }
+        this.decoded = new PointCloudFrame(maxPoints);
+        this.buffer = allocateBuffer(maxPoints);
+        measure(maxPoints);
+    }
+
+    private static CameraIntrinsics parseIntrinsics(String value) {
+        String[] parts = value.split(":");
+        if (parts.length != 6) {
+            throw new IllegalArgumentException("Intrinsics of a session must be given as "
+                    + "width:height:fx:fy:cx:cy, not \"" + value + "\"");
+        }
+        return new CameraIntrinsics(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
+                Double.parseDouble(parts[4]), Double.parseDouble(parts[5]));
+    }
+
+    /**
+     * Records synthetic frames in the world frame, as the generator application writes them.
+     */
+    private static CameraIntrinsics recordSynthetic(File file, int numPoints)
+            throws IOException, InterruptedException {
+        final CapturePipeline pipeline = new CapturePipeline(new SessionWriter(file), 4,
+                OverflowPolicy.BLOCK, numPoints);
+        pipeline.start();
+        final PoseTracker poseTracker = new PoseTracker();
+        SyntheticSource source = new SyntheticSource(numPoints, 5, SYNTHETIC_FRAMES, false);
+        source.start(new PointCloudSource.Listener() {
+            @Override
+            public void onDeviceToSensor(double[] translation, double[] rotation) {
+                poseTracker.setDeviceToSensor(translation, rotation);
+            }
+
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+                poseTracker.onDevicePose(timestamp, translation, rotation);
+            }
+
+            @Override
+            public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+                pipeline.submit(timestamp, points, numPoints, poseTracker.sensorPoseAt(timestamp));
+            }
+        });
+        source.join();
+        source.close();
+        pipeline.close();
+        return source.getIntrinsics();
+    }
+
+    /**
+     * Keeps the frames of a session in the sensor frame, as the source delivers them.
+     */
+    private void replay(File file) throws IOException, InterruptedException {
+        SessionReplaySource source = new SessionReplaySource(file, false);
+        source.start(new PointCloudSource.Listener() {
+            @Override
+            public void onDeviceToSensor(double[] translation, double[] rotation) {
+            }
+
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+            }
+
+            @Override
+            public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+                PointCloudFrame frame = new PointCloudFrame(numPoints);
+                frame.set(timestamp, points, numPoints);
+                RangeImageCodecBenchmark.this.frames.add(frame);
+            }
+        });
+        source.join();
+        source.close();
+        if (source.getError() != null) {
+            throw source.getError();
+        }
+        if (this.frames.isEmpty()) {
+            throw new IOException("Session " + file.getPath() + " has no frames.");
+        }
+    }
+
+    /**
+     * Encodes every frame once, keeping the encoded frames for {@code decode}, and compares the
+     * decoded points with the original ones.
+     */
+    private void measure(int maxPoints) throws IOException {
+        Octree tree = new Octree(maxPoints);
+        int[] nearest = new int[1];
+        float[] distanceSquared = new float[1];
+        long points = 0, bytes = 0, overflow = 0;
+        double maxError = 0, squaredError = 0;
+        for (PointCloudFrame frame : this.frames) {
+            ByteBuffer encoded = allocateBuffer(frame.getNumPoints());
+            bytes += encode(frame, encoded);
+            encoded.flip();
+            this.encodedFrames.add(encoded);
+            decode(encoded);
+            encoded.rewind();
+            points += frame.getNumPoints();
+            if (this.rangeImageCodec != null) {
+                overflow += this.rangeImageCodec.getOverflowCount();
+            }
+
+            tree.clear();
+            tree.insert(this.decoded.getPoints(), this.decoded.getNumPoints(), null);
+            FloatBuffer original = frame.getPoints();
+            for (int i = 0; i < frame.getNumPoints() * PointCloudFrame.FLOATS_PER_POINT; i += 4) {
+                tree.nearest(original.get(i), original.get(i + 1), original.get(i + 2), 1, nearest,
+                        distanceSquared);
+                squaredError += distanceSquared[0];
+                maxError = Math.max(maxError, Math.sqrt(distanceSquared[0]));
+            }
+        }
+        this.bytesPerPoint = bytes / (double) points;
+        this.maxErrorMillimeters = maxError * 1000;
+        this.rmsErrorMillimeters = Math.sqrt(squaredError / points) * 1000;
+        this.overflowPercent = overflow * 100.0 / points;
+    }
+
+    private ByteBuffer allocateBuffer(int numPoints) {
+        if (this.frameCodec != null) {
+            return FrameCodec.allocateBuffer(numPoints);
+        }
+        return this.rangeImageCodec.allocateBuffer(numPoints);
+    }
+
+    private int encode(PointCloudFrame frame, ByteBuffer out) {
+        if (this.frameCodec != null) {
+            return this.frameCodec.encode(frame, out);
+        }
+        return this.rangeImageCodec.encode(frame, out);
+    }
+
+    private void decode(ByteBuffer encoded) throws IOException {
+        if (this.frameCodec != null) {
+            this.frameCodec.decode(encoded, this.decoded);
+        } else {
+            this.rangeImageCodec.decode(encoded, this.decoded);
+        }
+    }
+
+    private int nextFrame() {
+        int frame = this.nextFrame;
+        this.nextFrame = frame + 1 == this.frames.size() ? 0 : frame + 1;
+        return frame;
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        if (this.frameCodec != null) {
+            this.frameCodec.release();
+        } else {
+            this.rangeImageCodec.release();
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        this.buffer.clear();
+        return encode(this.frames.get(nextFrame()), this.buffer);
+    }
+
+    @Benchmark
+    public PointCloudFrame decode(Accuracy accuracy) throws IOException {
+        ByteBuffer encoded = this.encodedFrames.get(nextFrame());
+        encoded.rewind();
+        decode(encoded);
+        // JMH resets the counters at the start of every iteration.
+        accuracy.bytesPerPoint = this.bytesPerPoint;
+        accuracy.maxErrorMillimeters = this.maxErrorMillimeters;
+        accuracy.rmsErrorMillimeters = this.rmsErrorMillimeters;
+        accuracy.overflowPercent = this.overflowPercent;
+        return this.decoded;
+    }
+}
@@ -0,0 +1,153 @@
+package cz.zcu.fav.dpoch.point_cloud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.MappedSessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.PlyFileSink;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.TextFileSink;
+import cz.zcu.fav.dpoch.point_cloud.core.io.XyzFileSink;
+
+/**
+ * Cost of persisting one frame with every writer the applications have had. Throughput mode
+ * gives frames per second, sample mode the latency percentiles including p99. Files are written
+ * into a temporary directory that is emptied after every iteration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WriterBenchmark {
+
+    // Number of file names the per-frame legacy writers cycle through.
+    private static final int LEGACY_FILES = 16;
+
+    @Param({"1000", "10000", "40000", "100000"})
+    public int numPoints;
+
+    private PointCloudFrame frame;
+    private File directory;
+    private int legacyCounter = 0;
+    private TextFileSink textFileSink;
+    private XyzFileSink xyzFileSink;
+    private PlyFileSink plyFileSink;
+    private SessionWriter sessionWriter;
+    private SessionWriter encodedSessionWriter;
+    private MappedSessionWriter mappedSessionWriter;
+
+    @Setup(Level.Trial)
+    public void createFrame() {
+        this.frame = BenchmarkFrames.create(this.numPoints);
+    }
+
+    @Setup(Level.Iteration)
+    public void openSinks() throws IOException {
+        this.directory = BenchmarkFrames.createDirectory();
+        this.textFileSink = new TextFileSink(this.directory);
+        this.xyzFileSink = new XyzFileSink(this.directory);
+        this.plyFileSink = new PlyFileSink(this.directory);
+        this.sessionWriter = new SessionWriter(new File(this.directory, "raw.pcs"));
+        this.encodedSessionWriter = new SessionWriter(new File(this.directory, "encoded.pcs"),
+                new FrameCodec());
+        this.mappedSessionWriter = new MappedSessionWriter(new File(this.directory, "mapped.pcs"));
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeSinks() throws IOException {
+        this.textFileSink.close();
+        this.xyzFileSink.close();
+        this.plyFileSink.close();
+        this.sessionWriter.close();
+        this.encodedSessionWriter.close();
+        this.mappedSessionWriter.close();
+        BenchmarkFrames.deleteDirectory(this.directory);
+    }
+
+    private File nextLegacyFile() {
+        this.legacyCounter++;
+        return new File(this.directory, "points" + (this.legacyCounter % LEGACY_FILES));
+    }
+
+    /**
+     * The former {@code writePointCloudTxt}, one float per line through a {@link PrintWriter}.
+     */
+    @Benchmark
+    public void legacyText() throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(nextLegacyFile())));
+        FloatBuffer buffer = this.frame.getPoints();
+        while (buffer.hasRemaining()) {
+            writer.println(buffer.get());
+        }
+        writer.close();
+    }
+
+    /**
+     * The former {@code writePointCloudBin}, big-endian floats through an unbuffered
+     * {@link DataOutputStream}.
+     */
+    @Benchmark
+    public void legacyBinary() throws IOException {
+        DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(nextLegacyFile()));
+        FloatBuffer buffer = this.frame.getPoints();
+        while (buffer.hasRemaining()) {
+            outputStream.writeFloat(buffer.get());
+        }
+        outputStream.close();
+    }
+
+    @Benchmark
+    public void textFileSink() throws IOException {
+        this.textFileSink.write(this.frame);
+    }
+
+    @Benchmark
+    public void xyzFileSink() throws IOException {
+        this.xyzFileSink.write(this.frame);
+    }
+
+    @Benchmark
+    public void plyFileSink() throws IOException {
+        this.plyFileSink.write(this.frame);
+    }
+
+    @Benchmark
+    public void sessionWriter() throws IOException {
+        this.sessionWriter.write(this.frame);
+    }
+
+    @Benchmark
+    public void encodedSessionWriter() throws IOException {
+        this.encodedSessionWriter.write(this.frame);
+    }
+
+    @Benchmark
+    public void mappedSessionWriter() throws IOException {
+        this.mappedSessionWriter.write(this.frame);
+    }
+}
@@ -0,0 +1,197 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Lowers the capture rate of a {@link CapturePipeline} while its writer falls behind, so that a
+ * frame waits for the sink no longer than a target latency. The controller estimates the latency
+ * of a new frame from the queue depth and the average time the sink needs for a frame, i.e. its
+ * drain rate. While the estimate exceeds the target, it steps up a reduction level: first only
+ * every Nth frame is captured, with N up to a maximum, then also only every Mth point of a frame
+ * is written. Once the estimate stays below half of the target, the level steps back down.
+ *
+ * <p>The controller has no clock of its own, its state depends only on the write times and queue
+ * depths it is given, so a sequence of inputs always leads to the same decisions.
+ * {@link #acceptFrame()} is called on the producer thread, the other methods on the writer
+ * thread.</p>
+ */
+public class BackpressureController implements FrameFilter {
+
+    /** Default number of frames written between two changes of the level. */
+    public static final int DEFAULT_SETTLE_FRAMES = 4;
+
+    // Weight of a new write time in the average is 1 / 2^AVERAGE_SHIFT.
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final long targetLatencyNanos;
+    private final int maxFrameStride;
+    private final int maxLevel;
+    private final int settleFrames;
+
+    private volatile int frameStride = 1;
+    private volatile int pointStride = 1;
+    private int level = 0;
+    private long averageWriteNanos = -1;
+    private long predictedLatencyNanos = 0;
+    private int framesSinceChange = 0;
+    private int healthyFrames = 0;
+    // Producer thread only.
+    private int frameCounter = 0;
+
+    /**
+     * Creates a controller that changes the level after {@link #DEFAULT_SETTLE_FRAMES} frames.
+     *
+     * @param targetLatencyNanos Longest time a frame should wait for the sink.
+     * @param maxFrameStride Largest N when keeping every Nth frame, 1 to never skip frames.
+     * @param maxPointStride Largest M when keeping every Mth point, 1 to never decimate frames.
+     */
+    public BackpressureController(long targetLatencyNanos, int maxFrameStride, int maxPointStride) {
+        this(targetLatencyNanos, maxFrameStride, maxPointStride, DEFAULT_SETTLE_FRAMES);
+    }
+
+    /**
+     * @param targetLatencyNanos Longest time a frame should wait for the sink.
+     * @param maxFrameStride Largest N when keeping every Nth frame, 1 to never skip frames.
+     * @param maxPointStride Largest M when keeping every Mth point, 1 to never decimate frames.
+     * @param settleFrames Number of frames written after a change of the level before the effect
+     *                     is judged. The level steps down only after this many frames in a row
+     *                     were below half of the target.
+     */
+    public BackpressureController(long targetLatencyNanos, int maxFrameStride, int maxPointStride,
+                                  int settleFrames) {
+        if (targetLatencyNanos <= 0) {
+            throw new IllegalArgumentException("Target latency must be positive: "
+                    + targetLatencyNanos);
+        }
+        if (maxFrameStride < 1 || maxPointStride < 1 || settleFrames < 1) {
+            throw new IllegalArgumentException("Strides and settle frames must be positive.");
+        }
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxFrameStride = maxFrameStride;
+        this.maxLevel = maxFrameStride - 1 + maxPointStride - 1;
+        this.settleFrames = settleFrames;
+    }
+
+    /**
+     * Decides whether the next frame from the source is captured. Called on the producer thread
+     * for every frame.
+     *
+     * @return {@code true} if the frame should be captured, {@code false} if it is skipped.
+     */
+    public boolean acceptFrame() {
+        int counter = this.frameCounter + 1;
+        if (counter >= this.frameStride) {
+            counter = 0;
+        }
+        this.frameCounter = counter;
+        return counter == 0;
+    }
+
+    /**
+     * Updates the estimate of the latency after the sink has written a frame.
+     *
+     * @param writeNanos Time the sink spent writing the frame.
+     * @param queueDepth Number of frames still waiting for the writer.
+     */
+    public void onFrameWritten(long writeNanos, int queueDepth) {
+        if (this.averageWriteNanos < 0) {
+            this.averageWriteNanos = writeNanos;
+        } else {
+            this.averageWriteNanos += (writeNanos - this.averageWriteNanos) >> AVERAGE_SHIFT;
+        }
+        // A new frame waits for the queued ones and is then written itself.
+        this.predictedLatencyNanos = (queueDepth + 1) * this.averageWriteNanos;
+        this.framesSinceChange++;
+
+        if (this.predictedLatencyNanos > this.targetLatencyNanos) {
+            this.healthyFrames = 0;
+            // Frames queued before the last change do not show its effect yet.
+            if (this.level < this.maxLevel && this.framesSinceChange >= this.settleFrames) {
+                setLevel(this.level + 1);
+            }
+        } else if (this.predictedLatencyNanos <= this.targetLatencyNanos / 2) {
+            this.healthyFrames++;
+            if (this.level > 0 && this.healthyFrames >= this.settleFrames
+                    && this.framesSinceChange >= this.settleFrames) {
+                setLevel(this.level - 1);
+            }
+        } else {
+            this.healthyFrames = 0;
+        }
+    }
+
+    private void setLevel(int level) {
+        this.level = level;
+        this.framesSinceChange = 0;
+        this.healthyFrames = 0;
+        if (level < this.maxFrameStride) {
+            this.frameStride = level + 1;
+            this.pointStride = 1;
+        } else {
+            this.frameStride = this.maxFrameStride;
+            this.pointStride = level - this.maxFrameStride + 2;
+        }
+    }
+
+    /**
+     * Keeps only every Mth point of the frame when points are being decimated.
+     */
+    @Override
+    public void filter(PointCloudFrame frame) {
+        int stride = this.pointStride;
+        if (stride == 1) {
+            return;
+        }
+        FloatBuffer points = frame.buffer();
+        int numPoints = frame.getNumPoints();
+        int kept = 0;
+        for (int i = 0; i < numPoints; i += stride) {
+            if (kept != i) {
+                int in = i * PointCloudFrame.FLOATS_PER_POINT;
+                int out = kept * PointCloudFrame.FLOATS_PER_POINT;
+                points.put(out, points.get(in));
+                points.put(out + 1, points.get(in + 1));
+                points.put(out + 2, points.get(in + 2));
+                points.put(out + 3, points.get(in + 3));
+            }
+            kept++;
+        }
+        frame.setNumPoints(kept);
+    }
+
+    /**
+     * Returns the current reduction level, 0 when every frame and point is captured.
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Returns N when only every Nth frame is captured.
+     */
+    public int getFrameStride() {
+        return this.frameStride;
+    }
+
+    /**
+     * Returns M when only every Mth point of a frame is written.
+     */
+    public int getPointStride() {
+        return this.pointStride;
+    }
+
+    /**
+     * Returns the estimated time a new frame would wait until it is written.
+     */
+    public long getPredictedLatencyNanos() {
+        return this.predictedLatencyNanos;
+    }
+
+    /**
+     * Returns the number of frames the sink writes per second on average, 0 before the first
+     * frame.
+     */
+    public double getDrainRate() {
+        return this.averageWriteNanos > 0 ? 1e9 / this.averageWriteNanos : 0;
+    }
+}
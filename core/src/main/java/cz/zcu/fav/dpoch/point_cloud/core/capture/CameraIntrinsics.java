@@ -0,0 +1,66 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+/**
+ * Pinhole model of the depth camera, the values of the Tango {@code TangoCameraIntrinsics} of
+ * the depth camera without its distortion. A point x, y, z in the sensor frame is seen at column
+ * {@code fx * x / z + cx} and row {@code fy * y / z + cy}, with pixel centres at whole numbers.
+ */
+public final class CameraIntrinsics {
+
+    private final int width;
+    private final int height;
+    private final double fx;
+    private final double fy;
+    private final double cx;
+    private final double cy;
+
+    /**
+     * @param width Image width in pixels.
+     * @param height Image height in pixels.
+     * @param fx Horizontal focal length in pixels.
+     * @param fy Vertical focal length in pixels.
+     * @param cx Column of the principal point.
+     * @param cy Row of the principal point.
+     */
+    public CameraIntrinsics(int width, int height, double fx, double fy, double cx, double cy) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Image size must be positive: " + width + " x " + height);
+        }
+        if (!(fx > 0) || !(fy > 0) || Double.isInfinite(fx) || Double.isInfinite(fy)) {
+            throw new IllegalArgumentException("Focal lengths must be positive: " + fx + ", " + fy);
+        }
+        if (Double.isNaN(cx) || Double.isInfinite(cx) || Double.isNaN(cy) || Double.isInfinite(cy)) {
+            throw new IllegalArgumentException("Principal point must be finite: " + cx + ", " + cy);
+        }
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public double getFx() {
+        return this.fx;
+    }
+
+    public double getFy() {
+        return this.fy;
+    }
+
+    public double getCx() {
+        return this.cx;
+    }
+
+    public double getCy() {
+        return this.cy;
+    }
+}
@@ -0,0 +1,423 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.CaptureMetrics;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Moves frame persistence off the thread that delivers depth data. Incoming points are copied
+ * into pooled direct buffers and handed through a bounded queue to a dedicated writer thread,
+ * which runs an optional {@link FrameFilter} and passes them to a {@link FrameSink}. An optional
+ * {@link CaptureScheduler} decides when to capture at all, an optional {@link MotionGate} skips
+ * frames while the device is held still and an optional {@link BackpressureController} lowers
+ * the capture rate while the writer falls behind.
+ *
+ * <p>{@link #submit(double, FloatBuffer, int)} is expected to be called from a single producer
+ * thread, e.g. the Tango callback thread.</p>
+ */
+public class CapturePipeline {
+
+    private static final String THREAD_NAME = "PointCloudWriter";
+
+    /**
+     * Receives results of the writer thread. Methods are called on the writer thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called after a frame has been written by the sink.
+         *
+         * @param frame Written frame, valid only during this call.
+         * @param writeNanos Time the sink spent writing the frame.
+         */
+        void onFrameWritten(PointCloudFrame frame, long writeNanos);
+
+        /**
+         * Called when the sink failed to write a frame.
+         *
+         * @param frame Frame that was not written, valid only during this call.
+         * @param e Cause of the failure.
+         */
+        void onWriteFailed(PointCloudFrame frame, IOException e);
+    }
+
+    private static final Callback NO_CALLBACK = new Callback() {
+        @Override
+        public void onFrameWritten(PointCloudFrame frame, long writeNanos) {
+        }
+
+        @Override
+        public void onWriteFailed(PointCloudFrame frame, IOException e) {
+        }
+    };
+
+    // Queued after the last frame to tell the writer thread to finish.
+    private final PointCloudFrame endOfStream = new PointCloudFrame(0);
+
+    private final FrameSink sink;
+    private final OverflowPolicy overflowPolicy;
+    private final FramePool pool;
+    private final BlockingQueue<PointCloudFrame> queue;
+    private final Thread writerThread;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong gatedCount = new AtomicLong();
+    private final AtomicLong unposedCount = new AtomicLong();
+
+    private volatile Callback callback = NO_CALLBACK;
+    private volatile FrameFilter filter;
+    private volatile CaptureMetrics metrics;
+    private volatile BackpressureController backpressure;
+    private volatile MotionGate motionGate;
+    private volatile CaptureScheduler scheduler;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pipeline. The writer thread is not running until {@link #start()} is called.
+     *
+     * @param sink Destination of the frames.
+     * @param queueCapacity Maximum number of frames waiting for the writer.
+     * @param overflowPolicy What to do with new frames while the queue is full.
+     * @param pointCapacity Initial capacity of the pooled frames in points.
+     */
+    public CapturePipeline(FrameSink sink, int queueCapacity, OverflowPolicy overflowPolicy,
+                           int pointCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.sink = sink;
+        this.overflowPolicy = overflowPolicy;
+        // One extra frame is held by the writer while the queue is full.
+        this.pool = new FramePool(queueCapacity + 1, pointCapacity);
+        this.queue = new ArrayBlockingQueue<PointCloudFrame>(queueCapacity + 1);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainQueue();
+            }
+        }, THREAD_NAME);
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback != null ? callback : NO_CALLBACK;
+    }
+
+    /**
+     * Sets the stage that processes every frame on the writer thread before it is written.
+     *
+     * @param filter Filter or {@code null} to write frames as they were captured.
+     */
+    public void setFilter(FrameFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the metrics updated by the pipeline.
+     *
+     * @param metrics Metrics or {@code null} to record nothing beyond the built-in counters.
+     */
+    public void setMetrics(CaptureMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the controller that skips frames and decimates points while the writer falls behind.
+     * Decimation runs before the filter.
+     *
+     * @param backpressure Controller or {@code null} to capture every submitted frame.
+     */
+    public void setBackpressure(BackpressureController backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Sets the scheduler that switches capture on and off. Frames it does not want are ignored
+     * before any other stage sees them and are not counted as skipped.
+     *
+     * @param scheduler Scheduler or {@code null} to capture while the pipeline is open.
+     */
+    public void setScheduler(CaptureScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the gate that skips frames captured without enough motion since the last one. It
+     * needs the sensor pose of every frame, frames submitted without one are skipped.
+     *
+     * @param motionGate Gate or {@code null} to capture frames regardless of motion.
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        this.motionGate = motionGate;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        this.writerThread.start();
+    }
+
+    /**
+     * Copies a frame into a pooled buffer and queues it for writing.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param points Buffer with x, y, z, confidence floats starting at its position. It is not
+     *               modified and may be reused by the caller once this method returns.
+     * @param numPoints Number of points in the buffer.
+     * @return {@code true} if the frame was queued, {@code false} if it was dropped or skipped.
+     */
+    public boolean submit(double timestamp, FloatBuffer points, int numPoints) {
+        return submit(timestamp, points, numPoints, null);
+    }
+
+    /**
+     * Transforms a frame into the world frame while copying it into a pooled buffer and queues
+     * it for writing.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param points Buffer with x, y, z, confidence floats starting at its position. It is not
+     *               modified and may be reused by the caller once this method returns.
+     * @param numPoints Number of points in the buffer.
+     * @param sensorPose Pose of the sensor in the world frame or {@code null} to keep the points
+     *                   in the sensor frame.
+     * @return {@code true} if the frame was queued, {@code false} if it was dropped or skipped.
+     */
+    public boolean submit(double timestamp, FloatBuffer points, int numPoints,
+                          RigidTransform sensorPose) {
+        long receivedNanos = System.nanoTime();
+        if (this.closed) {
+            return false;
+        }
+        CaptureScheduler scheduler = this.scheduler;
+        if (scheduler != null && !scheduler.accept(timestamp)) {
+            return false;
+        }
+        MotionGate motionGate = this.motionGate;
+        if (motionGate != null) {
+            SkipReason reason = motionGate.check(timestamp, sensorPose);
+            if (reason != null) {
+                motionGate.skip(reason);
+                this.gatedCount.incrementAndGet();
+                CaptureMetrics metrics = this.metrics;
+                if (metrics != null) {
+                    metrics.onGated(reason);
+                }
+                return false;
+            }
+        }
+        BackpressureController backpressure = this.backpressure;
+        if (backpressure != null && !backpressure.acceptFrame()) {
+            this.throttledCount.incrementAndGet();
+            CaptureMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.onThrottled();
+            }
+            return false;
+        }
+
+        PointCloudFrame frame;
+        try {
+            frame = obtainFrame();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            frame = null;
+        }
+        if (frame == null) {
+            onDropped();
+            return false;
+        }
+
+        if (sensorPose != null) {
+            frame.set(timestamp, points, numPoints, sensorPose);
+        } else {
+            frame.set(timestamp, points, numPoints);
+        }
+        frame.setReceivedNanos(receivedNanos);
+        this.queue.offer(frame);
+        // Only frames actually queued count as captured or become the reference of the gate.
+        if (scheduler != null) {
+            scheduler.onCaptured(timestamp);
+        }
+        if (motionGate != null) {
+            motionGate.commit(timestamp, sensorPose);
+        }
+        if (sensorPose == null) {
+            this.unposedCount.incrementAndGet();
+        }
+        CaptureMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.onSubmitted(this.queue.size());
+            if (sensorPose == null) {
+                metrics.onUnposed();
+            }
+        }
+        return true;
+    }
+
+    private void onDropped() {
+        this.droppedCount.incrementAndGet();
+        CaptureMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.onDropped();
+        }
+    }
+
+    private PointCloudFrame obtainFrame() throws InterruptedException {
+        PointCloudFrame frame = this.pool.poll();
+        if (frame != null) {
+            return frame;
+        }
+
+        switch (this.overflowPolicy) {
+            case DROP_NEWEST:
+                return null;
+            case DROP_OLDEST:
+                frame = this.queue.poll();
+                if (frame != null) {
+                    onDropped();
+                    return frame;
+                }
+                // The writer took the oldest frame meanwhile and will release one shortly.
+                return this.pool.take();
+            case BLOCK:
+            default:
+                return this.pool.take();
+        }
+    }
+
+    private void drainQueue() {
+        while (true) {
+            PointCloudFrame frame;
+            try {
+                frame = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == this.endOfStream) {
+                return;
+            }
+
+            BackpressureController backpressure = this.backpressure;
+            if (backpressure != null) {
+                backpressure.filter(frame);
+            }
+            FrameFilter filter = this.filter;
+            if (filter != null) {
+                filter.filter(frame);
+            }
+
+            // Numbered by the written frames, so skipped, dropped or failed frames leave no gaps.
+            frame.setSequence(this.writtenCount.get());
+            CaptureMetrics metrics = this.metrics;
+            long start = System.nanoTime();
+            try {
+                this.sink.write(frame);
+                long writeNanos = System.nanoTime() - start;
+                this.writtenCount.incrementAndGet();
+                if (metrics != null) {
+                    metrics.onWritten(frame, writeNanos);
+                }
+                if (backpressure != null) {
+                    backpressure.onFrameWritten(writeNanos, this.queue.size());
+                }
+                this.callback.onFrameWritten(frame, writeNanos);
+            } catch (IOException e) {
+                this.failedCount.incrementAndGet();
+                if (metrics != null) {
+                    metrics.onFailed();
+                }
+                this.callback.onWriteFailed(frame, e);
+            } finally {
+                this.pool.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting frames, waits until all queued frames are written and closes the sink.
+     * Must be called after the producer stopped submitting frames.
+     *
+     * @throws IOException If the sink could not be closed.
+     */
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        boolean interrupted = false;
+        if (this.writerThread.isAlive()) {
+            boolean queued = false;
+            while (!queued) {
+                try {
+                    this.queue.put(this.endOfStream);
+                    queued = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (this.writerThread.isAlive()) {
+                try {
+                    this.writerThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        this.sink.close();
+    }
+
+    /**
+     * Returns the number of frames waiting for the writer.
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    public long getWrittenCount() {
+        return this.writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * Returns the number of frames skipped by the {@link BackpressureController}.
+     */
+    public long getThrottledCount() {
+        return this.throttledCount.get();
+    }
+
+    /**
+     * Returns the number of frames skipped by the {@link MotionGate}.
+     */
+    public long getGatedCount() {
+        return this.gatedCount.get();
+    }
+
+    /**
+     * Returns the number of queued frames that had no pose and are kept in the sensor frame.
+     */
+    public long getUnposedCount() {
+        return this.unposedCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+}
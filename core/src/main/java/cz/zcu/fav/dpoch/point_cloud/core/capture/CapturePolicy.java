@@ -0,0 +1,239 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides which frames a {@link CaptureScheduler} captures. Decisions depend only on the frame
+ * timestamps and on which frames were captured, never on the wall clock, so a replayed or
+ * synthetic scan is always captured the same way.
+ *
+ * <p>A policy is created on any thread, handed to {@link CaptureScheduler#start(CapturePolicy)}
+ * and from then on used only by the producer thread. It can be started once. The captured count
+ * and whether the policy is finished may be read on any thread.</p>
+ */
+public abstract class CapturePolicy {
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile long capturedCount = 0;
+    private volatile boolean finished = false;
+
+    /**
+     * Decides whether the frame is wanted. Called on the producer thread for every frame while
+     * the policy is active.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @return {@code true} to capture the frame.
+     */
+    protected abstract boolean accept(double timestamp);
+
+    /**
+     * Called on the producer thread after an accepted frame has been captured. Frames may be
+     * accepted and then skipped by later stages, e.g. the {@link BackpressureController}.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     */
+    protected void onCaptured(double timestamp) {
+        this.capturedCount++;
+    }
+
+    /**
+     * Marks the policy as one that will not accept any more frames.
+     */
+    protected void finish() {
+        this.finished = true;
+    }
+
+    boolean markStarted() {
+        return this.started.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns the number of frames captured under this policy.
+     */
+    public long getCapturedCount() {
+        return this.capturedCount;
+    }
+
+    /**
+     * Returns whether the policy will not capture any more frames.
+     */
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * Captures every frame.
+     */
+    public static CapturePolicy continuous() {
+        return new CapturePolicy() {
+            @Override
+            protected boolean accept(double timestamp) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Captures the next frames until a number of them has been captured.
+     *
+     * @param frameCount Number of frames to capture.
+     */
+    public static CapturePolicy frames(final long frameCount) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("Frame count must be positive: " + frameCount);
+        }
+        return new CapturePolicy() {
+            @Override
+            protected boolean accept(double timestamp) {
+                return getCapturedCount() < frameCount;
+            }
+
+            @Override
+            protected void onCaptured(double timestamp) {
+                super.onCaptured(timestamp);
+                if (getCapturedCount() >= frameCount) {
+                    finish();
+                }
+            }
+        };
+    }
+
+    /**
+     * Captures a frame once at least an interval has passed since the last captured one.
+     *
+     * @param seconds Shortest time between two captured frames in seconds.
+     */
+    public static CapturePolicy interval(final double seconds) {
+        if (!(seconds > 0)) {
+            throw new IllegalArgumentException("Interval must be positive: " + seconds);
+        }
+        return new CapturePolicy() {
+            private double last = Double.NEGATIVE_INFINITY;
+
+            @Override
+            protected boolean accept(double timestamp) {
+                return timestamp - this.last >= seconds;
+            }
+
+            @Override
+            protected void onCaptured(double timestamp) {
+                super.onCaptured(timestamp);
+                this.last = timestamp;
+            }
+        };
+    }
+
+    /**
+     * Captures the first frame and then every kth frame offered, whether or not the ones in
+     * between were captured.
+     *
+     * @param k Number of frames offered per captured frame, 1 to capture every frame.
+     */
+    public static CapturePolicy everyNth(final int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Stride must be positive: " + k);
+        }
+        return new CapturePolicy() {
+            private int counter = 0;
+
+            @Override
+            protected boolean accept(double timestamp) {
+                boolean accepted = this.counter == 0;
+                if (++this.counter == k) {
+                    this.counter = 0;
+                }
+                return accepted;
+            }
+        };
+    }
+
+    /**
+     * Captures bursts of consecutive frames, one burst per period. The first burst starts with
+     * the first frame, the following ones with the first frame of their period.
+     *
+     * @param framesPerBurst Number of frames captured in a burst.
+     * @param periodSeconds Time from the start of one period to the next in seconds.
+     */
+    public static CapturePolicy burst(final int framesPerBurst, final double periodSeconds) {
+        if (framesPerBurst < 1 || !(periodSeconds > 0)) {
+            throw new IllegalArgumentException("Burst size and period must be positive: "
+                    + framesPerBurst + ", " + periodSeconds);
+        }
+        return new CapturePolicy() {
+            private double periodStart = Double.NaN;
+            private int inBurst = 0;
+
+            @Override
+            protected boolean accept(double timestamp) {
+                if (Double.isNaN(this.periodStart)) {
+                    this.periodStart = timestamp;
+                } else if (timestamp - this.periodStart >= periodSeconds) {
+                    // Periods stay on the grid of the first one, also after a gap in the frames.
+                    this.periodStart += Math.floor((timestamp - this.periodStart) / periodSeconds)
+                            * periodSeconds;
+                    this.inBurst = 0;
+                }
+                return this.inBurst < framesPerBurst;
+            }
+
+            @Override
+            protected void onCaptured(double timestamp) {
+                super.onCaptured(timestamp);
+                this.inBurst++;
+            }
+        };
+    }
+
+    /**
+     * Captures every frame within a time window.
+     *
+     * @see #window(double, double, CapturePolicy)
+     */
+    public static CapturePolicy window(double delaySeconds, double durationSeconds) {
+        return window(delaySeconds, durationSeconds, continuous());
+    }
+
+    /**
+     * Applies another policy within a time window that opens a delay after the first frame
+     * offered to this policy and closes after a duration.
+     *
+     * @param delaySeconds Time from the first frame until the window opens in seconds.
+     * @param durationSeconds Time the window stays open in seconds.
+     * @param policy Policy deciding which frames of the window are captured, not started yet.
+     */
+    public static CapturePolicy window(final double delaySeconds, final double durationSeconds,
+                                       final CapturePolicy policy) {
+        if (delaySeconds < 0 || !(durationSeconds > 0)) {
+            throw new IllegalArgumentException("Delay must not be negative and duration must be "
+                    + "positive: " + delaySeconds + ", " + durationSeconds);
+        }
+        if (!policy.markStarted()) {
+            throw new IllegalStateException("Policy has already been started.");
+        }
+        return new CapturePolicy() {
+            private double first = Double.NaN;
+
+            @Override
+            protected boolean accept(double timestamp) {
+                if (Double.isNaN(this.first)) {
+                    this.first = timestamp;
+                }
+                double elapsed = timestamp - this.first;
+                if (elapsed >= delaySeconds + durationSeconds) {
+                    finish();
+                    return false;
+                }
+                return elapsed >= delaySeconds && policy.accept(timestamp);
+            }
+
+            @Override
+            protected void onCaptured(double timestamp) {
+                super.onCaptured(timestamp);
+                policy.onCaptured(timestamp);
+                if (policy.isFinished()) {
+                    finish();
+                }
+            }
+        };
+    }
+}
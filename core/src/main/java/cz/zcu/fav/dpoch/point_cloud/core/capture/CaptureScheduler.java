@@ -0,0 +1,100 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Switches capture on and off without locks. Any thread, e.g. a button handler, starts a
+ * {@link CapturePolicy} or stops capturing, while the producer thread asks the scheduler about
+ * every frame. The only shared state is the current policy, so the producer decides with a single
+ * atomic read and the rest of the decision runs on state that only it touches.
+ *
+ * <p>{@link #accept(double)} and {@link #onCaptured(double)} are called on the producer thread,
+ * usually by a {@link CapturePipeline}.</p>
+ */
+public class CaptureScheduler {
+
+    // Policy of a stopped scheduler, shared because it has no state.
+    private static final CapturePolicy STOPPED = new CapturePolicy() {
+        @Override
+        protected boolean accept(double timestamp) {
+            return false;
+        }
+    };
+
+    private final AtomicReference<CapturePolicy> policy =
+            new AtomicReference<CapturePolicy>(STOPPED);
+    // Producer thread only, the policy that accepted the last frame.
+    private CapturePolicy acceptedBy;
+
+    /**
+     * Starts capturing with a policy, replacing the current one.
+     *
+     * @param policy Policy that has not been started yet.
+     * @throws IllegalStateException If the policy has already been started.
+     */
+    public void start(CapturePolicy policy) {
+        if (!policy.markStarted()) {
+            throw new IllegalStateException("Policy has already been started.");
+        }
+        this.policy.set(policy);
+    }
+
+    /**
+     * Stops capturing until the next {@link #start(CapturePolicy)}.
+     */
+    public void stop() {
+        this.policy.set(STOPPED);
+    }
+
+    /**
+     * Decides whether the next frame is captured.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @return {@code true} if the current policy wants the frame.
+     */
+    public boolean accept(double timestamp) {
+        CapturePolicy policy = this.policy.get();
+        if (policy.accept(timestamp)) {
+            this.acceptedBy = policy;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that the last accepted frame has been captured, counted by the policy that accepted
+     * it even if another one has been started meanwhile.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     */
+    public void onCaptured(double timestamp) {
+        CapturePolicy policy = this.acceptedBy;
+        if (policy != null) {
+            policy.onCaptured(timestamp);
+            this.acceptedBy = null;
+        }
+    }
+
+    /**
+     * Returns the current policy, {@code null} when stopped.
+     */
+    public CapturePolicy getPolicy() {
+        CapturePolicy policy = this.policy.get();
+        return policy != STOPPED ? policy : null;
+    }
+
+    /**
+     * Returns whether a policy is running and may still capture frames.
+     */
+    public boolean isCapturing() {
+        CapturePolicy policy = this.policy.get();
+        return policy != STOPPED && !policy.isFinished();
+    }
+
+    /**
+     * Returns the number of frames captured under the current policy, 0 when stopped.
+     */
+    public long getCapturedCount() {
+        return this.policy.get().getCapturedCount();
+    }
+}
@@ -0,0 +1,89 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Drops points with a low confidence or a depth outside of a range and compacts the remaining
+ * points in place. The depth is measured along the optical axis of the sensor, also for frames
+ * that have already been transformed into the world frame.
+ */
+public class ConfidenceFilter implements FrameFilter {
+
+    private final float minConfidence;
+    private final float minDepth;
+    private final float maxDepth;
+    private final RigidTransform sensorPose = new RigidTransform();
+    private long keptCount = 0;
+    private long removedCount = 0;
+
+    /**
+     * @param minConfidence Smallest confidence of a kept point.
+     * @param minDepth Smallest depth of a kept point in meters.
+     * @param maxDepth Largest depth of a kept point in meters.
+     */
+    public ConfidenceFilter(float minConfidence, float minDepth, float maxDepth) {
+        if (minDepth > maxDepth) {
+            throw new IllegalArgumentException("Invalid depth range: " + minDepth + " - " + maxDepth);
+        }
+        this.minConfidence = minConfidence;
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public void filter(PointCloudFrame frame) {
+        // Depth is z in the sensor frame, i.e. the projection onto the sensor's z axis.
+        float ax = 0, ay = 0, az = 1, offset = 0;
+        if (frame.isWorldFrame()) {
+            double[] m = this.sensorPose.set(frame.getTranslation(), frame.getRotation()).getMatrix();
+            double[] t = this.sensorPose.getTranslation();
+            ax = (float) m[2];
+            ay = (float) m[5];
+            az = (float) m[8];
+            offset = (float) (m[2] * t[0] + m[5] * t[1] + m[8] * t[2]);
+        }
+
+        FloatBuffer points = frame.buffer();
+        int numPoints = frame.getNumPoints();
+        int kept = 0;
+        for (int i = 0; i < numPoints; i++) {
+            int in = i * PointCloudFrame.FLOATS_PER_POINT;
+            float x = points.get(in);
+            float y = points.get(in + 1);
+            float z = points.get(in + 2);
+            float confidence = points.get(in + 3);
+            float depth = ax * x + ay * y + az * z - offset;
+            // Written so that NaN values are dropped as well.
+            if (!(confidence >= this.minConfidence && depth >= this.minDepth && depth <= this.maxDepth)) {
+                continue;
+            }
+            if (kept != i) {
+                int out = kept * PointCloudFrame.FLOATS_PER_POINT;
+                points.put(out, x);
+                points.put(out + 1, y);
+                points.put(out + 2, z);
+                points.put(out + 3, confidence);
+            }
+            kept++;
+        }
+        frame.setNumPoints(kept);
+        this.keptCount += kept;
+        this.removedCount += numPoints - kept;
+    }
+
+    /**
+     * Returns the number of points kept by the filter so far.
+     */
+    public long getKeptCount() {
+        return this.keptCount;
+    }
+
+    /**
+     * Returns the number of points removed by the filter so far.
+     */
+    public long getRemovedCount() {
+        return this.removedCount;
+    }
+}
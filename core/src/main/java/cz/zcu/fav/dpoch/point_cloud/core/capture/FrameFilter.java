@@ -0,0 +1,15 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+/**
+ * Processing stage that modifies a frame in place before it reaches the {@link FrameSink}.
+ * Filters run on the writer thread of a {@link CapturePipeline} and must not allocate per frame.
+ */
+public interface FrameFilter {
+
+    /**
+     * Processes a frame in place, e.g. by removing points and compacting the rest.
+     *
+     * @param frame Frame to process.
+     */
+    void filter(PointCloudFrame frame);
+}
@@ -0,0 +1,59 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed set of preallocated frames shared by the capture and writer threads.
+ */
+public class FramePool {
+
+    private final BlockingQueue<PointCloudFrame> free;
+    private final int size;
+
+    /**
+     * Creates a pool and allocates all its frames up front.
+     *
+     * @param size Number of frames in the pool.
+     * @param pointCapacity Initial capacity of every frame in points.
+     */
+    public FramePool(int size, int pointCapacity) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        this.size = size;
+        this.free = new ArrayBlockingQueue<PointCloudFrame>(size);
+        for (int i = 0; i < size; i++) {
+            this.free.add(new PointCloudFrame(pointCapacity));
+        }
+    }
+
+    /**
+     * Returns a free frame or {@code null} when all frames are in use.
+     */
+    public PointCloudFrame poll() {
+        return this.free.poll();
+    }
+
+    /**
+     * Returns a free frame, waiting until one is released.
+     */
+    public PointCloudFrame take() throws InterruptedException {
+        return this.free.take();
+    }
+
+    /**
+     * Gives a frame back to the pool.
+     */
+    public void release(PointCloudFrame frame) {
+        this.free.offer(frame);
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getFreeCount() {
+        return this.free.size();
+    }
+}
@@ -0,0 +1,20 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of captured frames. A sink is only used from the writer thread of a
+ * {@link CapturePipeline}, so implementations do not need to be thread safe.
+ */
+public interface FrameSink extends Closeable {
+
+    /**
+     * Persists one frame. The frame is returned to the pool after this call, so the sink must not
+     * keep a reference to it or its buffers.
+     *
+     * @param frame Frame to write.
+     * @throws IOException If the frame could not be written.
+     */
+    void write(PointCloudFrame frame) throws IOException;
+}
@@ -0,0 +1,174 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Admits a frame only when the device has moved since the last admitted frame, so that a device
+ * held still does not write the same surfaces over and over. A frame is admitted when the sensor
+ * moved at least a translation threshold or turned at least a rotation threshold since the last
+ * admitted frame, and at least a minimum keyframe interval has passed. The first frame with a
+ * pose is always admitted.
+ *
+ * <p>The motion is measured between the sensor poses at the frame timestamps, which a
+ * {@link cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker} resolves from the device poses, so
+ * the decisions depend only on the frames and poses and not on when they arrive.</p>
+ *
+ * <p>{@link #check(double, RigidTransform)} only decides. A frame it admits becomes the reference
+ * for later frames once it is passed to {@link #commit(double, RigidTransform)}, so a caller that
+ * may still throw the frame away, e.g. because its queue is full, commits only frames it keeps.
+ * Checking and committing happen on the producer thread, the counters may be read on any
+ * thread.</p>
+ */
+public class MotionGate {
+
+    /** Default translation threshold, 5 cm. */
+    public static final double DEFAULT_MIN_TRANSLATION = 0.05;
+
+    /** Default rotation threshold, 5 degrees. */
+    public static final double DEFAULT_MIN_ROTATION = Math.toRadians(5);
+
+    /** Default minimum keyframe interval, 0.1 s. */
+    public static final double DEFAULT_MIN_INTERVAL = 0.1;
+
+    private static final SkipReason[] REASONS = SkipReason.values();
+
+    private final double minTranslationSquared;
+    private final double minRotationCos;
+    private final double minInterval;
+    private final RigidTransform lastPose = new RigidTransform();
+    private final AtomicLongArray skipped = new AtomicLongArray(REASONS.length);
+    private double lastTimestamp;
+    private boolean admittedAny = false;
+    private volatile long admittedCount = 0;
+    private volatile SkipReason lastSkipReason;
+
+    /**
+     * Creates a gate with {@link #DEFAULT_MIN_TRANSLATION}, {@link #DEFAULT_MIN_ROTATION} and
+     * {@link #DEFAULT_MIN_INTERVAL}.
+     */
+    public MotionGate() {
+        this(DEFAULT_MIN_TRANSLATION, DEFAULT_MIN_ROTATION, DEFAULT_MIN_INTERVAL);
+    }
+
+    /**
+     * @param minTranslation Distance the sensor has to move to admit a frame, in meters.
+     * @param minRotation Angle the sensor has to turn to admit a frame, in radians.
+     * @param minInterval Shortest time between two admitted frames in seconds, 0 for no limit.
+     */
+    public MotionGate(double minTranslation, double minRotation, double minInterval) {
+        if (minTranslation < 0 || minRotation < 0 || minRotation > Math.PI || minInterval < 0) {
+            throw new IllegalArgumentException("Thresholds must not be negative and the rotation "
+                    + "at most pi: " + minTranslation + ", " + minRotation + ", " + minInterval);
+        }
+        this.minTranslationSquared = minTranslation * minTranslation;
+        // Unit quaternions q1, q2 are an angle a apart when |q1 . q2| = cos(a / 2).
+        this.minRotationCos = Math.cos(minRotation / 2);
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Decides whether a frame is captured and commits or records it as skipped, for callers that
+     * keep every admitted frame.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param sensorPose Pose of the sensor at the timestamp or {@code null} when none is known.
+     * @return {@code null} if the frame is admitted, otherwise why it is skipped.
+     */
+    public SkipReason accept(double timestamp, RigidTransform sensorPose) {
+        SkipReason reason = check(timestamp, sensorPose);
+        if (reason == null) {
+            commit(timestamp, sensorPose);
+        } else {
+            skip(reason);
+        }
+        return reason;
+    }
+
+    /**
+     * Decides whether a frame would be admitted, without changing the state of the gate.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param sensorPose Pose of the sensor at the timestamp or {@code null} when none is known.
+     * @return {@code null} if the frame is admitted, otherwise why it is skipped.
+     */
+    public SkipReason check(double timestamp, RigidTransform sensorPose) {
+        if (sensorPose == null) {
+            return SkipReason.NO_POSE;
+        }
+        if (!this.admittedAny) {
+            return null;
+        }
+        if (timestamp - this.lastTimestamp < this.minInterval) {
+            return SkipReason.TOO_SOON;
+        }
+        double[] t0 = this.lastPose.getTranslation();
+        double[] t1 = sensorPose.getTranslation();
+        double dx = t1[0] - t0[0];
+        double dy = t1[1] - t0[1];
+        double dz = t1[2] - t0[2];
+        if (dx * dx + dy * dy + dz * dz >= this.minTranslationSquared) {
+            return null;
+        }
+        double[] q0 = this.lastPose.getRotation();
+        double[] q1 = sensorPose.getRotation();
+        double dot = Math.abs(q0[0] * q1[0] + q0[1] * q1[1] + q0[2] * q1[2] + q0[3] * q1[3]);
+        return dot <= this.minRotationCos ? null : SkipReason.STATIONARY;
+    }
+
+    /**
+     * Makes an admitted frame the one later frames are measured against.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param sensorPose Pose of the sensor at the timestamp.
+     */
+    public void commit(double timestamp, RigidTransform sensorPose) {
+        this.lastPose.set(sensorPose);
+        this.lastTimestamp = timestamp;
+        this.admittedAny = true;
+        this.admittedCount++;
+    }
+
+    /**
+     * Records a frame skipped by the gate.
+     *
+     * @param reason Reason returned by {@link #check(double, RigidTransform)}.
+     */
+    public void skip(SkipReason reason) {
+        this.skipped.incrementAndGet(reason.ordinal());
+        this.lastSkipReason = reason;
+    }
+
+    /**
+     * Returns the number of committed frames.
+     */
+    public long getAdmittedCount() {
+        return this.admittedCount;
+    }
+
+    /**
+     * Returns the number of frames skipped for a reason.
+     */
+    public long getSkippedCount(SkipReason reason) {
+        return this.skipped.get(reason.ordinal());
+    }
+
+    /**
+     * Returns the number of frames skipped for any reason.
+     */
+    public long getSkippedCount() {
+        long count = 0;
+        for (SkipReason reason : REASONS) {
+            count += this.skipped.get(reason.ordinal());
+        }
+        return count;
+    }
+
+    /**
+     * Returns why the last skipped frame was skipped, {@code null} before the first one.
+     */
+    public SkipReason getLastSkipReason() {
+        return this.lastSkipReason;
+    }
+}
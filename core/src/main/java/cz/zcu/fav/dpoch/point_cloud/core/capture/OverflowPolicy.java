@@ -0,0 +1,16 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+/**
+ * What a {@link CapturePipeline} does with a new frame when the writer queue is full.
+ */
+public enum OverflowPolicy {
+
+    /** Wait on the callback thread until the writer frees a slot. */
+    BLOCK,
+
+    /** Discard the oldest queued frame and reuse its buffer for the new one. */
+    DROP_OLDEST,
+
+    /** Discard the new frame and keep the queue as it is. */
+    DROP_NEWEST
+}
@@ -0,0 +1,239 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Reusable copy of one depth frame. Points are stored as x, y, z, confidence floats in a direct
+ * little-endian buffer, the same layout Tango uses, so sinks can hand the buffer to a channel
+ * without converting it.
+ */
+public final class PointCloudFrame {
+
+    /** Number of floats that describe one point (x, y, z, confidence). */
+    public static final int FLOATS_PER_POINT = 4;
+
+    /** Number of bytes that describe one point. */
+    public static final int BYTES_PER_POINT = FLOATS_PER_POINT * 4;
+
+    private ByteBuffer bytes;
+    private FloatBuffer points;
+    private int numPoints;
+    private double timestamp;
+    private long sequence;
+    private long receivedNanos;
+    private boolean hasPose = false;
+    private boolean worldFrame = false;
+    private final double[] translation = new double[3];
+    private final double[] rotation = {0, 0, 0, 1};
+
+    /**
+     * Creates a frame that can hold the given number of points without reallocating.
+     *
+     * @param pointCapacity Initial capacity in points.
+     */
+    public PointCloudFrame(int pointCapacity) {
+        allocate(pointCapacity);
+    }
+
+    /**
+     * Copies points into this frame. The source buffer position is left untouched.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param source Buffer with x, y, z, confidence floats starting at its position.
+     * @param numPoints Number of points to copy.
+     */
+    public void set(double timestamp, FloatBuffer source, int numPoints) {
+        ensureCapacity(numPoints);
+        // Narrow the source for the bulk copy and restore it, which avoids allocating a view.
+        int position = source.position();
+        int limit = source.limit();
+        source.limit(position + numPoints * FLOATS_PER_POINT);
+        this.points.clear();
+        this.points.put(source);
+        this.points.clear();
+        source.limit(limit);
+        source.position(position);
+        this.numPoints = numPoints;
+        this.timestamp = timestamp;
+        clearPose();
+    }
+
+    /**
+     * Transforms points from the sensor frame into the world frame while copying them into this
+     * frame, and stores the sensor pose with them. The source buffer position is left untouched.
+     *
+     * @param timestamp Timestamp of the frame in seconds.
+     * @param source Buffer with x, y, z, confidence floats starting at its position.
+     * @param numPoints Number of points to copy.
+     * @param sensorPose Pose of the sensor in the world frame.
+     */
+    public void set(double timestamp, FloatBuffer source, int numPoints, RigidTransform sensorPose) {
+        ensureCapacity(numPoints);
+        sensorPose.transformPoints(source, this.points, numPoints);
+        this.numPoints = numPoints;
+        this.timestamp = timestamp;
+        setPose(sensorPose.getTranslation(), sensorPose.getRotation());
+        this.worldFrame = true;
+    }
+
+    /**
+     * Makes sure the frame can hold the given number of points. Existing data are discarded when
+     * the buffer has to grow.
+     */
+    public void ensureCapacity(int pointCapacity) {
+        if (pointCapacity > getPointCapacity()) {
+            allocate(pointCapacity);
+        }
+    }
+
+    private void allocate(int pointCapacity) {
+        this.bytes = ByteBuffer.allocateDirect(pointCapacity * BYTES_PER_POINT)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.points = this.bytes.asFloatBuffer();
+        this.numPoints = 0;
+    }
+
+    /**
+     * Returns the backing float buffer of the frame for absolute access by in-place processing
+     * stages. Its position and limit must not be changed.
+     */
+    FloatBuffer buffer() {
+        return this.points;
+    }
+
+    /**
+     * Returns a float view over the stored points, positioned at the first point and limited to
+     * the last one.
+     */
+    public FloatBuffer getPoints() {
+        FloatBuffer view = this.points.duplicate();
+        view.position(0).limit(this.numPoints * FLOATS_PER_POINT);
+        return view;
+    }
+
+    /**
+     * Returns a little-endian byte view over the stored points, positioned at the first point and
+     * limited to the last one. Writes through the view change the frame.
+     */
+    public ByteBuffer getBytes() {
+        ByteBuffer view = this.bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(0).limit(this.numPoints * BYTES_PER_POINT);
+        return view;
+    }
+
+    public int getNumPoints() {
+        return this.numPoints;
+    }
+
+    /**
+     * Changes the number of valid points, e.g. after the buffer returned by {@link #getBytes()}
+     * has been filled by a reader.
+     *
+     * @param numPoints New number of points, at most the capacity of the frame.
+     */
+    public void setNumPoints(int numPoints) {
+        if (numPoints < 0 || numPoints > getPointCapacity()) {
+            throw new IllegalArgumentException("Invalid number of points: " + numPoints);
+        }
+        this.numPoints = numPoints;
+    }
+
+    public int getPointCapacity() {
+        return this.bytes.capacity() / BYTES_PER_POINT;
+    }
+
+    public double getTimestamp() {
+        return this.timestamp;
+    }
+
+    public void setTimestamp(double timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the index of the frame within the session, assigned by the pipeline right before
+     * the frame is written.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the frame was received from its source,
+     * assigned by the pipeline.
+     */
+    public long getReceivedNanos() {
+        return this.receivedNanos;
+    }
+
+    public void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Returns whether the frame carries the pose of the device it was captured from.
+     */
+    public boolean hasPose() {
+        return this.hasPose;
+    }
+
+    /**
+     * Sets the pose of the frame in the start of service coordinate frame.
+     *
+     * @param translation Translation x, y, z in meters.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    public void setPose(double[] translation, double[] rotation) {
+        System.arraycopy(translation, 0, this.translation, 0, 3);
+        System.arraycopy(rotation, 0, this.rotation, 0, 4);
+        this.hasPose = true;
+    }
+
+    /**
+     * Resets the pose to identity and marks the frame as having no pose, with points in the
+     * sensor frame.
+     */
+    public void clearPose() {
+        this.translation[0] = this.translation[1] = this.translation[2] = 0;
+        this.rotation[0] = this.rotation[1] = this.rotation[2] = 0;
+        this.rotation[3] = 1;
+        this.hasPose = false;
+        this.worldFrame = false;
+    }
+
+    /**
+     * Returns whether the points have already been transformed by the pose into the world frame.
+     * Otherwise they are in the frame of the sensor.
+     */
+    public boolean isWorldFrame() {
+        return this.worldFrame;
+    }
+
+    public void setWorldFrame(boolean worldFrame) {
+        this.worldFrame = worldFrame;
+    }
+
+    /**
+     * Returns the translation x, y, z of the pose. The array is owned by the frame and must not
+     * be modified.
+     */
+    public double[] getTranslation() {
+        return this.translation;
+    }
+
+    /**
+     * Returns the rotation quaternion x, y, z, w of the pose. The array is owned by the frame and
+     * must not be modified.
+     */
+    public double[] getRotation() {
+        return this.rotation;
+    }
+}
@@ -0,0 +1,16 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+/**
+ * Why a {@link MotionGate} did not admit a frame.
+ */
+public enum SkipReason {
+
+    /** No pose was known for the frame, so its motion could not be judged. */
+    NO_POSE,
+
+    /** The frame came sooner after the last admitted frame than the minimum keyframe interval. */
+    TOO_SOON,
+
+    /** The device neither moved nor turned enough since the last admitted frame. */
+    STATIONARY
+}
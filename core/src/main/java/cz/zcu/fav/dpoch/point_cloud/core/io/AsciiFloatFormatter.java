@@ -0,0 +1,115 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+/**
+ * Formats floats as ASCII with a fixed number of decimals straight into a byte array, without
+ * creating strings. Values are rounded half up, e.g. {@code -1.25} with one decimal is written as
+ * {@code -1.3}. Magnitudes of 10^18 and more, far beyond any coordinate, are written in
+ * scientific notation. {@link AsciiFloatParser} reads everything written here.
+ */
+public final class AsciiFloatFormatter {
+
+    /** Largest supported number of decimals. */
+    public static final int MAX_DECIMALS = 9;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    // Scaled magnitudes up to this value are rounded to a long.
+    private static final double MAX_SCALED = 1e18;
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    private AsciiFloatFormatter() {
+    }
+
+    /**
+     * Returns the maximum number of bytes {@link #format(float, int, byte[], int)} writes.
+     *
+     * @param decimals Number of decimals.
+     */
+    public static int maxLength(int decimals) {
+        // Sign, 19 digits of the integer part, decimal point and decimals.
+        return 1 + 19 + 1 + decimals;
+    }
+
+    /**
+     * Writes a float with a fixed number of decimals.
+     *
+     * @param value Value to write.
+     * @param decimals Number of decimals, from 0 to {@link #MAX_DECIMALS}.
+     * @param bytes Array receiving the characters.
+     * @param offset Index of the first character, with at least {@link #maxLength(int)} bytes
+     *               of space after it.
+     * @return Index after the last written character.
+     */
+    public static int format(float value, int decimals, byte[] bytes, int offset) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+        }
+        if (value != value) {
+            return put(NAN, bytes, offset);
+        }
+        if (value < 0) {
+            bytes[offset++] = '-';
+        }
+        if (Float.isInfinite(value)) {
+            return put(INFINITY, bytes, offset);
+        }
+        double magnitude = Math.abs((double) value);
+        double scaled = magnitude * POWERS_OF_TEN[decimals];
+        if (scaled >= MAX_SCALED) {
+            return formatScientific(magnitude, decimals, bytes, offset);
+        }
+        long units = (long) (scaled + 0.5);
+        if (units == 0 && value < 0) {
+            // No minus sign in front of a rounded zero.
+            offset--;
+        }
+        return putFixed(units, decimals, bytes, offset);
+    }
+
+    private static int formatScientific(double magnitude, int decimals, byte[] bytes, int offset) {
+        int exponent = (int) Math.floor(Math.log10(magnitude));
+        long units = Math.round(magnitude / Math.pow(10, exponent) * POWERS_OF_TEN[decimals]);
+        if (units >= 10 * POWERS_OF_TEN[decimals]) {
+            units /= 10;
+            exponent++;
+        }
+        offset = putFixed(units, decimals, bytes, offset);
+        bytes[offset++] = 'E';
+        return putDigits(exponent, bytes, offset);
+    }
+
+    private static int putFixed(long units, int decimals, byte[] bytes, int offset) {
+        long power = POWERS_OF_TEN[decimals];
+        offset = putDigits(units / power, bytes, offset);
+        if (decimals > 0) {
+            bytes[offset++] = '.';
+            long fraction = units % power;
+            // Digits of the fraction from the last one, including leading zeros.
+            for (int i = offset + decimals - 1; i >= offset; i--) {
+                bytes[i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            offset += decimals;
+        }
+        return offset;
+    }
+
+    private static int putDigits(long value, byte[] bytes, int offset) {
+        int length = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        for (int i = offset + length - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + length;
+    }
+
+    private static int put(byte[] word, byte[] bytes, int offset) {
+        System.arraycopy(word, 0, bytes, offset, word.length);
+        return offset + word.length;
+    }
+}
@@ -0,0 +1,162 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses ASCII floats separated by whitespace directly from bytes, without creating strings.
+ * Understands everything {@link Float#toString(float)} prints, i.e. plain and scientific
+ * notation, {@code NaN} and {@code Infinity}. Values with up to 15 significant digits and
+ * decimal exponents within 22 are converted exactly before rounding to {@code float}, which
+ * covers the output of {@code Float.toString}.
+ */
+public final class AsciiFloatParser {
+
+    // Mantissas are exact in a double up to this value.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // Digits beyond this mantissa only shift the exponent.
+    private static final long MAX_MANTISSA = 100000000000000000L;
+    private static final int MAX_EXPONENT = 1000;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private AsciiFloatParser() {
+    }
+
+    /**
+     * Parses floats from the bytes between the position and the limit of a buffer. Parsing stops
+     * at the limit or when the array is full, and the position is advanced past the parsed floats
+     * and the whitespace after them, so that a call with more space continues where this one
+     * stopped.
+     *
+     * @param bytes Buffer with the text.
+     * @param values Array receiving the floats.
+     * @param offset Index of the first value to store.
+     * @return Number of parsed floats.
+     * @throws IOException If the text contains something else than floats and whitespace.
+     */
+    public static int parse(ByteBuffer bytes, float[] values, int offset) throws IOException {
+        int limit = bytes.limit();
+        int i = skipWhitespace(bytes, bytes.position(), limit);
+        int count = offset;
+        while (i < limit && count < values.length) {
+            int start = i;
+            boolean negative = false;
+            byte c = bytes.get(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+            float value;
+            if (i < limit && bytes.get(i) == 'N') {
+                i = expect(bytes, i, limit, "NaN");
+                value = Float.NaN;
+            } else if (i < limit && bytes.get(i) == 'I') {
+                i = expect(bytes, i, limit, "Infinity");
+                value = Float.POSITIVE_INFINITY;
+            } else {
+                long mantissa = 0;
+                int exponent = 0;
+                boolean digits = false;
+                while (i < limit && (c = bytes.get(i)) >= '0' && c <= '9') {
+                    if (mantissa < MAX_MANTISSA) {
+                        mantissa = mantissa * 10 + (c - '0');
+                    } else {
+                        exponent++;
+                    }
+                    digits = true;
+                    i++;
+                }
+                if (i < limit && bytes.get(i) == '.') {
+                    i++;
+                    while (i < limit && (c = bytes.get(i)) >= '0' && c <= '9') {
+                        if (mantissa < MAX_MANTISSA) {
+                            mantissa = mantissa * 10 + (c - '0');
+                            exponent--;
+                        }
+                        digits = true;
+                        i++;
+                    }
+                }
+                if (!digits) {
+                    throw malformed(start);
+                }
+                if (i < limit && ((c = bytes.get(i)) == 'E' || c == 'e')) {
+                    i++;
+                    boolean negativeExponent = false;
+                    if (i < limit && ((c = bytes.get(i)) == '-' || c == '+')) {
+                        negativeExponent = c == '-';
+                        i++;
+                    }
+                    int written = 0;
+                    boolean exponentDigits = false;
+                    while (i < limit && (c = bytes.get(i)) >= '0' && c <= '9') {
+                        if (written < MAX_EXPONENT) {
+                            written = written * 10 + (c - '0');
+                        }
+                        exponentDigits = true;
+                        i++;
+                    }
+                    if (!exponentDigits) {
+                        throw malformed(start);
+                    }
+                    exponent += negativeExponent ? -written : written;
+                }
+                value = toFloat(mantissa, exponent);
+            }
+            if (i < limit && !isWhitespace(bytes.get(i))) {
+                throw malformed(start);
+            }
+            values[count++] = negative ? -value : value;
+            i = skipWhitespace(bytes, i, limit);
+        }
+        bytes.position(i);
+        return count - offset;
+    }
+
+    private static float toFloat(long mantissa, int exponent) {
+        if (mantissa == 0) {
+            return 0;
+        }
+        double value = mantissa;
+        if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact, so the result is correctly rounded.
+            return (float) (exponent >= 0 ? value * POWERS_OF_TEN[exponent]
+                    : value / POWERS_OF_TEN[-exponent]);
+        }
+        if (exponent < -MAX_EXPONENT) {
+            return 0;
+        }
+        if (exponent > MAX_EXPONENT) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) (exponent >= 0 ? value * Math.pow(10, exponent)
+                : value / Math.pow(10, -exponent));
+    }
+
+    private static int expect(ByteBuffer bytes, int i, int limit, String word) throws IOException {
+        for (int j = 0; j < word.length(); j++, i++) {
+            if (i >= limit || bytes.get(i) != word.charAt(j)) {
+                throw malformed(i);
+            }
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(ByteBuffer bytes, int i, int limit) {
+        while (i < limit && isWhitespace(bytes.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static IOException malformed(int index) {
+        return new IOException("Malformed float at byte " + index + ".");
+    }
+}
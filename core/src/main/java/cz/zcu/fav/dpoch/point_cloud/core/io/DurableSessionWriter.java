@@ -0,0 +1,255 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Session writer whose frames survive a crash or power loss with group commit. Instead of forcing
+ * every frame to the storage device, frames are committed in batches: once a number of frames
+ * has been written or the oldest uncommitted frame has waited for a time window, the session is
+ * forced with a single {@link FileChannel#force(boolean)} and a commit entry is appended to a
+ * journal next to it and forced as well.
+ *
+ * <pre>
+ * journal entry  long length of the committed data, int committed frame count,
+ *                int CRC32 of the previous 12 bytes
+ * </pre>
+ *
+ * <p>A session whose writer was not closed is repaired by {@link SessionRecovery}, which keeps
+ * the frames of the last commit. A frame is lost only if it was written after the last commit;
+ * batches bound how many frames that can be, windows how old they can be. A timer thread commits
+ * the frames of a window that has passed without further frames being written, so an idle writer
+ * does not keep its last batch until it is closed. The journal is deleted when the writer is
+ * closed.</p>
+ *
+ * <p>Writing, committing and closing are synchronized with the timer thread.</p>
+ */
+public class DurableSessionWriter extends SessionWriter {
+
+    /** Extension appended to the session file name to get the journal file name. */
+    public static final String JOURNAL_EXTENSION = ".journal";
+
+    /** Size of a journal entry in bytes. */
+    public static final int JOURNAL_ENTRY_SIZE = 16;
+
+    /** Default number of frames committed together. */
+    public static final int DEFAULT_BATCH_FRAMES = 8;
+
+    /** Default time window after which frames are committed, half a second. */
+    public static final long DEFAULT_WINDOW_NANOS = 500000000L;
+
+    private static final String TIMER_THREAD_NAME = "DurableSessionWriter";
+
+    private final File journalFile;
+    private final RandomAccessFile journal;
+    private final FileChannel journalChannel;
+    private final int batchFrames;
+    private final long windowNanos;
+    private final ByteBuffer entry = ByteBuffer.allocate(JOURNAL_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private final Timer timer;
+    private IOException timerFailure;
+    private int uncommittedFrames = 0;
+    private long batchStartNanos;
+    private int commitCount = 0;
+    private long forceNanos = 0;
+
+    /**
+     * Creates a new session file with raw points, {@link #DEFAULT_BATCH_FRAMES} and
+     * {@link #DEFAULT_WINDOW_NANOS}, replacing any existing one.
+     *
+     * @param file Session file.
+     * @throws IOException If the session or journal could not be created.
+     */
+    public DurableSessionWriter(File file) throws IOException {
+        this(file, null, DEFAULT_BATCH_FRAMES, DEFAULT_WINDOW_NANOS);
+    }
+
+    /**
+     * Creates a new session file, replacing any existing one.
+     *
+     * @param file Session file.
+     * @param codec Codec used to encode the points, or {@code null} to store them raw.
+     * @param batchFrames Number of frames committed together, 1 commits every frame.
+     * @param windowNanos Time after which a frame is committed even if the batch is not full, in
+     *                    nanoseconds. 0 commits every frame, {@link Long#MAX_VALUE} only full
+     *                    batches.
+     * @throws IOException If the session or journal could not be created.
+     */
+    public DurableSessionWriter(File file, FrameCodec codec, int batchFrames, long windowNanos)
+            throws IOException {
+        super(file, checkArguments(codec, batchFrames, windowNanos));
+        this.batchFrames = batchFrames;
+        this.windowNanos = windowNanos;
+        this.journalFile = journalFile(file);
+        try {
+            this.journal = new RandomAccessFile(this.journalFile, "rw");
+        } catch (IOException e) {
+            super.close();
+            throw e;
+        }
+        this.journalChannel = this.journal.getChannel();
+        this.journalChannel.truncate(0);
+        // The empty session is committed, so recovery of a session with a journal always has an
+        // entry to start from.
+        commit();
+        if (windowNanos > 0 && windowNanos < Long.MAX_VALUE) {
+            // Checking twice per window keeps frames at most one and a half windows uncommitted.
+            long periodMillis = Math.max(1, windowNanos / 2000000);
+            this.timer = new Timer(TIMER_THREAD_NAME, true);
+            this.timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    commitWindow();
+                }
+            }, periodMillis, periodMillis);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Checks the arguments before the session file is created.
+     */
+    private static FrameCodec checkArguments(FrameCodec codec, int batchFrames, long windowNanos) {
+        if (batchFrames < 1) {
+            throw new IllegalArgumentException("A batch needs at least one frame: " + batchFrames);
+        }
+        if (windowNanos < 0) {
+            throw new IllegalArgumentException("Time window must not be negative: " + windowNanos);
+        }
+        return codec;
+    }
+
+    /**
+     * Returns the journal file of a session file.
+     */
+    public static File journalFile(File sessionFile) {
+        return new File(sessionFile.getPath() + JOURNAL_EXTENSION);
+    }
+
+    @Override
+    public synchronized void write(PointCloudFrame frame) throws IOException {
+        checkTimerFailure();
+        super.write(frame);
+        if (this.uncommittedFrames++ == 0) {
+            this.batchStartNanos = System.nanoTime();
+        }
+        if (this.uncommittedFrames >= this.batchFrames
+                || System.nanoTime() - this.batchStartNanos >= this.windowNanos) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits the frames of a batch whose time window has passed, called by the timer thread.
+     */
+    private synchronized void commitWindow() {
+        if (this.uncommittedFrames == 0 || this.timerFailure != null
+                || !this.journalChannel.isOpen()
+                || System.nanoTime() - this.batchStartNanos < this.windowNanos) {
+            return;
+        }
+        try {
+            commit();
+        } catch (IOException e) {
+            // Reported to the writing thread by the next write or close.
+            this.timerFailure = e;
+        }
+    }
+
+    private void checkTimerFailure() throws IOException {
+        if (this.timerFailure != null) {
+            throw new IOException("Committing a time window failed.", this.timerFailure);
+        }
+    }
+
+    /**
+     * Forces all frames written so far to the storage device and records them in the journal.
+     *
+     * @throws IOException If the session or the journal could not be written.
+     */
+    public synchronized void commit() throws IOException {
+        long start = System.nanoTime();
+        force();
+        this.entry.clear();
+        this.entry.putLong(getLength());
+        this.entry.putInt(getFrameCount());
+        this.crc.reset();
+        this.crc.update(this.entry.array(), 0, JOURNAL_ENTRY_SIZE - 4);
+        this.entry.putInt((int) this.crc.getValue());
+        this.entry.flip();
+        while (this.entry.hasRemaining()) {
+            this.journalChannel.write(this.entry);
+        }
+        this.journalChannel.force(false);
+        this.forceNanos += System.nanoTime() - start;
+        this.uncommittedFrames = 0;
+        this.commitCount++;
+    }
+
+    /**
+     * Commits the remaining frames, writes the index and deletes the journal.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.journalChannel.isOpen()) {
+            return;
+        }
+        if (this.timer != null) {
+            this.timer.cancel();
+        }
+        try {
+            checkTimerFailure();
+            if (this.uncommittedFrames > 0) {
+                commit();
+            }
+        } finally {
+            try {
+                super.close();
+            } finally {
+                this.journal.close();
+            }
+        }
+        // The index is written by close, force it so recovery finds the session closed.
+        RandomAccessFile session = new RandomAccessFile(getFile(), "rw");
+        try {
+            session.getChannel().force(false);
+        } finally {
+            session.close();
+        }
+        if (!this.journalFile.delete()) {
+            throw new IOException("Cannot delete journal " + this.journalFile.getPath() + ".");
+        }
+    }
+
+    /**
+     * Returns the number of frames written since the last commit.
+     */
+    public synchronized int getUncommittedFrames() {
+        return this.uncommittedFrames;
+    }
+
+    /**
+     * Returns the number of commits so far, including the one of the empty session.
+     */
+    public synchronized int getCommitCount() {
+        return this.commitCount;
+    }
+
+    /**
+     * Returns the time spent committing so far in nanoseconds.
+     */
+    public synchronized long getForceNanos() {
+        return this.forceNanos;
+    }
+}
@@ -0,0 +1,289 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Compact lossy encoding of the points of a frame. Coordinates are quantized to 16-bit fixed
+ * point values relative to the centre of the frame's bounding box, one millimetre per unit by
+ * default, and the confidence to an unsigned byte. Quantized values are optionally delta coded
+ * in sensor order, split into byte planes and compressed with {@link Deflater} at its fastest
+ * level. A point takes 7 bytes before compression instead of 16.
+ *
+ * <pre>
+ * int point count, int flags, float[3] origin, float step, int payload length, payload
+ * </pre>
+ *
+ * <p>The step grows beyond the requested resolution only when a frame is too large to be covered
+ * by 16-bit values. Non-finite coordinates are stored as the origin. A codec instance reuses its
+ * scratch memory and is not thread safe.</p>
+ */
+public class FrameCodec {
+
+    /** Default quantization step in meters. */
+    public static final float DEFAULT_RESOLUTION = 0.001f;
+
+    /** Size of the encoded header in bytes. */
+    public static final int HEADER_SIZE = 28;
+
+    private static final int FLAG_DELTA = 1;
+    private static final int FLAG_COMPRESSED = 2;
+    private static final int MAX_QUANTIZED = Short.MAX_VALUE;
+    private static final int PLANE_BYTES_PER_POINT = 7;
+
+    private final float resolution;
+    private final boolean deltaCoding;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private byte[] planes = new byte[0];
+    private byte[] compressed = new byte[0];
+
+    /**
+     * Creates a codec with the default resolution, delta coding and compression.
+     */
+    public FrameCodec() {
+        this(DEFAULT_RESOLUTION, true, true);
+    }
+
+    /**
+     * @param resolution Quantization step in meters.
+     * @param deltaCoding Whether to store differences of consecutive points.
+     * @param compression Whether to compress the quantized planes.
+     */
+    public FrameCodec(float resolution, boolean deltaCoding, boolean compression) {
+        if (!(resolution > 0)) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        this.resolution = resolution;
+        this.deltaCoding = deltaCoding;
+        this.deflater = compression ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * Returns the largest number of bytes an encoded frame with the given number of points takes.
+     */
+    public static int maxEncodedLength(int numPoints) {
+        int raw = numPoints * PLANE_BYTES_PER_POINT;
+        // Worst case expansion of deflate with stored blocks.
+        return HEADER_SIZE + raw + raw / 16000 * 5 + 64;
+    }
+
+    /**
+     * Encodes the points of a frame.
+     *
+     * @param frame Frame to encode.
+     * @param out Little-endian buffer the encoded frame is put into, with at least
+     *            {@link #maxEncodedLength(int)} bytes remaining.
+     * @return Number of bytes written.
+     */
+    public int encode(PointCloudFrame frame, ByteBuffer out) {
+        int numPoints = frame.getNumPoints();
+        FloatBuffer points = frame.getPoints();
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < numPoints * 4; i += 4) {
+            float x = points.get(i), y = points.get(i + 1), z = points.get(i + 2);
+            if (isFinite(x)) {
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+            }
+            if (isFinite(y)) {
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+            if (isFinite(z)) {
+                minZ = Math.min(minZ, z);
+                maxZ = Math.max(maxZ, z);
+            }
+        }
+        float originX = center(minX, maxX), originY = center(minY, maxY), originZ = center(minZ, maxZ);
+        float halfExtent = Math.max(extent(minX, maxX), Math.max(extent(minY, maxY), extent(minZ, maxZ))) / 2;
+        float step = Math.max(this.resolution, halfExtent / (MAX_QUANTIZED - 1));
+
+        int rawLength = numPoints * PLANE_BYTES_PER_POINT;
+        if (this.planes.length < rawLength) {
+            this.planes = new byte[rawLength];
+        }
+        float inverseStep = 1 / step;
+        int previousX = 0, previousY = 0, previousZ = 0;
+        for (int i = 0; i < numPoints; i++) {
+            int x = quantize(points.get(i * 4), originX, inverseStep);
+            int y = quantize(points.get(i * 4 + 1), originY, inverseStep);
+            int z = quantize(points.get(i * 4 + 2), originZ, inverseStep);
+            int confidence = Math.round(Math.max(0, Math.min(1, points.get(i * 4 + 3))) * 255);
+            if (this.deltaCoding) {
+                int dx = x - previousX, dy = y - previousY, dz = z - previousZ;
+                previousX = x;
+                previousY = y;
+                previousZ = z;
+                x = dx;
+                y = dy;
+                z = dz;
+            }
+            putPlanes(x, 0, numPoints, i);
+            putPlanes(y, 2, numPoints, i);
+            putPlanes(z, 4, numPoints, i);
+            this.planes[6 * numPoints + i] = (byte) confidence;
+        }
+
+        int start = out.position();
+        out.putInt(numPoints);
+        out.putInt((this.deltaCoding ? FLAG_DELTA : 0) | (this.deflater != null ? FLAG_COMPRESSED : 0));
+        out.putFloat(originX);
+        out.putFloat(originY);
+        out.putFloat(originZ);
+        out.putFloat(step);
+        if (this.deflater != null) {
+            int capacity = maxEncodedLength(numPoints);
+            if (this.compressed.length < capacity) {
+                this.compressed = new byte[capacity];
+            }
+            this.deflater.reset();
+            this.deflater.setInput(this.planes, 0, rawLength);
+            this.deflater.finish();
+            int length = 0;
+            while (!this.deflater.finished()) {
+                length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+            }
+            out.putInt(length);
+            out.put(this.compressed, 0, length);
+        } else {
+            out.putInt(rawLength);
+            out.put(this.planes, 0, rawLength);
+        }
+        return out.position() - start;
+    }
+
+    // Byte planes: low bytes of all values of a coordinate followed by their high bytes.
+    private void putPlanes(int value, int plane, int numPoints, int index) {
+        this.planes[plane * numPoints + index] = (byte) value;
+        this.planes[(plane + 1) * numPoints + index] = (byte) (value >> 8);
+    }
+
+    private int getPlanes(int plane, int numPoints, int index) {
+        return (this.planes[plane * numPoints + index] & 0xff)
+                | (this.planes[(plane + 1) * numPoints + index] << 8);
+    }
+
+    private static float center(float min, float max) {
+        return min <= max ? (min + max) / 2 : 0;
+    }
+
+    private static float extent(float min, float max) {
+        return min <= max ? max - min : 0;
+    }
+
+    private static int quantize(float value, float origin, float inverseStep) {
+        if (!isFinite(value)) {
+            return 0;
+        }
+        int quantized = Math.round((value - origin) * inverseStep);
+        return Math.max(-MAX_QUANTIZED, Math.min(MAX_QUANTIZED, quantized));
+    }
+
+    private static boolean isFinite(float value) {
+        return Math.abs(value) <= Float.MAX_VALUE;
+    }
+
+    /**
+     * Decodes a frame encoded by {@link #encode(PointCloudFrame, ByteBuffer)}. Only the points
+     * and their count are changed.
+     *
+     * @param in Little-endian buffer positioned at the encoded frame, positioned after it on
+     *           return.
+     * @param frame Frame to fill, resized if needed.
+     * @throws IOException If the data are corrupted.
+     */
+    public void decode(ByteBuffer in, PointCloudFrame frame) throws IOException {
+        int numPoints = in.getInt();
+        int flags = in.getInt();
+        float originX = in.getFloat();
+        float originY = in.getFloat();
+        float originZ = in.getFloat();
+        float step = in.getFloat();
+        int payloadLength = in.getInt();
+        if (numPoints < 0 || payloadLength < 0 || payloadLength > in.remaining()) {
+            throw new IOException("Corrupted encoded frame.");
+        }
+
+        int rawLength = numPoints * PLANE_BYTES_PER_POINT;
+        if (this.planes.length < rawLength) {
+            this.planes = new byte[rawLength];
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            if (this.compressed.length < payloadLength) {
+                this.compressed = new byte[payloadLength];
+            }
+            in.get(this.compressed, 0, payloadLength);
+            this.inflater.reset();
+            this.inflater.setInput(this.compressed, 0, payloadLength);
+            try {
+                int length = 0;
+                while (length < rawLength) {
+                    int inflated = this.inflater.inflate(this.planes, length, rawLength - length);
+                    if (inflated == 0 && (this.inflater.finished() || this.inflater.needsInput())) {
+                        throw new IOException("Corrupted encoded frame.");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted encoded frame.", e);
+            }
+        } else {
+            if (payloadLength != rawLength) {
+                throw new IOException("Corrupted encoded frame.");
+            }
+            in.get(this.planes, 0, rawLength);
+        }
+
+        frame.ensureCapacity(numPoints);
+        frame.setNumPoints(numPoints);
+        FloatBuffer points = frame.getPoints();
+        boolean delta = (flags & FLAG_DELTA) != 0;
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < numPoints; i++) {
+            int qx = (short) getPlanes(0, numPoints, i);
+            int qy = (short) getPlanes(2, numPoints, i);
+            int qz = (short) getPlanes(4, numPoints, i);
+            if (delta) {
+                x = (short) (x + qx);
+                y = (short) (y + qy);
+                z = (short) (z + qz);
+            } else {
+                x = qx;
+                y = qy;
+                z = qz;
+            }
+            points.put(originX + x * step);
+            points.put(originY + y * step);
+            points.put(originZ + z * step);
+            points.put((this.planes[6 * numPoints + i] & 0xff) / 255f);
+        }
+    }
+
+    /**
+     * Releases the native memory of the compressor. The codec must not be used afterwards.
+     */
+    public void release() {
+        if (this.deflater != null) {
+            this.deflater.end();
+        }
+        this.inflater.end();
+    }
+
+    /**
+     * Returns a little-endian buffer large enough for an encoded frame with the given number of
+     * points.
+     */
+    public static ByteBuffer allocateBuffer(int numPoints) {
+        return ByteBuffer.allocate(maxEncodedLength(numPoints)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
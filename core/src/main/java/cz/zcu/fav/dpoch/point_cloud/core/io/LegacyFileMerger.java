@@ -0,0 +1,159 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Merges legacy {@code pointsN} files into a single sink, typically a {@link SessionWriter}.
+ * Files are read by {@link LegacyFileReader}s on a pool of worker threads while the calling
+ * thread writes the frames in the order of the files. At most two frames per worker are in
+ * flight, and their buffers are reused for later files.
+ */
+public class LegacyFileMerger {
+
+    private static final String THREAD_NAME = "LegacyMerger-";
+
+    private final int threads;
+    private final double frameInterval;
+    private final ThreadLocal<LegacyFileReader> reader = new ThreadLocal<LegacyFileReader>() {
+        @Override
+        protected LegacyFileReader initialValue() {
+            return new LegacyFileReader();
+        }
+    };
+    private int fileCount = 0;
+    private long pointCount = 0;
+    private long inputBytes = 0;
+    private long elapsedNanos = 0;
+
+    /**
+     * @param threads Number of threads reading files.
+     * @param frameInterval Interval between the timestamps given to consecutive frames in
+     *                      seconds.
+     */
+    public LegacyFileMerger(int threads, double frameInterval) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        if (!(frameInterval > 0)) {
+            throw new IllegalArgumentException("Frame interval must be positive: " + frameInterval);
+        }
+        this.threads = threads;
+        this.frameInterval = frameInterval;
+    }
+
+    /**
+     * Reads files and writes them as consecutive frames into a sink, which is not closed.
+     *
+     * @param files Files to merge in order, e.g. from
+     *              {@code LegacyFileReplaySource.listFiles(File)}.
+     * @param sink Sink receiving one frame per file.
+     * @throws IOException If a file could not be read or a frame not written.
+     * @throws InterruptedException If the thread is interrupted while waiting for a file.
+     */
+    public void merge(List<File> files, FrameSink sink) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME + this.counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ArrayDeque<Future<PointCloudFrame>> pending = new ArrayDeque<Future<PointCloudFrame>>();
+        ArrayDeque<PointCloudFrame> free = new ArrayDeque<PointCloudFrame>();
+        int window = this.threads * 2;
+        try {
+            int next = 0;
+            int written = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                while (next < files.size() && pending.size() < window) {
+                    PointCloudFrame frame = free.isEmpty() ? new PointCloudFrame(0) : free.poll();
+                    pending.add(executor.submit(readTask(files.get(next), next, frame)));
+                    next++;
+                }
+                PointCloudFrame frame = get(pending.poll());
+                sink.write(frame);
+                this.inputBytes += files.get(written++).length();
+                this.fileCount++;
+                this.pointCount += frame.getNumPoints();
+                free.add(frame);
+            }
+        } finally {
+            executor.shutdownNow();
+            this.elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private Callable<PointCloudFrame> readTask(final File file, final int index,
+                                               final PointCloudFrame frame) {
+        return new Callable<PointCloudFrame>() {
+            @Override
+            public PointCloudFrame call() throws IOException {
+                LegacyFileMerger.this.reader.get().read(file, frame);
+                frame.setTimestamp(index * LegacyFileMerger.this.frameInterval);
+                frame.setSequence(index);
+                return frame;
+            }
+        };
+    }
+
+    private PointCloudFrame get(Future<PointCloudFrame> future)
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Reading failed.", cause);
+        }
+    }
+
+    /**
+     * Returns the number of files merged so far.
+     */
+    public int getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * Returns the number of points merged so far.
+     */
+    public long getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * Returns the size of the files merged so far in bytes.
+     */
+    public long getInputBytes() {
+        return this.inputBytes;
+    }
+
+    /**
+     * Returns the time spent merging so far in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+}
@@ -0,0 +1,88 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Reads the per-frame {@code pointsN} files written by earlier versions of the applications,
+ * either as text with one float per line or as big-endian binary floats. Text with other
+ * whitespace between the floats, such as the files of {@link XyzFileSink}, is read as well.
+ * Files are memory mapped, binary floats are copied straight from the mapping and text is parsed
+ * by {@link AsciiFloatParser}, so reading does not allocate beyond a growing array for the parsed
+ * values. A reader is not thread safe, parallel readers need one instance each.
+ */
+public class LegacyFileReader {
+
+    // Characters of floats printed by Java and whitespace, binary floats virtually never start
+    // with these only.
+    private static final String TEXT_CHARACTERS = "0123456789+-.EeNaInfity \t\r\n";
+    private static final int DETECTION_LENGTH = 32;
+
+    private float[] values = new float[0];
+
+    /**
+     * Reads the points of a file into a frame without timestamp and pose.
+     *
+     * @param file File to read.
+     * @param frame Frame receiving the points.
+     * @throws IOException If the file cannot be read or is malformed text.
+     */
+    public void read(File file, PointCloudFrame frame) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File " + file.getPath() + " is too large.");
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (isText(bytes)) {
+                int count = readText(file, bytes);
+                frame.set(0, FloatBuffer.wrap(this.values), count / PointCloudFrame.FLOATS_PER_POINT);
+            } else {
+                FloatBuffer floats = bytes.order(ByteOrder.BIG_ENDIAN).asFloatBuffer();
+                frame.set(0, floats, floats.remaining() / PointCloudFrame.FLOATS_PER_POINT);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static boolean isText(ByteBuffer bytes) {
+        int length = Math.min(bytes.remaining(), DETECTION_LENGTH);
+        for (int i = 0; i < length; i++) {
+            if (TEXT_CHARACTERS.indexOf(bytes.get(bytes.position() + i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readText(File file, MappedByteBuffer bytes) throws IOException {
+        if (this.values.length == 0) {
+            // Lines of Float.toString are at least four bytes long with the line separator.
+            this.values = new float[Math.max(1024, bytes.remaining() / 8)];
+        }
+        int count = 0;
+        try {
+            while (true) {
+                count += AsciiFloatParser.parse(bytes, this.values, count);
+                if (!bytes.hasRemaining()) {
+                    return count;
+                }
+                this.values = Arrays.copyOf(this.values, this.values.length * 2);
+            }
+        } catch (IOException e) {
+            throw new IOException("File " + file.getPath() + " is not a point cloud.", e);
+        }
+    }
+}
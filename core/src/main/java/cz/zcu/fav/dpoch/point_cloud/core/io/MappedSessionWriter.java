@@ -0,0 +1,168 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Writes a session file described by {@link SessionFormat} through a memory mapping instead of
+ * write calls. The file is grown in large chunks, each mapped once, and frames are copied straight
+ * into the mapping, so writing a frame involves no system call except at chunk boundaries. The
+ * file is truncated to the written data and index when the sink is closed.
+ *
+ * <p>A session left unclosed ends with zeroed preallocated space and no index, which
+ * {@link SessionReader} recovers by scanning the frames.</p>
+ */
+public class MappedSessionWriter implements FrameSink {
+
+    /** Default size of a preallocated chunk in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final int chunkSize;
+    private MappedByteBuffer mapping;
+    // File offset of the first byte of the mapping.
+    private long mappingOffset;
+    private long[] offsets = new long[INITIAL_INDEX_CAPACITY];
+    private int frameCount = 0;
+    private long position = 0;
+    private int remapCount = 0;
+
+    /**
+     * Creates a new session file with the default chunk size, replacing any existing one.
+     *
+     * @param file Session file.
+     * @throws IOException If the file could not be created or mapped.
+     */
+    public MappedSessionWriter(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new session file, replacing any existing one.
+     *
+     * @param file Session file.
+     * @param chunkSize Number of bytes the file grows by and the size of a mapping.
+     * @throws IOException If the file could not be created or mapped.
+     */
+    public MappedSessionWriter(File file, int chunkSize) throws IOException {
+        if (chunkSize < SessionFormat.FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("Chunk size is too small: " + chunkSize);
+        }
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = this.randomAccessFile.getChannel();
+        try {
+            this.channel.truncate(0);
+            ensureMapped(SessionFormat.FILE_HEADER_SIZE);
+        } catch (IOException e) {
+            this.randomAccessFile.close();
+            throw e;
+        }
+        SessionFormat.putFileHeader(this.mapping);
+        this.position = SessionFormat.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Makes sure the mapping covers the next {@code length} bytes after the current position.
+     * Otherwise the file is grown and a new mapping starting at the position is created.
+     */
+    private void ensureMapped(long length) throws IOException {
+        if (this.mapping != null
+                && this.position + length <= this.mappingOffset + this.mapping.capacity()) {
+            return;
+        }
+        long size = Math.max(this.chunkSize, length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Frame is too large to be mapped.");
+        }
+        if (this.randomAccessFile.length() < this.position + size) {
+            this.randomAccessFile.setLength(this.position + size);
+        }
+        // The previous mapping is released by the garbage collector.
+        this.mapping = this.channel.map(FileChannel.MapMode.READ_WRITE, this.position, size);
+        this.mapping.order(ByteOrder.LITTLE_ENDIAN);
+        this.mappingOffset = this.position;
+        this.remapCount++;
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        if (this.mapping == null) {
+            throw new IOException("Session has been closed.");
+        }
+        int length = SessionFormat.recordLength(frame.getNumPoints()) + 4;
+        ensureMapped(length);
+        this.mapping.position((int) (this.position - this.mappingOffset));
+        SessionFormat.putFrameHeader(this.mapping, frame);
+        this.mapping.put(frame.getBytes());
+
+        if (this.frameCount == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        this.offsets[this.frameCount++] = this.position;
+        this.position += length;
+    }
+
+    /**
+     * Writes the frame index and truncates the file to its real length.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.mapping == null) {
+            return;
+        }
+        try {
+            long indexLength = this.frameCount * 8L + SessionFormat.TRAILER_SIZE;
+            ensureMapped(indexLength);
+            this.mapping.position((int) (this.position - this.mappingOffset));
+            for (int i = 0; i < this.frameCount; i++) {
+                this.mapping.putLong(this.offsets[i]);
+            }
+            this.mapping.putLong(this.position);
+            this.mapping.putInt(this.frameCount);
+            this.mapping.putInt(SessionFormat.INDEX_MAGIC);
+            this.channel.truncate(this.position + indexLength);
+        } finally {
+            this.mapping = null;
+            this.randomAccessFile.close();
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the number of frames written so far.
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the size of the written data in bytes, without the index.
+     */
+    public long getLength() {
+        return this.position;
+    }
+
+    /**
+     * Returns the number of mappings created so far.
+     */
+    public int getRemapCount() {
+        return this.remapCount;
+    }
+}
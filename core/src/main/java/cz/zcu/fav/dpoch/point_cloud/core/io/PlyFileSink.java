@@ -0,0 +1,157 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Writes every frame into its own binary little-endian PLY file named {@code pointsN.ply}. The
+ * points are stored as x, y, z, confidence floats, so the frame buffer is written as it is with a
+ * single gathering channel write together with the header.
+ */
+public class PlyFileSink implements FrameSink {
+
+    /** Extension of the written files. */
+    public static final String FILE_EXTENSION = ".ply";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    // Points with normals are written in chunks of this many points.
+    private static final int CHUNK_POINTS = 16384;
+
+    private final File directory;
+    private int fileCounter = 0;
+    private File lastFile;
+
+    /**
+     * @param directory Directory the files are created in.
+     */
+    public PlyFileSink(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the PLY header describing the given number of x, y, z, confidence points.
+     *
+     * @param numPoints Number of points in the file.
+     * @param timestamp Timestamp stored as a comment.
+     */
+    public static String header(int numPoints, double timestamp) {
+        return header(numPoints, timestamp, false);
+    }
+
+    /**
+     * Returns the PLY header describing the given number of x, y, z, confidence points,
+     * optionally followed by nx, ny, nz normals.
+     *
+     * @param numPoints Number of points in the file.
+     * @param timestamp Timestamp stored as a comment.
+     * @param normals Whether every point has a normal.
+     */
+    public static String header(int numPoints, double timestamp, boolean normals) {
+        return "ply\n"
+                + "format binary_little_endian 1.0\n"
+                + "comment timestamp " + timestamp + "\n"
+                + "element vertex " + numPoints + "\n"
+                + "property float x\n"
+                + "property float y\n"
+                + "property float z\n"
+                + "property float confidence\n"
+                + (normals ? "property float nx\nproperty float ny\nproperty float nz\n" : "")
+                + "end_header\n";
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        this.fileCounter++;
+        File file = new File(this.directory, TextFileSink.FILE_PREFIX + this.fileCounter + FILE_EXTENSION);
+        writeFile(file, frame);
+        this.lastFile = file;
+    }
+
+    /**
+     * Writes one frame into a PLY file, replacing any existing one.
+     *
+     * @param file File to write.
+     * @param frame Frame to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeFile(File file, PointCloudFrame frame) throws IOException {
+        ByteBuffer[] buffers = {
+                ByteBuffer.wrap(header(frame.getNumPoints(), frame.getTimestamp()).getBytes(ASCII)),
+                frame.getBytes()
+        };
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Writes one frame with a normal for every point into a PLY file, replacing any existing one.
+     *
+     * @param file File to write.
+     * @param frame Frame to write.
+     * @param normals The nx, ny, nz of every point of the frame, e.g. from
+     *                {@link cz.zcu.fav.dpoch.point_cloud.core.processing.NormalEstimator}.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeFile(File file, PointCloudFrame frame, float[] normals)
+            throws IOException {
+        int numPoints = frame.getNumPoints();
+        if (normals.length < numPoints * 3) {
+            throw new IllegalArgumentException("Missing normals of " + numPoints + " points.");
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.min(numPoints, CHUNK_POINTS) * 28)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer chunkFloats = chunk.asFloatBuffer();
+        FloatBuffer points = frame.getPoints();
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            ByteBuffer header = ByteBuffer.wrap(
+                    header(numPoints, frame.getTimestamp(), true).getBytes(ASCII));
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            for (int start = 0; start < numPoints; start += CHUNK_POINTS) {
+                int end = Math.min(numPoints, start + CHUNK_POINTS);
+                chunkFloats.clear();
+                for (int i = start; i < end; i++) {
+                    points.limit(i * 4 + 4).position(i * 4);
+                    chunkFloats.put(points);
+                    chunkFloats.put(normals, i * 3, 3);
+                }
+                chunk.clear().limit(chunkFloats.position() * 4);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns the file written by the last successful {@link #write(PointCloudFrame)} call.
+     */
+    public File getLastFile() {
+        return this.lastFile;
+    }
+
+    @Override
+    public void close() {
+    }
+}
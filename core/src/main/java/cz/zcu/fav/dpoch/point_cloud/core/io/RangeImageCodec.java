@@ -0,0 +1,401 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CameraIntrinsics;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Encodes a frame as the depth image it was measured as. Every point is projected through the
+ * {@link CameraIntrinsics} of the depth camera into a pixel, which stores its depth as an
+ * unsigned 16-bit value, one millimetre per unit by default, and its confidence as an unsigned
+ * byte. Decoding puts every point back on the ray through the centre of its pixel, so the error
+ * stays within half a depth step along the ray plus the allowed distance from the ray across it.
+ * The depth plane, split into low and high bytes, and the confidence plane are optionally
+ * compressed with {@link Deflater} at its fastest level.
+ *
+ * <pre>
+ * int width, int height, double fx, double fy, double cx, double cy, float step, int flags,
+ * int pixel count, int overflow count, int payload length, payload,
+ * overflow points as x, y, z, confidence floats
+ * </pre>
+ *
+ * <p>Points that cannot be stored in the image are kept as floats after it: points behind the
+ * sensor, outside the image or beyond the depth range, points further from the ray through their
+ * pixel centre than a tolerance, and all but the first point of a pixel. With intrinsics that
+ * match the sensor there are almost none. Decoded points come in row order followed by the
+ * overflow points, always in the sensor frame. A codec instance reuses its scratch memory and is
+ * not thread safe.</p>
+ */
+public class RangeImageCodec {
+
+    /** Default depth step in meters. */
+    public static final float DEFAULT_DEPTH_STEP = 0.001f;
+
+    /** Default distance a point may have from the ray through its pixel centre, in meters. */
+    public static final float DEFAULT_MAX_RAY_DISTANCE = 0.001f;
+
+    /** Size of the encoded header in bytes. */
+    public static final int HEADER_SIZE = 60;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int MAX_DEPTH = 0xffff;
+    private static final int PLANE_BYTES_PER_PIXEL = 3;
+
+    private final CameraIntrinsics intrinsics;
+    private final float depthStep;
+    private final float maxRayDistance;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private final RigidTransform worldToSensor = new RigidTransform();
+    private final double[] point = new double[3];
+    private short[] depthImage = new short[0];
+    private byte[] confidenceImage = new byte[0];
+    private int width;
+    private int height;
+    private float[] overflow = new float[0];
+    private int overflowCount;
+    private byte[] planes = new byte[0];
+    private byte[] compressed = new byte[0];
+
+    /**
+     * Creates a codec with the default depth step, ray distance and compression.
+     *
+     * @param intrinsics Intrinsics of the depth camera, used for encoding.
+     */
+    public RangeImageCodec(CameraIntrinsics intrinsics) {
+        this(intrinsics, DEFAULT_DEPTH_STEP, DEFAULT_MAX_RAY_DISTANCE, true);
+    }
+
+    /**
+     * @param intrinsics Intrinsics of the depth camera, used for encoding. Decoding uses the
+     *                   intrinsics stored with the frame.
+     * @param depthStep Quantization step of the depth in meters.
+     * @param maxRayDistance Distance a point may have from the ray through its pixel centre to be
+     *                       stored in the image, in meters.
+     * @param compression Whether to compress the image planes.
+     */
+    public RangeImageCodec(CameraIntrinsics intrinsics, float depthStep, float maxRayDistance,
+                           boolean compression) {
+        if (!(depthStep > 0) || !(maxRayDistance >= 0)) {
+            throw new IllegalArgumentException("Depth step must be positive and ray distance not "
+                    + "negative: " + depthStep + ", " + maxRayDistance);
+        }
+        this.intrinsics = intrinsics;
+        this.depthStep = depthStep;
+        this.maxRayDistance = maxRayDistance;
+        this.deflater = compression ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * Returns the largest number of bytes an encoded frame with the given number of points takes.
+     */
+    public int maxEncodedLength(int numPoints) {
+        int raw = this.intrinsics.getWidth() * this.intrinsics.getHeight() * PLANE_BYTES_PER_PIXEL;
+        // Worst case expansion of deflate with stored blocks, and every point overflowing.
+        return HEADER_SIZE + raw + raw / 16000 * 5 + 64 + numPoints * PointCloudFrame.BYTES_PER_POINT;
+    }
+
+    /**
+     * Returns a little-endian buffer large enough for an encoded frame with the given number of
+     * points.
+     */
+    public ByteBuffer allocateBuffer(int numPoints) {
+        return ByteBuffer.allocate(maxEncodedLength(numPoints)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Encodes the points of a frame. Points in the world frame are transformed back into the
+     * sensor frame by the pose of the frame.
+     *
+     * @param frame Frame to encode.
+     * @param out Little-endian buffer the encoded frame is put into, with at least
+     *            {@link #maxEncodedLength(int)} bytes remaining.
+     * @return Number of bytes written.
+     */
+    public int encode(PointCloudFrame frame, ByteBuffer out) {
+        CameraIntrinsics intrinsics = this.intrinsics;
+        int width = intrinsics.getWidth();
+        int height = intrinsics.getHeight();
+        double fx = intrinsics.getFx(), fy = intrinsics.getFy();
+        double cx = intrinsics.getCx(), cy = intrinsics.getCy();
+        resizeImage(width, height);
+        Arrays.fill(this.depthImage, (short) 0);
+        Arrays.fill(this.confidenceImage, (byte) 0);
+        int numPoints = frame.getNumPoints();
+        if (this.overflow.length < numPoints * PointCloudFrame.FLOATS_PER_POINT) {
+            this.overflow = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        }
+        this.overflowCount = 0;
+        boolean worldFrame = frame.isWorldFrame();
+        if (worldFrame) {
+            this.worldToSensor.set(frame.getTranslation(), frame.getRotation());
+            this.worldToSensor.invert(this.worldToSensor);
+        }
+
+        FloatBuffer points = frame.getPoints();
+        double inverseStep = 1.0 / this.depthStep;
+        double maxRayDistanceSquared = (double) this.maxRayDistance * this.maxRayDistance;
+        int pixelCount = 0;
+        for (int i = 0; i < numPoints; i++) {
+            float x = points.get(i * 4);
+            float y = points.get(i * 4 + 1);
+            float z = points.get(i * 4 + 2);
+            float confidence = points.get(i * 4 + 3);
+            if (worldFrame) {
+                this.point[0] = x;
+                this.point[1] = y;
+                this.point[2] = z;
+                this.worldToSensor.transformPoint(this.point);
+                x = (float) this.point[0];
+                y = (float) this.point[1];
+                z = (float) this.point[2];
+            }
+            // Written so that NaN values overflow as well.
+            if (!(z > 0 && z <= MAX_DEPTH * this.depthStep)) {
+                addOverflow(x, y, z, confidence);
+                continue;
+            }
+            double u = fx * x / z + cx;
+            double v = fy * y / z + cy;
+            long column = Math.round(u);
+            long row = Math.round(v);
+            int depth = (int) Math.round(z * inverseStep);
+            if (!(column >= 0 && column < width && row >= 0 && row < height) || depth < 1
+                    || depth > MAX_DEPTH) {
+                addOverflow(x, y, z, confidence);
+                continue;
+            }
+            // Distance of the point from the ray through the pixel centre at the same depth, NaN
+            // coordinates fail the comparison.
+            double dx = (u - column) * z / fx;
+            double dy = (v - row) * z / fy;
+            int pixel = (int) row * width + (int) column;
+            if (!(dx * dx + dy * dy <= maxRayDistanceSquared) || this.depthImage[pixel] != 0) {
+                addOverflow(x, y, z, confidence);
+                continue;
+            }
+            this.depthImage[pixel] = (short) depth;
+            this.confidenceImage[pixel] = (byte) Math.round(Math.max(0, Math.min(1, confidence)) * 255);
+            pixelCount++;
+        }
+
+        int pixels = width * height;
+        int rawLength = pixels * PLANE_BYTES_PER_PIXEL;
+        if (this.planes.length < rawLength) {
+            this.planes = new byte[rawLength];
+        }
+        // Byte planes: low bytes of all depths followed by their high bytes and the confidences.
+        for (int i = 0; i < pixels; i++) {
+            int depth = this.depthImage[i];
+            this.planes[i] = (byte) depth;
+            this.planes[pixels + i] = (byte) (depth >> 8);
+            this.planes[2 * pixels + i] = this.confidenceImage[i];
+        }
+
+        int start = out.position();
+        out.putInt(width);
+        out.putInt(height);
+        out.putDouble(fx);
+        out.putDouble(fy);
+        out.putDouble(cx);
+        out.putDouble(cy);
+        out.putFloat(this.depthStep);
+        out.putInt(this.deflater != null ? FLAG_COMPRESSED : 0);
+        out.putInt(pixelCount);
+        out.putInt(this.overflowCount);
+        if (this.deflater != null) {
+            int capacity = rawLength + rawLength / 16000 * 5 + 64;
+            if (this.compressed.length < capacity) {
+                this.compressed = new byte[capacity];
+            }
+            this.deflater.reset();
+            this.deflater.setInput(this.planes, 0, rawLength);
+            this.deflater.finish();
+            int length = 0;
+            while (!this.deflater.finished()) {
+                length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+            }
+            out.putInt(length);
+            out.put(this.compressed, 0, length);
+        } else {
+            out.putInt(rawLength);
+            out.put(this.planes, 0, rawLength);
+        }
+        for (int i = 0; i < this.overflowCount * PointCloudFrame.FLOATS_PER_POINT; i++) {
+            out.putFloat(this.overflow[i]);
+        }
+        return out.position() - start;
+    }
+
+    private void addOverflow(float x, float y, float z, float confidence) {
+        int offset = this.overflowCount++ * PointCloudFrame.FLOATS_PER_POINT;
+        this.overflow[offset] = x;
+        this.overflow[offset + 1] = y;
+        this.overflow[offset + 2] = z;
+        this.overflow[offset + 3] = confidence;
+    }
+
+    private void resizeImage(int width, int height) {
+        int pixels = width * height;
+        if (this.depthImage.length < pixels) {
+            this.depthImage = new short[pixels];
+            this.confidenceImage = new byte[pixels];
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Decodes a frame encoded by {@link #encode(PointCloudFrame, ByteBuffer)}. Only the points,
+     * their count and the world frame flag are changed, a pose of the frame is kept with the
+     * points now in the sensor frame.
+     *
+     * @param in Little-endian buffer positioned at the encoded frame, positioned after it on
+     *           return.
+     * @param frame Frame to fill, resized if needed.
+     * @throws IOException If the data are corrupted.
+     */
+    public void decode(ByteBuffer in, PointCloudFrame frame) throws IOException {
+        int width = in.getInt();
+        int height = in.getInt();
+        double fx = in.getDouble();
+        double fy = in.getDouble();
+        double cx = in.getDouble();
+        double cy = in.getDouble();
+        float step = in.getFloat();
+        int flags = in.getInt();
+        int pixelCount = in.getInt();
+        int overflowCount = in.getInt();
+        int payloadLength = in.getInt();
+        long pixels = (long) width * height;
+        if (width < 1 || height < 1 || pixels > Integer.MAX_VALUE / PLANE_BYTES_PER_PIXEL
+                || pixelCount < 0 || pixelCount > pixels || overflowCount < 0 || payloadLength < 0
+                || payloadLength > in.remaining()
+                || (long) overflowCount * PointCloudFrame.BYTES_PER_POINT > in.remaining() - payloadLength) {
+            throw new IOException("Corrupted encoded frame.");
+        }
+
+        int rawLength = (int) pixels * PLANE_BYTES_PER_PIXEL;
+        if (this.planes.length < rawLength) {
+            this.planes = new byte[rawLength];
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            if (this.compressed.length < payloadLength) {
+                this.compressed = new byte[payloadLength];
+            }
+            in.get(this.compressed, 0, payloadLength);
+            this.inflater.reset();
+            this.inflater.setInput(this.compressed, 0, payloadLength);
+            try {
+                int length = 0;
+                while (length < rawLength) {
+                    int inflated = this.inflater.inflate(this.planes, length, rawLength - length);
+                    if (inflated == 0 && (this.inflater.finished() || this.inflater.needsInput())) {
+                        throw new IOException("Corrupted encoded frame.");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted encoded frame.", e);
+            }
+        } else {
+            if (payloadLength != rawLength) {
+                throw new IOException("Corrupted encoded frame.");
+            }
+            in.get(this.planes, 0, rawLength);
+        }
+
+        resizeImage(width, height);
+        int numPoints = pixelCount + overflowCount;
+        frame.ensureCapacity(numPoints);
+        frame.setNumPoints(numPoints);
+        frame.setWorldFrame(false);
+        FloatBuffer points = frame.getPoints();
+        int decoded = 0;
+        for (int row = 0, pixel = 0; row < height; row++) {
+            for (int column = 0; column < width; column++, pixel++) {
+                int depth = (this.planes[pixel] & 0xff) | (this.planes[(int) pixels + pixel] & 0xff) << 8;
+                byte confidence = this.planes[2 * (int) pixels + pixel];
+                this.depthImage[pixel] = (short) depth;
+                this.confidenceImage[pixel] = confidence;
+                if (depth == 0) {
+                    continue;
+                }
+                if (++decoded > pixelCount) {
+                    throw new IOException("Corrupted encoded frame.");
+                }
+                double z = depth * (double) step;
+                points.put((float) ((column - cx) * z / fx));
+                points.put((float) ((row - cy) * z / fy));
+                points.put((float) z);
+                points.put((confidence & 0xff) / 255f);
+            }
+        }
+        if (decoded != pixelCount) {
+            throw new IOException("Corrupted encoded frame.");
+        }
+        for (int i = 0; i < overflowCount * PointCloudFrame.FLOATS_PER_POINT; i++) {
+            points.put(in.getFloat());
+        }
+        this.overflowCount = overflowCount;
+    }
+
+    /**
+     * Returns the depth image of the last encoded or decoded frame in row order, unsigned depth
+     * steps with 0 for pixels without a point. The array is owned by the codec, may be longer than
+     * the image and is overwritten by the next call.
+     */
+    public short[] getDepthImage() {
+        return this.depthImage;
+    }
+
+    /**
+     * Returns the confidence image of the last encoded or decoded frame in row order, unsigned
+     * confidence times 255. The array is owned by the codec, may be longer than the image and is
+     * overwritten by the next call.
+     */
+    public byte[] getConfidenceImage() {
+        return this.confidenceImage;
+    }
+
+    /**
+     * Returns the width of the last encoded or decoded image.
+     */
+    public int getImageWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height of the last encoded or decoded image.
+     */
+    public int getImageHeight() {
+        return this.height;
+    }
+
+    /**
+     * Returns the number of points of the last encoded or decoded frame stored as floats outside
+     * the image.
+     */
+    public int getOverflowCount() {
+        return this.overflowCount;
+    }
+
+    /**
+     * Releases the native memory of the compressor. The codec must not be used afterwards.
+     */
+    public void release() {
+        if (this.deflater != null) {
+            this.deflater.end();
+        }
+        this.inflater.end();
+    }
+}
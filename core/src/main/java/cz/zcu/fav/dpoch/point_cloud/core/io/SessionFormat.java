@@ -0,0 +1,207 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Layout of a session file, a single append-only container of all frames captured in one
+ * session. All values are little-endian.
+ *
+ * <pre>
+ * file header   int magic "PCS1", int version, long reserved
+ * frame record  int length of the rest of the record, int magic "FRM0", long sequence,
+ *               double timestamp, int point count, int flags,
+ *               double[3] translation, double[4] rotation,
+ *               point count * (float x, float y, float z, float confidence)
+ *               or, with the encoded flag, a {@link FrameCodec} frame padded to 8 bytes
+ * ...
+ * index         long[frame count] offsets of the frame records
+ * trailer       long index offset, int frame count, int magic "IDX0"
+ * </pre>
+ *
+ * <p>The index and trailer are appended when the session is closed. Frame records are aligned
+ * to 8 bytes, so the points of a memory-mapped session can be read through float views.</p>
+ */
+public final class SessionFormat {
+
+    /** Extension of session files. */
+    public static final String FILE_EXTENSION = ".pcs";
+
+    /** Magic number at the beginning of the file, "PCS1". */
+    public static final int FILE_MAGIC = 0x31534350;
+
+    /** Magic number at the beginning of every frame record after its length, "FRM0". */
+    public static final int FRAME_MAGIC = 0x304d5246;
+
+    /** Magic number at the end of an indexed file, "IDX0". */
+    public static final int INDEX_MAGIC = 0x30584449;
+
+    /** Current version of the format. */
+    public static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    public static final int FILE_HEADER_SIZE = 16;
+
+    /** Size of a frame record without its points, including the length prefix. */
+    public static final int FRAME_HEADER_SIZE = 88;
+
+    /** Size of the trailer in bytes. */
+    public static final int TRAILER_SIZE = 16;
+
+    /** Frame flag set when the record carries a valid pose. */
+    public static final int FLAG_POSE = 1;
+
+    /** Frame flag set when the points have been transformed by the pose into the world frame. */
+    public static final int FLAG_WORLD_FRAME = 2;
+
+    /** Frame flag set when the points are stored encoded by {@link FrameCodec}. */
+    public static final int FLAG_ENCODED = 4;
+
+    private SessionFormat() {
+    }
+
+    /**
+     * Returns the value of the length prefix of a frame record with the given number of points.
+     */
+    public static int recordLength(int numPoints) {
+        return FRAME_HEADER_SIZE - 4 + numPoints * 16;
+    }
+
+    /**
+     * Returns the value of the length prefix of a frame record with an encoded payload, which is
+     * padded to keep records aligned to 8 bytes.
+     */
+    public static int encodedRecordLength(int payloadLength) {
+        return FRAME_HEADER_SIZE - 4 + ((payloadLength + 7) & ~7);
+    }
+
+    /**
+     * Returns the offset of the first point of a frame record.
+     *
+     * @param frameOffset Offset of the frame record in the file.
+     */
+    public static long pointsOffset(long frameOffset) {
+        return frameOffset + FRAME_HEADER_SIZE;
+    }
+
+    /**
+     * Puts the file header into a little-endian buffer.
+     */
+    public static void putFileHeader(ByteBuffer buffer) {
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(0);
+    }
+
+    /**
+     * Checks the file header read from a little-endian buffer.
+     *
+     * @throws IOException If the buffer does not start with a supported header.
+     */
+    public static void checkFileHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt() != FILE_MAGIC) {
+            throw new IOException("Not a point cloud session file.");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported session file version " + version + ".");
+        }
+        buffer.getLong();
+    }
+
+    /**
+     * Puts the frame index and the trailer into a little-endian buffer.
+     *
+     * @param offsets Offsets of the frame records.
+     * @param frameCount Number of frames.
+     * @param indexOffset Offset of the index in the file, i.e. the length of the data.
+     */
+    public static void putIndex(ByteBuffer buffer, long[] offsets, int frameCount, long indexOffset) {
+        for (int i = 0; i < frameCount; i++) {
+            buffer.putLong(offsets[i]);
+        }
+        buffer.putLong(indexOffset);
+        buffer.putInt(frameCount);
+        buffer.putInt(INDEX_MAGIC);
+    }
+
+    /**
+     * Puts the header of a frame record with raw points, including its length prefix, into a
+     * little-endian buffer.
+     */
+    public static void putFrameHeader(ByteBuffer buffer, PointCloudFrame frame) {
+        putFrameHeader(buffer, frame, recordLength(frame.getNumPoints()), 0);
+    }
+
+    /**
+     * Puts the header of a frame record with an encoded payload, including its length prefix, into
+     * a little-endian buffer.
+     *
+     * @param payloadLength Length of the encoded payload without padding.
+     */
+    public static void putEncodedFrameHeader(ByteBuffer buffer, PointCloudFrame frame, int payloadLength) {
+        putFrameHeader(buffer, frame, encodedRecordLength(payloadLength), FLAG_ENCODED);
+    }
+
+    private static void putFrameHeader(ByteBuffer buffer, PointCloudFrame frame, int length, int flags) {
+        double[] translation = frame.getTranslation();
+        double[] rotation = frame.getRotation();
+        buffer.putInt(length);
+        buffer.putInt(FRAME_MAGIC);
+        buffer.putLong(frame.getSequence());
+        buffer.putDouble(frame.getTimestamp());
+        buffer.putInt(frame.getNumPoints());
+        buffer.putInt(flags | (frame.hasPose() ? FLAG_POSE : 0) | (frame.isWorldFrame() ? FLAG_WORLD_FRAME : 0));
+        for (int i = 0; i < 3; i++) {
+            buffer.putDouble(translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer.putDouble(rotation[i]);
+        }
+    }
+
+    /**
+     * Reads the header of a frame record from a little-endian buffer into the frame. The points
+     * are not read, but the frame is resized to hold them.
+     *
+     * @return Flags of the record.
+     * @throws IOException If the buffer does not contain a valid frame header.
+     */
+    public static int getFrameHeader(ByteBuffer buffer, PointCloudFrame frame) throws IOException {
+        int length = buffer.getInt();
+        if (buffer.getInt() != FRAME_MAGIC) {
+            throw new IOException("Corrupted frame record.");
+        }
+        long sequence = buffer.getLong();
+        double timestamp = buffer.getDouble();
+        int numPoints = buffer.getInt();
+        int flags = buffer.getInt();
+        boolean encoded = (flags & FLAG_ENCODED) != 0;
+        if (numPoints < 0 || (!encoded && length != recordLength(numPoints))
+                || (encoded && (length < FRAME_HEADER_SIZE - 4 || (length & 7) != 4))) {
+            throw new IOException("Corrupted frame record.");
+        }
+        frame.ensureCapacity(numPoints);
+        frame.setNumPoints(numPoints);
+        frame.setSequence(sequence);
+        frame.setTimestamp(timestamp);
+        frame.clearPose();
+        if ((flags & FLAG_POSE) != 0) {
+            double[] translation = new double[3];
+            double[] rotation = new double[4];
+            for (int i = 0; i < 3; i++) {
+                translation[i] = buffer.getDouble();
+            }
+            for (int i = 0; i < 4; i++) {
+                rotation[i] = buffer.getDouble();
+            }
+            frame.setPose(translation, rotation);
+            frame.setWorldFrame((flags & FLAG_WORLD_FRAME) != 0);
+        } else {
+            buffer.position(buffer.position() + 7 * 8);
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,209 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Random access reader of session files described by {@link SessionFormat}. Frames are located
+ * through the index stored at the end of the file. Sessions that were not closed properly have
+ * no index, so their frame records are scanned once when the reader is opened.
+ */
+public class SessionReader implements Closeable {
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(SessionFormat.FRAME_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final long[] offsets;
+    private final boolean indexed;
+    private long dataLength;
+    private FrameCodec codec;
+    private ByteBuffer encoded;
+
+    /**
+     * Opens a session file and loads its frame index.
+     *
+     * @param file Session file.
+     * @throws IOException If the file could not be read or is not a session file.
+     */
+    public SessionReader(File file) throws IOException {
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = this.randomAccessFile.getChannel();
+        try {
+            ByteBuffer fileHeader = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(fileHeader, 0);
+            fileHeader.flip();
+            SessionFormat.checkFileHeader(fileHeader);
+
+            long[] index = readIndex();
+            if (index != null) {
+                this.offsets = index;
+                this.dataLength = this.channel.size() - SessionFormat.TRAILER_SIZE - index.length * 8L;
+                this.indexed = true;
+            } else {
+                this.offsets = scanFrames();
+                this.indexed = false;
+            }
+        } catch (IOException e) {
+            this.randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private long[] readIndex() throws IOException {
+        long size = this.channel.size();
+        if (size < SessionFormat.FILE_HEADER_SIZE + SessionFormat.TRAILER_SIZE) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(SessionFormat.TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(trailer, size - SessionFormat.TRAILER_SIZE);
+        trailer.flip();
+        long indexOffset = trailer.getLong();
+        int frameCount = trailer.getInt();
+        if (trailer.getInt() != SessionFormat.INDEX_MAGIC || frameCount < 0
+                || indexOffset + frameCount * 8L + SessionFormat.TRAILER_SIZE != size) {
+            return null;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(frameCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(index, indexOffset);
+        index.flip();
+        long[] offsets = new long[frameCount];
+        index.asLongBuffer().get(offsets);
+        return offsets;
+    }
+
+    private long[] scanFrames() throws IOException {
+        long size = this.channel.size();
+        long[] offsets = new long[64];
+        int count = 0;
+        long position = SessionFormat.FILE_HEADER_SIZE;
+        ByteBuffer prefix = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + SessionFormat.FRAME_HEADER_SIZE <= size) {
+            prefix.clear();
+            readFully(prefix, position);
+            prefix.flip();
+            long end = position + 4 + (prefix.getInt() & 0xffffffffL);
+            if (prefix.getInt() != SessionFormat.FRAME_MAGIC || end > size) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+            position = end;
+        }
+        this.dataLength = position;
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of session file.");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Returns the number of frames in the session.
+     */
+    public int getFrameCount() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Returns the offset of a frame record in the file.
+     *
+     * @param index Index of the frame.
+     */
+    public long getFrameOffset(int index) {
+        return this.offsets[index];
+    }
+
+    /**
+     * Returns whether the session has been closed properly and contains the frame index.
+     */
+    public boolean isIndexed() {
+        return this.indexed;
+    }
+
+    /**
+     * Returns the length of the file without the index, i.e. the end of the last frame record.
+     */
+    public long getDataLength() {
+        return this.dataLength;
+    }
+
+    /**
+     * Reads one frame, including its points and pose.
+     *
+     * @param index Index of the frame.
+     * @param frame Frame to fill, resized if needed.
+     * @throws IOException If the frame could not be read.
+     */
+    public void readFrame(int index, PointCloudFrame frame) throws IOException {
+        long offset = this.offsets[index];
+        this.header.clear();
+        readFully(this.header, offset);
+        this.header.flip();
+        int length = this.header.getInt(0);
+        int flags = SessionFormat.getFrameHeader(this.header, frame);
+        if ((flags & SessionFormat.FLAG_ENCODED) == 0) {
+            readFully(frame.getBytes(), SessionFormat.pointsOffset(offset));
+            return;
+        }
+
+        int payloadLength = length - (SessionFormat.FRAME_HEADER_SIZE - 4);
+        if (this.encoded == null || this.encoded.capacity() < payloadLength) {
+            this.encoded = ByteBuffer.allocate(payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (this.codec == null) {
+            this.codec = new FrameCodec();
+        }
+        this.encoded.clear();
+        this.encoded.limit(payloadLength);
+        readFully(this.encoded, SessionFormat.pointsOffset(offset));
+        this.encoded.flip();
+        int numPoints = frame.getNumPoints();
+        this.codec.decode(this.encoded, frame);
+        if (frame.getNumPoints() != numPoints) {
+            throw new IOException("Corrupted frame record.");
+        }
+    }
+
+    /**
+     * Maps the whole session into memory. Points of frame {@code i} start at
+     * {@code SessionFormat.pointsOffset(getFrameOffset(i))} of the returned buffer, raw or
+     * encoded depending on the flags of the frame record.
+     *
+     * @return Read-only little-endian buffer over the whole file.
+     * @throws IOException If the file could not be mapped.
+     */
+    public MappedByteBuffer map() throws IOException {
+        MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.codec != null) {
+            this.codec.release();
+        }
+        this.randomAccessFile.close();
+    }
+}
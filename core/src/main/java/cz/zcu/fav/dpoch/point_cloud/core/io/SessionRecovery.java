@@ -0,0 +1,167 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Repairs a session file whose writer did not close it, e.g. because the device crashed. The
+ * frames are scanned, the file is truncated after the last complete one and the index is
+ * appended, so the session reads like a properly closed one.
+ *
+ * <p>With the journal of a {@link DurableSessionWriter}, only the frames of its last valid commit
+ * are kept, since later frames may be torn in ways a scan cannot detect. The journal is deleted
+ * afterwards. Without a journal, every frame whose record is complete is kept.</p>
+ */
+public final class SessionRecovery {
+
+    private final int frameCount;
+    private final long discardedBytes;
+    private final boolean closed;
+
+    private SessionRecovery(int frameCount, long discardedBytes, boolean closed) {
+        this.frameCount = frameCount;
+        this.discardedBytes = discardedBytes;
+        this.closed = closed;
+    }
+
+    /**
+     * Returns whether a session file needs recovery, i.e. it has a journal or no index.
+     *
+     * @throws IOException If the file could not be read or is not a session file.
+     */
+    public static boolean isNeeded(File file) throws IOException {
+        if (DurableSessionWriter.journalFile(file).exists()) {
+            return true;
+        }
+        SessionReader reader = new SessionReader(file);
+        try {
+            return !reader.isIndexed();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Recovers a session file. Properly closed sessions are left unchanged, apart from deleting a
+     * leftover journal.
+     *
+     * @param file Session file.
+     * @return Outcome of the recovery.
+     * @throws IOException If the file could not be repaired or is not a session file.
+     */
+    public static SessionRecovery recover(File file) throws IOException {
+        File journalFile = DurableSessionWriter.journalFile(file);
+        long[] offsets;
+        long dataLength;
+        SessionReader reader = new SessionReader(file);
+        try {
+            if (reader.isIndexed()) {
+                deleteJournal(journalFile);
+                return new SessionRecovery(reader.getFrameCount(), 0, true);
+            }
+            int count = reader.getFrameCount();
+            offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = reader.getFrameOffset(i);
+            }
+            dataLength = reader.getDataLength();
+        } finally {
+            reader.close();
+        }
+
+        int frameCount = offsets.length;
+        if (journalFile.exists()) {
+            long committedLength = readCommittedLength(journalFile);
+            // Frames end where the next one starts, the last one at the end of the data.
+            while (frameCount > 0 && dataLength > committedLength) {
+                dataLength = offsets[--frameCount];
+            }
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        long discarded;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            discarded = channel.size() - dataLength;
+            channel.truncate(dataLength);
+            ByteBuffer index = ByteBuffer.allocate(frameCount * 8 + SessionFormat.TRAILER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            SessionFormat.putIndex(index, offsets, frameCount, dataLength);
+            index.flip();
+            long position = dataLength;
+            while (index.hasRemaining()) {
+                position += channel.write(index, position);
+            }
+            channel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+        deleteJournal(journalFile);
+        return new SessionRecovery(frameCount, discarded, false);
+    }
+
+    /**
+     * Returns the data length of the last journal entry with a valid checksum, or the length of
+     * the file header if there is none.
+     */
+    private static long readCommittedLength(File journalFile) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "r");
+        try {
+            FileChannel channel = journal.getChannel();
+            ByteBuffer entry = ByteBuffer.allocate(DurableSessionWriter.JOURNAL_ENTRY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            // A torn last entry is skipped in favour of the one before it.
+            for (long position = channel.size() / entry.capacity() * entry.capacity() - entry.capacity();
+                 position >= 0; position -= entry.capacity()) {
+                entry.clear();
+                while (entry.hasRemaining()) {
+                    if (channel.read(entry, position + entry.position()) < 0) {
+                        throw new IOException("Journal " + journalFile.getPath() + " ended early.");
+                    }
+                }
+                crc.reset();
+                crc.update(entry.array(), 0, entry.capacity() - 4);
+                if (entry.getInt(entry.capacity() - 4) == (int) crc.getValue()) {
+                    return entry.getLong(0);
+                }
+            }
+        } finally {
+            journal.close();
+        }
+        return SessionFormat.FILE_HEADER_SIZE;
+    }
+
+    private static void deleteJournal(File journalFile) throws IOException {
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Cannot delete journal " + journalFile.getPath() + ".");
+        }
+    }
+
+    /**
+     * Returns the number of frames in the recovered session.
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the number of bytes cut off the end of the file, incomplete or uncommitted frames
+     * and zeroed preallocated space.
+     */
+    public long getDiscardedBytes() {
+        return this.discardedBytes;
+    }
+
+    /**
+     * Returns whether the session had been closed properly and was left unchanged.
+     */
+    public boolean wasClosed() {
+        return this.closed;
+    }
+}
@@ -0,0 +1,187 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Appends all frames of a session into a single file described by {@link SessionFormat}. The
+ * frame index is written when the sink is closed. Points are stored raw, or compactly encoded
+ * when the writer has a {@link FrameCodec}. A frame that fails to be written is cut off again, so
+ * later frames and the index stay consistent.
+ */
+public class SessionWriter implements FrameSink {
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(SessionFormat.FRAME_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private final FrameCodec codec;
+    private ByteBuffer encoded;
+    private long[] offsets = new long[INITIAL_INDEX_CAPACITY];
+    private int frameCount = 0;
+    private long position;
+    private boolean broken = false;
+
+    /**
+     * Creates a new session file, replacing any existing one.
+     *
+     * @param file Session file.
+     * @throws IOException If the file could not be created.
+     */
+    public SessionWriter(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates a new session file, replacing any existing one.
+     *
+     * @param file Session file.
+     * @param codec Codec used to encode the points, or {@code null} to store them raw. It is
+     *              released when the writer is closed.
+     * @throws IOException If the file could not be created.
+     */
+    public SessionWriter(File file, FrameCodec codec) throws IOException {
+        this.file = file;
+        this.codec = codec;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = this.randomAccessFile.getChannel();
+        this.channel.truncate(0);
+
+        ByteBuffer fileHeader = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        SessionFormat.putFileHeader(fileHeader);
+        fileHeader.flip();
+        writeFully(fileHeader);
+        this.position = SessionFormat.FILE_HEADER_SIZE;
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        if (this.broken) {
+            throw new IOException("A partially written frame could not be removed from "
+                    + this.file.getPath() + ".");
+        }
+        this.header.clear();
+        if (this.codec != null) {
+            this.buffers[1] = encode(frame);
+        } else {
+            SessionFormat.putFrameHeader(this.header, frame);
+            this.buffers[1] = frame.getBytes();
+        }
+        this.header.flip();
+        this.buffers[0] = this.header;
+
+        long length = this.header.remaining() + this.buffers[1].remaining();
+        try {
+            while (this.header.hasRemaining() || this.buffers[1].hasRemaining()) {
+                this.channel.write(this.buffers);
+            }
+        } catch (IOException e) {
+            // Cuts off a partially written frame, so the next one starts where the index expects.
+            try {
+                this.channel.truncate(this.position);
+                this.channel.position(this.position);
+            } catch (IOException resetException) {
+                this.broken = true;
+                e.addSuppressed(resetException);
+            }
+            throw e;
+        } finally {
+            this.buffers[1] = null;
+        }
+
+        if (this.frameCount == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        this.offsets[this.frameCount++] = this.position;
+        this.position += length;
+    }
+
+    private ByteBuffer encode(PointCloudFrame frame) {
+        int capacity = FrameCodec.maxEncodedLength(frame.getNumPoints()) + 8;
+        if (this.encoded == null || this.encoded.capacity() < capacity) {
+            this.encoded = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.encoded.clear();
+        int length = this.codec.encode(frame, this.encoded);
+        while ((this.encoded.position() & 7) != 0) {
+            this.encoded.put((byte) 0);
+        }
+        this.encoded.flip();
+        SessionFormat.putEncodedFrameHeader(this.header, frame, length);
+        return this.encoded;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces the frames written so far to the storage device, so that they survive a crash or
+     * power loss.
+     *
+     * @throws IOException If the data could not be written.
+     */
+    public void force() throws IOException {
+        // The file length is forced with the data, other metadata are not needed to read them.
+        this.channel.force(false);
+    }
+
+    /**
+     * Writes the frame index and closes the file. The index is left out if a partially written
+     * frame could not be removed, so that {@link SessionRecovery} can repair the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.channel.isOpen()) {
+            return;
+        }
+        try {
+            if (this.broken) {
+                return;
+            }
+            ByteBuffer index = ByteBuffer.allocate(this.frameCount * 8 + SessionFormat.TRAILER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            SessionFormat.putIndex(index, this.offsets, this.frameCount, this.position);
+            index.flip();
+            writeFully(index);
+        } finally {
+            if (this.codec != null) {
+                this.codec.release();
+            }
+            this.randomAccessFile.close();
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the number of frames written so far.
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the size of the written data in bytes, without the index.
+     */
+    public long getLength() {
+        return this.position;
+    }
+}
@@ -0,0 +1,62 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Writes every frame into its own text file named {@code pointsN} with one float per line. This
+ * is the format the applications have always produced.
+ */
+public class TextFileSink implements FrameSink {
+
+    /** Prefix of the per-frame file names. */
+    public static final String FILE_PREFIX = "points";
+
+    private final File directory;
+    private int fileCounter = 0;
+    private File lastFile;
+
+    /**
+     * @param directory Directory the files are created in.
+     */
+    public TextFileSink(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        this.fileCounter++;
+        File file = new File(this.directory, FILE_PREFIX + this.fileCounter);
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            FloatBuffer buffer = frame.getPoints();
+            while (buffer.hasRemaining()) {
+                writer.println(buffer.get());
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Writing of " + file.getPath() + " failed.");
+        }
+        this.lastFile = file;
+    }
+
+    /**
+     * Returns the file written by the last successful {@link #write(PointCloudFrame)} call.
+     */
+    public File getLastFile() {
+        return this.lastFile;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,37 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.IOException;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.TileStore;
+
+/**
+ * Adds all frames of a session to a {@link TileStore}, so scans of any size can be merged with a
+ * bounded amount of memory. The store is closed with the sink.
+ */
+public class TileStoreSink implements FrameSink {
+
+    private final TileStore store;
+
+    /**
+     * @param store Store receiving the points of the frames.
+     */
+    public TileStoreSink(TileStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        this.store.add(frame);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.store.close();
+    }
+
+    public TileStore getStore() {
+        return this.store;
+    }
+}
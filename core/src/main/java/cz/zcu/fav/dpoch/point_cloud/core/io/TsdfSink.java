@@ -0,0 +1,84 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.processing.TsdfVolume;
+
+/**
+ * Fuses all frames of a session into a {@link TsdfVolume} and writes the extracted surface into a
+ * PLY file when closed. The surface can also be extracted while frames are still being written.
+ */
+public class TsdfSink implements FrameSink {
+
+    private final File file;
+    private final TsdfVolume volume;
+    private final PointCloudFrame surfaceFrame = new PointCloudFrame(0);
+
+    /**
+     * @param file PLY file the surface is written to.
+     * @param voxelSize Edge length of a voxel in meters.
+     */
+    public TsdfSink(File file, float voxelSize) {
+        this(file, new TsdfVolume(voxelSize));
+    }
+
+    /**
+     * @param file PLY file the surface is written to.
+     * @param volume Volume the frames are fused into.
+     */
+    public TsdfSink(File file, TsdfVolume volume) {
+        this.file = file;
+        this.volume = volume;
+    }
+
+    @Override
+    public synchronized void write(PointCloudFrame frame) {
+        this.volume.integrate(frame);
+    }
+
+    /**
+     * Copies the current surface into a frame.
+     *
+     * @param frame Frame to fill, resized if needed.
+     */
+    public synchronized void extractSurface(PointCloudFrame frame) {
+        this.volume.extractSurface(frame);
+    }
+
+    /**
+     * Returns the number of frames fused so far.
+     */
+    public synchronized int getFrameCount() {
+        return this.volume.getFrameCount();
+    }
+
+    /**
+     * Returns the number of frames skipped because they have no pose.
+     */
+    public synchronized long getSkippedFrameCount() {
+        return this.volume.getSkippedFrameCount();
+    }
+
+    /**
+     * Returns the number of bytes taken by the voxels of the volume.
+     */
+    public synchronized long getMemoryBytes() {
+        return this.volume.getMemoryBytes();
+    }
+
+    /**
+     * Writes the surface into the PLY file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.volume.extractSurface(this.surfaceFrame);
+        PlyFileSink.writeFile(this.file, this.surfaceFrame);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+}
@@ -0,0 +1,62 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.VoxelGrid;
+
+/**
+ * Merges all frames of a session into a {@link VoxelGrid} and writes the downsampled cloud into a
+ * PLY file when closed. The cloud can also be exported while frames are still being written.
+ */
+public class VoxelGridSink implements FrameSink {
+
+    private final File file;
+    private final VoxelGrid grid;
+    private final PointCloudFrame exportFrame = new PointCloudFrame(0);
+
+    /**
+     * @param file PLY file the downsampled cloud is written to.
+     * @param voxelSize Edge length of a voxel in meters.
+     */
+    public VoxelGridSink(File file, float voxelSize) {
+        this.file = file;
+        this.grid = new VoxelGrid(voxelSize);
+    }
+
+    @Override
+    public synchronized void write(PointCloudFrame frame) {
+        this.grid.add(frame);
+    }
+
+    /**
+     * Copies the current downsampled cloud into a frame.
+     *
+     * @param frame Frame to fill, resized if needed.
+     */
+    public synchronized void export(PointCloudFrame frame) {
+        this.grid.export(frame);
+    }
+
+    /**
+     * Returns the number of points the downsampled cloud currently has.
+     */
+    public synchronized int getVoxelCount() {
+        return this.grid.getVoxelCount();
+    }
+
+    /**
+     * Writes the downsampled cloud into the PLY file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.grid.export(this.exportFrame);
+        PlyFileSink.writeFile(this.file, this.exportFrame);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+}
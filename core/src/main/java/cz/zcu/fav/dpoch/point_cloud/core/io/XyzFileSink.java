@@ -0,0 +1,121 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Writes every frame into its own text file named {@code pointsN.xyz} with one
+ * {@code x y z confidence} point per line, readable by common point cloud tools. Floats are
+ * formatted with a fixed number of decimals by {@link AsciiFloatFormatter} into a reused buffer
+ * that is written through a file channel, so unlike {@link TextFileSink} writing does not create
+ * a string per float.
+ */
+public class XyzFileSink implements FrameSink {
+
+    /** Extension of the written files. */
+    public static final String FILE_EXTENSION = ".xyz";
+
+    /** Default number of decimals, a tenth of a millimeter for coordinates. */
+    public static final int DEFAULT_DECIMALS = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final int decimals;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(this.bytes);
+    private final int maxLineLength;
+    private int fileCounter = 0;
+    private File lastFile;
+
+    /**
+     * Creates a sink writing {@link #DEFAULT_DECIMALS} decimals.
+     *
+     * @param directory Directory the files are created in.
+     */
+    public XyzFileSink(File directory) {
+        this(directory, DEFAULT_DECIMALS);
+    }
+
+    /**
+     * @param directory Directory the files are created in.
+     * @param decimals Number of decimals of every float, at most
+     *                 {@link AsciiFloatFormatter#MAX_DECIMALS}.
+     */
+    public XyzFileSink(File directory, int decimals) {
+        if (decimals < 0 || decimals > AsciiFloatFormatter.MAX_DECIMALS) {
+            throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+        }
+        this.directory = directory;
+        this.decimals = decimals;
+        this.maxLineLength = PointCloudFrame.FLOATS_PER_POINT
+                * (AsciiFloatFormatter.maxLength(decimals) + 1);
+    }
+
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        this.fileCounter++;
+        File file = new File(this.directory, TextFileSink.FILE_PREFIX + this.fileCounter + FILE_EXTENSION);
+        writeFile(file, frame);
+        this.lastFile = file;
+    }
+
+    /**
+     * Writes one frame into a text file, replacing any existing one.
+     *
+     * @param file File to write.
+     * @param frame Frame to write.
+     * @throws IOException If the file could not be written.
+     */
+    public void writeFile(File file, PointCloudFrame frame) throws IOException {
+        FloatBuffer points = frame.getPoints();
+        int numPoints = frame.getNumPoints();
+        byte[] bytes = this.bytes;
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            int length = 0;
+            for (int i = 0; i < numPoints; i++) {
+                if (length > bytes.length - this.maxLineLength) {
+                    flush(channel, length);
+                    length = 0;
+                }
+                int in = i * PointCloudFrame.FLOATS_PER_POINT;
+                for (int j = 0; j < PointCloudFrame.FLOATS_PER_POINT; j++) {
+                    length = AsciiFloatFormatter.format(points.get(in + j), this.decimals, bytes,
+                            length);
+                    bytes[length++] = j < PointCloudFrame.FLOATS_PER_POINT - 1 ? (byte) ' ' : (byte) '\n';
+                }
+            }
+            flush(channel, length);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void flush(FileChannel channel, int length) throws IOException {
+        this.buffer.clear();
+        this.buffer.limit(length);
+        while (this.buffer.hasRemaining()) {
+            channel.write(this.buffer);
+        }
+    }
+
+    /**
+     * Returns the file written by the last successful {@link #write(PointCloudFrame)} call.
+     */
+    public File getLastFile() {
+        return this.lastFile;
+    }
+
+    @Override
+    public void close() {
+    }
+}
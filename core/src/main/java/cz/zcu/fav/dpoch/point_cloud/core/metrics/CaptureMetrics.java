@@ -0,0 +1,140 @@
+package cz.zcu.fav.dpoch.point_cloud.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.SkipReason;
+
+/**
+ * Metrics of the capture path, updated by
+ * {@link cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline} on the callback and writer
+ * threads. Points and bytes per second are the rates of the written points and bytes counters.
+ */
+public class CaptureMetrics {
+
+    public static final String FRAMES_SUBMITTED = "frames_submitted";
+    public static final String FRAMES_WRITTEN = "frames_written";
+    public static final String FRAMES_DROPPED = "frames_dropped";
+    /** Frames skipped on purpose while the capture rate is lowered. */
+    public static final String FRAMES_THROTTLED = "frames_throttled";
+    /** Frames skipped by the motion gate because no pose was known. */
+    public static final String FRAMES_GATED_NO_POSE = "frames_gated_no_pose";
+    /** Frames skipped by the motion gate within the minimum keyframe interval. */
+    public static final String FRAMES_GATED_TOO_SOON = "frames_gated_too_soon";
+    /** Frames skipped by the motion gate because the device was held still. */
+    public static final String FRAMES_GATED_STATIONARY = "frames_gated_stationary";
+    /** Frames queued without a pose and stored in the sensor frame. */
+    public static final String FRAMES_UNPOSED = "frames_unposed";
+    public static final String FRAMES_FAILED = "frames_failed";
+    public static final String POINTS_WRITTEN = "points_written";
+    /** Point data handed to the sink, before any encoding. */
+    public static final String BYTES_WRITTEN = "bytes_written";
+    /** Time from receiving a frame from its source until the sink has written it. */
+    public static final String CALLBACK_TO_DISK = "callback_to_disk_ns";
+    public static final String WRITE_TIME = "write_time_ns";
+    /** Number of frames waiting for the writer, sampled whenever a frame is queued. */
+    public static final String QUEUE_DEPTH = "queue_depth";
+
+    private final MetricsRegistry registry;
+    private final AtomicLong submitted;
+    private final AtomicLong written;
+    private final AtomicLong dropped;
+    private final AtomicLong throttled;
+    private final AtomicLong[] gated = new AtomicLong[SkipReason.values().length];
+    private final AtomicLong unposed;
+    private final AtomicLong failed;
+    private final AtomicLong points;
+    private final AtomicLong bytes;
+    private final Histogram callbackToDisk;
+    private final Histogram writeTime;
+    private final Histogram queueDepth;
+
+    /**
+     * @param queueCapacity Capacity of the pipeline queue, the largest recorded queue depth.
+     */
+    public CaptureMetrics(int queueCapacity) {
+        this(new MetricsRegistry(), queueCapacity);
+    }
+
+    /**
+     * @param registry Registry the metrics are registered in.
+     * @param queueCapacity Capacity of the pipeline queue, the largest recorded queue depth.
+     */
+    public CaptureMetrics(MetricsRegistry registry, int queueCapacity) {
+        this.registry = registry;
+        this.submitted = registry.counter(FRAMES_SUBMITTED);
+        this.written = registry.counter(FRAMES_WRITTEN);
+        this.dropped = registry.counter(FRAMES_DROPPED);
+        this.throttled = registry.counter(FRAMES_THROTTLED);
+        this.gated[SkipReason.NO_POSE.ordinal()] = registry.counter(FRAMES_GATED_NO_POSE);
+        this.gated[SkipReason.TOO_SOON.ordinal()] = registry.counter(FRAMES_GATED_TOO_SOON);
+        this.gated[SkipReason.STATIONARY.ordinal()] = registry.counter(FRAMES_GATED_STATIONARY);
+        this.unposed = registry.counter(FRAMES_UNPOSED);
+        this.failed = registry.counter(FRAMES_FAILED);
+        this.points = registry.counter(POINTS_WRITTEN);
+        this.bytes = registry.counter(BYTES_WRITTEN);
+        this.callbackToDisk = registry.histogram(CALLBACK_TO_DISK, Histogram.latency());
+        this.writeTime = registry.histogram(WRITE_TIME, Histogram.latency());
+        this.queueDepth = registry.histogram(QUEUE_DEPTH, Histogram.linear(queueCapacity + 1));
+    }
+
+    /**
+     * Records a frame that has been queued for writing.
+     *
+     * @param queueDepth Number of frames waiting for the writer, including this one.
+     */
+    public void onSubmitted(int queueDepth) {
+        this.submitted.incrementAndGet();
+        this.queueDepth.record(queueDepth);
+    }
+
+    /**
+     * Records a queued frame that had no pose, in addition to {@link #onSubmitted(int)}.
+     */
+    public void onUnposed() {
+        this.unposed.incrementAndGet();
+    }
+
+    public void onDropped() {
+        this.dropped.incrementAndGet();
+    }
+
+    public void onThrottled() {
+        this.throttled.incrementAndGet();
+    }
+
+    /**
+     * Records a frame skipped by the motion gate.
+     *
+     * @param reason Why the frame was skipped.
+     */
+    public void onGated(SkipReason reason) {
+        this.gated[reason.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * Records a frame written by the sink.
+     *
+     * @param frame Written frame.
+     * @param writeNanos Time the sink spent writing the frame.
+     */
+    public void onWritten(PointCloudFrame frame, long writeNanos) {
+        this.written.incrementAndGet();
+        this.points.addAndGet(frame.getNumPoints());
+        this.bytes.addAndGet((long) frame.getNumPoints() * PointCloudFrame.BYTES_PER_POINT);
+        this.writeTime.record(writeNanos);
+        this.callbackToDisk.record(System.nanoTime() - frame.getReceivedNanos());
+    }
+
+    public void onFailed() {
+        this.failed.incrementAndGet();
+    }
+
+    public MetricsRegistry getRegistry() {
+        return this.registry;
+    }
+
+    public MetricsSnapshot snapshot() {
+        return this.registry.snapshot();
+    }
+}
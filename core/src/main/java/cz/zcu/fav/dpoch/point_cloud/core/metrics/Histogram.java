@@ -0,0 +1,180 @@
+package cz.zcu.fav.dpoch.point_cloud.core.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with fixed bucket bounds. Recording a value is a
+ * binary search over the bounds and a few atomic increments, without allocation, so it can be
+ * called from the capture threads.
+ */
+public final class Histogram {
+
+    private final long[] bounds;
+    // One bucket per bound plus the overflow bucket.
+    private final AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param bounds Inclusive upper bounds of the buckets in ascending order. Larger values fall
+     *               into an overflow bucket.
+     */
+    public Histogram(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bounds must be ascending.");
+            }
+        }
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Creates a histogram of durations in nanoseconds with buckets doubling from one microsecond
+     * to about a minute.
+     */
+    public static Histogram latency() {
+        return exponential(1000, 2, 27);
+    }
+
+    /**
+     * Creates a histogram with bounds {@code first, first * factor, first * factor^2, ...}.
+     *
+     * @param first Upper bound of the first bucket.
+     * @param factor Ratio of consecutive bounds, at least 2.
+     * @param bucketCount Number of buckets without the overflow bucket.
+     */
+    public static Histogram exponential(long first, int factor, int bucketCount) {
+        if (first < 1 || factor < 2) {
+            throw new IllegalArgumentException("Bounds must grow.");
+        }
+        long[] bounds = new long[bucketCount];
+        long bound = first;
+        for (int i = 0; i < bucketCount; i++) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return new Histogram(bounds);
+    }
+
+    /**
+     * Creates a histogram with one bucket for every value from 0 to {@code maxValue}.
+     */
+    public static Histogram linear(int maxValue) {
+        long[] bounds = new long[maxValue + 1];
+        for (int i = 0; i <= maxValue; i++) {
+            bounds[i] = i;
+        }
+        return new Histogram(bounds);
+    }
+
+    /**
+     * Records a value, negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Arrays.binarySearch(this.bounds, value);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        this.counts.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long max;
+        while (value > (max = this.max.get()) && !this.max.compareAndSet(max, value)) {
+            // Another thread raised the maximum meanwhile, compare again.
+        }
+    }
+
+    /**
+     * Returns a consistent enough copy of the histogram. Values recorded while the snapshot is
+     * taken may be missing from some of its fields.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[this.counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.counts.get(i);
+        }
+        return new Snapshot(this.bounds, counts, this.count.get(), this.sum.get(), this.max.get());
+    }
+
+    /**
+     * Values of a histogram at one moment.
+     */
+    public static final class Snapshot {
+
+        private final long[] bounds;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] bounds, long[] counts, long count, long sum, long max) {
+            this.bounds = bounds;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSum() {
+            return this.sum;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count > 0 ? (double) this.sum / this.count : 0;
+        }
+
+        /**
+         * Returns an upper estimate of a quantile, the bound of the bucket it falls into, or the
+         * maximum when it falls into the overflow bucket.
+         *
+         * @param quantile Quantile between 0 and 1, e.g. 0.99.
+         */
+        public long getQuantile(double quantile) {
+            long total = 0;
+            for (long bucketCount : this.counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < this.bounds.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(this.bounds[i], this.max);
+                }
+            }
+            return this.max;
+        }
+
+        /**
+         * Returns the inclusive upper bounds of the buckets, without the overflow bucket.
+         */
+        public long[] getBounds() {
+            return this.bounds.clone();
+        }
+
+        /**
+         * Returns the number of values in every bucket, the last one being the overflow bucket.
+         */
+        public long[] getCounts() {
+            return this.counts.clone();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cz.zcu.fav.dpoch.point_cloud.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters and histograms. Metrics are registered once and then updated lock-free by
+ * whoever holds them; only registration and snapshots synchronize.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, AtomicLong> counters = new LinkedHashMap<String, AtomicLong>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Returns the counter with the given name, creating it when missing.
+     */
+    public synchronized AtomicLong counter(String name) {
+        AtomicLong counter = this.counters.get(name);
+        if (counter == null) {
+            counter = new AtomicLong();
+            this.counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with the given name, registering the given one when missing.
+     *
+     * @param name Name of the histogram.
+     * @param histogram Histogram registered when no histogram has the name yet.
+     */
+    public synchronized Histogram histogram(String name, Histogram histogram) {
+        Histogram registered = this.histograms.get(name);
+        if (registered == null) {
+            registered = histogram;
+            this.histograms.put(name, registered);
+        }
+        return registered;
+    }
+
+    /**
+     * Copies the current values of all metrics.
+     */
+    public synchronized MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : this.counters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, Histogram.Snapshot> histograms = new LinkedHashMap<String, Histogram.Snapshot>();
+        for (Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new MetricsSnapshot(System.nanoTime() - this.startNanos, counters, histograms);
+    }
+}
@@ -0,0 +1,172 @@
+package cz.zcu.fav.dpoch.point_cloud.core.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Values of all metrics of a {@link MetricsRegistry} at one moment, exportable as JSON or CSV.
+ * Counters are exported together with their average rate per second since the registry was
+ * created, histograms with their count, mean, maximum and 50th, 90th and 99th percentiles.
+ */
+public final class MetricsSnapshot {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99"};
+
+    private final long elapsedNanos;
+    private final Map<String, Long> counters;
+    private final Map<String, Histogram.Snapshot> histograms;
+
+    MetricsSnapshot(long elapsedNanos, Map<String, Long> counters,
+                    Map<String, Histogram.Snapshot> histograms) {
+        this.elapsedNanos = elapsedNanos;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Returns the time since the registry was created in seconds.
+     */
+    public double getElapsedSeconds() {
+        return this.elapsedNanos / 1e9;
+    }
+
+    /**
+     * Returns the value of a counter, zero if there is no such counter.
+     */
+    public long getCounter(String name) {
+        Long value = this.counters.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * Returns the average increase of a counter per second.
+     */
+    public double getRate(String name) {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? getCounter(name) / seconds : 0;
+    }
+
+    /**
+     * Returns the snapshot of a histogram or {@code null} if there is no such histogram.
+     */
+    public Histogram.Snapshot getHistogram(String name) {
+        return this.histograms.get(name);
+    }
+
+    public Map<String, Long> getCounters() {
+        return this.counters;
+    }
+
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        return this.histograms;
+    }
+
+    /**
+     * Writes the snapshot as a JSON object.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\"elapsed_seconds\":" + format(getElapsedSeconds()) + ",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : this.counters.entrySet()) {
+            writer.write(separator + quote(entry.getKey()) + ":{\"count\":" + entry.getValue()
+                    + ",\"per_second\":" + format(getRate(entry.getKey())) + "}");
+            separator = ",";
+        }
+        writer.write("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, Histogram.Snapshot> entry : this.histograms.entrySet()) {
+            Histogram.Snapshot histogram = entry.getValue();
+            writer.write(separator + quote(entry.getKey()) + ":{\"count\":" + histogram.getCount()
+                    + ",\"mean\":" + format(histogram.getMean()));
+            for (int i = 0; i < QUANTILES.length; i++) {
+                writer.write(",\"" + QUANTILE_NAMES[i] + "\":" + histogram.getQuantile(QUANTILES[i]));
+            }
+            writer.write(",\"max\":" + histogram.getMax() + "}");
+            separator = ",";
+        }
+        writer.write("}}\n");
+    }
+
+    /**
+     * Writes the snapshot as CSV with a {@code metric,statistic,value} row per value.
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("metric,statistic,value\n");
+        writer.write("elapsed,seconds," + format(getElapsedSeconds()) + "\n");
+        for (Map.Entry<String, Long> entry : this.counters.entrySet()) {
+            writer.write(entry.getKey() + ",count," + entry.getValue() + "\n");
+            writer.write(entry.getKey() + ",per_second," + format(getRate(entry.getKey())) + "\n");
+        }
+        for (Map.Entry<String, Histogram.Snapshot> entry : this.histograms.entrySet()) {
+            Histogram.Snapshot histogram = entry.getValue();
+            writer.write(entry.getKey() + ",count," + histogram.getCount() + "\n");
+            writer.write(entry.getKey() + ",mean," + format(histogram.getMean()) + "\n");
+            for (int i = 0; i < QUANTILES.length; i++) {
+                writer.write(entry.getKey() + "," + QUANTILE_NAMES[i] + ","
+                        + histogram.getQuantile(QUANTILES[i]) + "\n");
+            }
+            writer.write(entry.getKey() + ",max," + histogram.getMax() + "\n");
+        }
+    }
+
+    /**
+     * Writes the snapshot next to a session file, as {@code <session>.metrics.json} and
+     * {@code <session>.metrics.csv}.
+     *
+     * @param sessionFile File the metrics were collected for.
+     * @throws IOException If one of the files could not be written.
+     */
+    public void writeFiles(File sessionFile) throws IOException {
+        Writer json = new OutputStreamWriter(
+                new FileOutputStream(sessionFile.getPath() + ".metrics.json"), "US-ASCII");
+        try {
+            writeJson(json);
+        } finally {
+            json.close();
+        }
+        Writer csv = new OutputStreamWriter(
+                new FileOutputStream(sessionFile.getPath() + ".metrics.csv"), "US-ASCII");
+        try {
+            writeCsv(csv);
+        } finally {
+            csv.close();
+        }
+    }
+
+    public String toJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeJson(writer);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toString();
+    }
+
+    public String toCsv() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeCsv(writer);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    // Metric names are plain identifiers, only quotes and backslashes need escaping.
+    private static String quote(String name) {
+        return "\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,220 @@
+package cz.zcu.fav.dpoch.point_cloud.core.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+import cz.zcu.fav.dpoch.point_cloud.core.source.PacedSource;
+
+/**
+ * Receives one stream sent by a {@link NetworkSink}. The receiver listens from its creation and
+ * accepts the first connection, either as a source delivering the frames and poses to a
+ * listener as they arrive, so any processing pipeline can run on them like on a live device, or
+ * by {@link #receive(FrameSink)} writing the frames unchanged into a sink such as a
+ * {@code SessionWriter}.
+ */
+public class NetworkReceiver extends PacedSource {
+
+    private static final String THREAD_NAME = "NetworkReceiver";
+    // Longer records are rejected instead of allocating memory for them, 16M raw points.
+    private static final int MAX_RECORD_LENGTH = 256 * 1024 * 1024;
+
+    private final ServerSocketChannel server;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(SessionFormat.FRAME_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[4];
+    private volatile SocketChannel channel;
+    private ByteBuffer encoded;
+    private FrameCodec codec;
+    private volatile long receivedBytes = 0;
+    private volatile long frameCount = 0;
+    private volatile long poseCount = 0;
+
+    /**
+     * Listens on all interfaces.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     * @throws IOException If the port could not be bound.
+     */
+    public NetworkReceiver(int port) throws IOException {
+        this(new InetSocketAddress(port));
+    }
+
+    /**
+     * @param address Address to listen on.
+     * @throws IOException If the address could not be bound.
+     */
+    public NetworkReceiver(InetSocketAddress address) throws IOException {
+        super(THREAD_NAME, false);
+        this.server = ServerSocketChannel.open();
+        try {
+            this.server.socket().setReuseAddress(true);
+            this.server.socket().bind(address, 1);
+        } catch (IOException e) {
+            this.server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the port the receiver listens on.
+     */
+    public int getPort() {
+        return this.server.socket().getLocalPort();
+    }
+
+    /**
+     * Waits for the sender and writes all received frames into a sink, which is not closed. Poses
+     * between the frames are only counted, the frames carry their own. Used instead of starting
+     * the receiver as a source.
+     *
+     * @param sink Sink receiving the frames.
+     * @throws IOException If the stream is malformed, the connection broke or a frame could not be
+     *                     written.
+     */
+    public void receive(FrameSink sink) throws IOException {
+        PointCloudFrame frame = new PointCloudFrame(0);
+        while (readFrame(frame)) {
+            sink.write(frame);
+        }
+    }
+
+    @Override
+    protected boolean readFrame(PointCloudFrame frame) throws IOException {
+        if (this.channel == null) {
+            accept();
+        }
+        while (true) {
+            ByteBuffer header = this.header;
+            header.clear();
+            header.limit(StreamFormat.RECORD_PREFIX_SIZE);
+            if (!read(header, true)) {
+                return false;
+            }
+            int length = header.getInt(0);
+            int magic = header.getInt(4);
+            if (magic == StreamFormat.POSE_MAGIC) {
+                header.limit(StreamFormat.POSE_RECORD_SIZE);
+                read(header, false);
+                header.flip();
+                double timestamp = StreamFormat.getPoseRecord(header, this.translation, this.rotation);
+                this.poseCount++;
+                deliverDevicePose(timestamp, this.translation, this.rotation);
+                continue;
+            }
+            if (magic != SessionFormat.FRAME_MAGIC || length > MAX_RECORD_LENGTH) {
+                throw new IOException("Corrupted stream record.");
+            }
+            header.limit(SessionFormat.FRAME_HEADER_SIZE);
+            read(header, false);
+            header.flip();
+            int flags = SessionFormat.getFrameHeader(header, frame);
+            if ((flags & SessionFormat.FLAG_ENCODED) == 0) {
+                read(frame.getBytes(), false);
+            } else {
+                readEncoded(frame, length - (SessionFormat.FRAME_HEADER_SIZE - 4));
+            }
+            this.frameCount++;
+            return true;
+        }
+    }
+
+    private void readEncoded(PointCloudFrame frame, int payloadLength) throws IOException {
+        if (this.encoded == null || this.encoded.capacity() < payloadLength) {
+            this.encoded = ByteBuffer.allocate(payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (this.codec == null) {
+            this.codec = new FrameCodec();
+        }
+        this.encoded.clear();
+        this.encoded.limit(payloadLength);
+        read(this.encoded, false);
+        this.encoded.flip();
+        int numPoints = frame.getNumPoints();
+        this.codec.decode(this.encoded, frame);
+        if (frame.getNumPoints() != numPoints) {
+            throw new IOException("Corrupted frame record.");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (!read(header, true)) {
+            throw new IOException("Connection closed before the stream header.");
+        }
+        header.flip();
+        SessionFormat.checkFileHeader(header);
+    }
+
+    /**
+     * Fills the remaining space of a buffer from the connection.
+     *
+     * @param atBoundary Whether the end of the stream may come before the first byte.
+     * @return {@code false} if the stream ended at a record boundary.
+     */
+    private boolean read(ByteBuffer buffer, boolean atBoundary) throws IOException {
+        boolean first = true;
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer);
+            if (read < 0) {
+                if (atBoundary && first) {
+                    return false;
+                }
+                throw new IOException("Stream ended in the middle of a record.");
+            }
+            if (read > 0) {
+                first = false;
+                this.receivedBytes += read;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void release() throws IOException {
+        try {
+            SocketChannel channel = this.channel;
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            this.server.close();
+            if (this.codec != null) {
+                this.codec.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes received so far.
+     */
+    public long getReceivedBytes() {
+        return this.receivedBytes;
+    }
+
+    /**
+     * Returns the number of frames received so far.
+     */
+    public long getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the number of poses received so far, delivered to the listener or skipped by
+     * {@link #receive(FrameSink)}.
+     */
+    public long getPoseCount() {
+        return this.poseCount;
+    }
+}
@@ -0,0 +1,320 @@
+package cz.zcu.fav.dpoch.point_cloud.core.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+
+/**
+ * Streams frames and device poses over TCP in the {@link StreamFormat} to a
+ * {@link NetworkReceiver}, typically on a workstation processing a scan while it is captured.
+ *
+ * <p>Frames are put into records, optionally encoded by a {@link FrameCodec}, on the calling
+ * thread and sent by a thread of the sink, so encoding the next frame overlaps sending the
+ * previous ones. At most a fixed number of frame records is in flight, {@link #write} blocks
+ * while all of them are waiting to be sent, which pushes back on the {@code CapturePipeline}
+ * like a slow disk. Poses are small and must not stall the callback thread, they are dropped
+ * instead when too many of them wait.</p>
+ *
+ * <p>The connection is opened by the sending thread, so the sink can be created on a thread
+ * that must not do network I/O. A failed connection or send is reported by the next
+ * {@link #write} or by {@link #close()}.</p>
+ */
+public class NetworkSink implements FrameSink {
+
+    /** Default number of frame records waiting to be sent before writing blocks. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private static final String THREAD_NAME = "NetworkSink";
+    // Poses arrive at about 100 Hz, a fraction of a second of them may wait for a large frame.
+    private static final int POSE_BUFFERS = 64;
+    private static final int SOCKET_BUFFER_SIZE = 1024 * 1024;
+    // Queued by close() after the last record.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final InetSocketAddress address;
+    private final FrameCodec codec;
+    private final BlockingQueue<ByteBuffer> freeFrames;
+    private final BlockingQueue<ByteBuffer> freePoses;
+    private final BlockingQueue<ByteBuffer> pending;
+    private final Thread thread;
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong sentPoses = new AtomicLong();
+    private final AtomicLong droppedPoses = new AtomicLong();
+    private volatile IOException error;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a sink streaming raw frames with {@link #DEFAULT_MAX_IN_FLIGHT} records in flight.
+     *
+     * @param host Host name or address of the receiver.
+     * @param port Port of the receiver.
+     */
+    public NetworkSink(String host, int port) {
+        this(InetSocketAddress.createUnresolved(host, port), null, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param address Address of the receiver, resolved by the sending thread if unresolved.
+     * @param codec Codec encoding the frames, or {@code null} to send raw points. The codec is
+     *              released when the sink is closed.
+     * @param maxInFlight Number of frame records waiting to be sent before writing blocks.
+     */
+    public NetworkSink(InetSocketAddress address, FrameCodec codec, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one frame must be in flight: " + maxInFlight);
+        }
+        this.address = address;
+        this.codec = codec;
+        this.freeFrames = new ArrayBlockingQueue<ByteBuffer>(maxInFlight);
+        this.freePoses = new ArrayBlockingQueue<ByteBuffer>(POSE_BUFFERS);
+        this.pending = new ArrayBlockingQueue<ByteBuffer>(maxInFlight + POSE_BUFFERS + 1);
+        // Frame records are direct buffers grown as needed, pose records heap buffers, which
+        // tells the sending thread where to return them.
+        for (int i = 0; i < maxInFlight; i++) {
+            this.freeFrames.add(ByteBuffer.allocateDirect(0));
+        }
+        for (int i = 0; i < POSE_BUFFERS; i++) {
+            this.freePoses.add(ByteBuffer.allocate(StreamFormat.POSE_RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                send();
+            }
+        }, THREAD_NAME);
+        this.thread.start();
+    }
+
+    private void send() {
+        SocketChannel channel = null;
+        try {
+            InetSocketAddress address = this.address.isUnresolved()
+                    ? new InetSocketAddress(this.address.getHostString(), this.address.getPort())
+                    : this.address;
+            channel = SocketChannel.open();
+            channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+            // Poses are small and worth receiving right away.
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            ByteBuffer header = ByteBuffer.allocate(SessionFormat.FILE_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            SessionFormat.putFileHeader(header);
+            header.flip();
+            writeFully(channel, header);
+            this.sentBytes.addAndGet(SessionFormat.FILE_HEADER_SIZE);
+
+            ByteBuffer record;
+            while ((record = this.pending.take()) != END) {
+                try {
+                    int length = record.remaining();
+                    writeFully(channel, record);
+                    this.sentBytes.addAndGet(length);
+                    (record.isDirect() ? this.sentFrames : this.sentPoses).incrementAndGet();
+                } finally {
+                    recycle(record);
+                }
+            }
+        } catch (IOException e) {
+            this.error = e;
+            discardPending();
+        } catch (InterruptedException e) {
+            this.error = new InterruptedIOException("Streaming was interrupted.");
+            discardPending();
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    if (this.error == null) {
+                        this.error = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the records queued after a failure to their pools until the sink is closed, so
+     * that writers never wait for a send that will not happen.
+     */
+    private void discardPending() {
+        ByteBuffer record;
+        while (true) {
+            try {
+                if ((record = this.pending.take()) == END) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            recycle(record);
+        }
+    }
+
+    private void recycle(ByteBuffer record) {
+        (record.isDirect() ? this.freeFrames : this.freePoses).add(record);
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Puts a frame into a record queued for sending. Blocks while all frame records are in
+     * flight.
+     *
+     * @param frame Frame to send.
+     * @throws IOException If the sink is closed, or connecting or sending has failed.
+     */
+    @Override
+    public void write(PointCloudFrame frame) throws IOException {
+        checkState();
+        ByteBuffer record;
+        try {
+            record = this.freeFrames.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the network.");
+        }
+        if (this.error != null) {
+            this.freeFrames.add(record);
+            checkState();
+        }
+        int numPoints = frame.getNumPoints();
+        int capacity = SessionFormat.FRAME_HEADER_SIZE + (this.codec == null
+                ? numPoints * PointCloudFrame.BYTES_PER_POINT
+                : FrameCodec.maxEncodedLength(numPoints) + 8);
+        if (record.capacity() < capacity) {
+            record = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        record.clear();
+        if (this.codec == null) {
+            SessionFormat.putFrameHeader(record, frame);
+            record.put(frame.getBytes());
+        } else {
+            record.position(SessionFormat.FRAME_HEADER_SIZE);
+            int length = this.codec.encode(frame, record);
+            while ((record.position() & 7) != 0) {
+                record.put((byte) 0);
+            }
+            int end = record.position();
+            record.position(0);
+            SessionFormat.putEncodedFrameHeader(record, frame, length);
+            record.position(end);
+        }
+        record.flip();
+        this.pending.add(record);
+    }
+
+    /**
+     * Queues a device pose for sending between the frames. Never blocks, so it can be called
+     * from a pose callback on any thread.
+     *
+     * @param timestamp Timestamp of the pose in seconds.
+     * @param translation Translation x, y, z in meters.
+     * @param rotation Rotation quaternion x, y, z, w.
+     * @return {@code false} if the pose was dropped because too many poses wait, or the sink is
+     *         closed or has failed.
+     */
+    public boolean writePose(double timestamp, double[] translation, double[] rotation) {
+        if (this.closed || this.error != null) {
+            return false;
+        }
+        ByteBuffer record = this.freePoses.poll();
+        if (record == null) {
+            this.droppedPoses.incrementAndGet();
+            return false;
+        }
+        record.clear();
+        StreamFormat.putPoseRecord(record, timestamp, translation, rotation);
+        record.flip();
+        this.pending.add(record);
+        return true;
+    }
+
+    private void checkState() throws IOException {
+        if (this.closed) {
+            throw new IOException("Sink is closed.");
+        }
+        IOException error = this.error;
+        if (error != null) {
+            throw new IOException("Streaming to " + this.address + " failed.", error);
+        }
+    }
+
+    /**
+     * Sends the queued records and closes the connection.
+     *
+     * @throws IOException If connecting or sending has failed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        this.pending.add(END);
+        boolean interrupted = false;
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.codec != null) {
+            this.codec.release();
+        }
+        IOException error = this.error;
+        if (error != null) {
+            throw new IOException("Streaming to " + this.address + " failed.", error);
+        }
+    }
+
+    /**
+     * Returns the number of bytes sent so far, including the stream header.
+     */
+    public long getSentBytes() {
+        return this.sentBytes.get();
+    }
+
+    /**
+     * Returns the number of frames sent so far.
+     */
+    public long getSentFrames() {
+        return this.sentFrames.get();
+    }
+
+    /**
+     * Returns the number of poses sent so far.
+     */
+    public long getSentPoses() {
+        return this.sentPoses.get();
+    }
+
+    /**
+     * Returns the number of poses dropped because too many poses waited to be sent.
+     */
+    public long getDroppedPoses() {
+        return this.droppedPoses.get();
+    }
+}
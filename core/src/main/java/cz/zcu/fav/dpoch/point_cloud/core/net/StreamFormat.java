@@ -0,0 +1,84 @@
+package cz.zcu.fav.dpoch.point_cloud.core.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+
+/**
+ * Layout of a live stream of frames and device poses sent over a TCP connection. The stream is
+ * a session file without the index, with pose records between the frame records. All values are
+ * little-endian.
+ *
+ * <pre>
+ * header        {@link SessionFormat} file header
+ * frame record  {@link SessionFormat} frame record, raw or encoded
+ * pose record   int length of the rest of the record, int magic "POS0",
+ *               double timestamp, double[3] translation, double[4] rotation
+ * ...
+ * </pre>
+ *
+ * <p>Both kinds of records start with the length and the magic, so a receiver reads those eight
+ * bytes first to tell them apart. The stream ends when the sender closes the connection after a
+ * complete record.</p>
+ */
+public final class StreamFormat {
+
+    /** Port the receiver listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 48700;
+
+    /** Magic number at the beginning of every pose record after its length, "POS0". */
+    public static final int POSE_MAGIC = 0x30534f50;
+
+    /** Size of a pose record, including the length prefix. */
+    public static final int POSE_RECORD_SIZE = 72;
+
+    /** Number of bytes of the length prefix and the magic starting every record. */
+    public static final int RECORD_PREFIX_SIZE = 8;
+
+    private StreamFormat() {
+    }
+
+    /**
+     * Puts a pose record, including its length prefix, into a little-endian buffer.
+     *
+     * @param timestamp Timestamp of the pose in seconds.
+     * @param translation Translation x, y, z in meters.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    public static void putPoseRecord(ByteBuffer buffer, double timestamp, double[] translation,
+                                     double[] rotation) {
+        buffer.putInt(POSE_RECORD_SIZE - 4);
+        buffer.putInt(POSE_MAGIC);
+        buffer.putDouble(timestamp);
+        for (int i = 0; i < 3; i++) {
+            buffer.putDouble(translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer.putDouble(rotation[i]);
+        }
+    }
+
+    /**
+     * Reads a pose record from a little-endian buffer.
+     *
+     * @param translation Array receiving the translation.
+     * @param rotation Array receiving the rotation.
+     * @return Timestamp of the pose.
+     * @throws IOException If the buffer does not contain a valid pose record.
+     */
+    public static double getPoseRecord(ByteBuffer buffer, double[] translation, double[] rotation)
+            throws IOException {
+        if (buffer.getInt() != POSE_RECORD_SIZE - 4 || buffer.getInt() != POSE_MAGIC) {
+            throw new IOException("Corrupted pose record.");
+        }
+        double timestamp = buffer.getDouble();
+        for (int i = 0; i < 3; i++) {
+            translation[i] = buffer.getDouble();
+        }
+        for (int i = 0; i < 4; i++) {
+            rotation[i] = buffer.getDouble();
+        }
+        return timestamp;
+    }
+}
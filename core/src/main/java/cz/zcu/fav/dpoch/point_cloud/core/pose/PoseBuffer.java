@@ -0,0 +1,195 @@
+package cz.zcu.fav.dpoch.point_cloud.core.pose;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free ring buffer of the most recent timestamped poses. Poses are added by a single
+ * producer, e.g. the Tango pose callback, and looked up by timestamp from any thread with linear
+ * interpolation of the translation and spherical linear interpolation of the rotation.
+ *
+ * <p>Pose values are stored as raw long bits in atomic arrays, which keeps the buffer free of
+ * locks and allocations. Every slot carries the sequence number of the pose stored in it. A reader
+ * only uses poses published before it started and checks the sequence number again after reading
+ * a slot, so a pose overwritten meanwhile is detected instead of being read torn.</p>
+ */
+public class PoseBuffer {
+
+    // Timestamp, translation x, y, z and rotation x, y, z, w.
+    private static final int SLOT_SIZE = 8;
+    private static final long EMPTY_SLOT = -1;
+
+    private final int capacity;
+    private final AtomicLongArray values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param capacity Number of most recent poses kept in the buffer.
+     */
+    public PoseBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        this.capacity = capacity;
+        this.values = new AtomicLongArray(capacity * SLOT_SIZE);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.sequences.set(i, EMPTY_SLOT);
+        }
+    }
+
+    /**
+     * Adds a pose. Poses have to be added with increasing timestamps by a single thread.
+     *
+     * @param timestamp Timestamp of the pose in seconds.
+     * @param translation Translation x, y, z.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    public void add(double timestamp, double[] translation, double[] rotation) {
+        long sequence = this.count.get();
+        int slot = (int) (sequence % this.capacity);
+        int base = slot * SLOT_SIZE;
+
+        this.sequences.set(slot, EMPTY_SLOT);
+        this.values.set(base, Double.doubleToRawLongBits(timestamp));
+        for (int i = 0; i < 3; i++) {
+            this.values.set(base + 1 + i, Double.doubleToRawLongBits(translation[i]));
+        }
+        for (int i = 0; i < 4; i++) {
+            this.values.set(base + 4 + i, Double.doubleToRawLongBits(rotation[i]));
+        }
+        this.sequences.set(slot, sequence);
+        this.count.set(sequence + 1);
+    }
+
+    /**
+     * Returns the number of poses added so far.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Finds the pose at the given timestamp, interpolated between the two closest stored poses.
+     *
+     * @param timestamp Timestamp in seconds.
+     * @param transform Transform that receives the pose.
+     * @return {@code false} if the timestamp is not covered by the stored poses.
+     */
+    public boolean lookup(double timestamp, RigidTransform transform) {
+        return lookup(timestamp, transform, 0);
+    }
+
+    /**
+     * Finds the pose at the given timestamp, interpolated between the two closest stored poses.
+     * A timestamp shortly after the newest pose is extrapolated from the two newest poses.
+     *
+     * @param timestamp Timestamp in seconds.
+     * @param transform Transform that receives the pose.
+     * @param maxExtrapolation Time in seconds after the newest pose up to which poses are
+     *                         extrapolated.
+     * @return {@code false} if the timestamp is not covered by the stored poses.
+     */
+    public boolean lookup(double timestamp, RigidTransform transform, double maxExtrapolation) {
+        long newest = this.count.get() - 1;
+        // The oldest slot may be overwritten by the producer at any moment, skip it.
+        long oldest = Math.max(0, newest - this.capacity + 2);
+        if (newest < oldest) {
+            return false;
+        }
+
+        double newestTimestamp = timestampOf(newest);
+        double oldestTimestamp = timestampOf(oldest);
+        if (Double.isNaN(newestTimestamp) || Double.isNaN(oldestTimestamp)
+                || !(timestamp <= newestTimestamp + maxExtrapolation)
+                || timestamp < oldestTimestamp) {
+            return false;
+        }
+
+        long low;
+        long next;
+        if (timestamp > newestTimestamp) {
+            // Continues the motion between the two newest poses.
+            if (newest == oldest) {
+                return false;
+            }
+            low = newest - 1;
+            next = newest;
+        } else {
+            // Find the last pose not newer than the timestamp.
+            low = oldest;
+            long high = newest;
+            while (low < high) {
+                long middle = (low + high + 1) >>> 1;
+                double middleTimestamp = timestampOf(middle);
+                if (Double.isNaN(middleTimestamp)) {
+                    return false;
+                }
+                if (middleTimestamp <= timestamp) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            next = low == newest ? low : low + 1;
+        }
+        double timestampBefore = value(low, 0);
+        double timestampAfter = value(next, 0);
+        double t = timestampAfter > timestampBefore
+                ? (timestamp - timestampBefore) / (timestampAfter - timestampBefore) : 0;
+        double tx = lerp(value(low, 1), value(next, 1), t);
+        double ty = lerp(value(low, 2), value(next, 2), t);
+        double tz = lerp(value(low, 3), value(next, 3), t);
+        double ax = value(low, 4), ay = value(low, 5), az = value(low, 6), aw = value(low, 7);
+        double bx = value(next, 4), by = value(next, 5), bz = value(next, 6), bw = value(next, 7);
+        if (!isStored(low) || !isStored(next)) {
+            return false;
+        }
+
+        double dot = ax * bx + ay * by + az * bz + aw * bw;
+        double sign = 1;
+        if (dot < 0) {
+            // Take the shorter way around.
+            dot = -dot;
+            sign = -1;
+        }
+        double weightA;
+        double weightB;
+        if (dot > 0.9995) {
+            // Nearly identical rotations, linear interpolation is accurate and stable.
+            weightA = 1 - t;
+            weightB = t;
+        } else {
+            double angle = Math.acos(dot);
+            double sin = Math.sin(angle);
+            weightA = Math.sin((1 - t) * angle) / sin;
+            weightB = Math.sin(t * angle) / sin;
+        }
+        weightB *= sign;
+        transform.set(tx, ty, tz,
+                weightA * ax + weightB * bx,
+                weightA * ay + weightB * by,
+                weightA * az + weightB * bz,
+                weightA * aw + weightB * bw);
+        return true;
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    private double timestampOf(long sequence) {
+        int slot = (int) (sequence % this.capacity);
+        double timestamp = Double.longBitsToDouble(this.values.get(slot * SLOT_SIZE));
+        return this.sequences.get(slot) == sequence ? timestamp : Double.NaN;
+    }
+
+    private double value(long sequence, int field) {
+        return Double.longBitsToDouble(this.values.get((int) (sequence % this.capacity) * SLOT_SIZE + field));
+    }
+
+    private boolean isStored(long sequence) {
+        return this.sequences.get((int) (sequence % this.capacity)) == sequence;
+    }
+}
@@ -0,0 +1,89 @@
+package cz.zcu.fav.dpoch.point_cloud.core.pose;
+
+/**
+ * Records device poses in the start of service frame and resolves the pose of the depth sensor
+ * at the time a point cloud was captured.
+ *
+ * <p>{@link #onDevicePose(double, double[], double[])} is called by the pose producer and
+ * {@link #sensorPoseAt(double)} by a single consumer, usually the point cloud callback.</p>
+ */
+public class PoseTracker {
+
+    /** Number of poses kept by default, a few seconds of Tango pose updates. */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * Time in seconds after the newest pose up to which poses are extrapolated by default, a few
+     * Tango pose updates. A point cloud often arrives before the pose of its timestamp.
+     */
+    public static final double DEFAULT_MAX_EXTRAPOLATION = 0.05;
+
+    private final PoseBuffer devicePoses;
+    private final double maxExtrapolation;
+    private final RigidTransform deviceToSensor = new RigidTransform();
+    private final RigidTransform sensorPose = new RigidTransform();
+
+    public PoseTracker() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_EXTRAPOLATION);
+    }
+
+    /**
+     * @param capacity Number of most recent device poses kept.
+     */
+    public PoseTracker(int capacity) {
+        this(capacity, DEFAULT_MAX_EXTRAPOLATION);
+    }
+
+    /**
+     * @param capacity Number of most recent device poses kept.
+     * @param maxExtrapolation Time in seconds after the newest pose up to which poses are
+     *                         extrapolated, 0 to resolve only timestamps between poses.
+     */
+    public PoseTracker(int capacity, double maxExtrapolation) {
+        if (!(maxExtrapolation >= 0)) {
+            throw new IllegalArgumentException("Extrapolation must not be negative: "
+                    + maxExtrapolation);
+        }
+        this.devicePoses = new PoseBuffer(capacity);
+        this.maxExtrapolation = maxExtrapolation;
+    }
+
+    /**
+     * Sets the fixed pose of the depth sensor relative to the device. Identity by default.
+     *
+     * @param translation Translation x, y, z.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    public synchronized void setDeviceToSensor(double[] translation, double[] rotation) {
+        this.deviceToSensor.set(translation, rotation);
+    }
+
+    /**
+     * Records a valid pose of the device in the start of service frame.
+     *
+     * @param timestamp Timestamp of the pose in seconds.
+     * @param translation Translation x, y, z.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+        this.devicePoses.add(timestamp, translation, rotation);
+    }
+
+    /**
+     * Returns the pose of the depth sensor in the start of service frame at the given time.
+     *
+     * @param timestamp Timestamp of a point cloud in seconds.
+     * @return Transform from the sensor frame to the start of service frame, reused by the next
+     *         call, or {@code null} when no pose is known for the timestamp or shortly before.
+     */
+    public synchronized RigidTransform sensorPoseAt(double timestamp) {
+        if (!this.devicePoses.lookup(timestamp, this.sensorPose, this.maxExtrapolation)) {
+            return null;
+        }
+        return this.sensorPose.compose(this.sensorPose, this.deviceToSensor);
+    }
+
+    public PoseBuffer getDevicePoses() {
+        return this.devicePoses;
+    }
+}
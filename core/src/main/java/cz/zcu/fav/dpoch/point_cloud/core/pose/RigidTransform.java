@@ -0,0 +1,186 @@
+package cz.zcu.fav.dpoch.point_cloud.core.pose;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Mutable rotation and translation, stored both as a quaternion and as a rotation matrix so that
+ * it can be composed cheaply and applied to large batches of points without allocations.
+ */
+public final class RigidTransform {
+
+    private final double[] translation = new double[3];
+    private final double[] rotation = {0, 0, 0, 1};
+    // Row-major rotation matrix derived from the rotation quaternion.
+    private final double[] matrix = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    /**
+     * Sets the transform to identity.
+     *
+     * @return This transform.
+     */
+    public RigidTransform setIdentity() {
+        return set(0, 0, 0, 0, 0, 0, 1);
+    }
+
+    /**
+     * Sets the transform from a Tango style pose.
+     *
+     * @param translation Translation x, y, z.
+     * @param rotation Rotation quaternion x, y, z, w.
+     * @return This transform.
+     */
+    public RigidTransform set(double[] translation, double[] rotation) {
+        return set(translation[0], translation[1], translation[2],
+                rotation[0], rotation[1], rotation[2], rotation[3]);
+    }
+
+    /**
+     * Copies another transform.
+     *
+     * @return This transform.
+     */
+    public RigidTransform set(RigidTransform other) {
+        return set(other.translation, other.rotation);
+    }
+
+    /**
+     * Sets the transform from a translation and a rotation quaternion, which gets normalized.
+     *
+     * @return This transform.
+     */
+    public RigidTransform set(double tx, double ty, double tz,
+                              double qx, double qy, double qz, double qw) {
+        double norm = Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+        if (norm == 0) {
+            qx = qy = qz = 0;
+            qw = norm = 1;
+        }
+        qx /= norm;
+        qy /= norm;
+        qz /= norm;
+        qw /= norm;
+
+        this.translation[0] = tx;
+        this.translation[1] = ty;
+        this.translation[2] = tz;
+        this.rotation[0] = qx;
+        this.rotation[1] = qy;
+        this.rotation[2] = qz;
+        this.rotation[3] = qw;
+
+        this.matrix[0] = 1 - 2 * (qy * qy + qz * qz);
+        this.matrix[1] = 2 * (qx * qy - qz * qw);
+        this.matrix[2] = 2 * (qx * qz + qy * qw);
+        this.matrix[3] = 2 * (qx * qy + qz * qw);
+        this.matrix[4] = 1 - 2 * (qx * qx + qz * qz);
+        this.matrix[5] = 2 * (qy * qz - qx * qw);
+        this.matrix[6] = 2 * (qx * qz - qy * qw);
+        this.matrix[7] = 2 * (qy * qz + qx * qw);
+        this.matrix[8] = 1 - 2 * (qx * qx + qy * qy);
+        return this;
+    }
+
+    /**
+     * Sets this transform to {@code first * second}, i.e. the transform that applies
+     * {@code second} and then {@code first}. Either argument may be this transform.
+     *
+     * @return This transform.
+     */
+    public RigidTransform compose(RigidTransform first, RigidTransform second) {
+        double[] m = first.matrix;
+        double[] t = second.translation;
+        double tx = m[0] * t[0] + m[1] * t[1] + m[2] * t[2] + first.translation[0];
+        double ty = m[3] * t[0] + m[4] * t[1] + m[5] * t[2] + first.translation[1];
+        double tz = m[6] * t[0] + m[7] * t[1] + m[8] * t[2] + first.translation[2];
+
+        double ax = first.rotation[0], ay = first.rotation[1], az = first.rotation[2], aw = first.rotation[3];
+        double bx = second.rotation[0], by = second.rotation[1], bz = second.rotation[2], bw = second.rotation[3];
+        return set(tx, ty, tz,
+                aw * bx + ax * bw + ay * bz - az * by,
+                aw * by - ax * bz + ay * bw + az * bx,
+                aw * bz + ax * by - ay * bx + az * bw,
+                aw * bw - ax * bx - ay * by - az * bz);
+    }
+
+    /**
+     * Sets this transform to the inverse of another one, which may be this transform.
+     *
+     * @return This transform.
+     */
+    public RigidTransform invert(RigidTransform other) {
+        double[] m = other.matrix;
+        double[] t = other.translation;
+        double tx = -(m[0] * t[0] + m[3] * t[1] + m[6] * t[2]);
+        double ty = -(m[1] * t[0] + m[4] * t[1] + m[7] * t[2]);
+        double tz = -(m[2] * t[0] + m[5] * t[1] + m[8] * t[2]);
+        double[] q = other.rotation;
+        return set(tx, ty, tz, -q[0], -q[1], -q[2], q[3]);
+    }
+
+    /**
+     * Transforms a batch of x, y, z, confidence points. Positions of the buffers are not changed
+     * and the confidence is copied unchanged. The source and destination may be the same buffer.
+     *
+     * @param source Points starting at the position of the buffer.
+     * @param destination Buffer the transformed points are written to, starting at its position.
+     * @param numPoints Number of points to transform.
+     */
+    public void transformPoints(FloatBuffer source, FloatBuffer destination, int numPoints) {
+        float m0 = (float) this.matrix[0], m1 = (float) this.matrix[1], m2 = (float) this.matrix[2];
+        float m3 = (float) this.matrix[3], m4 = (float) this.matrix[4], m5 = (float) this.matrix[5];
+        float m6 = (float) this.matrix[6], m7 = (float) this.matrix[7], m8 = (float) this.matrix[8];
+        float tx = (float) this.translation[0];
+        float ty = (float) this.translation[1];
+        float tz = (float) this.translation[2];
+
+        int in = source.position();
+        int out = destination.position();
+        for (int i = 0; i < numPoints; i++, in += 4, out += 4) {
+            float x = source.get(in);
+            float y = source.get(in + 1);
+            float z = source.get(in + 2);
+            float c = source.get(in + 3);
+            destination.put(out, m0 * x + m1 * y + m2 * z + tx);
+            destination.put(out + 1, m3 * x + m4 * y + m5 * z + ty);
+            destination.put(out + 2, m6 * x + m7 * y + m8 * z + tz);
+            destination.put(out + 3, c);
+        }
+    }
+
+    /**
+     * Transforms a single point.
+     *
+     * @param point Point x, y, z, transformed in place.
+     */
+    public void transformPoint(double[] point) {
+        double[] m = this.matrix;
+        double x = point[0], y = point[1], z = point[2];
+        point[0] = m[0] * x + m[1] * y + m[2] * z + this.translation[0];
+        point[1] = m[3] * x + m[4] * y + m[5] * z + this.translation[1];
+        point[2] = m[6] * x + m[7] * y + m[8] * z + this.translation[2];
+    }
+
+    /**
+     * Returns the translation x, y, z. The array is owned by the transform and must not be
+     * modified.
+     */
+    public double[] getTranslation() {
+        return this.translation;
+    }
+
+    /**
+     * Returns the normalized rotation quaternion x, y, z, w. The array is owned by the transform
+     * and must not be modified.
+     */
+    public double[] getRotation() {
+        return this.rotation;
+    }
+
+    /**
+     * Returns the row-major 3x3 rotation matrix. The array is owned by the transform and must not
+     * be modified.
+     */
+    public double[] getMatrix() {
+        return this.matrix;
+    }
+}
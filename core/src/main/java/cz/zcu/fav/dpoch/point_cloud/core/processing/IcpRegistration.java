@@ -0,0 +1,527 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import java.nio.FloatBuffer;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameFilter;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.GridKey;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.LongIntHashMap;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Refines the poses of frames by point-to-plane ICP against a model accumulated from the
+ * previously registered frames, which removes the doubled walls caused by drift of the device
+ * poses.
+ *
+ * <p>Every iteration pairs a sample of the frame points with the nearest model points found in an
+ * {@link Octree}, fits a plane to the model neighbourhood of each pair and minimizes the squared
+ * distances of the frame points to these planes, linearized for small rotations. The 6 x 6
+ * normal equations are summed up in parallel by a fork-join pool. Iterations stop once the
+ * correction changes less than the tolerances. As a {@link FrameFilter} the stage corrects the
+ * pose of every frame, and its points when they are in the world frame, and then adds the frame
+ * to the model, keeping at most one point in every grid cell of the model spacing.</p>
+ */
+public class IcpRegistration implements FrameFilter {
+
+    /** Default maximum number of points of the model. */
+    public static final int DEFAULT_MAX_MODEL_POINTS = 2000000;
+
+    /** Default size of the grid cells holding one model point in meters. */
+    public static final float DEFAULT_MODEL_SPACING = 0.02f;
+
+    /** Default maximum distance between corresponding points in meters. */
+    public static final float DEFAULT_MAX_CORRESPONDENCE_DISTANCE = 0.1f;
+
+    /** Default maximum number of iterations per frame. */
+    public static final int DEFAULT_MAX_ITERATIONS = 20;
+
+    // Number of frame points paired with the model in every iteration.
+    private static final int SAMPLE_SIZE = 3000;
+    // Number of model points a plane is fitted to.
+    private static final int NEIGHBOURS = 8;
+    // Rotation in radians and translation in meters of a step below which iterations stop.
+    private static final double ROTATION_TOLERANCE = 1e-4;
+    private static final double TRANSLATION_TOLERANCE = 1e-4;
+    // Number of sample points below which a task is not split further.
+    private static final int TASK_SIZE = 256;
+    // Entries of the reduction: upper triangle of J^T J, J^T r, sum of squared residuals, count.
+    private static final int SUMS = 21 + 6 + 2;
+
+    private final Octree model;
+    private final float modelSpacing;
+    private final float maxCorrespondenceDistance;
+    private final int maxIterations;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    private final RigidTransform pose = new RigidTransform();
+    private final RigidTransform correction = new RigidTransform();
+    private final RigidTransform step = new RigidTransform();
+    private final double[] point = new double[3];
+    // Cells of the model spacing that already hold a model point.
+    private final LongIntHashMap cells = new LongIntHashMap(1024);
+    private float[] worldPoints = new float[0];
+    private float[] sample = new float[SAMPLE_SIZE * 3];
+    private Result lastResult;
+    private long registeredCount = 0;
+    private long convergedCount = 0;
+
+    /**
+     * Creates a registration with the default parameters running on
+     * {@link Parallel#defaultPool()}.
+     */
+    public IcpRegistration() {
+        this(DEFAULT_MAX_MODEL_POINTS, DEFAULT_MODEL_SPACING, DEFAULT_MAX_CORRESPONDENCE_DISTANCE,
+                DEFAULT_MAX_ITERATIONS, Parallel.defaultPool());
+    }
+
+    /**
+     * @param maxModelPoints Maximum number of points of the model. Once it is full, frames are
+     *                       still registered but no longer added.
+     * @param modelSpacing Size of the grid cells in meters that hold at most one model point.
+     * @param maxCorrespondenceDistance Maximum distance in meters between a frame point and its
+     *                                  nearest model point for them to be paired.
+     * @param maxIterations Maximum number of iterations per frame.
+     * @param pool Pool the normal equations are summed up in.
+     */
+    public IcpRegistration(int maxModelPoints, float modelSpacing,
+                           float maxCorrespondenceDistance, int maxIterations, ForkJoinPool pool) {
+        if (!(modelSpacing > 0)) {
+            throw new IllegalArgumentException("Model spacing must be positive: " + modelSpacing);
+        }
+        if (!(maxCorrespondenceDistance > 0)) {
+            throw new IllegalArgumentException("Correspondence distance must be positive: "
+                    + maxCorrespondenceDistance);
+        }
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("At least one iteration is needed: "
+                    + maxIterations);
+        }
+        this.model = new Octree(maxModelPoints);
+        this.modelSpacing = modelSpacing;
+        this.maxCorrespondenceDistance = maxCorrespondenceDistance;
+        this.maxIterations = maxIterations;
+        this.pool = pool;
+    }
+
+    /**
+     * Registers a frame against the model, corrects its pose and adds it to the model. The first
+     * frame only starts the model. Frames without a pose are registered as if their points were
+     * in the world frame and get their points corrected.
+     */
+    @Override
+    public void filter(PointCloudFrame frame) {
+        int numPoints = frame.getNumPoints();
+        FloatBuffer points = frame.getPoints();
+        boolean sensorFrame = frame.hasPose() && !frame.isWorldFrame();
+        if (this.worldPoints.length < numPoints * 3) {
+            this.worldPoints = new float[numPoints * 3];
+        }
+        float[] world = this.worldPoints;
+        this.pose.set(frame.getTranslation(), frame.getRotation());
+        for (int i = 0; i < numPoints; i++) {
+            int in = i * PointCloudFrame.FLOATS_PER_POINT;
+            this.point[0] = points.get(in);
+            this.point[1] = points.get(in + 1);
+            this.point[2] = points.get(in + 2);
+            if (sensorFrame) {
+                this.pose.transformPoint(this.point);
+            }
+            world[i * 3] = (float) this.point[0];
+            world[i * 3 + 1] = (float) this.point[1];
+            world[i * 3 + 2] = (float) this.point[2];
+        }
+
+        this.correction.setIdentity();
+        Result result = register(world, numPoints, this.correction);
+        this.lastResult = result;
+        this.registeredCount++;
+        if (result.isConverged()) {
+            this.convergedCount++;
+        }
+
+        if (result.getIterations() > 0) {
+            if (frame.hasPose()) {
+                this.pose.compose(this.correction, this.pose);
+                frame.setPose(this.pose.getTranslation(), this.pose.getRotation());
+            }
+            if (!sensorFrame) {
+                this.correction.transformPoints(points, points, numPoints);
+            }
+        }
+        addToModel(world, numPoints, points);
+    }
+
+    /**
+     * Adds the points of a registered frame to the model.
+     *
+     * @param world Uncorrected world coordinates of the points.
+     * @param points Points of the frame to take the confidence from.
+     */
+    private void addToModel(float[] world, int numPoints, FloatBuffer points) {
+        float inverseSpacing = 1 / this.modelSpacing;
+        for (int i = 0; i < numPoints; i++) {
+            if (this.model.size() == this.model.getMaxPoints()) {
+                return;
+            }
+            this.point[0] = world[i * 3];
+            this.point[1] = world[i * 3 + 1];
+            this.point[2] = world[i * 3 + 2];
+            this.correction.transformPoint(this.point);
+            float x = (float) this.point[0], y = (float) this.point[1], z = (float) this.point[2];
+            float cx = (float) Math.floor(x * inverseSpacing);
+            float cy = (float) Math.floor(y * inverseSpacing);
+            float cz = (float) Math.floor(z * inverseSpacing);
+            // Also false for NaN.
+            if (!(cx >= GridKey.MIN_COORDINATE && cx <= GridKey.MAX_COORDINATE
+                    && cy >= GridKey.MIN_COORDINATE && cy <= GridKey.MAX_COORDINATE
+                    && cz >= GridKey.MIN_COORDINATE && cz <= GridKey.MAX_COORDINATE)) {
+                continue;
+            }
+            long key = GridKey.pack((int) cx, (int) cy, (int) cz);
+            int next = this.model.size();
+            if (this.cells.putIfAbsent(key, next) == next) {
+                this.model.insertPoint(x, y, z,
+                        points.get(i * PointCloudFrame.FLOATS_PER_POINT + 3));
+            }
+        }
+    }
+
+    /**
+     * Finds the transform aligning points to the model. The model is not changed.
+     *
+     * @param points World coordinates x, y, z of the points. Invalid points are ignored.
+     * @param numPoints Number of points.
+     * @param correction Initial guess of the transform, receiving the refined transform.
+     * @return Result of the registration, with no iterations if the model is empty.
+     */
+    public Result register(float[] points, int numPoints, RigidTransform correction) {
+        int sampleSize = sample(points, numPoints);
+        if (this.model.size() == 0 || sampleSize == 0) {
+            return new Result(0, 0, Double.NaN, Double.NaN, false);
+        }
+
+        double[] system = new double[SUMS];
+        double[] update = new double[6];
+        double initialRms = Double.NaN;
+        double rms = Double.NaN;
+        int correspondences = 0;
+        int iterations = 0;
+        boolean converged = false;
+        while (iterations < this.maxIterations && !converged) {
+            double[] matrix = correction.getMatrix();
+            double[] translation = correction.getTranslation();
+            double[] sums = this.pool.invoke(new ReductionTask(matrix, translation, 0, sampleSize));
+            correspondences = (int) sums[SUMS - 1];
+            if (correspondences < 6) {
+                break;
+            }
+            iterations++;
+            rms = Math.sqrt(sums[SUMS - 2] / correspondences);
+            if (iterations == 1) {
+                initialRms = rms;
+            }
+            System.arraycopy(sums, 0, system, 0, SUMS);
+            if (!solve(system, update)) {
+                break;
+            }
+
+            double angle = Math.sqrt(update[0] * update[0] + update[1] * update[1]
+                    + update[2] * update[2]);
+            double distance = Math.sqrt(update[3] * update[3] + update[4] * update[4]
+                    + update[5] * update[5]);
+            double sin = angle > 0 ? Math.sin(angle / 2) / angle : 0.5;
+            this.step.set(update[3], update[4], update[5],
+                    update[0] * sin, update[1] * sin, update[2] * sin, Math.cos(angle / 2));
+            correction.compose(this.step, correction);
+            converged = angle < ROTATION_TOLERANCE && distance < TRANSLATION_TOLERANCE;
+        }
+        return new Result(iterations, correspondences, initialRms, rms, converged);
+    }
+
+    /**
+     * Picks evenly spread valid points into the sample.
+     *
+     * @return Number of sampled points.
+     */
+    private int sample(float[] points, int numPoints) {
+        int stride = Math.max(1, (numPoints + SAMPLE_SIZE - 1) / SAMPLE_SIZE);
+        int size = 0;
+        for (int i = 0; i < numPoints && size < SAMPLE_SIZE; i += stride) {
+            float x = points[i * 3], y = points[i * 3 + 1], z = points[i * 3 + 2];
+            if (Math.abs(x) <= Octree.MAX_COORDINATE && Math.abs(y) <= Octree.MAX_COORDINATE
+                    && Math.abs(z) <= Octree.MAX_COORDINATE) {
+                this.sample[size * 3] = x;
+                this.sample[size * 3 + 1] = y;
+                this.sample[size * 3 + 2] = z;
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Adds the point-to-plane terms of a range of sample points to the sums.
+     */
+    private void accumulate(double[] matrix, double[] translation, int from, int to,
+                            double[] sums) {
+        Scratch scratch = this.scratch.get();
+        int[] indices = scratch.indices;
+        float[] distancesSquared = scratch.distancesSquared;
+        double[] centroid = scratch.centroid;
+        double[] normal = scratch.normal;
+        float maxDistanceSquared = this.maxCorrespondenceDistance * this.maxCorrespondenceDistance;
+        for (int i = from; i < to; i++) {
+            double sx = this.sample[i * 3], sy = this.sample[i * 3 + 1], sz = this.sample[i * 3 + 2];
+            double px = matrix[0] * sx + matrix[1] * sy + matrix[2] * sz + translation[0];
+            double py = matrix[3] * sx + matrix[4] * sy + matrix[5] * sz + translation[1];
+            double pz = matrix[6] * sx + matrix[7] * sy + matrix[8] * sz + translation[2];
+            int found = this.model.nearest((float) px, (float) py, (float) pz, NEIGHBOURS,
+                    indices, distancesSquared);
+            if (found < 3 || distancesSquared[0] > maxDistanceSquared
+                    || !NormalEstimator.fitPlane(this.model, indices, found, centroid, normal)) {
+                continue;
+            }
+            double nx = normal[0], ny = normal[1], nz = normal[2];
+            double residual = nx * (px - this.model.getX(indices[0]) - centroid[0])
+                    + ny * (py - this.model.getY(indices[0]) - centroid[1])
+                    + nz * (pz - this.model.getZ(indices[0]) - centroid[2]);
+            // Jacobian of the residual by the rotation and translation of a small step.
+            double j0 = py * nz - pz * ny;
+            double j1 = pz * nx - px * nz;
+            double j2 = px * ny - py * nx;
+            double[] j = scratch.jacobian;
+            j[0] = j0;
+            j[1] = j1;
+            j[2] = j2;
+            j[3] = nx;
+            j[4] = ny;
+            j[5] = nz;
+            int entry = 0;
+            for (int row = 0; row < 6; row++) {
+                for (int column = row; column < 6; column++) {
+                    sums[entry++] += j[row] * j[column];
+                }
+                sums[21 + row] += j[row] * residual;
+            }
+            sums[SUMS - 2] += residual * residual;
+            sums[SUMS - 1]++;
+        }
+    }
+
+    /**
+     * Solves the normal equations {@code J^T J x = -J^T r} by a Cholesky decomposition, slightly
+     * damped so that directions the geometry does not constrain stay put.
+     *
+     * @param sums Sums of the reduction, overwritten.
+     * @param x Array receiving the rotation x, y, z and translation x, y, z of the step.
+     * @return {@code false} if the system cannot be solved.
+     */
+    static boolean solve(double[] sums, double[] x) {
+        double[] a = new double[36];
+        int entry = 0;
+        double maxDiagonal = 0;
+        for (int row = 0; row < 6; row++) {
+            for (int column = row; column < 6; column++) {
+                a[row * 6 + column] = a[column * 6 + row] = sums[entry++];
+            }
+            maxDiagonal = Math.max(maxDiagonal, a[row * 7]);
+        }
+        if (!(maxDiagonal > 0)) {
+            return false;
+        }
+        for (int row = 0; row < 6; row++) {
+            a[row * 7] += 1e-6 * maxDiagonal;
+        }
+        // Lower triangular factor in place.
+        for (int column = 0; column < 6; column++) {
+            double diagonal = a[column * 7];
+            for (int k = 0; k < column; k++) {
+                diagonal -= a[column * 6 + k] * a[column * 6 + k];
+            }
+            if (!(diagonal > 0)) {
+                return false;
+            }
+            diagonal = Math.sqrt(diagonal);
+            a[column * 7] = diagonal;
+            for (int row = column + 1; row < 6; row++) {
+                double value = a[row * 6 + column];
+                for (int k = 0; k < column; k++) {
+                    value -= a[row * 6 + k] * a[column * 6 + k];
+                }
+                a[row * 6 + column] = value / diagonal;
+            }
+        }
+        for (int row = 0; row < 6; row++) {
+            double value = -sums[21 + row];
+            for (int k = 0; k < row; k++) {
+                value -= a[row * 6 + k] * x[k];
+            }
+            x[row] = value / a[row * 7];
+        }
+        for (int row = 5; row >= 0; row--) {
+            double value = x[row];
+            for (int k = row + 1; k < 6; k++) {
+                value -= a[k * 6 + row] * x[k];
+            }
+            x[row] = value / a[row * 7];
+        }
+        return true;
+    }
+
+    /**
+     * Returns the model of the registered frames. It must not be modified while frames are
+     * registered.
+     */
+    public Octree getModel() {
+        return this.model;
+    }
+
+    /**
+     * Returns the result of the last registered frame, or {@code null} if there was none.
+     */
+    public Result getLastResult() {
+        return this.lastResult;
+    }
+
+    /**
+     * Returns the number of frames registered so far.
+     */
+    public long getRegisteredCount() {
+        return this.registeredCount;
+    }
+
+    /**
+     * Returns the number of frames whose registration converged before the maximum number of
+     * iterations.
+     */
+    public long getConvergedCount() {
+        return this.convergedCount;
+    }
+
+    /**
+     * Outcome of registering one frame.
+     */
+    public static final class Result {
+
+        private final int iterations;
+        private final int correspondences;
+        private final double initialRms;
+        private final double finalRms;
+        private final boolean converged;
+
+        Result(int iterations, int correspondences, double initialRms, double finalRms,
+               boolean converged) {
+            this.iterations = iterations;
+            this.correspondences = correspondences;
+            this.initialRms = initialRms;
+            this.finalRms = finalRms;
+            this.converged = converged;
+        }
+
+        /**
+         * Returns the number of iterations, zero if the frame could not be registered.
+         */
+        public int getIterations() {
+            return this.iterations;
+        }
+
+        /**
+         * Returns the number of point pairs in the last iteration.
+         */
+        public int getCorrespondences() {
+            return this.correspondences;
+        }
+
+        /**
+         * Returns the root mean square point-to-plane distance in meters before the first
+         * iteration.
+         */
+        public double getInitialRms() {
+            return this.initialRms;
+        }
+
+        /**
+         * Returns the root mean square point-to-plane distance in meters before the last
+         * iteration.
+         */
+        public double getFinalRms() {
+            return this.finalRms;
+        }
+
+        /**
+         * Returns whether the last step was below the tolerances.
+         */
+        public boolean isConverged() {
+            return this.converged;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d iterations, %d pairs, rms %.4f -> %.4f m%s",
+                    this.iterations, this.correspondences, this.initialRms, this.finalRms,
+                    this.converged ? "" : ", not converged");
+        }
+    }
+
+    /**
+     * Per-thread arrays for pairing points.
+     */
+    private static class Scratch {
+
+        final int[] indices = new int[NEIGHBOURS];
+        final float[] distancesSquared = new float[NEIGHBOURS];
+        final double[] centroid = new double[3];
+        final double[] normal = new double[3];
+        final double[] jacobian = new double[6];
+    }
+
+    /**
+     * Sums up the normal equations of a range of sample points, splitting it in halves until it
+     * is small enough.
+     */
+    private class ReductionTask extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] matrix;
+        private final double[] translation;
+        private final int from;
+        private final int to;
+
+        ReductionTask(double[] matrix, double[] translation, int from, int to) {
+            this.matrix = matrix;
+            this.translation = translation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (this.to - this.from > TASK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                ReductionTask second = new ReductionTask(this.matrix, this.translation, middle,
+                        this.to);
+                second.fork();
+                double[] sums = new ReductionTask(this.matrix, this.translation, this.from,
+                        middle).compute();
+                double[] other = second.join();
+                for (int i = 0; i < SUMS; i++) {
+                    sums[i] += other[i];
+                }
+                return sums;
+            }
+            double[] sums = new double[SUMS];
+            accumulate(this.matrix, this.translation, this.from, this.to, sums);
+            return sums;
+        }
+    }
+}
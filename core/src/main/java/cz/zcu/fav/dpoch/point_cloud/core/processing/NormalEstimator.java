@@ -0,0 +1,262 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Estimates surface normals of the points of an {@link Octree}. The normal of a point is the
+ * direction of least variance of the point and its k nearest neighbours, i.e. the eigenvector of
+ * their covariance matrix with the smallest eigenvalue. It is oriented towards the origin of the
+ * sensor that captured the point, known from the pose of its frame.
+ *
+ * <p>Points are processed in parallel by a fork-join pool in ranges of indices, which are spatial
+ * partitions of a compacted tree. Every worker thread keeps its own scratch arrays for the
+ * neighbour search, so estimating does not allocate per point.</p>
+ */
+public class NormalEstimator {
+
+    /** Default number of neighbours. */
+    public static final int DEFAULT_NEIGHBOURS = 16;
+
+    // Number of points below which a task is not split further.
+    private static final int TASK_SIZE = 4096;
+
+    private final int neighbours;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(NormalEstimator.this.neighbours);
+        }
+    };
+
+    /**
+     * Creates an estimator with the default number of neighbours running on
+     * {@link Parallel#defaultPool()}.
+     */
+    public NormalEstimator() {
+        this(DEFAULT_NEIGHBOURS, Parallel.defaultPool());
+    }
+
+    /**
+     * @param neighbours Number of nearest neighbours a normal is estimated from, at least 2.
+     * @param pool Pool the normals are estimated in.
+     */
+    public NormalEstimator(int neighbours, ForkJoinPool pool) {
+        if (neighbours < 2) {
+            throw new IllegalArgumentException("At least two neighbours are needed: "
+                    + neighbours);
+        }
+        this.neighbours = neighbours;
+        this.pool = pool;
+    }
+
+    /**
+     * Estimates the normals of all points of a tree in parallel. The tree must not be modified
+     * meanwhile.
+     *
+     * @param tree Points, preferably compacted.
+     * @param normals Array of at least three times {@link Octree#size()} elements receiving the
+     *                nx, ny, nz of every point. Points without enough neighbours or on a line
+     *                get {@code NaN}.
+     */
+    public void estimate(Octree tree, float[] normals) {
+        if (normals.length < tree.size() * 3) {
+            throw new IllegalArgumentException("Array is smaller than the tree.");
+        }
+        this.pool.invoke(new NormalTask(tree, normals, 0, tree.size()));
+    }
+
+    /**
+     * Estimates the normals of a range of points on the current thread.
+     */
+    private void estimate(Octree tree, float[] normals, int from, int to) {
+        Scratch scratch = this.scratch.get();
+        int[] indices = scratch.indices;
+        float[] distancesSquared = scratch.distancesSquared;
+        double[] centroid = scratch.centroid;
+        double[] normal = scratch.normal;
+        float[] origin = scratch.origin;
+        for (int i = from; i < to; i++) {
+            // The point itself goes first, followed by its neighbours.
+            int found = tree.nearestNeighbours(i, this.neighbours, indices, distancesSquared);
+            System.arraycopy(indices, 0, indices, 1, found);
+            indices[0] = i;
+            float px = tree.getX(i);
+            float py = tree.getY(i);
+            float pz = tree.getZ(i);
+            if (found < 2 || !fitPlane(tree, indices, found + 1, centroid, normal)) {
+                normals[i * 3] = normals[i * 3 + 1] = normals[i * 3 + 2] = Float.NaN;
+                continue;
+            }
+            if (tree.getOrigin(i, origin)) {
+                double towardsSensor = normal[0] * (origin[0] - px) + normal[1] * (origin[1] - py)
+                        + normal[2] * (origin[2] - pz);
+                if (towardsSensor < 0) {
+                    normal[0] = -normal[0];
+                    normal[1] = -normal[1];
+                    normal[2] = -normal[2];
+                }
+            }
+            normals[i * 3] = (float) normal[0];
+            normals[i * 3 + 1] = (float) normal[1];
+            normals[i * 3 + 2] = (float) normal[2];
+        }
+    }
+
+    /**
+     * Fits a plane to points of a tree.
+     *
+     * @param indices Indices of the points.
+     * @param count Number of points, at least 3.
+     * @param centroid Array receiving the x, y, z of the centroid of the points, which lies on
+     *                 the plane, relative to the first point.
+     * @param normal Array receiving the unit normal of the plane.
+     * @return {@code false} if the points do not define a plane.
+     */
+    static boolean fitPlane(Octree tree, int[] indices, int count, double[] centroid,
+                            double[] normal) {
+        // Coordinates relative to the first point keep the sums small and precise.
+        float px = tree.getX(indices[0]);
+        float py = tree.getY(indices[0]);
+        float pz = tree.getZ(indices[0]);
+        double mx = 0, my = 0, mz = 0;
+        for (int j = 1; j < count; j++) {
+            int n = indices[j];
+            mx += tree.getX(n) - px;
+            my += tree.getY(n) - py;
+            mz += tree.getZ(n) - pz;
+        }
+        mx /= count;
+        my /= count;
+        mz /= count;
+        // The first point is at zero.
+        double xx = mx * mx, xy = mx * my, xz = mx * mz, yy = my * my, yz = my * mz, zz = mz * mz;
+        for (int j = 1; j < count; j++) {
+            int n = indices[j];
+            double dx = tree.getX(n) - px - mx;
+            double dy = tree.getY(n) - py - my;
+            double dz = tree.getZ(n) - pz - mz;
+            xx += dx * dx;
+            xy += dx * dy;
+            xz += dx * dz;
+            yy += dy * dy;
+            yz += dy * dz;
+            zz += dz * dz;
+        }
+        centroid[0] = mx;
+        centroid[1] = my;
+        centroid[2] = mz;
+        return smallestEigenvector(xx, xy, xz, yy, yz, zz, normal);
+    }
+
+    /**
+     * Computes the unit eigenvector of the smallest eigenvalue of a symmetric 3 x 3 matrix. The
+     * eigenvalues are found in closed form, the eigenvector as the longest cross product of two
+     * rows of the matrix minus the eigenvalue.
+     *
+     * @return {@code false} if the eigenvector is not unique.
+     */
+    static boolean smallestEigenvector(double a00, double a01, double a02, double a11, double a12,
+                                       double a22, double[] vector) {
+        double q = (a00 + a11 + a22) / 3;
+        double b00 = a00 - q, b11 = a11 - q, b22 = a22 - q;
+        double p2 = b00 * b00 + b11 * b11 + b22 * b22
+                + 2 * (a01 * a01 + a02 * a02 + a12 * a12);
+        double p = Math.sqrt(p2 / 6);
+        if (!(p > 0)) {
+            return false;
+        }
+        double det = b00 * (b11 * b22 - a12 * a12) - a01 * (a01 * b22 - a12 * a02)
+                + a02 * (a01 * a12 - b11 * a02);
+        double r = det / (2 * p * p * p);
+        double phi = Math.acos(Math.max(-1, Math.min(1, r))) / 3;
+        double smallest = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+
+        double r00 = a00 - smallest, r11 = a11 - smallest, r22 = a22 - smallest;
+        // Cross products of the row pairs (0, 1), (0, 2) and (1, 2).
+        double c0x = a01 * a12 - a02 * r11, c0y = a02 * a01 - r00 * a12, c0z = r00 * r11 - a01 * a01;
+        double c1x = a01 * r22 - a02 * a12, c1y = a02 * a02 - r00 * r22, c1z = r00 * a12 - a01 * a02;
+        double c2x = r11 * r22 - a12 * a12, c2y = a12 * a02 - a01 * r22, c2z = a01 * a12 - r11 * a02;
+        double l0 = c0x * c0x + c0y * c0y + c0z * c0z;
+        double l1 = c1x * c1x + c1y * c1y + c1z * c1z;
+        double l2 = c2x * c2x + c2y * c2y + c2z * c2z;
+        double x, y, z, length;
+        if (l0 >= l1 && l0 >= l2) {
+            x = c0x;
+            y = c0y;
+            z = c0z;
+            length = l0;
+        } else if (l1 >= l2) {
+            x = c1x;
+            y = c1y;
+            z = c1z;
+            length = l1;
+        } else {
+            x = c2x;
+            y = c2y;
+            z = c2z;
+            length = l2;
+        }
+        if (!(length > 0)) {
+            return false;
+        }
+        length = Math.sqrt(length);
+        vector[0] = x / length;
+        vector[1] = y / length;
+        vector[2] = z / length;
+        return true;
+    }
+
+    /**
+     * Per-thread arrays for estimating normals.
+     */
+    private static class Scratch {
+
+        final int[] indices;
+        final float[] distancesSquared;
+        final double[] centroid = new double[3];
+        final double[] normal = new double[3];
+        final float[] origin = new float[3];
+
+        Scratch(int neighbours) {
+            // One more for the point itself.
+            this.indices = new int[neighbours + 1];
+            this.distancesSquared = new float[neighbours + 1];
+        }
+    }
+
+    /**
+     * Estimates the normals of a range of points, splitting it in halves until it is small
+     * enough.
+     */
+    private class NormalTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree tree;
+        private final float[] normals;
+        private final int from;
+        private final int to;
+
+        NormalTask(Octree tree, float[] normals, int from, int to) {
+            this.tree = tree;
+            this.normals = normals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > TASK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new NormalTask(this.tree, this.normals, this.from, middle),
+                        new NormalTask(this.tree, this.normals, middle, this.to));
+            } else {
+                estimate(this.tree, this.normals, this.from, this.to);
+            }
+        }
+    }
+}
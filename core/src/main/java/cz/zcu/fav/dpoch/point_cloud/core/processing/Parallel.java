@@ -0,0 +1,25 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fork-join pool shared by the processing stages that do not get one from their caller.
+ */
+public final class Parallel {
+
+    private static ForkJoinPool defaultPool;
+
+    private Parallel() {
+    }
+
+    /**
+     * Returns a pool with one worker per available processor, created on first use. Its workers
+     * are daemon threads, so the pool never has to be shut down.
+     */
+    public static synchronized ForkJoinPool defaultPool() {
+        if (defaultPool == null) {
+            defaultPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultPool;
+    }
+}
@@ -0,0 +1,249 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameFilter;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+/**
+ * Statistical outlier removal. For every point the mean distance to its k nearest neighbours is
+ * computed, points whose mean distance exceeds the mean over all points by more than a multiple
+ * of the standard deviation are outliers, typically flying pixels at depth edges.
+ *
+ * <p>The mean distances are computed in parallel by a fork-join pool that splits the points into
+ * ranges of indices. In a compacted {@link Octree} such a range is a spatial partition, so
+ * neighbouring tasks search disjoint parts of the tree. As a {@link FrameFilter} the stage
+ * cleans single frames.</p>
+ */
+public class StatisticalOutlierFilter implements FrameFilter {
+
+    /** Default number of neighbours. */
+    public static final int DEFAULT_NEIGHBOURS = 16;
+
+    /** Default multiple of the standard deviation above which points are outliers. */
+    public static final float DEFAULT_STDDEV_MULTIPLIER = 1.0f;
+
+    // Number of points below which a task is not split further.
+    private static final int TASK_SIZE = 4096;
+
+    private final int neighbours;
+    private final float stddevMultiplier;
+    private final ForkJoinPool pool;
+    private Octree frameTree;
+    private float[] meanDistances = new float[0];
+    private boolean[] outliers = new boolean[0];
+    private double lastMean;
+    private double lastStddev;
+    private long removedCount = 0;
+
+    /**
+     * Creates a filter with the default number of neighbours and threshold running on
+     * {@link Parallel#defaultPool()}.
+     */
+    public StatisticalOutlierFilter() {
+        this(DEFAULT_NEIGHBOURS, DEFAULT_STDDEV_MULTIPLIER, Parallel.defaultPool());
+    }
+
+    /**
+     * @param neighbours Number of nearest neighbours a mean distance is computed from.
+     * @param stddevMultiplier Multiple of the standard deviation of mean distances above their
+     *                         mean from which points are outliers.
+     * @param pool Pool the distances are computed in.
+     */
+    public StatisticalOutlierFilter(int neighbours, float stddevMultiplier, ForkJoinPool pool) {
+        if (neighbours < 1) {
+            throw new IllegalArgumentException("Number of neighbours must be positive: "
+                    + neighbours);
+        }
+        this.neighbours = neighbours;
+        this.stddevMultiplier = stddevMultiplier;
+        this.pool = pool;
+    }
+
+    /**
+     * Computes the mean distance of every point of a tree to its nearest neighbours in parallel.
+     * The tree must not be modified meanwhile.
+     *
+     * @param tree Points, preferably compacted.
+     * @param meanDistances Array of at least {@link Octree#size()} elements receiving the mean
+     *                      distances, or {@code NaN} for points without neighbours.
+     */
+    public void computeMeanDistances(Octree tree, float[] meanDistances) {
+        if (meanDistances.length < tree.size()) {
+            throw new IllegalArgumentException("Array is smaller than the tree.");
+        }
+        this.pool.invoke(new MeanDistanceTask(tree, this.neighbours, meanDistances, 0,
+                tree.size()));
+    }
+
+    /**
+     * Marks the outliers of a tree.
+     *
+     * @param tree Points, preferably compacted. It must not be modified meanwhile.
+     * @param outliers Array of at least {@link Octree#size()} elements, set to {@code true} for
+     *                 outliers and {@code false} for the other points.
+     * @return Number of outliers.
+     */
+    public int findOutliers(Octree tree, boolean[] outliers) {
+        int size = tree.size();
+        if (outliers.length < size) {
+            throw new IllegalArgumentException("Array is smaller than the tree.");
+        }
+        if (this.meanDistances.length < size) {
+            this.meanDistances = new float[size];
+        }
+        float[] distances = this.meanDistances;
+        computeMeanDistances(tree, distances);
+
+        double sum = 0;
+        double sumSquares = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            float distance = distances[i];
+            if (distance == distance) {
+                sum += distance;
+                sumSquares += (double) distance * distance;
+                count++;
+            }
+        }
+        double mean = count > 0 ? sum / count : 0;
+        double stddev = count > 0 ? Math.sqrt(Math.max(0, sumSquares / count - mean * mean)) : 0;
+        this.lastMean = mean;
+        this.lastStddev = stddev;
+
+        double threshold = mean + this.stddevMultiplier * stddev;
+        int outlierCount = 0;
+        for (int i = 0; i < size; i++) {
+            // Points without any neighbour are outliers as well.
+            boolean outlier = !(distances[i] <= threshold);
+            outliers[i] = outlier;
+            if (outlier) {
+                outlierCount++;
+            }
+        }
+        return outlierCount;
+    }
+
+    /**
+     * Removes the outliers of a frame and compacts the remaining points in place. Points with
+     * invalid coordinates are removed as well.
+     */
+    @Override
+    public void filter(PointCloudFrame frame) {
+        FloatBuffer points = frame.getPoints();
+        int numPoints = frame.getNumPoints();
+        int valid = 0;
+        for (int i = 0; i < numPoints; i++) {
+            int in = i * PointCloudFrame.FLOATS_PER_POINT;
+            float x = points.get(in);
+            float y = points.get(in + 1);
+            float z = points.get(in + 2);
+            if (Math.abs(x) <= Octree.MAX_COORDINATE && Math.abs(y) <= Octree.MAX_COORDINATE
+                    && Math.abs(z) <= Octree.MAX_COORDINATE) {
+                copyPoint(points, i, valid++);
+            }
+        }
+
+        if (this.frameTree == null || this.frameTree.getMaxPoints() < valid) {
+            this.frameTree = new Octree(Math.max(valid, 1));
+        } else {
+            this.frameTree.clear();
+        }
+        this.frameTree.insert(points, valid, null);
+        if (this.outliers.length < valid) {
+            this.outliers = new boolean[valid];
+        }
+        findOutliers(this.frameTree, this.outliers);
+
+        int kept = 0;
+        for (int i = 0; i < valid; i++) {
+            if (!this.outliers[i]) {
+                copyPoint(points, i, kept++);
+            }
+        }
+        frame.setNumPoints(kept);
+        this.removedCount += numPoints - kept;
+    }
+
+    private static void copyPoint(FloatBuffer points, int from, int to) {
+        if (from != to) {
+            int in = from * PointCloudFrame.FLOATS_PER_POINT;
+            int out = to * PointCloudFrame.FLOATS_PER_POINT;
+            points.put(out, points.get(in));
+            points.put(out + 1, points.get(in + 1));
+            points.put(out + 2, points.get(in + 2));
+            points.put(out + 3, points.get(in + 3));
+        }
+    }
+
+    /**
+     * Returns the mean of the mean neighbour distances in the last processed cloud.
+     */
+    public double getLastMean() {
+        return this.lastMean;
+    }
+
+    /**
+     * Returns the standard deviation of the mean neighbour distances in the last processed cloud.
+     */
+    public double getLastStddev() {
+        return this.lastStddev;
+    }
+
+    /**
+     * Returns the number of points removed from frames so far.
+     */
+    public long getRemovedCount() {
+        return this.removedCount;
+    }
+
+    /**
+     * Computes mean neighbour distances of a range of points, splitting it in halves until it is
+     * small enough.
+     */
+    private static class MeanDistanceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree tree;
+        private final int neighbours;
+        private final float[] meanDistances;
+        private final int from;
+        private final int to;
+
+        MeanDistanceTask(Octree tree, int neighbours, float[] meanDistances, int from, int to) {
+            this.tree = tree;
+            this.neighbours = neighbours;
+            this.meanDistances = meanDistances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > TASK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new MeanDistanceTask(this.tree, this.neighbours, this.meanDistances,
+                                this.from, middle),
+                        new MeanDistanceTask(this.tree, this.neighbours, this.meanDistances,
+                                middle, this.to));
+                return;
+            }
+            // Scratch space of this task, reused for all its points.
+            int[] indices = new int[this.neighbours];
+            float[] distancesSquared = new float[this.neighbours];
+            for (int i = this.from; i < this.to; i++) {
+                int found = this.tree.nearestNeighbours(i, this.neighbours, indices,
+                        distancesSquared);
+                float sum = 0;
+                for (int j = 0; j < found; j++) {
+                    sum += (float) Math.sqrt(distancesSquared[j]);
+                }
+                this.meanDistances[i] = found > 0 ? sum / found : Float.NaN;
+            }
+        }
+    }
+}
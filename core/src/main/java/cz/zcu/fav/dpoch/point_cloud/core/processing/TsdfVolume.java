@@ -0,0 +1,580 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.GridKey;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.LongIntHashMap;
+
+/**
+ * Truncated signed distance field fused from posed frames. Every voxel keeps the weighted mean of
+ * the signed distances to the surface observed along the rays through it, positive in front of
+ * the surface and negative behind it, and the sum of the weights, capped so the field can still
+ * follow changes of the scene. The surface is the zero crossing of the field.
+ *
+ * <p>Voxels are stored in blocks of {@link #BLOCK_SIZE}<sup>3</sup> voxels found through a
+ * {@link LongIntHashMap} keyed by packed block coordinates. A block is allocated only when the
+ * truncation band around an observed point passes through it, so the memory grows with the
+ * observed surface area, not with the volume of the scene.</p>
+ *
+ * <p>Frames are integrated in two passes. The voxels within the truncation band along the ray of
+ * every point are traversed first, allocating their blocks and recording the distances grouped by
+ * block. The recorded distances are then merged into the voxels by a fork-join pool that splits
+ * the touched blocks into ranges, so every block is updated by a single task in the order of the
+ * points and the result does not depend on the number of threads. The volume is not thread safe
+ * otherwise.</p>
+ */
+public class TsdfVolume {
+
+    /** Number of voxels along an edge of a block. */
+    public static final int BLOCK_SIZE = 8;
+
+    /** Number of voxels in a block. */
+    public static final int BLOCK_VOXELS = BLOCK_SIZE * BLOCK_SIZE * BLOCK_SIZE;
+
+    /** Default truncation distance as a multiple of the voxel size. */
+    public static final float DEFAULT_TRUNCATION_VOXELS = 4;
+
+    /** Default weight at which voxels stop accumulating observations. */
+    public static final float DEFAULT_MAX_WEIGHT = 64;
+
+    // Number of blocks the volume is created for.
+    private static final int INITIAL_BLOCKS = 1 << 10;
+
+    // Number of touched blocks below which a task is not split further.
+    private static final int TASK_BLOCKS = 64;
+
+    // log2 of BLOCK_SIZE, for splitting voxel coordinates into block and voxel.
+    private static final int BLOCK_SHIFT = 3;
+
+    private final float voxelSize;
+    private final float inverseVoxelSize;
+    private final float truncation;
+    private final float maxWeight;
+    private final ForkJoinPool pool;
+    private final LongIntHashMap blocks = new LongIntHashMap(INITIAL_BLOCKS);
+    private final RigidTransform framePose = new RigidTransform();
+
+    private long[] blockKeys = new long[INITIAL_BLOCKS];
+    private float[] distances = new float[INITIAL_BLOCKS * BLOCK_VOXELS];
+    private float[] weights = new float[INITIAL_BLOCKS * BLOCK_VOXELS];
+    private int blockCount = 0;
+
+    // Blocks touched by the current frame and the frame that last touched each block.
+    private int[] touchedBlocks = new int[INITIAL_BLOCKS];
+    private int[] touchedOrdinals = new int[INITIAL_BLOCKS];
+    private int[] blockFrames = new int[INITIAL_BLOCKS];
+    private int touchedCount = 0;
+
+    // Distances of the current frame in the order of the points and grouped by touched block.
+    private int[] updateOrdinals = new int[0];
+    private int[] updateVoxels = new int[0];
+    private float[] updateDistances = new float[0];
+    private int[] groupedVoxels = new int[0];
+    private float[] groupedDistances = new float[0];
+    private int[] groupStarts = new int[INITIAL_BLOCKS + 1];
+    private int updateCount = 0;
+
+    private float[] surface = new float[0];
+    private int frameCount = 0;
+    private long skippedFrameCount = 0;
+    private long pointCount = 0;
+    private long rejectedCount = 0;
+    private long voxelUpdateCount = 0;
+
+    /**
+     * Creates a volume with the default truncation distance and maximum weight integrating on
+     * {@link Parallel#defaultPool()}.
+     *
+     * @param voxelSize Edge length of a voxel in meters.
+     */
+    public TsdfVolume(float voxelSize) {
+        this(voxelSize, DEFAULT_TRUNCATION_VOXELS * voxelSize, DEFAULT_MAX_WEIGHT,
+                Parallel.defaultPool());
+    }
+
+    /**
+     * @param voxelSize Edge length of a voxel in meters.
+     * @param truncation Distance from the surface in meters beyond which distances are truncated,
+     *                   at least the voxel size.
+     * @param maxWeight Weight at which voxels stop accumulating observations, at least 1.
+     * @param pool Pool the frames are integrated in.
+     */
+    public TsdfVolume(float voxelSize, float truncation, float maxWeight, ForkJoinPool pool) {
+        if (!(voxelSize > 0) || !(truncation >= voxelSize) || !(maxWeight >= 1)) {
+            throw new IllegalArgumentException("Invalid voxel size, truncation or weight: "
+                    + voxelSize + ", " + truncation + ", " + maxWeight);
+        }
+        this.voxelSize = voxelSize;
+        this.inverseVoxelSize = 1 / voxelSize;
+        this.truncation = truncation;
+        this.maxWeight = maxWeight;
+        this.pool = pool;
+    }
+
+    /**
+     * Fuses the points of a frame. Frames in the sensor frame are transformed by their pose. The
+     * pose also places the sensor the rays start at, so frames without one are skipped; points
+     * seen from a single fixed sensor can be fused by
+     * {@link #integrate(FloatBuffer, int, RigidTransform, double[])} instead.
+     *
+     * @return Whether the frame was integrated.
+     */
+    public boolean integrate(PointCloudFrame frame) {
+        if (!frame.hasPose()) {
+            this.skippedFrameCount++;
+            return false;
+        }
+        this.framePose.set(frame.getTranslation(), frame.getRotation());
+        integrate(frame.getPoints(), frame.getNumPoints(),
+                frame.isWorldFrame() ? null : this.framePose, this.framePose.getTranslation());
+        return true;
+    }
+
+    /**
+     * Fuses a batch of x, y, z, confidence points observed from one position.
+     *
+     * @param points Points starting at the position of the buffer, which is not changed.
+     * @param numPoints Number of points.
+     * @param transform Transform applied to the points first, or {@code null}.
+     * @param origin Position of the sensor in the coordinates of the transformed points.
+     */
+    public void integrate(FloatBuffer points, int numPoints, RigidTransform transform,
+                          double[] origin) {
+        this.frameCount++;
+        this.touchedCount = 0;
+        this.updateCount = 0;
+        double[] m = transform != null ? transform.getMatrix() : null;
+        double[] t = transform != null ? transform.getTranslation() : null;
+        int index = points.position();
+        for (int i = 0; i < numPoints; i++, index += PointCloudFrame.FLOATS_PER_POINT) {
+            double x = points.get(index);
+            double y = points.get(index + 1);
+            double z = points.get(index + 2);
+            if (m != null) {
+                double tx = m[0] * x + m[1] * y + m[2] * z + t[0];
+                double ty = m[3] * x + m[4] * y + m[5] * z + t[1];
+                double tz = m[6] * x + m[7] * y + m[8] * z + t[2];
+                x = tx;
+                y = ty;
+                z = tz;
+            }
+            if (traverse(origin, x, y, z)) {
+                this.pointCount++;
+            } else {
+                this.rejectedCount++;
+            }
+        }
+        groupUpdates();
+        if (this.touchedCount > 0) {
+            this.pool.invoke(new UpdateTask(this, 0, this.touchedCount));
+        }
+        this.voxelUpdateCount += this.updateCount;
+    }
+
+    /**
+     * Records the distances of the voxels within the truncation band along the ray from the
+     * sensor through a point, walking the voxels the ray passes through one by one.
+     *
+     * @return Whether the point was valid and within the range of the volume.
+     */
+    private boolean traverse(double[] origin, double x, double y, double z) {
+        double rayX = x - origin[0];
+        double rayY = y - origin[1];
+        double rayZ = z - origin[2];
+        double depth = Math.sqrt(rayX * rayX + rayY * rayY + rayZ * rayZ);
+        // Also rejects NaN coordinates.
+        if (!(depth > 0 && depth < Double.POSITIVE_INFINITY)) {
+            return false;
+        }
+        rayX /= depth;
+        rayY /= depth;
+        rayZ /= depth;
+        double band = Math.min(this.truncation, depth);
+        double startX = x - rayX * band, startY = y - rayY * band, startZ = z - rayZ * band;
+        double endX = x + rayX * this.truncation;
+        double endY = y + rayY * this.truncation;
+        double endZ = z + rayZ * this.truncation;
+        double inverse = this.inverseVoxelSize;
+        double firstX = Math.floor(startX * inverse), lastX = Math.floor(endX * inverse);
+        double firstY = Math.floor(startY * inverse), lastY = Math.floor(endY * inverse);
+        double firstZ = Math.floor(startZ * inverse), lastZ = Math.floor(endZ * inverse);
+        if (!(isInRange(firstX) && isInRange(lastX) && isInRange(firstY) && isInRange(lastY)
+                && isInRange(firstZ) && isInRange(lastZ))) {
+            return false;
+        }
+
+        int voxelX = (int) firstX, voxelY = (int) firstY, voxelZ = (int) firstZ;
+        int stepX = rayX > 0 ? 1 : -1, stepY = rayY > 0 ? 1 : -1, stepZ = rayZ > 0 ? 1 : -1;
+        // Distance along the ray to the next voxel boundary of every axis and between them.
+        double deltaX = boundaryDistance(this.voxelSize, rayX);
+        double deltaY = boundaryDistance(this.voxelSize, rayY);
+        double deltaZ = boundaryDistance(this.voxelSize, rayZ);
+        double nextX = boundaryDistance((voxelX + (stepX > 0 ? 1 : 0)) * (double) this.voxelSize
+                - startX, rayX);
+        double nextY = boundaryDistance((voxelY + (stepY > 0 ? 1 : 0)) * (double) this.voxelSize
+                - startY, rayY);
+        double nextZ = boundaryDistance((voxelZ + (stepZ > 0 ? 1 : 0)) * (double) this.voxelSize
+                - startZ, rayZ);
+        int steps = (int) (Math.abs(lastX - firstX) + Math.abs(lastY - firstY)
+                + Math.abs(lastZ - firstZ));
+        for (int step = 0; ; step++) {
+            record(origin, rayX, rayY, rayZ, depth, voxelX, voxelY, voxelZ);
+            if (step == steps) {
+                return true;
+            }
+            if (nextX <= nextY && nextX <= nextZ) {
+                voxelX += stepX;
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                voxelY += stepY;
+                nextY += deltaY;
+            } else {
+                voxelZ += stepZ;
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    /**
+     * Returns the distance along a ray to cover an offset along one axis. A ray without a
+     * component along the axis never reaches it, whatever the sign of the offset.
+     */
+    private static double boundaryDistance(double offset, double ray) {
+        return ray != 0 ? Math.abs(offset / ray) : Double.POSITIVE_INFINITY;
+    }
+
+    private static boolean isInRange(double voxel) {
+        return voxel >= GridKey.MIN_COORDINATE * (double) BLOCK_SIZE
+                && voxel < (GridKey.MAX_COORDINATE + 1) * (double) BLOCK_SIZE;
+    }
+
+    /**
+     * Records the distance of a voxel centre from the surface along a ray, allocating its block.
+     */
+    private void record(double[] origin, double rayX, double rayY, double rayZ, double depth,
+                        int voxelX, int voxelY, int voxelZ) {
+        double centreX = (voxelX + 0.5) * this.voxelSize - origin[0];
+        double centreY = (voxelY + 0.5) * this.voxelSize - origin[1];
+        double centreZ = (voxelZ + 0.5) * this.voxelSize - origin[2];
+        double distance = depth - (centreX * rayX + centreY * rayY + centreZ * rayZ);
+        // Voxel centres at the ends of the band may lie slightly outside of it.
+        if (distance < -this.truncation) {
+            return;
+        }
+        if (distance > this.truncation) {
+            distance = this.truncation;
+        }
+
+        int block = allocate(voxelX >> BLOCK_SHIFT, voxelY >> BLOCK_SHIFT, voxelZ >> BLOCK_SHIFT);
+        if (this.blockFrames[block] != this.frameCount) {
+            this.blockFrames[block] = this.frameCount;
+            if (this.touchedCount == this.touchedBlocks.length) {
+                this.touchedBlocks = Arrays.copyOf(this.touchedBlocks, this.touchedCount * 2);
+            }
+            this.touchedOrdinals[block] = this.touchedCount;
+            this.touchedBlocks[this.touchedCount++] = block;
+        }
+        if (this.updateCount == this.updateVoxels.length) {
+            int capacity = Math.max(1024, this.updateCount * 2);
+            this.updateOrdinals = Arrays.copyOf(this.updateOrdinals, capacity);
+            this.updateVoxels = Arrays.copyOf(this.updateVoxels, capacity);
+            this.updateDistances = Arrays.copyOf(this.updateDistances, capacity);
+        }
+        this.updateOrdinals[this.updateCount] = this.touchedOrdinals[block];
+        this.updateVoxels[this.updateCount] = block * BLOCK_VOXELS + voxelIndex(voxelX, voxelY,
+                voxelZ);
+        this.updateDistances[this.updateCount] = (float) distance;
+        this.updateCount++;
+    }
+
+    private static int voxelIndex(int voxelX, int voxelY, int voxelZ) {
+        int mask = BLOCK_SIZE - 1;
+        return ((voxelZ & mask) * BLOCK_SIZE + (voxelY & mask)) * BLOCK_SIZE + (voxelX & mask);
+    }
+
+    /**
+     * Returns the index of a block, allocating it if needed.
+     */
+    private int allocate(int blockX, int blockY, int blockZ) {
+        long key = GridKey.pack(blockX, blockY, blockZ);
+        int block = this.blocks.putIfAbsent(key, this.blockCount);
+        if (block == this.blockCount) {
+            if (this.blockCount == this.blockKeys.length) {
+                grow();
+            }
+            this.blockKeys[block] = key;
+            this.blockCount++;
+        }
+        return block;
+    }
+
+    private void grow() {
+        int capacity = this.blockKeys.length * 2;
+        this.blockKeys = Arrays.copyOf(this.blockKeys, capacity);
+        this.distances = Arrays.copyOf(this.distances, capacity * BLOCK_VOXELS);
+        this.weights = Arrays.copyOf(this.weights, capacity * BLOCK_VOXELS);
+        this.touchedOrdinals = Arrays.copyOf(this.touchedOrdinals, capacity);
+        this.blockFrames = Arrays.copyOf(this.blockFrames, capacity);
+    }
+
+    /**
+     * Sorts the recorded distances by touched block, keeping the order of the points within a
+     * block.
+     */
+    private void groupUpdates() {
+        if (this.groupStarts.length < this.touchedCount + 1) {
+            this.groupStarts = new int[this.touchedBlocks.length + 1];
+        }
+        if (this.groupedVoxels.length < this.updateCount) {
+            this.groupedVoxels = new int[this.updateVoxels.length];
+            this.groupedDistances = new float[this.updateVoxels.length];
+        }
+        int[] starts = this.groupStarts;
+        Arrays.fill(starts, 0, this.touchedCount + 1, 0);
+        for (int i = 0; i < this.updateCount; i++) {
+            starts[this.updateOrdinals[i] + 1]++;
+        }
+        for (int i = 0; i < this.touchedCount; i++) {
+            starts[i + 1] += starts[i];
+        }
+        // Moves the start of every group past its distances, shifting the starts by one group.
+        for (int i = 0; i < this.updateCount; i++) {
+            int position = starts[this.updateOrdinals[i]]++;
+            this.groupedVoxels[position] = this.updateVoxels[i];
+            this.groupedDistances[position] = this.updateDistances[i];
+        }
+        System.arraycopy(starts, 0, starts, 1, this.touchedCount);
+        starts[0] = 0;
+    }
+
+    /**
+     * Merges the grouped distances of a range of touched blocks into their voxels.
+     */
+    private void update(int fromOrdinal, int toOrdinal) {
+        float[] distances = this.distances;
+        float[] weights = this.weights;
+        for (int i = this.groupStarts[fromOrdinal], end = this.groupStarts[toOrdinal]; i < end;
+             i++) {
+            int voxel = this.groupedVoxels[i];
+            float weight = weights[voxel];
+            distances[voxel] = (distances[voxel] * weight + this.groupedDistances[i]) / (weight + 1);
+            weights[voxel] = Math.min(weight + 1, this.maxWeight);
+        }
+    }
+
+    /**
+     * Returns the signed distance stored in the voxel containing a point, or {@code NaN} if the
+     * voxel has not been observed.
+     */
+    public float getDistance(float x, float y, float z) {
+        int voxel = findVoxel(x, y, z);
+        return voxel >= 0 && this.weights[voxel] > 0 ? this.distances[voxel] : Float.NaN;
+    }
+
+    /**
+     * Returns the weight of the voxel containing a point, 0 if it has not been observed.
+     */
+    public float getWeight(float x, float y, float z) {
+        int voxel = findVoxel(x, y, z);
+        return voxel >= 0 ? this.weights[voxel] : 0;
+    }
+
+    private int findVoxel(float x, float y, float z) {
+        double voxelX = Math.floor(x * this.inverseVoxelSize);
+        double voxelY = Math.floor(y * this.inverseVoxelSize);
+        double voxelZ = Math.floor(z * this.inverseVoxelSize);
+        if (!(isInRange(voxelX) && isInRange(voxelY) && isInRange(voxelZ))) {
+            return -1;
+        }
+        return findVoxel((int) voxelX, (int) voxelY, (int) voxelZ);
+    }
+
+    private int findVoxel(int voxelX, int voxelY, int voxelZ) {
+        int block = this.blocks.get(GridKey.pack(voxelX >> BLOCK_SHIFT, voxelY >> BLOCK_SHIFT,
+                voxelZ >> BLOCK_SHIFT));
+        if (block == LongIntHashMap.NO_VALUE) {
+            return -1;
+        }
+        return block * BLOCK_VOXELS + voxelIndex(voxelX, voxelY, voxelZ);
+    }
+
+    /**
+     * Writes a point at every zero crossing of the field between neighbouring observed voxels,
+     * interpolated between their centres. Its confidence is the smaller weight of the two voxels
+     * relative to the maximum weight. The frame is marked as being in the world frame without a
+     * pose.
+     *
+     * @param frame Frame to fill, resized if needed.
+     */
+    public void extractSurface(PointCloudFrame frame) {
+        int count = 0;
+        for (int block = 0; block < this.blockCount; block++) {
+            long key = this.blockKeys[block];
+            int baseX = GridKey.unpackX(key) * BLOCK_SIZE;
+            int baseY = GridKey.unpackY(key) * BLOCK_SIZE;
+            int baseZ = GridKey.unpackZ(key) * BLOCK_SIZE;
+            for (int voxel = 0; voxel < BLOCK_VOXELS; voxel++) {
+                int index = block * BLOCK_VOXELS + voxel;
+                if (this.weights[index] == 0) {
+                    continue;
+                }
+                int voxelX = baseX + voxel % BLOCK_SIZE;
+                int voxelY = baseY + voxel / BLOCK_SIZE % BLOCK_SIZE;
+                int voxelZ = baseZ + voxel / (BLOCK_SIZE * BLOCK_SIZE);
+                count = addCrossing(count, index, voxelX, voxelY, voxelZ, 1, 0, 0);
+                count = addCrossing(count, index, voxelX, voxelY, voxelZ, 0, 1, 0);
+                count = addCrossing(count, index, voxelX, voxelY, voxelZ, 0, 0, 1);
+            }
+        }
+
+        int numPoints = count / PointCloudFrame.FLOATS_PER_POINT;
+        frame.ensureCapacity(numPoints);
+        frame.setNumPoints(numPoints);
+        frame.clearPose();
+        frame.setWorldFrame(true);
+        frame.getPoints().put(this.surface, 0, count);
+    }
+
+    /**
+     * Appends the zero crossing between a voxel and its neighbour in the direction of an axis, if
+     * there is one.
+     *
+     * @return New number of floats in the surface array.
+     */
+    private int addCrossing(int count, int index, int voxelX, int voxelY, int voxelZ,
+                            int axisX, int axisY, int axisZ) {
+        if (!isInRange(voxelX + axisX) || !isInRange(voxelY + axisY)
+                || !isInRange(voxelZ + axisZ)) {
+            return count;
+        }
+        int neighbour = findVoxel(voxelX + axisX, voxelY + axisY, voxelZ + axisZ);
+        if (neighbour < 0 || this.weights[neighbour] == 0) {
+            return count;
+        }
+        float distance = this.distances[index];
+        float neighbourDistance = this.distances[neighbour];
+        // Truncated distances change sign at the border of the band, not at the surface.
+        if ((distance >= 0) == (neighbourDistance >= 0) || Math.abs(distance) >= this.truncation
+                || Math.abs(neighbourDistance) >= this.truncation) {
+            return count;
+        }
+        if (count + PointCloudFrame.FLOATS_PER_POINT > this.surface.length) {
+            this.surface = Arrays.copyOf(this.surface, Math.max(4096, this.surface.length * 2));
+        }
+        float fraction = distance / (distance - neighbourDistance);
+        this.surface[count] = (voxelX + 0.5f + fraction * axisX) * this.voxelSize;
+        this.surface[count + 1] = (voxelY + 0.5f + fraction * axisY) * this.voxelSize;
+        this.surface[count + 2] = (voxelZ + 0.5f + fraction * axisZ) * this.voxelSize;
+        this.surface[count + 3] = Math.min(this.weights[index], this.weights[neighbour])
+                / this.maxWeight;
+        return count + PointCloudFrame.FLOATS_PER_POINT;
+    }
+
+    /**
+     * Removes all blocks and keeps the allocated memory.
+     */
+    public void clear() {
+        this.blocks.clear();
+        Arrays.fill(this.distances, 0, this.blockCount * BLOCK_VOXELS, 0);
+        Arrays.fill(this.weights, 0, this.blockCount * BLOCK_VOXELS, 0);
+        Arrays.fill(this.blockFrames, 0, this.blockCount, 0);
+        this.blockCount = 0;
+        this.frameCount = 0;
+        this.skippedFrameCount = 0;
+        this.pointCount = 0;
+        this.rejectedCount = 0;
+        this.voxelUpdateCount = 0;
+    }
+
+    public float getVoxelSize() {
+        return this.voxelSize;
+    }
+
+    public float getTruncation() {
+        return this.truncation;
+    }
+
+    /**
+     * Returns the number of allocated blocks.
+     */
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * Returns the number of bytes taken by the distances and weights of the allocated blocks.
+     */
+    public long getMemoryBytes() {
+        return (long) this.blockCount * BLOCK_VOXELS * 8;
+    }
+
+    /**
+     * Returns the number of integrated frames.
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the number of frames skipped because they have no pose.
+     */
+    public long getSkippedFrameCount() {
+        return this.skippedFrameCount;
+    }
+
+    /**
+     * Returns the number of integrated points.
+     */
+    public long getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * Returns the number of points ignored because of invalid or out of range coordinates.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * Returns the number of distances merged into voxels so far.
+     */
+    public long getVoxelUpdateCount() {
+        return this.voxelUpdateCount;
+    }
+
+    /**
+     * Merges the distances of a range of touched blocks, splitting it in halves until it is small
+     * enough.
+     */
+    private static class UpdateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TsdfVolume volume;
+        private final int from;
+        private final int to;
+
+        UpdateTask(TsdfVolume volume, int from, int to) {
+            this.volume = volume;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > TASK_BLOCKS) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new UpdateTask(this.volume, this.from, middle),
+                        new UpdateTask(this.volume, middle, this.to));
+                return;
+            }
+            this.volume.update(this.from, this.to);
+        }
+    }
+}
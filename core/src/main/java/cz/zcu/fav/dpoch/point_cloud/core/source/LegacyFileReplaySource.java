@@ -0,0 +1,108 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.LegacyFileReader;
+import cz.zcu.fav.dpoch.point_cloud.core.io.TextFileSink;
+
+/**
+ * Replays the per-frame {@code pointsN} files written by earlier versions of the applications,
+ * either as text with one float per line or as big-endian binary floats, read by a
+ * {@link LegacyFileReader}. The files carry neither timestamps nor poses, so frames are given
+ * evenly spaced timestamps in the sensor frame.
+ */
+public class LegacyFileReplaySource extends PacedSource {
+
+    /** Interval between frames of the depth camera of Tango devices in seconds. */
+    public static final double DEFAULT_FRAME_INTERVAL = 0.2;
+
+    private static final String THREAD_NAME = "LegacyReplay";
+
+    private final List<File> files;
+    private final double frameInterval;
+    private final LegacyFileReader reader = new LegacyFileReader();
+    private int nextFile = 0;
+
+    /**
+     * @param files Files to replay in order.
+     * @param frameInterval Interval between the timestamps of consecutive frames in seconds.
+     * @param realTime Whether to pace the frames by their timestamps.
+     */
+    public LegacyFileReplaySource(List<File> files, double frameInterval, boolean realTime) {
+        super(THREAD_NAME, realTime);
+        if (!(frameInterval > 0)) {
+            throw new IllegalArgumentException("Frame interval must be positive: " + frameInterval);
+        }
+        this.files = new ArrayList<File>(files);
+        this.frameInterval = frameInterval;
+    }
+
+    /**
+     * Lists the {@code pointsN} files of a directory ordered by their number.
+     *
+     * @param directory Directory the files were written into.
+     * @return Files ordered by their number, empty if there are none.
+     */
+    public static List<File> listFiles(File directory) {
+        List<File> files = new ArrayList<File>();
+        File[] candidates = directory.listFiles();
+        if (candidates != null) {
+            for (File file : candidates) {
+                if (fileNumber(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = fileNumber(first) - fileNumber(second);
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        return files;
+    }
+
+    private static long fileNumber(File file) {
+        String name = file.getName();
+        String prefix = TextFileSink.FILE_PREFIX;
+        if (!name.startsWith(prefix) || name.length() == prefix.length()
+                || name.length() > prefix.length() + 18 || !file.isFile()) {
+            return -1;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(name.substring(prefix.length()));
+    }
+
+    @Override
+    protected boolean readFrame(PointCloudFrame frame) throws IOException {
+        if (this.nextFile >= this.files.size()) {
+            return false;
+        }
+        File file = this.files.get(this.nextFile);
+        double timestamp = this.nextFile * this.frameInterval;
+        this.nextFile++;
+
+        this.reader.read(file, frame);
+        frame.setTimestamp(timestamp);
+        frame.setSequence(this.nextFile - 1);
+        return true;
+    }
+
+    /**
+     * Returns the number of files to replay.
+     */
+    public int getFrameCount() {
+        return this.files.size();
+    }
+}
@@ -0,0 +1,230 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Source that delivers frames produced by a subclass on its own thread, either paced by their
+ * timestamps like a live device or as fast as the listener accepts them.
+ *
+ * <p>Frames with a pose are delivered as a device pose followed by the point cloud, the pose is
+ * skipped when a newer one has already been delivered. Points stored in the world frame are
+ * transformed back into the sensor frame, and the depth sensor coincides with the device, so a
+ * listener resolving sensor poses gets the recorded ones.</p>
+ */
+public abstract class PacedSource implements PointCloudSource {
+
+    private static final double[] IDENTITY_TRANSLATION = {0, 0, 0};
+    private static final double[] IDENTITY_ROTATION = {0, 0, 0, 1};
+
+    private final String threadName;
+    private final boolean realTime;
+    private final PointCloudFrame frame = new PointCloudFrame(0);
+    private final PointCloudFrame sensorFrame = new PointCloudFrame(0);
+    private final RigidTransform worldToSensor = new RigidTransform();
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private Thread thread;
+    private volatile Listener listener;
+    private volatile boolean closed = false;
+    private volatile IOException error;
+    private double lastPoseTimestamp = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param threadName Name of the delivering thread.
+     * @param realTime Whether to pace the frames by their timestamps.
+     */
+    protected PacedSource(String threadName, boolean realTime) {
+        this.threadName = threadName;
+        this.realTime = realTime;
+    }
+
+    /**
+     * Opens the underlying data. Called by {@link #start(Listener)} on the calling thread.
+     *
+     * @throws IOException If the data could not be opened.
+     */
+    protected void open() throws IOException {
+    }
+
+    /**
+     * Reads the next frame. Called on the delivering thread.
+     *
+     * @param frame Frame to fill, resized if needed.
+     * @return {@code false} if there are no more frames.
+     * @throws IOException If the frame could not be read.
+     */
+    protected abstract boolean readFrame(PointCloudFrame frame) throws IOException;
+
+    /**
+     * Releases the underlying data. Called by {@link #close()} after the delivering thread ended.
+     *
+     * @throws IOException If the data could not be released.
+     */
+    protected void release() throws IOException {
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) throws IOException {
+        if (this.thread != null || this.closed) {
+            throw new IllegalStateException("Source has already been started.");
+        }
+        open();
+        this.listener = listener;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliverFrames(listener);
+            }
+        }, this.threadName);
+        this.thread.start();
+    }
+
+    private void deliverFrames(Listener listener) {
+        listener.onDeviceToSensor(IDENTITY_TRANSLATION.clone(), IDENTITY_ROTATION.clone());
+        long startNanos = System.nanoTime();
+        double firstTimestamp = Double.NaN;
+        try {
+            while (!this.closed && readFrame(this.frame)) {
+                double timestamp = this.frame.getTimestamp();
+                if (this.realTime) {
+                    if (Double.isNaN(firstTimestamp)) {
+                        firstTimestamp = timestamp;
+                    }
+                    long deadline = startNanos + (long) ((timestamp - firstTimestamp) * 1e9);
+                    if (!sleepUntil(deadline)) {
+                        return;
+                    }
+                }
+                deliver(listener, this.frame);
+                this.deliveredCount.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (!this.closed) {
+                this.error = e;
+            }
+        }
+    }
+
+    private static boolean sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deliver(Listener listener, PointCloudFrame frame) {
+        double timestamp = frame.getTimestamp();
+        int numPoints = frame.getNumPoints();
+        FloatBuffer points = frame.getPoints();
+        if (frame.hasPose()) {
+            deliverDevicePose(listener, timestamp, frame.getTranslation(), frame.getRotation());
+            if (frame.isWorldFrame()) {
+                this.worldToSensor.set(frame.getTranslation(), frame.getRotation());
+                this.worldToSensor.invert(this.worldToSensor);
+                this.sensorFrame.set(timestamp, points, numPoints, this.worldToSensor);
+                points = this.sensorFrame.getPoints();
+            }
+        }
+        listener.onPointCloud(timestamp, points, numPoints);
+    }
+
+    /**
+     * Delivers a device pose that does not belong to any frame, e.g. one received between
+     * frames. May only be called from {@link #readFrame(PointCloudFrame)}, and does nothing
+     * when the source has not been started. Poses not newer than the last delivered one, either
+     * by this method or with a frame, are skipped.
+     *
+     * @param timestamp Timestamp of the pose in seconds.
+     * @param translation Translation x, y, z in meters.
+     * @param rotation Rotation quaternion x, y, z, w.
+     */
+    protected void deliverDevicePose(double timestamp, double[] translation, double[] rotation) {
+        Listener listener = this.listener;
+        if (listener != null) {
+            deliverDevicePose(listener, timestamp, translation, rotation);
+        }
+    }
+
+    private void deliverDevicePose(Listener listener, double timestamp, double[] translation,
+                                   double[] rotation) {
+        // Listeners expect increasing timestamps, a frame may come after newer poses.
+        if (timestamp > this.lastPoseTimestamp) {
+            this.lastPoseTimestamp = timestamp;
+            listener.onDevicePose(timestamp, translation, rotation);
+        }
+    }
+
+    /**
+     * Waits until all frames have been delivered or the source was closed.
+     *
+     * @throws InterruptedException If the calling thread was interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Stops the delivering thread and releases the data. Must not be called from the listener.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            thread = this.thread;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        release();
+    }
+
+    /**
+     * Returns the number of point clouds delivered to the listener.
+     */
+    public long getDeliveredCount() {
+        return this.deliveredCount.get();
+    }
+
+    /**
+     * Returns the error that stopped the delivery early, or {@code null}.
+     */
+    public IOException getError() {
+        return this.error;
+    }
+
+    public boolean isRealTime() {
+        return this.realTime;
+    }
+}
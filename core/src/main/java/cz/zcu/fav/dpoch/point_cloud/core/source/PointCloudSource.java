@@ -0,0 +1,61 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * Producer of depth data and device poses, a live Tango device, a recorded session or a
+ * synthetic generator. Data are delivered to a {@link Listener} on a thread owned by the source,
+ * the same way Tango delivers them to its update listener.
+ */
+public interface PointCloudSource extends Closeable {
+
+    /**
+     * Receives the data of a source. Methods are called on a single thread of the source.
+     */
+    interface Listener {
+
+        /**
+         * Called once before any other data with the fixed pose of the depth sensor relative to
+         * the device.
+         *
+         * @param translation Translation x, y, z.
+         * @param rotation Rotation quaternion x, y, z, w.
+         */
+        void onDeviceToSensor(double[] translation, double[] rotation);
+
+        /**
+         * Called with every valid pose of the device in the start of service frame.
+         *
+         * @param timestamp Timestamp of the pose in seconds.
+         * @param translation Translation x, y, z.
+         * @param rotation Rotation quaternion x, y, z, w.
+         */
+        void onDevicePose(double timestamp, double[] translation, double[] rotation);
+
+        /**
+         * Called with every point cloud in the frame of the depth sensor.
+         *
+         * @param timestamp Timestamp of the point cloud in seconds.
+         * @param points Buffer with x, y, z, confidence floats starting at its position, valid
+         *               only during this call.
+         * @param numPoints Number of points in the buffer.
+         */
+        void onPointCloud(double timestamp, FloatBuffer points, int numPoints);
+    }
+
+    /**
+     * Starts delivering data to the listener.
+     *
+     * @param listener Receiver of the data.
+     * @throws IOException If the source could not be opened.
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Stops delivering data. The listener is not called after this method returns.
+     */
+    @Override
+    void close() throws IOException;
+}
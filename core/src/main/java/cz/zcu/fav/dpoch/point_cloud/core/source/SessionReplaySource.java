@@ -0,0 +1,61 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import java.io.File;
+import java.io.IOException;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionReader;
+
+/**
+ * Replays the frames of a session file recorded by
+ * {@link cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter}.
+ */
+public class SessionReplaySource extends PacedSource {
+
+    private static final String THREAD_NAME = "SessionReplay";
+
+    private final File file;
+    private SessionReader reader;
+    private int nextFrame = 0;
+
+    /**
+     * @param file Session file.
+     * @param realTime Whether to pace the frames by their timestamps.
+     */
+    public SessionReplaySource(File file, boolean realTime) {
+        super(THREAD_NAME, realTime);
+        this.file = file;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        this.reader = new SessionReader(this.file);
+    }
+
+    @Override
+    protected boolean readFrame(PointCloudFrame frame) throws IOException {
+        if (this.nextFrame >= this.reader.getFrameCount()) {
+            return false;
+        }
+        this.reader.readFrame(this.nextFrame++, frame);
+        return true;
+    }
+
+    @Override
+    protected void release() throws IOException {
+        if (this.reader != null) {
+            this.reader.close();
+        }
+    }
+
+    /**
+     * Returns the number of frames in the session, valid after the source has been started.
+     */
+    public int getFrameCount() {
+        return this.reader != null ? this.reader.getFrameCount() : 0;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+}
@@ -0,0 +1,114 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CameraIntrinsics;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+/**
+ * Generates depth frames of a wavy wall seen by a device slowly moving along it. Points come in
+ * rows like the depth image of a real sensor, confidence varies randomly and the output is the
+ * same for the same parameters, so throughput and frame drop tests are reproducible.
+ */
+public class SyntheticSource extends PacedSource {
+
+    private static final String THREAD_NAME = "SyntheticSource";
+    private static final long SEED = 42;
+    private static final double SPEED = 0.25;
+
+    private final int pointsPerFrame;
+    private final double framesPerSecond;
+    private final long frameCount;
+    private final float[] points;
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[4];
+    private long nextFrame = 0;
+
+    /**
+     * @param pointsPerFrame Number of points in every frame.
+     * @param framesPerSecond Rate of the frame timestamps.
+     * @param frameCount Number of frames to generate, or a negative value to generate frames
+     *                   until the source is closed.
+     * @param realTime Whether to deliver the frames at the given rate or as fast as possible.
+     */
+    public SyntheticSource(int pointsPerFrame, double framesPerSecond, long frameCount,
+                           boolean realTime) {
+        super(THREAD_NAME, realTime);
+        if (pointsPerFrame < 0) {
+            throw new IllegalArgumentException("Number of points must not be negative: " + pointsPerFrame);
+        }
+        if (!(framesPerSecond > 0)) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + framesPerSecond);
+        }
+        this.pointsPerFrame = pointsPerFrame;
+        this.framesPerSecond = framesPerSecond;
+        this.frameCount = frameCount;
+        this.points = generatePoints(pointsPerFrame);
+    }
+
+    private static int columns(int numPoints) {
+        return Math.max(1, (int) Math.round(Math.sqrt(numPoints * 4.0 / 3)));
+    }
+
+    // Projects a depth image with a 4:3 aspect ratio and a horizontal field of view of about
+    // 60 degrees.
+    private static float[] generatePoints(int numPoints) {
+        float[] points = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        int columns = columns(numPoints);
+        int rows = (numPoints + columns - 1) / columns;
+        float focalLength = columns * 0.87f;
+        Random random = new Random(SEED);
+        for (int i = 0; i < numPoints; i++) {
+            float u = ((i % columns) - columns / 2f) / focalLength;
+            float v = ((i / columns) - rows / 2f) / focalLength;
+            float depth = 2 + 0.2f * (float) Math.sin(u * 12) * (float) Math.cos(v * 9)
+                    + 0.002f * (float) random.nextGaussian();
+            points[i * 4] = u * depth;
+            points[i * 4 + 1] = v * depth;
+            points[i * 4 + 2] = depth;
+            points[i * 4 + 3] = random.nextFloat();
+        }
+        return points;
+    }
+
+    @Override
+    protected boolean readFrame(PointCloudFrame frame) {
+        if (this.frameCount >= 0 && this.nextFrame >= this.frameCount) {
+            return false;
+        }
+        double timestamp = this.nextFrame / this.framesPerSecond;
+        frame.set(timestamp, FloatBuffer.wrap(this.points), this.pointsPerFrame);
+        frame.setSequence(this.nextFrame++);
+
+        // Walks along the wall while turning slightly left and right.
+        double yaw = 0.1 * Math.sin(timestamp);
+        this.translation[0] = SPEED * timestamp;
+        this.translation[1] = 0;
+        this.translation[2] = 0.05 * Math.sin(2 * timestamp);
+        this.rotation[0] = 0;
+        this.rotation[1] = Math.sin(yaw / 2);
+        this.rotation[2] = 0;
+        this.rotation[3] = Math.cos(yaw / 2);
+        frame.setPose(this.translation, this.rotation);
+        return true;
+    }
+
+    public int getPointsPerFrame() {
+        return this.pointsPerFrame;
+    }
+
+    public double getFramesPerSecond() {
+        return this.framesPerSecond;
+    }
+
+    /**
+     * Returns the intrinsics of the depth camera the frames are projected from.
+     */
+    public CameraIntrinsics getIntrinsics() {
+        int columns = columns(this.pointsPerFrame);
+        int rows = Math.max(1, (this.pointsPerFrame + columns - 1) / columns);
+        double focalLength = columns * 0.87f;
+        return new CameraIntrinsics(columns, rows, focalLength, focalLength, columns / 2f, rows / 2f);
+    }
+}
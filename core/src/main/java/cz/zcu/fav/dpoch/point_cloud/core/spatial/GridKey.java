@@ -0,0 +1,51 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+/**
+ * Packs integer cell coordinates of a regular 3D grid into a single {@code long}, 21 bits per
+ * axis. Coordinates from {@link #MIN_COORDINATE} to {@link #MAX_COORDINATE} are supported, which
+ * covers more than ten kilometres in every direction with one centimetre cells.
+ */
+public final class GridKey {
+
+    /** Smallest coordinate that can be packed. */
+    public static final int MIN_COORDINATE = -(1 << 20);
+
+    /** Largest coordinate that can be packed. */
+    public static final int MAX_COORDINATE = (1 << 20) - 1;
+
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private GridKey() {
+    }
+
+    /**
+     * Returns whether the coordinates can be packed.
+     */
+    public static boolean isInRange(int x, int y, int z) {
+        return x >= MIN_COORDINATE && x <= MAX_COORDINATE
+                && y >= MIN_COORDINATE && y <= MAX_COORDINATE
+                && z >= MIN_COORDINATE && z <= MAX_COORDINATE;
+    }
+
+    /**
+     * Packs cell coordinates, which must be in range.
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x - (long) MIN_COORDINATE) << (2 * BITS))
+                | ((y - (long) MIN_COORDINATE) << BITS)
+                | (z - (long) MIN_COORDINATE);
+    }
+
+    public static int unpackX(long key) {
+        return (int) ((key >>> (2 * BITS)) & MASK) + MIN_COORDINATE;
+    }
+
+    public static int unpackY(long key) {
+        return (int) ((key >>> BITS) & MASK) + MIN_COORDINATE;
+    }
+
+    public static int unpackZ(long key) {
+        return (int) (key & MASK) + MIN_COORDINATE;
+    }
+}
@@ -0,0 +1,60 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of {@code int} values without boxing, reused by spatial queries to return point
+ * indices without allocating.
+ */
+public class IntList {
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * @param capacity Number of values the list holds without growing.
+     */
+    public IntList(int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.values[this.size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + this.size);
+        }
+        return this.values[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes all values and keeps the allocated memory.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Sorts the values in ascending order.
+     */
+    public void sort() {
+        Arrays.sort(this.values, 0, this.size);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+}
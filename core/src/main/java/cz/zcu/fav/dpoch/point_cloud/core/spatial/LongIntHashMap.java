@@ -0,0 +1,165 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to {@code int} values with linear probing.
+ * Keys and values live in primitive arrays, so neither lookups nor insertions box.
+ */
+public class LongIntHashMap {
+
+    /** Value returned by {@link #get(long)} for missing keys. */
+    public static final int NO_VALUE = -1;
+
+    private static final long FREE_KEY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+    private int resizeThreshold;
+    // The free key marks empty slots, so its value is stored separately.
+    private boolean hasFreeKey = false;
+    private int freeKeyValue = NO_VALUE;
+
+    /**
+     * @param expectedSize Number of entries the map holds without resizing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, FREE_KEY);
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        // Mixing step of MurmurHash3, spreads packed coordinates over all bits.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Returns the value of a key or {@link #NO_VALUE} if the key is missing.
+     */
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return this.hasFreeKey ? this.freeKeyValue : NO_VALUE;
+        }
+        int slot = hash(key) & this.mask;
+        while (true) {
+            long stored = this.keys[slot];
+            if (stored == key) {
+                return this.values[slot];
+            }
+            if (stored == FREE_KEY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Returns the value of a key, inserting the given value first if the key is missing.
+     *
+     * @param key Key to look up.
+     * @param value Value stored when the key is missing.
+     * @return Value of the key after the call.
+     */
+    public int putIfAbsent(long key, int value) {
+        if (key == FREE_KEY) {
+            if (!this.hasFreeKey) {
+                this.hasFreeKey = true;
+                this.freeKeyValue = value;
+                this.size++;
+            }
+            return this.freeKeyValue;
+        }
+        int slot = hash(key) & this.mask;
+        while (true) {
+            long stored = this.keys[slot];
+            if (stored == key) {
+                return this.values[slot];
+            }
+            if (stored == FREE_KEY) {
+                this.keys[slot] = key;
+                this.values[slot] = value;
+                if (++this.size > this.resizeThreshold) {
+                    rehash(this.keys.length * 2);
+                }
+                return value;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Stores a value for a key, replacing the previous one.
+     */
+    public void put(long key, int value) {
+        if (key == FREE_KEY) {
+            if (!this.hasFreeKey) {
+                this.hasFreeKey = true;
+                this.size++;
+            }
+            this.freeKeyValue = value;
+            return;
+        }
+        int slot = hash(key) & this.mask;
+        while (true) {
+            long stored = this.keys[slot];
+            if (stored == key) {
+                this.values[slot] = value;
+                return;
+            }
+            if (stored == FREE_KEY) {
+                this.keys[slot] = key;
+                this.values[slot] = value;
+                if (++this.size > this.resizeThreshold) {
+                    rehash(this.keys.length * 2);
+                }
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = hash(key) & this.mask;
+                while (this.keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Removes all entries and keeps the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, FREE_KEY);
+        this.size = 0;
+        this.hasFreeKey = false;
+        this.freeKeyValue = NO_VALUE;
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
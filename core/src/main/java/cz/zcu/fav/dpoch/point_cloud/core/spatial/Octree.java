@@ -0,0 +1,644 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Incremental octree over an accumulated scan. Frames are inserted as they arrive and the tree
+ * answers box, radius and k-nearest-neighbour queries, so processing stages do not have to
+ * compare every pair of points.
+ *
+ * <p>Points and nodes live in flat primitive arrays instead of objects: a point takes 24 bytes
+ * (x, y, z, confidence, the frame it came from and a link to the next point of its leaf), a node
+ * 57 bytes, and the sensor origin of every inserted frame is kept. The arrays grow up to a fixed
+ * maximum number of points, further points are rejected. The root cube doubles whenever a point
+ * falls outside of it, so the extent of the scan does not have to be known in advance.</p>
+ *
+ * <p>Points are numbered in insertion order until {@link #compact()} renumbers them so that every
+ * leaf is stored contiguously, which makes queries several times faster on large scans. Indices
+ * can be used to attach further data once the tree is compacted.</p>
+ *
+ * <p>Inserting is not thread safe. Once insertion has stopped, any number of threads may query
+ * the tree concurrently; queries do not allocate.</p>
+ */
+public class Octree {
+
+    /** Default number of points a leaf holds before it is split. */
+    public static final int DEFAULT_LEAF_CAPACITY = 32;
+
+    /** Default edge length of the smallest cell in meters. */
+    public static final float DEFAULT_MIN_CELL_SIZE = 0.01f;
+
+    /** Largest absolute value of a coordinate in meters, farther points are rejected. */
+    public static final float MAX_COORDINATE = 1e6f;
+
+    private static final float INITIAL_ROOT_SIZE = 8;
+    private static final int INITIAL_POINT_CAPACITY = 1 << 14;
+    private static final int INITIAL_NODE_CAPACITY = 1 << 10;
+    private static final int NONE = -1;
+    private static final double[] ORIGIN = new double[3];
+
+    private final int maxPoints;
+    private final int leafCapacity;
+    private final float minHalfSize;
+    private final RigidTransform framePose = new RigidTransform();
+
+    // Points: x, y, z, confidence interleaved, frame of the point, next point of the same leaf.
+    private float[] points;
+    private int[] frames;
+    private int[] next;
+    private int pointCount = 0;
+    private long rejectedCount = 0;
+
+    // Sensor origin x, y, z of every inserted frame.
+    private double[] frameOrigins = new double[3 * 16];
+    private int frameCount = 0;
+
+    // Nodes: cube center and half of its edge, 8 child slots, first point and count of a leaf.
+    private float[] centers;
+    private float[] halfSizes;
+    private int[] children;
+    private int[] heads;
+    private int[] counts;
+    private boolean[] leaves;
+    private int nodeCount = 0;
+    private int root = NONE;
+
+    /**
+     * Creates an octree with the default leaf capacity and smallest cell size.
+     *
+     * @param maxPoints Largest number of points the tree stores.
+     */
+    public Octree(int maxPoints) {
+        this(maxPoints, DEFAULT_LEAF_CAPACITY, DEFAULT_MIN_CELL_SIZE);
+    }
+
+    /**
+     * @param maxPoints Largest number of points the tree stores.
+     * @param leafCapacity Number of points a leaf holds before it is split.
+     * @param minCellSize Edge length of the smallest cell in meters. Leaves of this size are not
+     *                    split further, however many points they hold.
+     */
+    public Octree(int maxPoints, int leafCapacity, float minCellSize) {
+        if (maxPoints < 1 || leafCapacity < 1) {
+            throw new IllegalArgumentException("Capacities must be positive.");
+        }
+        if (!(minCellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + minCellSize);
+        }
+        this.maxPoints = maxPoints;
+        this.leafCapacity = leafCapacity;
+        this.minHalfSize = minCellSize / 2;
+        int pointCapacity = Math.min(maxPoints, INITIAL_POINT_CAPACITY);
+        this.points = new float[pointCapacity * 4];
+        this.frames = new int[pointCapacity];
+        this.next = new int[pointCapacity];
+        allocateNodes(INITIAL_NODE_CAPACITY);
+    }
+
+    private void allocateNodes(int capacity) {
+        this.centers = this.centers == null ? new float[capacity * 3]
+                : Arrays.copyOf(this.centers, capacity * 3);
+        this.halfSizes = this.halfSizes == null ? new float[capacity]
+                : Arrays.copyOf(this.halfSizes, capacity);
+        int oldChildren = this.children == null ? 0 : this.children.length;
+        this.children = this.children == null ? new int[capacity * 8]
+                : Arrays.copyOf(this.children, capacity * 8);
+        Arrays.fill(this.children, oldChildren, this.children.length, NONE);
+        this.heads = this.heads == null ? new int[capacity] : Arrays.copyOf(this.heads, capacity);
+        this.counts = this.counts == null ? new int[capacity] : Arrays.copyOf(this.counts, capacity);
+        this.leaves = this.leaves == null ? new boolean[capacity]
+                : Arrays.copyOf(this.leaves, capacity);
+    }
+
+    private int createLeaf(float x, float y, float z, float halfSize) {
+        if (this.nodeCount == this.halfSizes.length) {
+            allocateNodes(this.nodeCount * 2);
+        }
+        int node = this.nodeCount++;
+        this.centers[node * 3] = x;
+        this.centers[node * 3 + 1] = y;
+        this.centers[node * 3 + 2] = z;
+        this.halfSizes[node] = halfSize;
+        this.heads[node] = NONE;
+        this.counts[node] = 0;
+        this.leaves[node] = true;
+        return node;
+    }
+
+    /**
+     * Inserts the points of a frame. Frames in the sensor frame are transformed by their pose if
+     * they have one. The translation of the pose is the sensor origin of the frame.
+     *
+     * @return Number of inserted points.
+     */
+    public int insert(PointCloudFrame frame) {
+        if (!frame.hasPose()) {
+            return insert(frame.getPoints(), frame.getNumPoints(), null);
+        }
+        this.framePose.set(frame.getTranslation(), frame.getRotation());
+        return insert(frame.getPoints(), frame.getNumPoints(),
+                frame.isWorldFrame() ? null : this.framePose, this.framePose.getTranslation());
+    }
+
+    /**
+     * Inserts a batch of x, y, z, confidence points captured by a sensor at the origin of the
+     * transform.
+     *
+     * @param points Points starting at the position of the buffer, which is not changed.
+     * @param numPoints Number of points.
+     * @param transform Transform applied to the points first, or {@code null}.
+     * @return Number of inserted points.
+     */
+    public int insert(FloatBuffer points, int numPoints, RigidTransform transform) {
+        return insert(points, numPoints, transform,
+                transform != null ? transform.getTranslation() : ORIGIN);
+    }
+
+    private int insert(FloatBuffer points, int numPoints, RigidTransform transform,
+                       double[] origin) {
+        if (this.frameCount * 3 == this.frameOrigins.length) {
+            this.frameOrigins = Arrays.copyOf(this.frameOrigins, this.frameOrigins.length * 2);
+        }
+        int frame = this.frameCount++;
+        System.arraycopy(origin, 0, this.frameOrigins, frame * 3, 3);
+
+        double[] m = transform != null ? transform.getMatrix() : null;
+        double[] t = transform != null ? transform.getTranslation() : null;
+        int index = points.position();
+        int inserted = 0;
+        for (int i = 0; i < numPoints; i++, index += 4) {
+            float x = points.get(index);
+            float y = points.get(index + 1);
+            float z = points.get(index + 2);
+            if (m != null) {
+                float tx = (float) (m[0] * x + m[1] * y + m[2] * z + t[0]);
+                float ty = (float) (m[3] * x + m[4] * y + m[5] * z + t[1]);
+                float tz = (float) (m[6] * x + m[7] * y + m[8] * z + t[2]);
+                x = tx;
+                y = ty;
+                z = tz;
+            }
+            if (insertPoint(x, y, z, points.get(index + 3), frame) != NONE) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts a single point without a known sensor origin.
+     *
+     * @return Index of the point, or -1 if its coordinates are invalid or out of range or the
+     *         tree is full.
+     */
+    public int insertPoint(float x, float y, float z, float confidence) {
+        return insertPoint(x, y, z, confidence, NONE);
+    }
+
+    private int insertPoint(float x, float y, float z, float confidence, int frame) {
+        // Also rejects NaN coordinates.
+        if (!(Math.abs(x) <= MAX_COORDINATE && Math.abs(y) <= MAX_COORDINATE
+                && Math.abs(z) <= MAX_COORDINATE) || this.pointCount == this.maxPoints) {
+            this.rejectedCount++;
+            return NONE;
+        }
+        if (this.root == NONE) {
+            this.root = createLeaf(snap(x), snap(y), snap(z), INITIAL_ROOT_SIZE / 2);
+        }
+        while (!contains(this.root, x, y, z)) {
+            growRoot(x, y, z);
+        }
+
+        int point = this.pointCount;
+        if (point == this.next.length) {
+            int capacity = (int) Math.min(this.maxPoints, this.next.length * 2L);
+            this.points = Arrays.copyOf(this.points, capacity * 4);
+            this.frames = Arrays.copyOf(this.frames, capacity);
+            this.next = Arrays.copyOf(this.next, capacity);
+        }
+        this.frames[point] = frame;
+        this.points[point * 4] = x;
+        this.points[point * 4 + 1] = y;
+        this.points[point * 4 + 2] = z;
+        this.points[point * 4 + 3] = confidence;
+        this.pointCount++;
+
+        int node = this.root;
+        while (!this.leaves[node]) {
+            node = childFor(node, x, y, z);
+        }
+        this.next[point] = this.heads[node];
+        this.heads[node] = point;
+        if (++this.counts[node] > this.leafCapacity && this.halfSizes[node] > this.minHalfSize) {
+            split(node);
+        }
+        return point;
+    }
+
+    private static float snap(float value) {
+        return (float) Math.floor(value / INITIAL_ROOT_SIZE) * INITIAL_ROOT_SIZE
+                + INITIAL_ROOT_SIZE / 2;
+    }
+
+    private boolean contains(int node, float x, float y, float z) {
+        float h = this.halfSizes[node];
+        return Math.abs(x - this.centers[node * 3]) <= h
+                && Math.abs(y - this.centers[node * 3 + 1]) <= h
+                && Math.abs(z - this.centers[node * 3 + 2]) <= h;
+    }
+
+    private static int octant(float[] centers, int node, float x, float y, float z) {
+        return (x >= centers[node * 3] ? 1 : 0)
+                | (y >= centers[node * 3 + 1] ? 2 : 0)
+                | (z >= centers[node * 3 + 2] ? 4 : 0);
+    }
+
+    /**
+     * Replaces the root by a cube twice as large, extending towards a point outside of it. The
+     * old root becomes one of its octants.
+     */
+    private void growRoot(float x, float y, float z) {
+        int old = this.root;
+        float h = this.halfSizes[old];
+        float cx = this.centers[old * 3];
+        float cy = this.centers[old * 3 + 1];
+        float cz = this.centers[old * 3 + 2];
+        float nx = x >= cx ? cx + h : cx - h;
+        float ny = y >= cy ? cy + h : cy - h;
+        float nz = z >= cz ? cz + h : cz - h;
+        int root = createLeaf(nx, ny, nz, h * 2);
+        this.leaves[root] = false;
+        this.children[root * 8 + octant(this.centers, root, cx, cy, cz)] = old;
+        this.root = root;
+    }
+
+    /**
+     * Returns the child of an inner node that contains a point, creating it if needed.
+     */
+    private int childFor(int node, float x, float y, float z) {
+        int octant = octant(this.centers, node, x, y, z);
+        int child = this.children[node * 8 + octant];
+        if (child == NONE) {
+            float h = this.halfSizes[node] / 2;
+            child = createLeaf(
+                    this.centers[node * 3] + ((octant & 1) != 0 ? h : -h),
+                    this.centers[node * 3 + 1] + ((octant & 2) != 0 ? h : -h),
+                    this.centers[node * 3 + 2] + ((octant & 4) != 0 ? h : -h), h);
+            this.children[node * 8 + octant] = child;
+        }
+        return child;
+    }
+
+    private void split(int node) {
+        int point = this.heads[node];
+        this.leaves[node] = false;
+        this.heads[node] = NONE;
+        this.counts[node] = 0;
+        while (point != NONE) {
+            int following = this.next[point];
+            int child = childFor(node, this.points[point * 4], this.points[point * 4 + 1],
+                    this.points[point * 4 + 2]);
+            this.next[point] = this.heads[child];
+            this.heads[child] = point;
+            this.counts[child]++;
+            point = following;
+        }
+    }
+
+    /**
+     * Renumbers the points in depth-first order of their leaves, so the points of a leaf and of
+     * neighbouring leaves are adjacent in memory. Indices obtained before are no longer valid.
+     * Needs temporary memory for a second copy of the points.
+     */
+    public void compact() {
+        if (this.root == NONE) {
+            return;
+        }
+        float[] points = new float[this.points.length];
+        int[] frames = new int[this.frames.length];
+        int[] next = new int[this.next.length];
+        int count = compact(this.root, points, frames, next, 0);
+        if (count != this.pointCount) {
+            throw new IllegalStateException("Lost points while compacting: " + count);
+        }
+        this.points = points;
+        this.frames = frames;
+        this.next = next;
+    }
+
+    /**
+     * Copies the points of a subtree into new arrays starting at an index.
+     *
+     * @return Index after the last copied point.
+     */
+    private int compact(int node, float[] points, int[] frames, int[] next, int index) {
+        if (!this.leaves[node]) {
+            for (int i = 0; i < 8; i++) {
+                int child = this.children[node * 8 + i];
+                if (child != NONE) {
+                    index = compact(child, points, frames, next, index);
+                }
+            }
+            return index;
+        }
+        if (this.counts[node] == 0) {
+            return index;
+        }
+        int point = this.heads[node];
+        this.heads[node] = index;
+        while (point != NONE) {
+            System.arraycopy(this.points, point * 4, points, index * 4, 4);
+            frames[index] = this.frames[point];
+            point = this.next[point];
+            next[index] = point != NONE ? index + 1 : NONE;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Collects the points inside an axis-aligned box, bounds included.
+     *
+     * @param result List the point indices are added to.
+     */
+    public void queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                         IntList result) {
+        if (this.root != NONE) {
+            queryBox(this.root, minX, minY, minZ, maxX, maxY, maxZ, result);
+        }
+    }
+
+    private void queryBox(int node, float minX, float minY, float minZ, float maxX, float maxY,
+                          float maxZ, IntList result) {
+        float h = this.halfSizes[node];
+        float cx = this.centers[node * 3];
+        float cy = this.centers[node * 3 + 1];
+        float cz = this.centers[node * 3 + 2];
+        if (cx + h < minX || cx - h > maxX || cy + h < minY || cy - h > maxY
+                || cz + h < minZ || cz - h > maxZ) {
+            return;
+        }
+        if (!this.leaves[node]) {
+            for (int i = 0; i < 8; i++) {
+                int child = this.children[node * 8 + i];
+                if (child != NONE) {
+                    queryBox(child, minX, minY, minZ, maxX, maxY, maxZ, result);
+                }
+            }
+            return;
+        }
+        float[] p = this.points;
+        for (int point = this.heads[node]; point != NONE; point = this.next[point]) {
+            float x = p[point * 4];
+            float y = p[point * 4 + 1];
+            float z = p[point * 4 + 2];
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                result.add(point);
+            }
+        }
+    }
+
+    /**
+     * Collects the points within a distance of a position, boundary included.
+     *
+     * @param result List the point indices are added to.
+     */
+    public void queryRadius(float x, float y, float z, float radius, IntList result) {
+        if (this.root != NONE) {
+            queryRadius(this.root, x, y, z, radius * radius, result);
+        }
+    }
+
+    private void queryRadius(int node, float x, float y, float z, float radiusSquared,
+                             IntList result) {
+        if (boxDistanceSquared(node, x, y, z) > radiusSquared) {
+            return;
+        }
+        if (!this.leaves[node]) {
+            for (int i = 0; i < 8; i++) {
+                int child = this.children[node * 8 + i];
+                if (child != NONE) {
+                    queryRadius(child, x, y, z, radiusSquared, result);
+                }
+            }
+            return;
+        }
+        float[] p = this.points;
+        for (int point = this.heads[node]; point != NONE; point = this.next[point]) {
+            float dx = p[point * 4] - x;
+            float dy = p[point * 4 + 1] - y;
+            float dz = p[point * 4 + 2] - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                result.add(point);
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest points to a position.
+     *
+     * @param k Number of points to find.
+     * @param indices Array of at least {@code k} elements receiving the point indices, nearest
+     *                first.
+     * @param distancesSquared Array of at least {@code k} elements receiving the squared
+     *                         distances of the points.
+     * @return Number of points found, less than {@code k} only when the tree holds fewer points.
+     */
+    public int nearest(float x, float y, float z, int k, int[] indices, float[] distancesSquared) {
+        return nearest(x, y, z, k, NONE, indices, distancesSquared);
+    }
+
+    /**
+     * Finds the nearest points to a point of the tree, without the point itself.
+     *
+     * @param point Index of the point.
+     * @param k Number of neighbours to find.
+     * @param indices Array of at least {@code k} elements receiving the point indices, nearest
+     *                first.
+     * @param distancesSquared Array of at least {@code k} elements receiving the squared
+     *                         distances of the points.
+     * @return Number of neighbours found.
+     */
+    public int nearestNeighbours(int point, int k, int[] indices, float[] distancesSquared) {
+        checkPoint(point);
+        return nearest(this.points[point * 4], this.points[point * 4 + 1],
+                this.points[point * 4 + 2], k, point, indices, distancesSquared);
+    }
+
+    private int nearest(float x, float y, float z, int k, int excluded, int[] indices,
+                        float[] distancesSquared) {
+        if (k < 1 || indices.length < k || distancesSquared.length < k) {
+            throw new IllegalArgumentException("Result arrays are smaller than " + k);
+        }
+        if (this.root == NONE) {
+            return 0;
+        }
+        return nearest(this.root, x, y, z, k, excluded, indices, distancesSquared, 0);
+    }
+
+    /**
+     * Searches a subtree, keeping the found points sorted by distance.
+     *
+     * @param found Number of points found so far.
+     * @return Number of points found after searching the subtree.
+     */
+    private int nearest(int node, float x, float y, float z, int k, int excluded, int[] indices,
+                        float[] distancesSquared, int found) {
+        if (found == k && boxDistanceSquared(node, x, y, z) > distancesSquared[k - 1]) {
+            return found;
+        }
+        if (!this.leaves[node]) {
+            // The octant of the position first, it most likely shrinks the search radius.
+            int first = octant(this.centers, node, x, y, z);
+            for (int i = 0; i < 8; i++) {
+                int child = this.children[node * 8 + (first ^ i)];
+                if (child != NONE) {
+                    found = nearest(child, x, y, z, k, excluded, indices, distancesSquared, found);
+                }
+            }
+            return found;
+        }
+        float[] p = this.points;
+        for (int point = this.heads[node]; point != NONE; point = this.next[point]) {
+            if (point == excluded) {
+                continue;
+            }
+            float dx = p[point * 4] - x;
+            float dy = p[point * 4 + 1] - y;
+            float dz = p[point * 4 + 2] - z;
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (found == k && distance >= distancesSquared[k - 1]) {
+                continue;
+            }
+            // Insertion into the sorted result, k is small.
+            int slot = found < k ? found++ : k - 1;
+            while (slot > 0 && distancesSquared[slot - 1] > distance) {
+                indices[slot] = indices[slot - 1];
+                distancesSquared[slot] = distancesSquared[slot - 1];
+                slot--;
+            }
+            indices[slot] = point;
+            distancesSquared[slot] = distance;
+        }
+        return found;
+    }
+
+    private float boxDistanceSquared(int node, float x, float y, float z) {
+        float h = this.halfSizes[node];
+        float dx = Math.max(0, Math.abs(x - this.centers[node * 3]) - h);
+        float dy = Math.max(0, Math.abs(y - this.centers[node * 3 + 1]) - h);
+        float dz = Math.max(0, Math.abs(z - this.centers[node * 3 + 2]) - h);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void checkPoint(int point) {
+        if (point < 0 || point >= this.pointCount) {
+            throw new IndexOutOfBoundsException("Point " + point + " of " + this.pointCount);
+        }
+    }
+
+    public float getX(int point) {
+        checkPoint(point);
+        return this.points[point * 4];
+    }
+
+    public float getY(int point) {
+        checkPoint(point);
+        return this.points[point * 4 + 1];
+    }
+
+    public float getZ(int point) {
+        checkPoint(point);
+        return this.points[point * 4 + 2];
+    }
+
+    public float getConfidence(int point) {
+        checkPoint(point);
+        return this.points[point * 4 + 3];
+    }
+
+    /**
+     * Returns the origin of the sensor that captured a point.
+     *
+     * @param point Index of the point.
+     * @param origin Array receiving the x, y, z of the origin.
+     * @return {@code false} if the point was inserted on its own without an origin.
+     */
+    public boolean getOrigin(int point, float[] origin) {
+        checkPoint(point);
+        int frame = this.frames[point];
+        if (frame == NONE) {
+            return false;
+        }
+        origin[0] = (float) this.frameOrigins[frame * 3];
+        origin[1] = (float) this.frameOrigins[frame * 3 + 1];
+        origin[2] = (float) this.frameOrigins[frame * 3 + 2];
+        return true;
+    }
+
+    /**
+     * Writes all points into a frame in index order. The frame is marked as being in the
+     * world frame without a pose.
+     *
+     * @param frame Frame to fill, resized if needed.
+     */
+    public void export(PointCloudFrame frame) {
+        frame.ensureCapacity(this.pointCount);
+        frame.setNumPoints(this.pointCount);
+        frame.clearPose();
+        frame.setWorldFrame(true);
+        frame.getPoints().put(this.points, 0, this.pointCount * 4);
+    }
+
+    /**
+     * Removes all points and nodes and keeps the allocated memory.
+     */
+    public void clear() {
+        Arrays.fill(this.children, 0, this.nodeCount * 8, NONE);
+        this.nodeCount = 0;
+        this.root = NONE;
+        this.pointCount = 0;
+        this.rejectedCount = 0;
+        this.frameCount = 0;
+    }
+
+    /**
+     * Returns the number of stored points.
+     */
+    public int size() {
+        return this.pointCount;
+    }
+
+    public int getMaxPoints() {
+        return this.maxPoints;
+    }
+
+    /**
+     * Returns the number of points rejected because of invalid or out of range coordinates or a
+     * full tree.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * Returns the number of nodes, inner nodes and leaves.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Returns the number of bytes held by the point and node arrays.
+     */
+    public long getMemoryBytes() {
+        return this.points.length * 4L + this.frames.length * 4L + this.next.length * 4L
+                + this.frameOrigins.length * 8L + this.centers.length * 4L
+                + this.halfSizes.length * 4L + this.children.length * 4L + this.heads.length * 4L
+                + this.counts.length * 4L + this.leaves.length;
+    }
+}
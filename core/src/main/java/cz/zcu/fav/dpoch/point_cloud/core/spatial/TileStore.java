@@ -0,0 +1,679 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Out-of-core point store for scans larger than the heap. Space is divided into cubic tiles and
+ * the points of every tile are appended to its own file of little-endian x, y, z, confidence
+ * floats in a directory. Points are only kept in memory by a cache of recently used tiles with a
+ * fixed budget of points, the least recently used tiles are written out and dropped when it
+ * overflows. A store reopened from its directory continues where it was closed.
+ *
+ * <p>Added points are buffered in the cache of their tile, so appends to a tile whose file was
+ * never read do not read it. Box queries visit only the tiles they intersect and load them into
+ * the cache, except tiles too large for it, which are scanned from their files. Apart from the
+ * cache only a few dozen bytes per tile are held, so memory use does not grow with the number of
+ * points. Queries over large parts of the scan can pass the points to a {@link PointVisitor}
+ * instead of collecting them in a frame. The store is not thread safe.</p>
+ */
+public class TileStore implements Closeable {
+
+    /** Default edge length of a tile in meters. */
+    public static final float DEFAULT_TILE_SIZE = 2f;
+
+    /** Default number of points held by the cache, 64 MB. */
+    public static final int DEFAULT_CACHE_POINTS = 4 * 1024 * 1024;
+
+    /** Extension of the tile files. */
+    public static final String FILE_EXTENSION = ".tile";
+
+    private static final String FILE_PREFIX = "tile_";
+    private static final String PROPERTIES_FILE = "store.properties";
+    private static final String TILE_SIZE_PROPERTY = "tileSize";
+    private static final int INITIAL_TILE_CAPACITY = 1024;
+    private static final int IO_BUFFER_POINTS = 16 * 1024;
+    private static final int FLOATS = PointCloudFrame.FLOATS_PER_POINT;
+    // Query results up to this many floats are kept for the next query, larger ones released.
+    private static final int MAX_KEPT_RESULT_FLOATS = IO_BUFFER_POINTS * FLOATS;
+
+    /**
+     * Receives the points found by a box query one by one, so that queries over large parts of
+     * the scan do not have to hold their result in memory.
+     */
+    public interface PointVisitor {
+
+        void visit(float x, float y, float z, float confidence);
+    }
+
+    /**
+     * Tile known to the store. Cached tiles hold a points array and are linked in the order of
+     * their last use. A loaded tile holds all its points, the points from {@code pendingStart} on
+     * are not in its file yet. Otherwise the array only holds points not in the file yet.
+     */
+    private static final class Tile {
+        final long key;
+        final File file;
+        long filePoints;
+        float[] points;
+        int count = 0;
+        int pendingStart = 0;
+        boolean loaded = false;
+        Tile newer;
+        Tile older;
+
+        Tile(long key, File file, long filePoints) {
+            this.key = key;
+            this.file = file;
+            this.filePoints = filePoints;
+        }
+    }
+
+    private final File directory;
+    private final float tileSize;
+    private final float inverseTileSize;
+    private final long maxCachedFloats;
+    private final LongIntHashMap tileIndices = new LongIntHashMap(1024);
+    private final List<Tile> tiles = new ArrayList<Tile>();
+    private final RigidTransform framePose = new RigidTransform();
+    private final ByteBuffer ioBuffer = ByteBuffer.allocateDirect(IO_BUFFER_POINTS * PointCloudFrame.BYTES_PER_POINT)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final FloatBuffer ioFloats = this.ioBuffer.asFloatBuffer();
+    private final float[] ioPoints = new float[IO_BUFFER_POINTS * FLOATS];
+    // Most and least recently used cached tiles.
+    private Tile newest;
+    private Tile oldest;
+    // Tile of the previous point, consecutive points mostly fall into the same tile.
+    private Tile lastTile;
+    private long cachedFloats = 0;
+    private float[] result = new float[0];
+    private int resultCount;
+    private final PointVisitor resultCollector = new PointVisitor() {
+        @Override
+        public void visit(float x, float y, float z, float confidence) {
+            int index = TileStore.this.resultCount * FLOATS;
+            float[] result = TileStore.this.result;
+            if (index + FLOATS > result.length) {
+                result = Arrays.copyOf(result, Math.max(1024, result.length * 2));
+                TileStore.this.result = result;
+            }
+            result[index] = x;
+            result[index + 1] = y;
+            result[index + 2] = z;
+            result[index + 3] = confidence;
+            TileStore.this.resultCount++;
+        }
+    };
+    private long pointCount = 0;
+    private long rejectedCount = 0;
+    private long tileReads = 0;
+    private long tileLoads = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Opens or creates a store with {@link #DEFAULT_TILE_SIZE} and
+     * {@link #DEFAULT_CACHE_POINTS}.
+     *
+     * @param directory Directory of the store, created if missing.
+     * @throws IOException If the directory is not a store with the same tile size.
+     */
+    public TileStore(File directory) throws IOException {
+        this(directory, DEFAULT_TILE_SIZE, DEFAULT_CACHE_POINTS);
+    }
+
+    /**
+     * Opens or creates a store.
+     *
+     * @param directory Directory of the store, created if missing.
+     * @param tileSize Edge length of a tile in meters, which must match the one the store was
+     *                 created with.
+     * @param maxCachedPoints Number of points held in memory at most.
+     * @throws IOException If the directory is not a store with the same tile size.
+     */
+    public TileStore(File directory, float tileSize, int maxCachedPoints) throws IOException {
+        if (!(tileSize > 0)) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        if (maxCachedPoints < INITIAL_TILE_CAPACITY) {
+            throw new IllegalArgumentException("Cache must hold at least " + INITIAL_TILE_CAPACITY
+                    + " points: " + maxCachedPoints);
+        }
+        this.directory = directory;
+        this.tileSize = tileSize;
+        this.inverseTileSize = 1 / tileSize;
+        this.maxCachedFloats = (long) maxCachedPoints * FLOATS;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory.getPath() + ".");
+        }
+        checkProperties();
+        openTiles();
+    }
+
+    private void checkProperties() throws IOException {
+        File file = new File(this.directory, PROPERTIES_FILE);
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            properties.setProperty(TILE_SIZE_PROPERTY, Float.toString(this.tileSize));
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                properties.store(outputStream, "Point cloud tile store");
+            } finally {
+                outputStream.close();
+            }
+            return;
+        }
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            properties.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        String tileSize = properties.getProperty(TILE_SIZE_PROPERTY);
+        if (tileSize == null || Float.parseFloat(tileSize) != this.tileSize) {
+            throw new IOException("Store " + this.directory.getPath() + " has tile size " + tileSize
+                    + ", not " + this.tileSize + ".");
+        }
+    }
+
+    private void openTiles() throws IOException {
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list directory " + this.directory.getPath() + ".");
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+            String[] coordinates = name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_EXTENSION.length()).split("_");
+            long key;
+            try {
+                key = GridKey.pack(Integer.parseInt(coordinates[0]),
+                        Integer.parseInt(coordinates[1]), Integer.parseInt(coordinates[2]));
+            } catch (RuntimeException e) {
+                throw new IOException("Unexpected tile file " + file.getPath() + ".", e);
+            }
+            // A partially written point at the end of a file is ignored.
+            long filePoints = file.length() / PointCloudFrame.BYTES_PER_POINT;
+            this.tileIndices.put(key, this.tiles.size());
+            this.tiles.add(new Tile(key, file, filePoints));
+            this.pointCount += filePoints;
+        }
+    }
+
+    /**
+     * Adds the points of a frame. Frames in the sensor frame are transformed by their pose if
+     * they have one.
+     *
+     * @throws IOException If an evicted tile could not be written.
+     */
+    public void add(PointCloudFrame frame) throws IOException {
+        RigidTransform transform = null;
+        if (frame.hasPose() && !frame.isWorldFrame()) {
+            transform = this.framePose.set(frame.getTranslation(), frame.getRotation());
+        }
+        add(frame.getPoints(), frame.getNumPoints(), transform);
+    }
+
+    /**
+     * Adds a batch of x, y, z, confidence points.
+     *
+     * @param points Points starting at the position of the buffer, which is not changed.
+     * @param numPoints Number of points.
+     * @param transform Transform applied to the points first, or {@code null}.
+     * @throws IOException If an evicted tile could not be written.
+     */
+    public void add(FloatBuffer points, int numPoints, RigidTransform transform) throws IOException {
+        double[] m = transform != null ? transform.getMatrix() : null;
+        double[] t = transform != null ? transform.getTranslation() : null;
+        int index = points.position();
+        for (int i = 0; i < numPoints; i++, index += 4) {
+            float x = points.get(index);
+            float y = points.get(index + 1);
+            float z = points.get(index + 2);
+            float confidence = points.get(index + 3);
+            if (m != null) {
+                float tx = (float) (m[0] * x + m[1] * y + m[2] * z + t[0]);
+                float ty = (float) (m[3] * x + m[4] * y + m[5] * z + t[1]);
+                float tz = (float) (m[6] * x + m[7] * y + m[8] * z + t[2]);
+                x = tx;
+                y = ty;
+                z = tz;
+            }
+            addPoint(x, y, z, confidence);
+        }
+    }
+
+    /**
+     * Adds a single point.
+     *
+     * @throws IOException If an evicted tile could not be written.
+     */
+    public void addPoint(float x, float y, float z, float confidence) throws IOException {
+        float tx = (float) Math.floor(x * this.inverseTileSize);
+        float ty = (float) Math.floor(y * this.inverseTileSize);
+        float tz = (float) Math.floor(z * this.inverseTileSize);
+        // Also rejects NaN coordinates.
+        if (!(tx >= GridKey.MIN_COORDINATE && tx <= GridKey.MAX_COORDINATE
+                && ty >= GridKey.MIN_COORDINATE && ty <= GridKey.MAX_COORDINATE
+                && tz >= GridKey.MIN_COORDINATE && tz <= GridKey.MAX_COORDINATE)) {
+            this.rejectedCount++;
+            return;
+        }
+        long key = GridKey.pack((int) tx, (int) ty, (int) tz);
+        Tile tile = this.lastTile;
+        if (tile == null || tile.key != key) {
+            tile = getOrCreateTile(key);
+            this.lastTile = tile;
+        }
+        if (tile.points == null || tile.count * FLOATS == tile.points.length) {
+            grow(tile);
+        }
+        float[] data = tile.points;
+        int offset = tile.count * FLOATS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+        data[offset + 3] = confidence;
+        tile.count++;
+        this.pointCount++;
+    }
+
+    private Tile getOrCreateTile(long key) {
+        int index = this.tileIndices.putIfAbsent(key, this.tiles.size());
+        if (index < this.tiles.size()) {
+            return this.tiles.get(index);
+        }
+        String name = FILE_PREFIX + GridKey.unpackX(key) + "_" + GridKey.unpackY(key) + "_"
+                + GridKey.unpackZ(key) + FILE_EXTENSION;
+        Tile tile = new Tile(key, new File(this.directory, name), 0);
+        this.tiles.add(tile);
+        return tile;
+    }
+
+    /**
+     * Makes room for more points in a tile, evicting other tiles if the cache overflows.
+     */
+    private void grow(Tile tile) throws IOException {
+        if (tile.points != null && (long) tile.points.length * 2 > this.maxCachedFloats / 2) {
+            // The tile alone would fill most of the cache, its points go to the file instead.
+            flush(tile);
+            if (tile.loaded) {
+                tile.loaded = false;
+                tile.count = 0;
+                tile.pendingStart = 0;
+            }
+            touch(tile);
+            return;
+        }
+        int length = tile.points == null ? INITIAL_TILE_CAPACITY * FLOATS : tile.points.length * 2;
+        resize(tile, length);
+        touch(tile);
+        trim(tile);
+    }
+
+    private void resize(Tile tile, int length) {
+        int previous = tile.points == null ? 0 : tile.points.length;
+        tile.points = tile.points == null ? new float[length] : Arrays.copyOf(tile.points, length);
+        this.cachedFloats += length - previous;
+    }
+
+    /**
+     * Evicts the least recently used tiles other than the given one until the cache fits.
+     */
+    private void trim(Tile keep) throws IOException {
+        Tile tile = this.oldest;
+        while (this.cachedFloats > this.maxCachedFloats && tile != null) {
+            Tile newer = tile.newer;
+            if (tile != keep) {
+                evict(tile);
+            }
+            tile = newer;
+        }
+    }
+
+    private void evict(Tile tile) throws IOException {
+        flush(tile);
+        unlink(tile);
+        this.cachedFloats -= tile.points.length;
+        tile.points = null;
+        tile.count = 0;
+        tile.pendingStart = 0;
+        tile.loaded = false;
+        if (this.lastTile == tile) {
+            this.lastTile = null;
+        }
+        this.evictionCount++;
+    }
+
+    /**
+     * Appends the points of a tile that are not in its file yet.
+     */
+    private void flush(Tile tile) throws IOException {
+        int pending = tile.count - tile.pendingStart;
+        if (pending == 0) {
+            return;
+        }
+        FileOutputStream outputStream = new FileOutputStream(tile.file, true);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            for (int done = 0; done < pending; ) {
+                int chunk = Math.min(pending - done, IO_BUFFER_POINTS);
+                this.ioFloats.clear();
+                this.ioFloats.put(tile.points, (tile.pendingStart + done) * FLOATS, chunk * FLOATS);
+                this.ioBuffer.clear();
+                this.ioBuffer.limit(chunk * PointCloudFrame.BYTES_PER_POINT);
+                while (this.ioBuffer.hasRemaining()) {
+                    channel.write(this.ioBuffer);
+                }
+                done += chunk;
+            }
+        } finally {
+            outputStream.close();
+        }
+        tile.filePoints += pending;
+        if (tile.loaded) {
+            tile.pendingStart = tile.count;
+        } else {
+            tile.count = 0;
+        }
+    }
+
+    private void touch(Tile tile) {
+        if (this.newest == tile) {
+            return;
+        }
+        unlink(tile);
+        tile.older = this.newest;
+        if (this.newest != null) {
+            this.newest.newer = tile;
+        }
+        this.newest = tile;
+        if (this.oldest == null) {
+            this.oldest = tile;
+        }
+    }
+
+    private void unlink(Tile tile) {
+        if (tile.newer != null) {
+            tile.newer.older = tile.older;
+        } else if (this.newest == tile) {
+            this.newest = tile.older;
+        }
+        if (tile.older != null) {
+            tile.older.newer = tile.newer;
+        } else if (this.oldest == tile) {
+            this.oldest = tile.newer;
+        }
+        tile.newer = null;
+        tile.older = null;
+    }
+
+    /**
+     * Finds all points inside an axis-aligned box, bounds included. Only the tiles intersecting
+     * the box are read.
+     *
+     * @param result Frame receiving the points in the order of their tiles, marked as being in
+     *               the world frame without a pose.
+     * @return Number of points found.
+     * @throws IOException If a tile could not be read or an evicted one written.
+     */
+    public int queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                        PointCloudFrame result) throws IOException {
+        this.resultCount = 0;
+        try {
+            queryBox(minX, minY, minZ, maxX, maxY, maxZ, this.resultCollector);
+            result.set(0, FloatBuffer.wrap(this.result), this.resultCount);
+            result.setWorldFrame(true);
+            return this.resultCount;
+        } finally {
+            // The frame holds a copy, a large result is not kept for the lifetime of the store.
+            if (this.result.length > MAX_KEPT_RESULT_FLOATS) {
+                this.result = new float[0];
+            }
+        }
+    }
+
+    /**
+     * Passes all points inside an axis-aligned box, bounds included, to a visitor in the order of
+     * their tiles. Only the tiles intersecting the box are read. The store must not be modified
+     * by the visitor.
+     *
+     * @param visitor Visitor receiving the points.
+     * @return Number of points found.
+     * @throws IOException If a tile could not be read or an evicted one written.
+     */
+    public long queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                         PointVisitor visitor) throws IOException {
+        int fromX = tileCoordinate(minX);
+        int fromY = tileCoordinate(minY);
+        int fromZ = tileCoordinate(minZ);
+        int toX = tileCoordinate(maxX);
+        int toY = tileCoordinate(maxY);
+        int toZ = tileCoordinate(maxZ);
+        long found = 0;
+        if (fromX <= toX && fromY <= toY && fromZ <= toZ) {
+            long rangeTiles = (long) (toX - fromX + 1) * (toY - fromY + 1) * (toZ - fromZ + 1);
+            if (rangeTiles <= this.tiles.size()) {
+                for (int x = fromX; x <= toX; x++) {
+                    for (int y = fromY; y <= toY; y++) {
+                        for (int z = fromZ; z <= toZ; z++) {
+                            int index = this.tileIndices.get(GridKey.pack(x, y, z));
+                            if (index != LongIntHashMap.NO_VALUE) {
+                                found += scan(this.tiles.get(index), minX, minY, minZ, maxX,
+                                        maxY, maxZ, visitor);
+                            }
+                        }
+                    }
+                }
+            } else {
+                // Large boxes are cheaper to test against the existing tiles.
+                for (int i = 0; i < this.tiles.size(); i++) {
+                    Tile tile = this.tiles.get(i);
+                    int x = GridKey.unpackX(tile.key);
+                    int y = GridKey.unpackY(tile.key);
+                    int z = GridKey.unpackZ(tile.key);
+                    if (x >= fromX && x <= toX && y >= fromY && y <= toY && z >= fromZ && z <= toZ) {
+                        found += scan(tile, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int tileCoordinate(float value) {
+        double coordinate = Math.floor((double) value * this.inverseTileSize);
+        return (int) Math.max(GridKey.MIN_COORDINATE, Math.min(GridKey.MAX_COORDINATE, coordinate));
+    }
+
+    private long scan(Tile tile, float minX, float minY, float minZ, float maxX, float maxY,
+                      float maxZ, PointVisitor visitor) throws IOException {
+        this.tileReads++;
+        if (!tile.loaded) {
+            long total = tile.filePoints + tile.count;
+            if (total * FLOATS > this.maxCachedFloats / 2) {
+                flush(tile);
+                return scanFile(tile, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+            }
+            load(tile, (int) total);
+        }
+        touch(tile);
+        return scan(tile.points, tile.count, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+    }
+
+    /**
+     * Reads the file of a tile into its cache entry, in front of the points not written yet.
+     */
+    private void load(Tile tile, int total) throws IOException {
+        int filePoints = (int) tile.filePoints;
+        float[] points = new float[Math.max(total, INITIAL_TILE_CAPACITY) * FLOATS];
+        if (tile.count > 0) {
+            System.arraycopy(tile.points, 0, points, filePoints * FLOATS, tile.count * FLOATS);
+        }
+        if (filePoints > 0) {
+            FileInputStream inputStream = new FileInputStream(tile.file);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                for (int done = 0; done < filePoints; ) {
+                    int chunk = read(channel, Math.min(filePoints - done, IO_BUFFER_POINTS), tile);
+                    this.ioFloats.get(points, done * FLOATS, chunk * FLOATS);
+                    done += chunk;
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+        this.cachedFloats += points.length - (tile.points == null ? 0 : tile.points.length);
+        tile.points = points;
+        tile.count = total;
+        tile.pendingStart = filePoints;
+        tile.loaded = true;
+        this.tileLoads++;
+        touch(tile);
+        trim(tile);
+    }
+
+    private long scanFile(Tile tile, float minX, float minY, float minZ, float maxX, float maxY,
+                          float maxZ, PointVisitor visitor) throws IOException {
+        long found = 0;
+        FileInputStream inputStream = new FileInputStream(tile.file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            for (long done = 0; done < tile.filePoints; ) {
+                int chunk = read(channel, (int) Math.min(tile.filePoints - done, IO_BUFFER_POINTS), tile);
+                this.ioFloats.get(this.ioPoints, 0, chunk * FLOATS);
+                found += scan(this.ioPoints, chunk, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+                done += chunk;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return found;
+    }
+
+    /**
+     * Reads points from a tile file into the I/O buffer and positions its float view at them.
+     */
+    private int read(FileChannel channel, int points, Tile tile) throws IOException {
+        this.ioBuffer.clear();
+        this.ioBuffer.limit(points * PointCloudFrame.BYTES_PER_POINT);
+        while (this.ioBuffer.hasRemaining()) {
+            if (channel.read(this.ioBuffer) < 0) {
+                throw new IOException("Tile file " + tile.file.getPath() + " is truncated.");
+            }
+        }
+        this.ioFloats.clear();
+        this.ioFloats.limit(points * FLOATS);
+        return points;
+    }
+
+    private static int scan(float[] points, int count, float minX, float minY, float minZ,
+                            float maxX, float maxY, float maxZ, PointVisitor visitor) {
+        int found = 0;
+        for (int i = 0; i < count * FLOATS; i += FLOATS) {
+            float x = points[i];
+            float y = points[i + 1];
+            float z = points[i + 2];
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                visitor.visit(x, y, z, points[i + 3]);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes the points of all cached tiles that are not in their files yet. The cache is kept.
+     *
+     * @throws IOException If a tile could not be written.
+     */
+    public void flush() throws IOException {
+        for (Tile tile = this.newest; tile != null; tile = tile.older) {
+            flush(tile);
+        }
+    }
+
+    /**
+     * Writes all points not in the tile files yet and drops the cache.
+     */
+    @Override
+    public void close() throws IOException {
+        while (this.oldest != null) {
+            evict(this.oldest);
+        }
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    public float getTileSize() {
+        return this.tileSize;
+    }
+
+    /**
+     * Returns the number of tiles holding points.
+     */
+    public int getTileCount() {
+        return this.tiles.size();
+    }
+
+    /**
+     * Returns the number of stored points, including those not written to the files yet.
+     */
+    public long getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * Returns the number of points the cache has allocated room for, never much more than the
+     * budget given to the constructor.
+     */
+    public long getCachedPoints() {
+        return this.cachedFloats / FLOATS;
+    }
+
+    /**
+     * Returns the number of points ignored because of invalid or out of range coordinates.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * Returns the number of times queries visited a tile.
+     */
+    public long getTileReads() {
+        return this.tileReads;
+    }
+
+    /**
+     * Returns the number of times a tile file was read into the cache.
+     */
+    public long getTileLoads() {
+        return this.tileLoads;
+    }
+
+    /**
+     * Returns the number of tiles evicted from the cache.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+}
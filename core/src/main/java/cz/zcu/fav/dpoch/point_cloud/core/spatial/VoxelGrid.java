@@ -0,0 +1,186 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+/**
+ * Streaming voxel-grid downsampling. Points of incoming frames are quantized to cubic voxels and
+ * merged into the running centroid and mean confidence of their voxel, so a static scene scanned
+ * many times is stored only once. The accumulated cloud can be exported at any time.
+ *
+ * <p>Voxels are found through a {@link LongIntHashMap} keyed by packed voxel coordinates and their
+ * sums are kept in parallel primitive arrays. The grid is not thread safe.</p>
+ */
+public class VoxelGrid {
+
+    private static final int INITIAL_CAPACITY = 1 << 14;
+
+    private final float voxelSize;
+    private final float inverseVoxelSize;
+    private final LongIntHashMap voxels = new LongIntHashMap(INITIAL_CAPACITY);
+    private final RigidTransform framePose = new RigidTransform();
+
+    private double[] sumX = new double[INITIAL_CAPACITY];
+    private double[] sumY = new double[INITIAL_CAPACITY];
+    private double[] sumZ = new double[INITIAL_CAPACITY];
+    private double[] sumConfidence = new double[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int voxelCount = 0;
+    private long pointCount = 0;
+    private long rejectedCount = 0;
+
+    /**
+     * @param voxelSize Edge length of a voxel in meters.
+     */
+    public VoxelGrid(float voxelSize) {
+        if (!(voxelSize > 0)) {
+            throw new IllegalArgumentException("Voxel size must be positive: " + voxelSize);
+        }
+        this.voxelSize = voxelSize;
+        this.inverseVoxelSize = 1 / voxelSize;
+    }
+
+    /**
+     * Merges the points of a frame. Frames in the sensor frame are transformed by their pose if
+     * they have one.
+     */
+    public void add(PointCloudFrame frame) {
+        RigidTransform transform = null;
+        if (frame.hasPose() && !frame.isWorldFrame()) {
+            transform = this.framePose.set(frame.getTranslation(), frame.getRotation());
+        }
+        add(frame.getPoints(), frame.getNumPoints(), transform);
+    }
+
+    /**
+     * Merges a batch of x, y, z, confidence points.
+     *
+     * @param points Points starting at the position of the buffer, which is not changed.
+     * @param numPoints Number of points.
+     * @param transform Transform applied to the points first, or {@code null}.
+     */
+    public void add(FloatBuffer points, int numPoints, RigidTransform transform) {
+        double[] m = transform != null ? transform.getMatrix() : null;
+        double[] t = transform != null ? transform.getTranslation() : null;
+        int index = points.position();
+        for (int i = 0; i < numPoints; i++, index += 4) {
+            float x = points.get(index);
+            float y = points.get(index + 1);
+            float z = points.get(index + 2);
+            float confidence = points.get(index + 3);
+            if (m != null) {
+                float tx = (float) (m[0] * x + m[1] * y + m[2] * z + t[0]);
+                float ty = (float) (m[3] * x + m[4] * y + m[5] * z + t[1]);
+                float tz = (float) (m[6] * x + m[7] * y + m[8] * z + t[2]);
+                x = tx;
+                y = ty;
+                z = tz;
+            }
+            addPoint(x, y, z, confidence);
+        }
+    }
+
+    /**
+     * Merges a single point.
+     */
+    public void addPoint(float x, float y, float z, float confidence) {
+        float vx = (float) Math.floor(x * this.inverseVoxelSize);
+        float vy = (float) Math.floor(y * this.inverseVoxelSize);
+        float vz = (float) Math.floor(z * this.inverseVoxelSize);
+        // Also rejects NaN coordinates.
+        if (!(vx >= GridKey.MIN_COORDINATE && vx <= GridKey.MAX_COORDINATE
+                && vy >= GridKey.MIN_COORDINATE && vy <= GridKey.MAX_COORDINATE
+                && vz >= GridKey.MIN_COORDINATE && vz <= GridKey.MAX_COORDINATE)) {
+            this.rejectedCount++;
+            return;
+        }
+
+        long key = GridKey.pack((int) vx, (int) vy, (int) vz);
+        int voxel = this.voxels.putIfAbsent(key, this.voxelCount);
+        if (voxel == this.voxelCount) {
+            if (this.voxelCount == this.counts.length) {
+                grow();
+            }
+            this.voxelCount++;
+        }
+        this.sumX[voxel] += x;
+        this.sumY[voxel] += y;
+        this.sumZ[voxel] += z;
+        this.sumConfidence[voxel] += confidence;
+        this.counts[voxel]++;
+        this.pointCount++;
+    }
+
+    private void grow() {
+        int capacity = this.counts.length * 2;
+        this.sumX = Arrays.copyOf(this.sumX, capacity);
+        this.sumY = Arrays.copyOf(this.sumY, capacity);
+        this.sumZ = Arrays.copyOf(this.sumZ, capacity);
+        this.sumConfidence = Arrays.copyOf(this.sumConfidence, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+    }
+
+    /**
+     * Writes the centroid and mean confidence of every voxel into a frame. The frame is marked
+     * as being in the world frame without a pose.
+     *
+     * @param frame Frame to fill, resized if needed.
+     */
+    public void export(PointCloudFrame frame) {
+        frame.ensureCapacity(this.voxelCount);
+        frame.setNumPoints(this.voxelCount);
+        frame.clearPose();
+        frame.setWorldFrame(true);
+        FloatBuffer points = frame.getPoints();
+        for (int i = 0; i < this.voxelCount; i++) {
+            double count = this.counts[i];
+            points.put((float) (this.sumX[i] / count));
+            points.put((float) (this.sumY[i] / count));
+            points.put((float) (this.sumZ[i] / count));
+            points.put((float) (this.sumConfidence[i] / count));
+        }
+    }
+
+    /**
+     * Removes all voxels and keeps the allocated memory.
+     */
+    public void clear() {
+        this.voxels.clear();
+        Arrays.fill(this.counts, 0, this.voxelCount, 0);
+        Arrays.fill(this.sumX, 0, this.voxelCount, 0);
+        Arrays.fill(this.sumY, 0, this.voxelCount, 0);
+        Arrays.fill(this.sumZ, 0, this.voxelCount, 0);
+        Arrays.fill(this.sumConfidence, 0, this.voxelCount, 0);
+        this.voxelCount = 0;
+        this.pointCount = 0;
+        this.rejectedCount = 0;
+    }
+
+    public float getVoxelSize() {
+        return this.voxelSize;
+    }
+
+    /**
+     * Returns the number of occupied voxels, i.e. the size of the exported cloud.
+     */
+    public int getVoxelCount() {
+        return this.voxelCount;
+    }
+
+    /**
+     * Returns the number of points merged into the grid.
+     */
+    public long getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * Returns the number of points ignored because of invalid or out of range coordinates.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+}
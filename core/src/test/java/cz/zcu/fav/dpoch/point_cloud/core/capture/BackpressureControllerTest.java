@@ -0,0 +1,172 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class BackpressureControllerTest {
+
+    private static final long MILLIS = 1000000;
+
+    /**
+     * Sink that takes a configurable time per frame, like slow storage.
+     */
+    private static class SlowSink implements FrameSink {
+        volatile long writeMillis;
+        int written = 0;
+
+        SlowSink(long writeMillis) {
+            this.writeMillis = writeMillis;
+        }
+
+        @Override
+        public void write(PointCloudFrame frame) throws IOException {
+            long writeMillis = this.writeMillis;
+            if (writeMillis > 0) {
+                try {
+                    Thread.sleep(writeMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            this.written++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void slowWrites_raiseLevelSkippingFramesThenDecimatingPoints() {
+        BackpressureController controller = new BackpressureController(100 * MILLIS, 3, 2, 2);
+        assertEquals(0, controller.getLevel());
+
+        // 50 ms per frame with 4 frames queued predicts 250 ms.
+        int[] expectedLevels = {0, 1, 1, 2, 2, 3, 3, 3};
+        for (int expectedLevel : expectedLevels) {
+            controller.onFrameWritten(50 * MILLIS, 4);
+            assertEquals(expectedLevel, controller.getLevel());
+        }
+        assertEquals(250 * MILLIS, controller.getPredictedLatencyNanos());
+        assertEquals(20, controller.getDrainRate(), 1e-9);
+        assertEquals(3, controller.getFrameStride());
+        assertEquals(2, controller.getPointStride());
+    }
+
+    @Test
+    public void fastWrites_recoverOneLevelAtATime() {
+        BackpressureController controller = new BackpressureController(100 * MILLIS, 4, 1, 3);
+        for (int i = 0; i < 9; i++) {
+            controller.onFrameWritten(200 * MILLIS, 0);
+        }
+        assertEquals(3, controller.getLevel());
+
+        // The average write time decays towards 1 ms, recovery starts below 50 ms.
+        int writes = 0;
+        while (controller.getPredictedLatencyNanos() > 50 * MILLIS) {
+            controller.onFrameWritten(MILLIS, 0);
+            writes++;
+            assertEquals(3, controller.getLevel());
+        }
+        assertEquals(11, writes);
+        // The last of them was already below half of the target.
+        controller.onFrameWritten(MILLIS, 0);
+        assertEquals(3, controller.getLevel());
+        controller.onFrameWritten(MILLIS, 0);
+        assertEquals(2, controller.getLevel());
+        for (int expectedLevel = 2; expectedLevel > 0; expectedLevel--) {
+            controller.onFrameWritten(MILLIS, 0);
+            controller.onFrameWritten(MILLIS, 0);
+            assertEquals(expectedLevel, controller.getLevel());
+            controller.onFrameWritten(MILLIS, 0);
+            assertEquals(expectedLevel - 1, controller.getLevel());
+        }
+        assertEquals(1, controller.getFrameStride());
+    }
+
+    @Test
+    public void latencyBetweenWatermarks_keepsLevel() {
+        BackpressureController controller = new BackpressureController(100 * MILLIS, 4, 1, 1);
+        controller.onFrameWritten(75 * MILLIS, 1);
+        assertEquals(1, controller.getLevel());
+        for (int i = 0; i < 100; i++) {
+            controller.onFrameWritten(75 * MILLIS, 0);
+        }
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void acceptFrame_keepsEveryNthFrame() {
+        BackpressureController controller = new BackpressureController(100 * MILLIS, 3, 1, 1);
+        controller.onFrameWritten(200 * MILLIS, 0);
+        controller.onFrameWritten(200 * MILLIS, 0);
+        assertEquals(3, controller.getFrameStride());
+
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 9; i++) {
+            pattern.append(controller.acceptFrame() ? 'x' : '.');
+        }
+        assertEquals("..x..x..x", pattern.toString());
+    }
+
+    @Test
+    public void filter_keepsEveryMthPoint() {
+        BackpressureController controller = new BackpressureController(100 * MILLIS, 1, 3, 1);
+        controller.onFrameWritten(200 * MILLIS, 0);
+        controller.onFrameWritten(200 * MILLIS, 0);
+        assertEquals(3, controller.getPointStride());
+
+        PointCloudFrame frame = new PointCloudFrame(10);
+        FloatBuffer points = FloatBuffer.allocate(10 * PointCloudFrame.FLOATS_PER_POINT);
+        for (int i = 0; i < points.capacity(); i++) {
+            points.put(i, i / PointCloudFrame.FLOATS_PER_POINT);
+        }
+        frame.set(0, points, 10);
+        controller.filter(frame);
+
+        assertEquals(4, frame.getNumPoints());
+        FloatBuffer kept = frame.getPoints();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < PointCloudFrame.FLOATS_PER_POINT; j++) {
+                assertEquals(i * 3, kept.get(i * PointCloudFrame.FLOATS_PER_POINT + j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void pipeline_throttlesSlowSinkAndRecovers() throws Exception {
+        SlowSink sink = new SlowSink(20);
+        CapturePipeline pipeline = new CapturePipeline(sink, 4, OverflowPolicy.BLOCK, 100);
+        BackpressureController controller = new BackpressureController(50 * MILLIS, 4, 2);
+        pipeline.setBackpressure(controller);
+        pipeline.start();
+        FloatBuffer points = FloatBuffer.allocate(100 * PointCloudFrame.FLOATS_PER_POINT);
+
+        int submitted = 0;
+        int maxLevel = 0;
+        for (int i = 0; i < 200; i++) {
+            pipeline.submit(submitted++, points, 100);
+            maxLevel = Math.max(maxLevel, controller.getLevel());
+        }
+        assertTrue(maxLevel > 0);
+        assertTrue(pipeline.getThrottledCount() > 0);
+
+        // Storage catches up, frames arrive slower than they are written.
+        sink.writeMillis = 0;
+        for (int i = 0; i < 2000 && controller.getLevel() > 0; i++) {
+            pipeline.submit(submitted++, points, 100);
+            Thread.sleep(1);
+        }
+        pipeline.close();
+
+        assertEquals(0, controller.getLevel());
+        assertEquals(1, controller.getFrameStride());
+        assertEquals(1, controller.getPointStride());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertEquals(submitted, sink.written + pipeline.getThrottledCount());
+    }
+}
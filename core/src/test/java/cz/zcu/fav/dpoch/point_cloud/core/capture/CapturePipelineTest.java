@@ -0,0 +1,165 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class CapturePipelineTest {
+
+    /**
+     * Fake frame source; fills one reused buffer the way the Tango service does.
+     */
+    private static class FakeFrameSource {
+        private final FloatBuffer points;
+        private final int numPoints;
+
+        FakeFrameSource(int numPoints) {
+            this.numPoints = numPoints;
+            this.points = FloatBuffer.allocate(numPoints * PointCloudFrame.FLOATS_PER_POINT);
+        }
+
+        boolean emit(CapturePipeline pipeline, int index) {
+            this.points.clear();
+            for (int i = 0; i < this.numPoints * PointCloudFrame.FLOATS_PER_POINT; i++) {
+                this.points.put(index);
+            }
+            this.points.flip();
+            return pipeline.submit(index * 0.2, this.points, this.numPoints);
+        }
+    }
+
+    /**
+     * Records the first float of every frame. Blocks writing until it is opened.
+     */
+    private static class RecordingSink implements FrameSink {
+        final List<Float> written = Collections.synchronizedList(new ArrayList<Float>());
+        final List<Long> sequences = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch gate;
+        final CountDownLatch entered = new CountDownLatch(1);
+        boolean closed = false;
+
+        RecordingSink(boolean blocked) {
+            this.gate = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        @Override
+        public void write(PointCloudFrame frame) throws IOException {
+            this.entered.countDown();
+            try {
+                this.gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            assertEquals(frame.getPoints().get(0), frame.getPoints().get(frame.getNumPoints() * 4 - 1), 0);
+            this.written.add(frame.getPoints().get(0));
+            this.sequences.add(frame.getSequence());
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    @Test
+    public void block_writesEveryFrameInOrder() throws Exception {
+        RecordingSink sink = new RecordingSink(false);
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.BLOCK, 16);
+        pipeline.start();
+        FakeFrameSource source = new FakeFrameSource(100);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(source.emit(pipeline, i));
+        }
+        pipeline.close();
+
+        assertTrue(sink.closed);
+        assertEquals(50, sink.written.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, sink.written.get(i), 0);
+        }
+        assertEquals(50, pipeline.getWrittenCount());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void skippedFrames_leaveNoGapsInSequence() throws Exception {
+        RecordingSink sink = new RecordingSink(false);
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.BLOCK, 16);
+        CaptureScheduler scheduler = new CaptureScheduler();
+        pipeline.setScheduler(scheduler);
+        pipeline.start();
+        FakeFrameSource source = new FakeFrameSource(100);
+        for (int i = 0; i < 20; i++) {
+            if (i % 2 == 0) {
+                scheduler.start(CapturePolicy.continuous());
+            } else {
+                scheduler.stop();
+            }
+            assertEquals(i % 2 == 0, source.emit(pipeline, i));
+        }
+        pipeline.close();
+
+        assertEquals(10, sink.written.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2 * i, sink.written.get(i), 0);
+            assertEquals(i, (long) sink.sequences.get(i));
+        }
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrames() throws Exception {
+        RecordingSink sink = new RecordingSink(true);
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.DROP_NEWEST, 16);
+        pipeline.start();
+        FakeFrameSource source = new FakeFrameSource(10);
+        source.emit(pipeline, 0);
+        sink.entered.await();
+        // Frame 0 is held by the writer, frames 1 and 2 fill the queue.
+        assertTrue(source.emit(pipeline, 1));
+        assertTrue(source.emit(pipeline, 2));
+        assertFalse(source.emit(pipeline, 3));
+        assertFalse(source.emit(pipeline, 4));
+        sink.gate.countDown();
+        pipeline.close();
+
+        assertEquals(3, sink.written.size());
+        assertEquals(2, sink.written.get(2), 0);
+        assertEquals(2, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrames() throws Exception {
+        RecordingSink sink = new RecordingSink(true);
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.DROP_OLDEST, 16);
+        pipeline.start();
+        FakeFrameSource source = new FakeFrameSource(10);
+        source.emit(pipeline, 0);
+        sink.entered.await();
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(source.emit(pipeline, i));
+        }
+        sink.gate.countDown();
+        pipeline.close();
+
+        assertEquals(3, sink.written.size());
+        assertEquals(0, sink.written.get(0), 0);
+        assertEquals(4, sink.written.get(1), 0);
+        assertEquals(5, sink.written.get(2), 0);
+        assertEquals(3, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void submit_afterClose_isRejected() throws Exception {
+        CapturePipeline pipeline = new CapturePipeline(new RecordingSink(false), 1, OverflowPolicy.BLOCK, 4);
+        pipeline.start();
+        pipeline.close();
+        assertFalse(new FakeFrameSource(4).emit(pipeline, 0));
+    }
+}
@@ -0,0 +1,184 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
+import cz.zcu.fav.dpoch.point_cloud.core.source.SyntheticSource;
+
+import static org.junit.Assert.*;
+
+public class CaptureSchedulerTest {
+
+    /**
+     * Records the indices of the written frames among the submitted ones, from their timestamps.
+     */
+    private static class IndexSink implements FrameSink {
+        final List<Long> indices = new ArrayList<Long>();
+        final double framesPerSecond;
+
+        IndexSink(double framesPerSecond) {
+            this.framesPerSecond = framesPerSecond;
+        }
+
+        @Override
+        public void write(PointCloudFrame frame) throws IOException {
+            this.indices.add(Math.round(frame.getTimestamp() * this.framesPerSecond));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs synthetic frames at 10 Hz through a pipeline with a scheduler running the policy.
+     *
+     * @return Indices of the captured frames.
+     */
+    private static List<Long> capture(CapturePolicy policy, int frameCount) throws Exception {
+        IndexSink sink = new IndexSink(10);
+        final CapturePipeline pipeline = new CapturePipeline(sink, 4, OverflowPolicy.BLOCK, 100);
+        CaptureScheduler scheduler = new CaptureScheduler();
+        scheduler.start(policy);
+        pipeline.setScheduler(scheduler);
+        pipeline.start();
+        SyntheticSource source = new SyntheticSource(100, 10, frameCount, false);
+        source.start(new PointCloudSource.Listener() {
+            @Override
+            public void onDeviceToSensor(double[] translation, double[] rotation) {
+            }
+
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+            }
+
+            @Override
+            public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+                pipeline.submit(timestamp, points, numPoints);
+            }
+        });
+        source.join();
+        source.close();
+        pipeline.close();
+        assertNull(source.getError());
+        assertEquals(sink.indices.size(), policy.getCapturedCount());
+        return sink.indices;
+    }
+
+    private static List<Long> indices(long... indices) {
+        List<Long> list = new ArrayList<Long>();
+        for (long index : indices) {
+            list.add(index);
+        }
+        return list;
+    }
+
+    @Test
+    public void policies_captureTheSameFramesOnEveryRun() throws Exception {
+        assertEquals(indices(0, 1, 2, 3, 4), capture(CapturePolicy.frames(5), 20));
+        assertEquals(indices(0, 4, 8, 12, 16), capture(CapturePolicy.interval(0.35), 20));
+        assertEquals(indices(0, 3, 6, 9, 12, 15, 18), capture(CapturePolicy.everyNth(3), 20));
+        assertEquals(indices(0, 1, 10, 11, 20, 21), capture(CapturePolicy.burst(2, 1.0), 25));
+        assertEquals(indices(5, 7, 9, 11, 13),
+                capture(CapturePolicy.window(0.5, 1.0, CapturePolicy.everyNth(2)), 30));
+        assertEquals(capture(CapturePolicy.burst(3, 0.7), 50),
+                capture(CapturePolicy.burst(3, 0.7), 50));
+    }
+
+    @Test
+    public void finishedPolicies_reportIt() {
+        CaptureScheduler scheduler = new CaptureScheduler();
+        assertFalse(scheduler.isCapturing());
+        assertFalse(scheduler.accept(0));
+
+        CapturePolicy policy = CapturePolicy.frames(2);
+        scheduler.start(policy);
+        for (int i = 0; i < 5; i++) {
+            if (scheduler.accept(i)) {
+                scheduler.onCaptured(i);
+            }
+        }
+        assertEquals(2, scheduler.getCapturedCount());
+        assertTrue(policy.isFinished());
+        assertFalse(scheduler.isCapturing());
+
+        CapturePolicy window = CapturePolicy.window(0, 1);
+        scheduler.start(window);
+        assertTrue(scheduler.accept(10));
+        assertFalse(scheduler.accept(11));
+        assertTrue(window.isFinished());
+    }
+
+    @Test
+    public void acceptedFrame_isCountedByItsPolicyAfterSwitch() {
+        CaptureScheduler scheduler = new CaptureScheduler();
+        CapturePolicy first = CapturePolicy.continuous();
+        scheduler.start(first);
+        assertTrue(scheduler.accept(0));
+        // Another thread starts a new policy while the frame is being captured.
+        CapturePolicy second = CapturePolicy.continuous();
+        scheduler.start(second);
+        scheduler.onCaptured(0);
+        assertEquals(1, first.getCapturedCount());
+        assertEquals(0, second.getCapturedCount());
+
+        scheduler.stop();
+        assertNull(scheduler.getPolicy());
+        assertEquals(0, scheduler.getCapturedCount());
+        try {
+            scheduler.start(first);
+            fail("A policy was started twice.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void startAndStop_fromAnotherThreadWhileCapturing() throws Exception {
+        IndexSink sink = new IndexSink(1000);
+        final CapturePipeline pipeline = new CapturePipeline(sink, 4, OverflowPolicy.BLOCK, 100);
+        final CaptureScheduler scheduler = new CaptureScheduler();
+        pipeline.setScheduler(scheduler);
+        pipeline.start();
+        final CapturePolicy[] policies = new CapturePolicy[200];
+        Thread toggler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < policies.length; i++) {
+                    if (i % 2 == 0) {
+                        policies[i] = CapturePolicy.continuous();
+                        scheduler.start(policies[i]);
+                    } else {
+                        scheduler.stop();
+                    }
+                    Thread.yield();
+                }
+            }
+        });
+        toggler.start();
+        FloatBuffer points = FloatBuffer.wrap(new float[4 * 100]);
+        for (int i = 0; i < 20000; i++) {
+            pipeline.submit(i * 0.001, points, 100);
+        }
+        toggler.join();
+        pipeline.close();
+
+        long captured = 0;
+        for (CapturePolicy policy : policies) {
+            if (policy != null) {
+                captured += policy.getCapturedCount();
+            }
+        }
+        assertEquals(sink.indices.size(), captured);
+        assertEquals(captured, pipeline.getWrittenCount());
+        Long[] sorted = sink.indices.toArray(new Long[0]);
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, sink.indices.toArray(new Long[0]));
+    }
+}
@@ -0,0 +1,50 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class ConfidenceFilterTest {
+
+    private static final float[] POINTS = {
+            0, 0, 1.0f, 0.9f,
+            0, 0, 1.5f, 0.1f,        // low confidence
+            0, 0, 0.2f, 0.9f,        // too close
+            1, 1, 2.0f, 1.0f,
+            0, 0, 9.0f, 1.0f,        // too far
+            0, 0, Float.NaN, 1.0f,
+            2, 0, 3.0f, 0.5f
+    };
+
+    @Test
+    public void filter_compactsKeptPointsInOrder() {
+        PointCloudFrame frame = new PointCloudFrame(8);
+        frame.set(0, FloatBuffer.wrap(POINTS), 7);
+        ConfidenceFilter filter = new ConfidenceFilter(0.5f, 0.5f, 4f);
+        filter.filter(frame);
+
+        assertEquals(3, frame.getNumPoints());
+        float[] kept = new float[12];
+        frame.getPoints().get(kept);
+        assertArrayEquals(new float[]{0, 0, 1, 0.9f, 1, 1, 2, 1, 2, 0, 3, 0.5f}, kept, 0);
+        assertEquals(3, filter.getKeptCount());
+        assertEquals(4, filter.getRemovedCount());
+    }
+
+    @Test
+    public void filter_measuresDepthInSensorFrameForWorldPoints() {
+        // Sensor at (5, 0, 0) looking along the world x axis.
+        RigidTransform pose = new RigidTransform()
+                .set(5, 0, 0, 0, Math.sin(Math.PI / 4), 0, Math.cos(Math.PI / 4));
+        PointCloudFrame frame = new PointCloudFrame(8);
+        frame.set(0, FloatBuffer.wrap(POINTS), 7, pose);
+        new ConfidenceFilter(0.5f, 0.5f, 4f).filter(frame);
+
+        assertEquals(3, frame.getNumPoints());
+        assertEquals(6, frame.getPoints().get(0), 1e-5f);
+    }
+}
@@ -0,0 +1,135 @@
+package cz.zcu.fav.dpoch.point_cloud.core.capture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.CaptureMetrics;
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.MetricsSnapshot;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class MotionGateTest {
+
+    /**
+     * Returns a pose moved along x and turned about z.
+     */
+    private static RigidTransform pose(double x, double degrees) {
+        double half = Math.toRadians(degrees) / 2;
+        return new RigidTransform().set(x, 0, 0, 0, 0, Math.sin(half), Math.cos(half));
+    }
+
+    @Test
+    public void accept_admitsOnTranslationOrRotation() {
+        MotionGate gate = new MotionGate(0.1, Math.toRadians(10), 0);
+        assertNull(gate.accept(0.0, pose(0, 0)));
+        assertEquals(SkipReason.STATIONARY, gate.accept(0.2, pose(0.05, 5)));
+        assertEquals(SkipReason.STATIONARY, gate.accept(0.4, pose(0.09, 9)));
+        // Motion is measured from the last admitted frame, not the last one.
+        assertNull(gate.accept(0.6, pose(0.1, 0)));
+        assertEquals(SkipReason.STATIONARY, gate.accept(0.8, pose(0.15, 9)));
+        assertNull(gate.accept(1.0, pose(0.15, 10.5)));
+        // Turning back counts as well.
+        assertNull(gate.accept(1.2, pose(0.15, -1)));
+
+        assertEquals(4, gate.getAdmittedCount());
+        assertEquals(3, gate.getSkippedCount(SkipReason.STATIONARY));
+        assertEquals(3, gate.getSkippedCount());
+        assertEquals(SkipReason.STATIONARY, gate.getLastSkipReason());
+    }
+
+    @Test
+    public void accept_enforcesMinimumIntervalAndNeedsPose() {
+        MotionGate gate = new MotionGate(0.1, Math.PI, 0.5);
+        assertEquals(SkipReason.NO_POSE, gate.accept(0.0, null));
+        assertNull(gate.accept(0.2, pose(0, 0)));
+        assertEquals(SkipReason.TOO_SOON, gate.accept(0.4, pose(1, 0)));
+        assertEquals(SkipReason.NO_POSE, gate.accept(0.6, null));
+        assertNull(gate.accept(0.75, pose(1, 0)));
+
+        assertEquals(2, gate.getAdmittedCount());
+        assertEquals(2, gate.getSkippedCount(SkipReason.NO_POSE));
+        assertEquals(1, gate.getSkippedCount(SkipReason.TOO_SOON));
+        assertEquals(0, gate.getSkippedCount(SkipReason.STATIONARY));
+    }
+
+    @Test
+    public void check_doesNotMoveReferenceUntilCommitted() {
+        MotionGate gate = new MotionGate(0.1, Math.PI, 0);
+        assertNull(gate.accept(0.0, pose(0, 0)));
+        assertNull(gate.check(0.2, pose(0.1, 0)));
+        // The frame at 0.1 m was not kept, so motion is still measured from the origin.
+        assertNull(gate.check(0.4, pose(0.15, 0)));
+        gate.commit(0.4, pose(0.15, 0));
+        assertEquals(SkipReason.STATIONARY, gate.check(0.6, pose(0.2, 0)));
+        assertEquals(2, gate.getAdmittedCount());
+        assertEquals(0, gate.getSkippedCount());
+    }
+
+    @Test
+    public void pipeline_commitsOnlyQueuedFrames() throws Exception {
+        CapturePipeline pipeline = new CapturePipeline(new FrameSink() {
+            @Override
+            public void write(PointCloudFrame frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 1, OverflowPolicy.DROP_NEWEST, 16);
+        MotionGate gate = new MotionGate(0.1, Math.PI, 0);
+        pipeline.setMotionGate(gate);
+
+        // The writer is not running, so the third frame finds no free buffer and is dropped.
+        FloatBuffer points = FloatBuffer.wrap(new float[4 * 16]);
+        assertTrue(pipeline.submit(0.0, points, 16, pose(0, 0)));
+        assertTrue(pipeline.submit(0.2, points, 16, pose(0.1, 0)));
+        assertFalse(pipeline.submit(0.4, points, 16, pose(0.2, 0)));
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(2, gate.getAdmittedCount());
+        // Measured from the last queued frame at 0.1 m, not from the dropped one.
+        assertNull(gate.check(0.6, pose(0.25, 0)));
+        pipeline.start();
+        pipeline.close();
+    }
+
+    @Test
+    public void pipeline_writesOnlyAdmittedFrames() throws Exception {
+        final int[] written = new int[1];
+        CapturePipeline pipeline = new CapturePipeline(new FrameSink() {
+            @Override
+            public void write(PointCloudFrame frame) throws IOException {
+                written[0]++;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 4, OverflowPolicy.BLOCK, 16);
+        CaptureMetrics metrics = new CaptureMetrics(4);
+        pipeline.setMetrics(metrics);
+        pipeline.setMotionGate(new MotionGate());
+        pipeline.start();
+
+        FloatBuffer points = FloatBuffer.wrap(new float[4 * 16]);
+        // Held still for a second at 5 Hz, then walking 10 cm per frame.
+        int submitted = 0;
+        for (int i = 0; i < 10; i++) {
+            double timestamp = i * 0.2;
+            double x = i < 5 ? 0 : (i - 4) * 0.1;
+            if (pipeline.submit(timestamp, points, 16, pose(x, 0))) {
+                submitted++;
+            }
+        }
+        pipeline.close();
+
+        assertEquals(6, submitted);
+        assertEquals(6, written[0]);
+        assertEquals(4, pipeline.getGatedCount());
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.getCounter(CaptureMetrics.FRAMES_GATED_STATIONARY));
+        assertEquals(0, snapshot.getCounter(CaptureMetrics.FRAMES_GATED_TOO_SOON));
+    }
+}
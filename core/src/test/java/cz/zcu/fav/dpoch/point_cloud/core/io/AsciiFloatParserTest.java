@@ -0,0 +1,88 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AsciiFloatParserTest {
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void parse_roundTripsFloatToString() throws IOException {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        float[] expected = new float[100000];
+        for (int i = 0; i < expected.length; i++) {
+            switch (i % 3) {
+                case 0:
+                    // Coordinates and confidences as captured.
+                    expected[i] = (random.nextFloat() - 0.5f) * 20;
+                    break;
+                case 1:
+                    expected[i] = random.nextFloat();
+                    break;
+                default:
+                    expected[i] = Float.intBitsToFloat(random.nextInt());
+            }
+            text.append(expected[i]).append('\n');
+        }
+        float[] values = new float[expected.length];
+        ByteBuffer bytes = ascii(text.toString());
+
+        assertEquals(expected.length, AsciiFloatParser.parse(bytes, values, 0));
+        assertFalse(bytes.hasRemaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(values[i]));
+        }
+    }
+
+    @Test
+    public void parse_readsSpecialValuesAndOtherNotations() throws IOException {
+        float[] values = new float[9];
+        ByteBuffer bytes = ascii(" NaN\r\n-Infinity\tInfinity 1e3 +2.5E-2 -0.0 .5 7. 123456789012345678901\n");
+
+        assertEquals(9, AsciiFloatParser.parse(bytes, values, 0));
+        assertTrue(Float.isNaN(values[0]));
+        assertEquals(Float.NEGATIVE_INFINITY, values[1], 0);
+        assertEquals(Float.POSITIVE_INFINITY, values[2], 0);
+        assertEquals(1000, values[3], 0);
+        assertEquals(0.025f, values[4], 0);
+        assertEquals(Float.floatToIntBits(-0.0f), Float.floatToIntBits(values[5]));
+        assertEquals(0.5f, values[6], 0);
+        assertEquals(7, values[7], 0);
+        assertEquals(1.2345679e20f, values[8], 0);
+    }
+
+    @Test
+    public void parse_continuesWhenArrayWasFull() throws IOException {
+        ByteBuffer bytes = ascii("1\n2\n3\n4\n5\n\n");
+        float[] values = new float[5];
+
+        assertEquals(2, AsciiFloatParser.parse(bytes, values, 3));
+        assertTrue(bytes.hasRemaining());
+        assertEquals(3, AsciiFloatParser.parse(bytes, values, 0));
+        assertFalse(bytes.hasRemaining());
+        assertArrayEquals(new float[]{3, 4, 5, 1, 2}, values, 0);
+    }
+
+    @Test
+    public void parse_rejectsMalformedText() {
+        String[] malformed = {"1.5x", "-", "1e", "Nan", "1.2.3", "--1", "."};
+        for (String text : malformed) {
+            try {
+                AsciiFloatParser.parse(ascii(text), new float[4], 0);
+                fail(text);
+            } catch (IOException expected) {
+                // Expected.
+            }
+        }
+    }
+}
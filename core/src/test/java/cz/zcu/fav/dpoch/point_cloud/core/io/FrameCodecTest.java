@@ -0,0 +1,113 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Rows of a depth image projected into the sensor frame, like Tango delivers them.
+    static void fillSensorFrame(PointCloudFrame frame, int numPoints, long seed) {
+        float[] points = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        int columns = 224;
+        Random random = new Random(seed);
+        for (int i = 0; i < numPoints; i++) {
+            float depth = 1.5f + 0.5f * (float) Math.sin(i / 500.0) + random.nextFloat() * 0.004f;
+            points[i * 4] = ((i % columns) - columns / 2) * depth / 220;
+            points[i * 4 + 1] = ((i / columns) - 86) * depth / 220;
+            points[i * 4 + 2] = depth;
+            points[i * 4 + 3] = random.nextFloat();
+        }
+        frame.set(seed, FloatBuffer.wrap(points), numPoints);
+    }
+
+    private static void assertRoundTrip(FrameCodec codec, float tolerance) throws IOException {
+        PointCloudFrame frame = new PointCloudFrame(0);
+        fillSensorFrame(frame, 10000, 1);
+        ByteBuffer buffer = FrameCodec.allocateBuffer(frame.getNumPoints());
+        int length = codec.encode(frame, buffer);
+        assertEquals(length, buffer.position());
+        buffer.flip();
+
+        PointCloudFrame decoded = new PointCloudFrame(0);
+        codec.decode(buffer, decoded);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(frame.getNumPoints(), decoded.getNumPoints());
+        FloatBuffer expected = frame.getPoints();
+        FloatBuffer actual = decoded.getPoints();
+        for (int i = 0; i < expected.limit(); i += 4) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(expected.get(i + j), actual.get(i + j), tolerance);
+            }
+            assertEquals(expected.get(i + 3), actual.get(i + 3), 0.5f / 255 + 1e-6f);
+        }
+        codec.release();
+    }
+
+    @Test
+    public void decode_reconstructsPointsWithinHalfStep() throws IOException {
+        assertRoundTrip(new FrameCodec(), FrameCodec.DEFAULT_RESOLUTION / 2 + 1e-5f);
+        assertRoundTrip(new FrameCodec(0.005f, false, true), 0.0025f + 1e-5f);
+        assertRoundTrip(new FrameCodec(0.002f, true, false), 0.001f + 1e-5f);
+    }
+
+    @Test
+    public void encode_growsStepForLargeFrames() throws IOException {
+        PointCloudFrame frame = new PointCloudFrame(2);
+        frame.set(0, FloatBuffer.wrap(new float[]{-100, 0, 0, 1, 100, 1, Float.NaN, 0}), 2);
+        FrameCodec codec = new FrameCodec();
+        ByteBuffer buffer = FrameCodec.allocateBuffer(2);
+        codec.encode(frame, buffer);
+        buffer.flip();
+        codec.decode(buffer, frame);
+
+        FloatBuffer points = frame.getPoints();
+        assertEquals(-100, points.get(0), 0.01f);
+        assertEquals(100, points.get(4), 0.01f);
+        assertEquals(1, points.get(5), 0.01f);
+        codec.release();
+    }
+
+    @Test
+    public void sessionWriter_storesEncodedFrames() throws Exception {
+        File file = folder.newFile("encoded" + SessionFormat.FILE_EXTENSION);
+        SessionWriter writer = new SessionWriter(file, new FrameCodec());
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 4; i++) {
+            fillSensorFrame(frame, 1000 + i, i);
+            frame.setSequence(i);
+            frame.setPose(new double[]{i, 0, 0}, new double[]{0, 0, 0, 1});
+            writer.write(frame);
+        }
+        writer.close();
+        assertTrue(file.length() < 4 * 1003 * PointCloudFrame.BYTES_PER_POINT / 2);
+
+        SessionReader reader = new SessionReader(file);
+        assertEquals(4, reader.getFrameCount());
+        PointCloudFrame expected = new PointCloudFrame(0);
+        for (int i = 3; i >= 0; i--) {
+            fillSensorFrame(expected, 1000 + i, i);
+            reader.readFrame(i, frame);
+            assertEquals(0, reader.getFrameOffset(i) % 8);
+            assertEquals(i, frame.getSequence());
+            assertEquals(i, frame.getTranslation()[0], 0);
+            assertEquals(1000 + i, frame.getNumPoints());
+            assertEquals(expected.getPoints().get(1000 * 4 - 2), frame.getPoints().get(1000 * 4 - 2),
+                    FrameCodec.DEFAULT_RESOLUTION);
+        }
+        reader.close();
+    }
+}
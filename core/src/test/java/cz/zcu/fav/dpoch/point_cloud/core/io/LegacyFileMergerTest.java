@@ -0,0 +1,95 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class LegacyFileMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static float[] points(int file) {
+        float[] points = new float[(file + 1) * 100 * PointCloudFrame.FLOATS_PER_POINT];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = file * 1000 + i * 0.25f;
+        }
+        return points;
+    }
+
+    @Test
+    public void merge_writesTextAndBinaryFilesInOrder() throws Exception {
+        File directory = folder.newFolder();
+        List<File> files = new ArrayList<File>();
+        TextFileSink textSink = new TextFileSink(directory);
+        PointCloudFrame frame = new PointCloudFrame(1);
+        for (int i = 0; i < 12; i++) {
+            float[] points = points(i);
+            if (i % 2 == 0) {
+                frame.set(0, FloatBuffer.wrap(points), points.length / 4);
+                textSink.write(frame);
+                files.add(textSink.getLastFile());
+            } else {
+                File file = new File(directory, "binary" + i);
+                DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(file));
+                for (float value : points) {
+                    outputStream.writeFloat(value);
+                }
+                outputStream.close();
+                files.add(file);
+            }
+        }
+
+        File session = folder.newFile("merged" + SessionFormat.FILE_EXTENSION);
+        SessionWriter writer = new SessionWriter(session);
+        LegacyFileMerger merger = new LegacyFileMerger(3, 0.2);
+        merger.merge(files, writer);
+        writer.close();
+
+        assertEquals(12, merger.getFileCount());
+        assertEquals(7800, merger.getPointCount());
+        SessionReader reader = new SessionReader(session);
+        assertEquals(12, reader.getFrameCount());
+        for (int i = 0; i < 12; i++) {
+            reader.readFrame(i, frame);
+            assertEquals(i * 0.2, frame.getTimestamp(), 1e-9);
+            float[] values = new float[frame.getNumPoints() * 4];
+            frame.getPoints().get(values);
+            assertArrayEquals(points(i), values, 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void merge_reportsMalformedFile() throws Exception {
+        File file = folder.newFile("points1");
+        PrintWriter writer = new PrintWriter(file);
+        writer.println("1.0");
+        writer.println("2.0e");
+        writer.close();
+
+        SessionWriter sink = new SessionWriter(folder.newFile("merged.pcs"));
+        try {
+            new LegacyFileMerger(2, 0.2).merge(Collections.singletonList(file), sink);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(file.getPath()));
+        } finally {
+            sink.close();
+        }
+    }
+}
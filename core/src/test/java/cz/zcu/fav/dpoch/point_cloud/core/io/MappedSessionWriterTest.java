@@ -0,0 +1,85 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class MappedSessionWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void fill(PointCloudFrame frame, int index, int numPoints) {
+        float[] points = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        for (int j = 0; j < points.length; j++) {
+            points[j] = index * 1000 + j;
+        }
+        frame.set(index * 0.2, FloatBuffer.wrap(points), numPoints);
+        frame.setSequence(index);
+    }
+
+    @Test
+    public void close_truncatesToDataAndIndex() throws Exception {
+        File file = folder.newFile("mapped" + SessionFormat.FILE_EXTENSION);
+        // Small chunks force remapping, the third frame is larger than a chunk.
+        MappedSessionWriter writer = new MappedSessionWriter(file, 4096);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        int[] sizes = {10, 200, 600, 0, 50, 250};
+        for (int i = 0; i < sizes.length; i++) {
+            fill(frame, i, sizes[i]);
+            writer.write(frame);
+        }
+        writer.close();
+
+        assertTrue(writer.getRemapCount() > 2);
+        assertEquals(writer.getLength() + sizes.length * 8 + SessionFormat.TRAILER_SIZE, file.length());
+
+        SessionReader reader = new SessionReader(file);
+        assertTrue(reader.isIndexed());
+        assertEquals(sizes.length, reader.getFrameCount());
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            reader.readFrame(i, frame);
+            assertEquals(i, frame.getSequence());
+            assertEquals(sizes[i], frame.getNumPoints());
+            FloatBuffer points = frame.getPoints();
+            for (int j = 0; points.hasRemaining(); j++) {
+                assertEquals(i * 1000 + j, points.get(), 0);
+            }
+        }
+
+        // Points can be read in place from a mapping of the file.
+        MappedByteBuffer mapped = reader.map();
+        long offset = SessionFormat.pointsOffset(reader.getFrameOffset(2));
+        assertEquals(2000 + 7, mapped.getFloat((int) offset + 7 * 4), 0);
+        reader.close();
+    }
+
+    @Test
+    public void reader_recoversUnclosedSession() throws Exception {
+        File file = folder.newFile("unclosed" + SessionFormat.FILE_EXTENSION);
+        MappedSessionWriter writer = new MappedSessionWriter(file, 1 << 16);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 3; i++) {
+            fill(frame, i, 100);
+            writer.write(frame);
+        }
+
+        // The file still has its preallocated size and no index.
+        assertEquals(1 << 16, file.length());
+        SessionReader reader = new SessionReader(file);
+        assertFalse(reader.isIndexed());
+        assertEquals(3, reader.getFrameCount());
+        reader.readFrame(2, frame);
+        assertEquals(2000, frame.getPoints().get(0), 0);
+        reader.close();
+        writer.close();
+    }
+}
@@ -0,0 +1,76 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.Charset;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class PlyFileSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_producesHeaderFollowedByLittleEndianPoints() throws Exception {
+        float[] points = {1.5f, -2f, 3.25f, 0.9f, 4f, 5f, 6f, 0.1f};
+        PointCloudFrame frame = new PointCloudFrame(1);
+        frame.set(12.5, FloatBuffer.wrap(points), 2);
+
+        PlyFileSink sink = new PlyFileSink(folder.getRoot());
+        sink.write(frame);
+        sink.close();
+
+        File file = sink.getLastFile();
+        assertEquals("points1.ply", file.getName());
+        byte[] header = PlyFileSink.header(2, 12.5).getBytes(Charset.forName("US-ASCII"));
+        assertEquals(header.length + points.length * 4, file.length());
+
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        input.readFully(content);
+        input.close();
+        assertEquals(new String(header, "US-ASCII"), new String(content, 0, header.length, "US-ASCII"));
+        FloatBuffer stored = ByteBuffer.wrap(content, header.length, points.length * 4).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (float point : points) {
+            assertEquals(point, stored.get(), 0);
+        }
+    }
+
+    @Test
+    public void writeFile_interleavesNormalsWithPoints() throws Exception {
+        float[] points = {1.5f, -2f, 3.25f, 0.9f, 4f, 5f, 6f, 0.1f};
+        float[] normals = {0, 0, 1, 0.6f, 0.8f, 0};
+        PointCloudFrame frame = new PointCloudFrame(2);
+        frame.set(1, FloatBuffer.wrap(points), 2);
+        File file = folder.newFile("normals.ply");
+
+        PlyFileSink.writeFile(file, frame, normals);
+
+        String header = PlyFileSink.header(2, 1, true);
+        assertTrue(header.contains("property float confidence\nproperty float nx\n"
+                + "property float ny\nproperty float nz\nend_header\n"));
+        assertEquals(header.length() + 2 * 7 * 4, file.length());
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        input.readFully(content);
+        input.close();
+        assertEquals(header, new String(content, 0, header.length(), "US-ASCII"));
+        FloatBuffer stored = ByteBuffer.wrap(content, header.length(), 2 * 7 * 4).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        float[] expected = {1.5f, -2f, 3.25f, 0.9f, 0, 0, 1, 4f, 5f, 6f, 0.1f, 0.6f, 0.8f, 0};
+        for (float value : expected) {
+            assertEquals(value, stored.get(), 0);
+        }
+    }
+}
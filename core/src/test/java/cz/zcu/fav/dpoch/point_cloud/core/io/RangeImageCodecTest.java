@@ -0,0 +1,179 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CameraIntrinsics;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class RangeImageCodecTest {
+
+    private static final CameraIntrinsics INTRINSICS = new CameraIntrinsics(160, 120, 140, 141, 79.5, 60.2);
+
+    // Half a depth step along a ray at most 0.6 from the optical axis, and float rounding.
+    private static final float TOLERANCE = 0.0005f * 1.2f + 1e-5f;
+
+    /**
+     * Returns the points of a depth image of a wavy surface with holes, in row order.
+     */
+    static float[] depthImagePoints(CameraIntrinsics intrinsics, long seed) {
+        Random random = new Random(seed);
+        float[] points = new float[intrinsics.getWidth() * intrinsics.getHeight() * 4];
+        int count = 0;
+        for (int row = 0; row < intrinsics.getHeight(); row++) {
+            for (int column = 0; column < intrinsics.getWidth(); column++) {
+                if (random.nextInt(3) == 0) {
+                    continue;
+                }
+                float depth = 1.5f + 0.3f * (float) Math.sin(column * 0.05) * (float) Math.cos(row * 0.07)
+                        + 0.002f * (float) random.nextGaussian();
+                points[count++] = (float) ((column - intrinsics.getCx()) * depth / intrinsics.getFx());
+                points[count++] = (float) ((row - intrinsics.getCy()) * depth / intrinsics.getFy());
+                points[count++] = depth;
+                points[count++] = random.nextFloat();
+            }
+        }
+        return Arrays.copyOf(points, count);
+    }
+
+    private static PointCloudFrame roundTrip(RangeImageCodec codec, PointCloudFrame frame)
+            throws IOException {
+        ByteBuffer buffer = codec.allocateBuffer(frame.getNumPoints());
+        int length = codec.encode(frame, buffer);
+        assertEquals(length, buffer.position());
+        buffer.flip();
+        PointCloudFrame decoded = new PointCloudFrame(0);
+        codec.decode(buffer, decoded);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private static void assertPoints(float[] expected, FloatBuffer actual, float tolerance) {
+        assertEquals(expected.length, actual.remaining());
+        for (int i = 0; i < expected.length; i += 4) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(expected[i + j], actual.get(i + j), tolerance);
+            }
+            assertEquals(expected[i + 3], actual.get(i + 3), 0.5f / 255 + 1e-6f);
+        }
+    }
+
+    @Test
+    public void decode_reconstructsDepthImageWithinHalfStep() throws IOException {
+        float[] points = depthImagePoints(INTRINSICS, 1);
+        int numPoints = points.length / 4;
+        PointCloudFrame frame = new PointCloudFrame(0);
+        frame.set(1, FloatBuffer.wrap(points), numPoints);
+        RangeImageCodec codec = new RangeImageCodec(INTRINSICS);
+
+        PointCloudFrame decoded = roundTrip(codec, frame);
+        assertEquals(0, codec.getOverflowCount());
+        assertPoints(points, decoded.getPoints(), TOLERANCE);
+
+        // The image is ready to be uploaded as it is.
+        assertEquals(160, codec.getImageWidth());
+        int column = Math.round((float) (points[0] * 140 / points[2] + 79.5));
+        int row = Math.round((float) (points[1] * 141 / points[2] + 60.2));
+        assertEquals(Math.round(points[2] * 1000), codec.getDepthImage()[row * 160 + column]);
+        codec.release();
+    }
+
+    @Test
+    public void encode_isSmallerThanFrameCodec() throws IOException {
+        float[] points = depthImagePoints(INTRINSICS, 2);
+        int numPoints = points.length / 4;
+        PointCloudFrame frame = new PointCloudFrame(0);
+        frame.set(1, FloatBuffer.wrap(points), numPoints);
+
+        RangeImageCodec codec = new RangeImageCodec(INTRINSICS);
+        int rangeImageLength = codec.encode(frame, codec.allocateBuffer(numPoints));
+        FrameCodec frameCodec = new FrameCodec();
+        int frameCodecLength = frameCodec.encode(frame, FrameCodec.allocateBuffer(numPoints));
+        assertTrue(rangeImageLength + " >= " + frameCodecLength, rangeImageLength < frameCodecLength);
+        codec.release();
+        frameCodec.release();
+    }
+
+    @Test
+    public void pointsOutsideImage_areKeptAsFloats() throws IOException {
+        float[] image = depthImagePoints(INTRINSICS, 3);
+        float[] extra = {
+                // Same pixel as the first point.
+                image[0], image[1], image[2] + 0.01f, 0.5f,
+                // Behind the sensor, not finite, outside the image and beyond 65 m.
+                0, 0, -1, 0.25f,
+                Float.NaN, 0, 1, 0.75f,
+                10, 0, 1, 1,
+                0, 0, 70, 1,
+                // Between two pixel centres.
+                (float) (0.5 / 140), 0, 1, 0.5f};
+        float[] points = Arrays.copyOf(image, image.length + extra.length);
+        System.arraycopy(extra, 0, points, image.length, extra.length);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        frame.set(1, FloatBuffer.wrap(points), points.length / 4);
+        RangeImageCodec codec = new RangeImageCodec(INTRINSICS);
+
+        PointCloudFrame decoded = roundTrip(codec, frame);
+        assertEquals(6, codec.getOverflowCount());
+        FloatBuffer decodedPoints = decoded.getPoints();
+        decodedPoints.limit(image.length);
+        assertPoints(image, decodedPoints.slice(), TOLERANCE);
+        decodedPoints.limit(points.length).position(image.length);
+        float[] overflow = new float[extra.length];
+        decodedPoints.get(overflow);
+        assertArrayEquals(extra, overflow, 0);
+        codec.release();
+    }
+
+    @Test
+    public void worldFramePoints_comeBackInSensorFrame() throws IOException {
+        float[] points = depthImagePoints(INTRINSICS, 4);
+        int numPoints = points.length / 4;
+        RigidTransform pose = new RigidTransform().set(1, 2, 0.5, 0.1, -0.2, 0.3, 0.9);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        frame.set(1, FloatBuffer.wrap(points), numPoints, pose);
+        assertTrue(frame.isWorldFrame());
+        RangeImageCodec codec = new RangeImageCodec(INTRINSICS);
+
+        PointCloudFrame decoded = new PointCloudFrame(0);
+        decoded.setPose(frame.getTranslation(), frame.getRotation());
+        decoded.setWorldFrame(true);
+        ByteBuffer buffer = codec.allocateBuffer(numPoints);
+        codec.encode(frame, buffer);
+        buffer.flip();
+        codec.decode(buffer, decoded);
+        assertFalse(decoded.isWorldFrame());
+        assertTrue(decoded.hasPose());
+        assertEquals(0, codec.getOverflowCount());
+        assertPoints(points, decoded.getPoints(), TOLERANCE + 1e-5f);
+        codec.release();
+    }
+
+    @Test
+    public void decode_rejectsCorruptedData() {
+        float[] points = depthImagePoints(INTRINSICS, 5);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        frame.set(1, FloatBuffer.wrap(points), points.length / 4);
+        RangeImageCodec codec = new RangeImageCodec(INTRINSICS);
+        ByteBuffer buffer = codec.allocateBuffer(frame.getNumPoints());
+        codec.encode(frame, buffer);
+        buffer.flip();
+        // One pixel more than the image holds.
+        buffer.putInt(48, buffer.getInt(48) + 1);
+        try {
+            codec.decode(buffer, new PointCloudFrame(0));
+            fail("Corrupted pixel count was not detected.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        codec.release();
+    }
+}
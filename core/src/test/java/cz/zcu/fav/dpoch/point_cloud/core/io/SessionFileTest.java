@@ -0,0 +1,101 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class SessionFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeSession(int frames) throws Exception {
+        File file = folder.newFile("session" + SessionFormat.FILE_EXTENSION);
+        SessionWriter writer = new SessionWriter(file);
+        PointCloudFrame frame = new PointCloudFrame(16);
+        for (int i = 0; i < frames; i++) {
+            float[] points = new float[(i + 1) * PointCloudFrame.FLOATS_PER_POINT];
+            for (int j = 0; j < points.length; j++) {
+                points[j] = i * 100 + j;
+            }
+            frame.set(i * 0.2, FloatBuffer.wrap(points), i + 1);
+            frame.setSequence(i);
+            if (i % 2 == 0) {
+                frame.setPose(new double[]{i, 0, 0}, new double[]{0, 0, 0, 1});
+            }
+            writer.write(frame);
+        }
+        writer.close();
+        return file;
+    }
+
+    private static void assertFrame(int i, PointCloudFrame frame) {
+        assertEquals(i, frame.getSequence());
+        assertEquals(i * 0.2, frame.getTimestamp(), 0);
+        assertEquals(i + 1, frame.getNumPoints());
+        assertEquals(i % 2 == 0, frame.hasPose());
+        if (frame.hasPose()) {
+            assertEquals(i, frame.getTranslation()[0], 0);
+        }
+        FloatBuffer points = frame.getPoints();
+        for (int j = 0; points.hasRemaining(); j++) {
+            assertEquals(i * 100 + j, points.get(), 0);
+        }
+    }
+
+    @Test
+    public void reader_seeksToAnyFrameThroughIndex() throws Exception {
+        SessionReader reader = new SessionReader(writeSession(10));
+        assertTrue(reader.isIndexed());
+        assertEquals(10, reader.getFrameCount());
+
+        PointCloudFrame frame = new PointCloudFrame(1);
+        for (int i : new int[]{7, 0, 9, 3}) {
+            reader.readFrame(i, frame);
+            assertFrame(i, frame);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void map_exposesPointsOfEveryFrame() throws Exception {
+        SessionReader reader = new SessionReader(writeSession(5));
+        MappedByteBuffer buffer = reader.map();
+        for (int i = 0; i < reader.getFrameCount(); i++) {
+            long offset = SessionFormat.pointsOffset(reader.getFrameOffset(i));
+            assertEquals(0, offset % 4);
+            assertEquals(i * 100 + 3, buffer.getFloat((int) offset + 3 * 4), 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void reader_scansSessionWithoutIndex() throws Exception {
+        File file = writeSession(6);
+        SessionReader reader = new SessionReader(file);
+        long dataLength = reader.getDataLength();
+        reader.close();
+
+        // Drop the index and cut the last frame in half, as if the writer was killed.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(dataLength - 20);
+        randomAccessFile.close();
+
+        reader = new SessionReader(file);
+        assertFalse(reader.isIndexed());
+        assertEquals(5, reader.getFrameCount());
+        PointCloudFrame frame = new PointCloudFrame(1);
+        reader.readFrame(4, frame);
+        assertFrame(4, frame);
+        reader.close();
+    }
+}
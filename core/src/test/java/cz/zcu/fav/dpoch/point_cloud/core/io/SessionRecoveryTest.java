@@ -0,0 +1,174 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class SessionRecoveryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void fill(PointCloudFrame frame, int index) {
+        float[] points = new float[(index + 1) * 10 * PointCloudFrame.FLOATS_PER_POINT];
+        for (int j = 0; j < points.length; j++) {
+            points[j] = index * 1000 + j;
+        }
+        frame.set(index * 0.2, FloatBuffer.wrap(points), (index + 1) * 10);
+        frame.setSequence(index);
+    }
+
+    private static void assertFrames(File file, int frameCount) throws Exception {
+        SessionReader reader = new SessionReader(file);
+        assertTrue(reader.isIndexed());
+        assertEquals(frameCount, reader.getFrameCount());
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < frameCount; i++) {
+            reader.readFrame(i, frame);
+            assertEquals(i, frame.getSequence());
+            assertEquals((i + 1) * 10, frame.getNumPoints());
+            assertEquals(i * 1000 + 7, frame.getPoints().get(7), 0);
+        }
+        reader.close();
+    }
+
+    /**
+     * Writes frames without closing the writer and copies the session and the journal as a crash
+     * would leave them.
+     */
+    private File crash(int batchFrames, int frames) throws Exception {
+        File file = folder.newFile("live" + SessionFormat.FILE_EXTENSION);
+        DurableSessionWriter writer = new DurableSessionWriter(file, null, batchFrames, Long.MAX_VALUE);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < frames; i++) {
+            fill(frame, i);
+            writer.write(frame);
+        }
+        File crashed = new File(folder.getRoot(), "crashed" + SessionFormat.FILE_EXTENSION);
+        Files.copy(file.toPath(), crashed.toPath());
+        Files.copy(DurableSessionWriter.journalFile(file).toPath(),
+                DurableSessionWriter.journalFile(crashed).toPath());
+        writer.close();
+        return crashed;
+    }
+
+    @Test
+    public void close_commitsAllFramesAndDeletesJournal() throws Exception {
+        File file = folder.newFile("closed" + SessionFormat.FILE_EXTENSION);
+        DurableSessionWriter writer = new DurableSessionWriter(file, null, 4, Long.MAX_VALUE);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 10; i++) {
+            fill(frame, i);
+            writer.write(frame);
+        }
+        assertEquals(2, writer.getUncommittedFrames());
+        writer.close();
+
+        // The empty session, two full batches and the rest on close.
+        assertEquals(4, writer.getCommitCount());
+        assertFalse(DurableSessionWriter.journalFile(file).exists());
+        assertFalse(SessionRecovery.isNeeded(file));
+        SessionRecovery recovery = SessionRecovery.recover(file);
+        assertTrue(recovery.wasClosed());
+        assertFrames(file, 10);
+    }
+
+    @Test
+    public void timeWindow_commitsEveryFrameWhenZero() throws Exception {
+        File file = folder.newFile("window" + SessionFormat.FILE_EXTENSION);
+        DurableSessionWriter writer = new DurableSessionWriter(file, null, 1000, 0);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 5; i++) {
+            fill(frame, i);
+            writer.write(frame);
+            assertEquals(0, writer.getUncommittedFrames());
+        }
+        writer.close();
+        assertEquals(6, writer.getCommitCount());
+    }
+
+    @Test
+    public void timeWindow_commitsIdleWriter() throws Exception {
+        File file = folder.newFile("idle" + SessionFormat.FILE_EXTENSION);
+        DurableSessionWriter writer = new DurableSessionWriter(file, null, 1000, 20000000L);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 3; i++) {
+            fill(frame, i);
+            writer.write(frame);
+        }
+        // No further frame is written, the timer commits the window.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getUncommittedFrames() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, writer.getUncommittedFrames());
+        assertTrue(writer.getCommitCount() >= 2);
+        writer.close();
+        assertFrames(file, 3);
+    }
+
+    @Test
+    public void recover_keepsCommittedFramesOnly() throws Exception {
+        File file = crash(4, 10);
+        assertTrue(SessionRecovery.isNeeded(file));
+
+        SessionRecovery recovery = SessionRecovery.recover(file);
+        assertFalse(recovery.wasClosed());
+        assertEquals(8, recovery.getFrameCount());
+        assertTrue(recovery.getDiscardedBytes() > 0);
+        assertFalse(DurableSessionWriter.journalFile(file).exists());
+        assertFrames(file, 8);
+        assertFalse(SessionRecovery.isNeeded(file));
+    }
+
+    @Test
+    public void recover_skipsTornJournalEntry() throws Exception {
+        File file = crash(3, 7);
+        File journal = DurableSessionWriter.journalFile(file);
+        // Break the checksum of the last entry and leave half an entry after it.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(journal, "rw");
+        randomAccessFile.seek(randomAccessFile.length() - 1);
+        int last = randomAccessFile.read();
+        randomAccessFile.seek(randomAccessFile.length() - 1);
+        randomAccessFile.write(last ^ 0xff);
+        randomAccessFile.close();
+        FileOutputStream outputStream = new FileOutputStream(journal, true);
+        outputStream.write(new byte[DurableSessionWriter.JOURNAL_ENTRY_SIZE / 2]);
+        outputStream.close();
+
+        assertEquals(3, SessionRecovery.recover(file).getFrameCount());
+        assertFrames(file, 3);
+    }
+
+    @Test
+    public void recover_cutsIncompleteFrameWithoutJournal() throws Exception {
+        File file = folder.newFile("plain" + SessionFormat.FILE_EXTENSION);
+        SessionWriter writer = new SessionWriter(file);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 6; i++) {
+            fill(frame, i);
+            writer.write(frame);
+        }
+        long dataLength = writer.getLength();
+        writer.close();
+        // Drop the index and cut the last frame in half, as if the writer was killed.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(dataLength - 100);
+        randomAccessFile.close();
+
+        SessionRecovery recovery = SessionRecovery.recover(file);
+        assertEquals(5, recovery.getFrameCount());
+        assertEquals(SessionFormat.recordLength(60) + 4 - 100, recovery.getDiscardedBytes());
+        assertFrames(file, 5);
+    }
+}
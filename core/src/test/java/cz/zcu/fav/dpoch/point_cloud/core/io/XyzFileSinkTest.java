@@ -0,0 +1,87 @@
+package cz.zcu.fav.dpoch.point_cloud.core.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.math.BigDecimal;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class XyzFileSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String format(float value, int decimals) {
+        byte[] bytes = new byte[AsciiFloatFormatter.maxLength(decimals)];
+        int length = AsciiFloatFormatter.format(value, decimals, bytes, 0);
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void format_roundsToFixedDecimals() {
+        assertEquals("0.0000", format(0, 4));
+        assertEquals("0.0000", format(-0.00001f, 4));
+        assertEquals("-1.3", format(-1.25f, 1));
+        assertEquals("3", format(2.5f, 0));
+        assertEquals("2.0010", format(2.001f, 4));
+        assertEquals("123456.0000", format(123456, 4));
+        assertEquals("NaN", format(Float.NaN, 4));
+        assertEquals("-Infinity", format(Float.NEGATIVE_INFINITY, 4));
+        assertEquals("3.40282E38", format(Float.MAX_VALUE, 5));
+        assertEquals("1.0E18", format(1e18f, 1));
+    }
+
+    @Test
+    public void format_matchesDecimalRounding() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float value = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(8));
+            int decimals = random.nextInt(AsciiFloatFormatter.MAX_DECIMALS + 1);
+            BigDecimal expected = new BigDecimal(value).setScale(decimals, BigDecimal.ROUND_HALF_UP);
+            BigDecimal actual = new BigDecimal(format(value, decimals));
+            // The scaling in double may round a value just below a tie up.
+            assertTrue(value + " " + decimals + " " + actual,
+                    expected.subtract(actual).abs().compareTo(BigDecimal.ONE.movePointLeft(decimals)) < 0);
+        }
+    }
+
+    @Test
+    public void write_writesOnePointPerLineReadableByLegacyReader() throws Exception {
+        int numPoints = 20000;
+        Random random = new Random(2);
+        float[] points = new float[numPoints * 4];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = (random.nextFloat() - 0.5f) * 10;
+        }
+        PointCloudFrame frame = new PointCloudFrame(numPoints);
+        frame.set(0, FloatBuffer.wrap(points), numPoints);
+        XyzFileSink sink = new XyzFileSink(folder.getRoot(), 3);
+        sink.write(frame);
+        sink.close();
+
+        File file = sink.getLastFile();
+        assertEquals("points1" + XyzFileSink.FILE_EXTENSION, file.getName());
+        PointCloudFrame read = new PointCloudFrame(1);
+        new LegacyFileReader().read(file, read);
+        assertEquals(numPoints, read.getNumPoints());
+        float[] values = new float[points.length];
+        read.getPoints().get(values);
+        assertArrayEquals(points, values, 0.0005f + 1e-6f);
+        String firstLine = format(points[0], 3) + " " + format(points[1], 3) + " "
+                + format(points[2], 3) + " " + format(points[3], 3) + "\n";
+        byte[] start = new byte[firstLine.length()];
+        FileInputStream stream = new FileInputStream(file);
+        assertEquals(start.length, stream.read(start));
+        stream.close();
+        assertEquals(firstLine, new String(start, StandardCharsets.US_ASCII));
+    }
+}
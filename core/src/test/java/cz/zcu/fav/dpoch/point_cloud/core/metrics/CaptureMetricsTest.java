@@ -0,0 +1,103 @@
+package cz.zcu.fav.dpoch.point_cloud.core.metrics;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class CaptureMetricsTest {
+
+    @Test
+    public void histogram_estimatesQuantilesFromBuckets() {
+        Histogram histogram = Histogram.exponential(1, 2, 10);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(5000);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(5050 + 5000, snapshot.getSum());
+        assertEquals(5000, snapshot.getMax());
+        assertEquals(64, snapshot.getQuantile(0.5));
+        assertEquals(128, snapshot.getQuantile(0.99));
+        assertEquals(5000, snapshot.getQuantile(1));
+        assertEquals(1, snapshot.getCounts()[10]);
+    }
+
+    @Test
+    public void histogram_countsConcurrentValues() throws Exception {
+        final Histogram histogram = Histogram.latency();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i * 100 + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(999903, snapshot.getMax());
+    }
+
+    @Test
+    public void pipeline_recordsWrittenAndDroppedFrames() throws Exception {
+        FrameSink sink = new FrameSink() {
+            @Override
+            public void write(PointCloudFrame frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.BLOCK, 10);
+        CaptureMetrics metrics = new CaptureMetrics(2);
+        pipeline.setMetrics(metrics);
+        pipeline.start();
+        FloatBuffer points = FloatBuffer.allocate(10 * PointCloudFrame.FLOATS_PER_POINT);
+        RigidTransform pose = new RigidTransform();
+        for (int i = 0; i < 20; i++) {
+            // Every fourth frame comes before the pose of its timestamp is known.
+            assertTrue(pipeline.submit(i, points, 10, i % 4 == 0 ? null : pose));
+        }
+        pipeline.close();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(20, snapshot.getCounter(CaptureMetrics.FRAMES_SUBMITTED));
+        assertEquals(20, snapshot.getCounter(CaptureMetrics.FRAMES_WRITTEN));
+        assertEquals(0, snapshot.getCounter(CaptureMetrics.FRAMES_DROPPED));
+        assertEquals(5, snapshot.getCounter(CaptureMetrics.FRAMES_UNPOSED));
+        assertEquals(5, pipeline.getUnposedCount());
+        assertEquals(200, snapshot.getCounter(CaptureMetrics.POINTS_WRITTEN));
+        assertEquals(3200, snapshot.getCounter(CaptureMetrics.BYTES_WRITTEN));
+        assertEquals(20, snapshot.getHistogram(CaptureMetrics.CALLBACK_TO_DISK).getCount());
+        assertTrue(snapshot.getHistogram(CaptureMetrics.QUEUE_DEPTH).getMax() <= 3);
+
+        String json = snapshot.toJson();
+        assertTrue(json.startsWith("{\"elapsed_seconds\":"));
+        assertTrue(json.contains("\"frames_written\":{\"count\":20,"));
+        assertTrue(json.contains("\"write_time_ns\":{\"count\":20,"));
+        String csv = snapshot.toCsv();
+        assertTrue(csv.startsWith("metric,statistic,value\n"));
+        assertTrue(csv.contains("\npoints_written,count,200\n"));
+        assertTrue(csv.contains("\ncallback_to_disk_ns,p99,"));
+    }
+}
@@ -0,0 +1,299 @@
+package cz.zcu.fav.dpoch.point_cloud.core.net;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionReader;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker;
+import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
+import cz.zcu.fav.dpoch.point_cloud.core.source.SyntheticSource;
+
+import static org.junit.Assert.*;
+
+public class NetworkStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Keeps copies of the received frames.
+     */
+    private static class CollectingSink implements FrameSink {
+        final List<PointCloudFrame> frames = new ArrayList<PointCloudFrame>();
+
+        @Override
+        public void write(PointCloudFrame frame) {
+            PointCloudFrame copy = new PointCloudFrame(frame.getNumPoints());
+            copy.set(frame.getTimestamp(), frame.getPoints(), frame.getNumPoints());
+            copy.setSequence(frame.getSequence());
+            if (frame.hasPose()) {
+                copy.setPose(frame.getTranslation(), frame.getRotation());
+                copy.setWorldFrame(frame.isWorldFrame());
+            }
+            this.frames.add(copy);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs {@link NetworkReceiver#receive(FrameSink)} on its own thread.
+     */
+    private static class ReceivingThread extends Thread {
+        final NetworkReceiver receiver;
+        final FrameSink sink;
+        volatile IOException error;
+
+        ReceivingThread(NetworkReceiver receiver, FrameSink sink) {
+            this.receiver = receiver;
+            this.sink = sink;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.receiver.receive(this.sink);
+            } catch (IOException e) {
+                this.error = e;
+            }
+        }
+    }
+
+    private static InetSocketAddress loopback(NetworkReceiver receiver) {
+        return new InetSocketAddress("127.0.0.1", receiver.getPort());
+    }
+
+    private static PointCloudFrame frame(int index, int numPoints) {
+        float[] points = new float[numPoints * PointCloudFrame.FLOATS_PER_POINT];
+        for (int j = 0; j < points.length; j++) {
+            points[j] = (index * 31 + j) % (j % 4 == 3 ? 100 : 1000) * 0.01f;
+        }
+        PointCloudFrame frame = new PointCloudFrame(numPoints);
+        frame.set(index * 0.2, FloatBuffer.wrap(points), numPoints);
+        frame.setSequence(index);
+        if (index % 2 == 0) {
+            frame.setPose(new double[]{index, 1, 2}, new double[]{0, 0, 0.6, 0.8});
+            frame.setWorldFrame(true);
+        }
+        return frame;
+    }
+
+    private static void assertFrame(PointCloudFrame expected, PointCloudFrame actual, float delta) {
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp(), 0);
+        assertEquals(expected.getNumPoints(), actual.getNumPoints());
+        assertEquals(expected.hasPose(), actual.hasPose());
+        assertEquals(expected.isWorldFrame(), actual.isWorldFrame());
+        assertArrayEquals(expected.getTranslation(), actual.getTranslation(), 0);
+        assertArrayEquals(expected.getRotation(), actual.getRotation(), 0);
+        FloatBuffer expectedPoints = expected.getPoints();
+        FloatBuffer actualPoints = actual.getPoints();
+        while (expectedPoints.hasRemaining()) {
+            assertEquals(expectedPoints.get(), actualPoints.get(), delta);
+        }
+    }
+
+    @Test
+    public void rawFrames_arriveUnchangedWithPoses() throws Exception {
+        NetworkReceiver receiver = new NetworkReceiver(0);
+        CollectingSink collected = new CollectingSink();
+        ReceivingThread receiving = new ReceivingThread(receiver, collected);
+        receiving.start();
+
+        NetworkSink sink = new NetworkSink(loopback(receiver), null, 2);
+        List<PointCloudFrame> sent = new ArrayList<PointCloudFrame>();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(sink.writePose(i * 0.2, new double[]{i, 0, 0}, new double[]{0, 0, 0, 1}));
+            PointCloudFrame frame = frame(i, 1000 + i * 100);
+            sink.write(frame);
+            sent.add(frame);
+        }
+        sink.close();
+        receiving.join();
+        receiver.close();
+
+        assertNull(receiving.error);
+        assertEquals(20, sink.getSentFrames());
+        assertEquals(20, sink.getSentPoses());
+        assertEquals(0, sink.getDroppedPoses());
+        assertEquals(20, receiver.getFrameCount());
+        assertEquals(20, receiver.getPoseCount());
+        assertEquals(sink.getSentBytes(), receiver.getReceivedBytes());
+        assertEquals(20, collected.frames.size());
+        for (int i = 0; i < 20; i++) {
+            assertFrame(sent.get(i), collected.frames.get(i), 0);
+        }
+    }
+
+    @Test
+    public void encodedFrames_areWrittenIntoSessionFile() throws Exception {
+        File file = folder.newFile("received.pcs");
+        NetworkReceiver receiver = new NetworkReceiver(0);
+        SessionWriter writer = new SessionWriter(file);
+        ReceivingThread receiving = new ReceivingThread(receiver, writer);
+        receiving.start();
+
+        NetworkSink sink = new NetworkSink(loopback(receiver), new FrameCodec(), 2);
+        for (int i = 0; i < 10; i++) {
+            sink.write(frame(i, 5000));
+        }
+        sink.close();
+        receiving.join();
+        receiver.close();
+        writer.close();
+
+        assertNull(receiving.error);
+        // Encoded frames are much smaller than their 80 KB of raw points.
+        assertTrue(sink.getSentBytes() < 10 * 5000 * PointCloudFrame.BYTES_PER_POINT / 2);
+        SessionReader reader = new SessionReader(file);
+        assertEquals(10, reader.getFrameCount());
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 10; i++) {
+            reader.readFrame(i, frame);
+            // Confidences are quantized to 8 bits.
+            assertFrame(frame(i, 5000), frame, 0.005f);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void receiverSource_feedsPipeline() throws Exception {
+        File file = folder.newFile("streamed.pcs");
+        NetworkReceiver receiver = new NetworkReceiver(0);
+        CapturePipeline receiving = new CapturePipeline(new SessionWriter(file), 4, OverflowPolicy.BLOCK, 0);
+        receiving.start();
+        final PoseTracker receivedPoses = new PoseTracker();
+        final List<Double> poseTimestamps = new ArrayList<Double>();
+        receiver.start(new PipelineListener(receiving, receivedPoses) {
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+                super.onDevicePose(timestamp, translation, rotation);
+                poseTimestamps.add(timestamp);
+            }
+        });
+
+        final NetworkSink sink = new NetworkSink(loopback(receiver), new FrameCodec(), 2);
+        CapturePipeline capturing = new CapturePipeline(sink, 4, OverflowPolicy.BLOCK, 0);
+        capturing.start();
+        SyntheticSource synthetic = new SyntheticSource(2000, 30, 30, false);
+        synthetic.start(new PipelineListener(capturing, new PoseTracker()) {
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+                super.onDevicePose(timestamp, translation, rotation);
+                sink.writePose(timestamp, translation, rotation);
+            }
+        });
+        synthetic.join();
+        synthetic.close();
+        capturing.close();
+        receiver.join();
+        receiver.close();
+        receiving.close();
+
+        assertNull(receiver.getError());
+        assertEquals(30, capturing.getWrittenCount());
+        assertEquals(30, receiver.getDeliveredCount());
+        assertEquals(30, receiving.getWrittenCount());
+        // Streamed poses reach the listener in order, poses of frames only when they are newer.
+        assertTrue(poseTimestamps.size() >= sink.getSentPoses());
+        for (int i = 1; i < poseTimestamps.size(); i++) {
+            assertTrue(poseTimestamps.get(i) > poseTimestamps.get(i - 1));
+        }
+        assertNotNull(receivedPoses.sensorPoseAt(0.5));
+        SessionReader reader = new SessionReader(file);
+        assertEquals(30, reader.getFrameCount());
+        reader.close();
+    }
+
+    @Test
+    public void slowReceiver_blocksWriter() throws Exception {
+        NetworkReceiver receiver = new NetworkReceiver(0);
+        final NetworkSink sink = new NetworkSink(loopback(receiver), null, 1);
+        final PointCloudFrame frame = frame(1, 500000);
+        final int frames = 20;
+        Thread writing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < frames; i++) {
+                        sink.write(frame);
+                    }
+                    sink.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writing.start();
+        // 160 MB do not fit into the socket buffers while nobody reads.
+        writing.join(300);
+        assertTrue(writing.isAlive());
+        assertTrue(sink.getSentFrames() < frames);
+
+        CollectingSink collected = new CollectingSink();
+        receiver.receive(collected);
+        writing.join();
+        receiver.close();
+
+        assertEquals(frames, collected.frames.size());
+        assertEquals(frames, sink.getSentFrames());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingReceiver_failsWrite() throws Exception {
+        NetworkReceiver receiver = new NetworkReceiver(0);
+        InetSocketAddress address = loopback(receiver);
+        receiver.close();
+
+        NetworkSink sink = new NetworkSink(address, null, 2);
+        try {
+            sink.write(frame(0, 10));
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Feeds a pose tracker and a pipeline the way the activities do.
+     */
+    private static class PipelineListener implements PointCloudSource.Listener {
+        final CapturePipeline pipeline;
+        final PoseTracker poseTracker;
+
+        PipelineListener(CapturePipeline pipeline, PoseTracker poseTracker) {
+            this.pipeline = pipeline;
+            this.poseTracker = poseTracker;
+        }
+
+        @Override
+        public void onDeviceToSensor(double[] translation, double[] rotation) {
+            this.poseTracker.setDeviceToSensor(translation, rotation);
+        }
+
+        @Override
+        public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+            this.poseTracker.onDevicePose(timestamp, translation, rotation);
+        }
+
+        @Override
+        public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+            this.pipeline.submit(timestamp, points, numPoints, this.poseTracker.sensorPoseAt(timestamp));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cz.zcu.fav.dpoch.point_cloud.core.pose;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PoseBufferTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private static double[] rotationZ(double angle) {
+        return new double[]{0, 0, Math.sin(angle / 2), Math.cos(angle / 2)};
+    }
+
+    @Test
+    public void lookup_interpolatesTranslationAndRotation() {
+        PoseBuffer buffer = new PoseBuffer(8);
+        buffer.add(1.0, new double[]{0, 0, 0}, rotationZ(0));
+        buffer.add(2.0, new double[]{2, 4, -2}, rotationZ(Math.PI / 2));
+
+        RigidTransform pose = new RigidTransform();
+        assertTrue(buffer.lookup(1.25, pose));
+        assertArrayEquals(new double[]{0.5, 1, -0.5}, pose.getTranslation(), EPSILON);
+        assertArrayEquals(rotationZ(Math.PI / 8), pose.getRotation(), EPSILON);
+
+        assertTrue(buffer.lookup(2.0, pose));
+        assertArrayEquals(new double[]{2, 4, -2}, pose.getTranslation(), EPSILON);
+    }
+
+    @Test
+    public void lookup_takesShorterRotationPath() {
+        PoseBuffer buffer = new PoseBuffer(8);
+        double[] negated = rotationZ(Math.PI / 2);
+        for (int i = 0; i < 4; i++) {
+            negated[i] = -negated[i];
+        }
+        buffer.add(0.0, new double[3], rotationZ(0));
+        buffer.add(1.0, new double[3], negated);
+
+        RigidTransform pose = new RigidTransform();
+        assertTrue(buffer.lookup(0.5, pose));
+        assertArrayEquals(rotationZ(Math.PI / 4), pose.getRotation(), EPSILON);
+    }
+
+    @Test
+    public void lookup_outsideStoredPoses_fails() {
+        PoseBuffer buffer = new PoseBuffer(4);
+        RigidTransform pose = new RigidTransform();
+        assertFalse(buffer.lookup(0.5, pose));
+
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i, new double[]{i, 0, 0}, rotationZ(0));
+        }
+        // Only the most recent poses are kept.
+        assertFalse(buffer.lookup(5.5, pose));
+        assertFalse(buffer.lookup(9.5, pose));
+        assertTrue(buffer.lookup(8.5, pose));
+        assertEquals(8.5, pose.getTranslation()[0], EPSILON);
+    }
+
+    @Test
+    public void lookup_extrapolatesShortlyAfterNewestPose() {
+        PoseBuffer buffer = new PoseBuffer(8);
+        RigidTransform pose = new RigidTransform();
+        buffer.add(1.0, new double[]{0, 0, 0}, rotationZ(0));
+        // A single pose gives no motion to continue.
+        assertFalse(buffer.lookup(1.01, pose, 0.05));
+
+        buffer.add(1.1, new double[]{1, 0, 0}, rotationZ(0.1));
+        assertTrue(buffer.lookup(1.15, pose, 0.05));
+        assertArrayEquals(new double[]{1.5, 0, 0}, pose.getTranslation(), EPSILON);
+        assertArrayEquals(rotationZ(0.15), pose.getRotation(), EPSILON);
+
+        assertFalse(buffer.lookup(1.16, pose, 0.05));
+        assertFalse(buffer.lookup(1.15, pose));
+    }
+
+    @Test
+    public void lookup_whileProducerAdds_neverReturnsTornPose() throws Exception {
+        final PoseBuffer buffer = new PoseBuffer(16);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    buffer.add(i, new double[]{i, i, i}, rotationZ(0));
+                }
+            }
+        });
+        producer.start();
+        RigidTransform pose = new RigidTransform();
+        while (producer.isAlive()) {
+            long newest = buffer.getCount() - 1;
+            double timestamp = newest - 3.5;
+            if (timestamp > 0 && buffer.lookup(timestamp, pose)) {
+                double[] translation = pose.getTranslation();
+                assertEquals(timestamp, translation[0], EPSILON);
+                assertEquals(translation[0], translation[2], EPSILON);
+            }
+        }
+        producer.join();
+    }
+}
@@ -0,0 +1,39 @@
+package cz.zcu.fav.dpoch.point_cloud.core.pose;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class RigidTransformTest {
+
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    public void transformPoints_rotatesTranslatesAndKeepsConfidence() {
+        // 90 degrees around z, then shifted by (1, 2, 3).
+        RigidTransform transform = new RigidTransform()
+                .set(1, 2, 3, 0, 0, Math.sin(Math.PI / 4), Math.cos(Math.PI / 4));
+        FloatBuffer points = FloatBuffer.wrap(new float[]{1, 0, 0, 0.5f, 0, 1, 1, 0.25f});
+        FloatBuffer result = FloatBuffer.allocate(8);
+        transform.transformPoints(points, result, 2);
+
+        assertArrayEquals(new float[]{1, 3, 3, 0.5f, 0, 2, 4, 0.25f}, result.array(), 1e-6f);
+        assertEquals(0, points.position());
+    }
+
+    @Test
+    public void compose_withInverse_isIdentity() {
+        RigidTransform transform = new RigidTransform().set(0.3, -1, 2, 0.1, 0.7, -0.2, 0.4);
+        RigidTransform inverse = new RigidTransform().invert(transform);
+        RigidTransform identity = new RigidTransform().compose(transform, inverse);
+
+        assertArrayEquals(new double[3], identity.getTranslation(), EPSILON);
+        assertEquals(1, Math.abs(identity.getRotation()[3]), EPSILON);
+
+        double[] point = {1, 2, 3};
+        new RigidTransform().compose(inverse, transform).transformPoint(point);
+        assertArrayEquals(new double[]{1, 2, 3}, point, EPSILON);
+    }
+}
@@ -0,0 +1,117 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class IcpRegistrationTest {
+
+    /**
+     * Creates a frame of a room corner, the floor z = 0 and the walls x = 0 and y = 0, with the
+     * points in the world frame and no pose.
+     */
+    private static PointCloudFrame corner(int numPoints, long seed) {
+        Random random = new Random(seed);
+        float[] points = new float[numPoints * 4];
+        for (int i = 0; i < numPoints; i++) {
+            float u = random.nextFloat() * 3;
+            float v = random.nextFloat() * 2.5f;
+            float noise = 0.002f * (float) random.nextGaussian();
+            switch (i % 3) {
+                case 0:
+                    points[i * 4] = u;
+                    points[i * 4 + 1] = v;
+                    points[i * 4 + 2] = noise;
+                    break;
+                case 1:
+                    points[i * 4] = noise;
+                    points[i * 4 + 1] = u;
+                    points[i * 4 + 2] = v;
+                    break;
+                default:
+                    points[i * 4] = u;
+                    points[i * 4 + 1] = noise;
+                    points[i * 4 + 2] = v;
+            }
+            points[i * 4 + 3] = 1;
+        }
+        PointCloudFrame frame = new PointCloudFrame(numPoints);
+        frame.set(0, FloatBuffer.wrap(points), numPoints);
+        return frame;
+    }
+
+    private static IcpRegistration registration() {
+        return new IcpRegistration(100000, 0.02f, 0.1f, 30, new ForkJoinPool(2));
+    }
+
+    @Test
+    public void filter_correctsDriftedPose() {
+        IcpRegistration icp = registration();
+        icp.filter(corner(30000, 1));
+        assertEquals(0, icp.getLastResult().getIterations());
+        assertTrue(icp.getModel().size() > 10000);
+
+        // The device did not move, but its pose drifted by 2 degrees and a few centimeters.
+        PointCloudFrame frame = corner(30000, 2);
+        RigidTransform drift = new RigidTransform().set(0.03, -0.02, 0.02,
+                0, 0, Math.sin(Math.toRadians(1)), Math.cos(Math.toRadians(1)));
+        frame.setPose(drift.getTranslation(), drift.getRotation());
+        icp.filter(frame);
+
+        IcpRegistration.Result result = icp.getLastResult();
+        assertTrue(result.toString(), result.isConverged());
+        assertTrue(result.getIterations() > 1);
+        assertTrue(result.getInitialRms() > 0.01);
+        assertTrue(result.toString(), result.getFinalRms() < 0.003);
+        assertArrayEquals(new double[]{0, 0, 0}, frame.getTranslation(), 0.002);
+        assertEquals(1, Math.abs(frame.getRotation()[3]), 1e-5);
+        assertFalse(frame.isWorldFrame());
+        assertEquals(2, icp.getRegisteredCount());
+        assertEquals(1, icp.getConvergedCount());
+    }
+
+    @Test
+    public void filter_correctsWorldFramePointsAndGrowsModelSparsely() {
+        IcpRegistration icp = registration();
+        icp.filter(corner(30000, 3));
+        int modelSize = icp.getModel().size();
+
+        PointCloudFrame frame = corner(30000, 3);
+        float[] expected = new float[frame.getNumPoints() * 4];
+        frame.getPoints().get(expected);
+        new RigidTransform().set(-0.02, 0.01, 0.03, 0.01, 0, 0, 1)
+                .transformPoints(frame.getPoints(), frame.getPoints(), frame.getNumPoints());
+        icp.filter(frame);
+
+        float[] corrected = new float[expected.length];
+        frame.getPoints().get(corrected);
+        assertArrayEquals(expected, corrected, 0.005f);
+        // The same points again hardly fall into new cells of the model.
+        assertTrue(icp.getModel().size() < modelSize * 1.1);
+    }
+
+    @Test
+    public void solve_findsStepOfWellConstrainedSystem() {
+        // J^T J = diag(1..6) and J^T r = -diag * x for x = (1, -1, 2, -2, 3, -3).
+        double[] expected = {1, -1, 2, -2, 3, -3};
+        double[] sums = new double[29];
+        int entry = 0;
+        for (int row = 0; row < 6; row++) {
+            for (int column = row; column < 6; column++) {
+                sums[entry++] = row == column ? row + 1 : 0;
+            }
+            sums[21 + row] = -(row + 1) * expected[row];
+        }
+        double[] x = new double[6];
+        assertTrue(IcpRegistration.solve(sums, x));
+        assertArrayEquals(expected, x, 1e-4);
+        assertFalse(IcpRegistration.solve(new double[29], x));
+    }
+}
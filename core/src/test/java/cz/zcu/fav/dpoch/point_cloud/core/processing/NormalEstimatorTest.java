@@ -0,0 +1,95 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+import static org.junit.Assert.*;
+
+public class NormalEstimatorTest {
+
+    @Test
+    public void smallestEigenvector_ofDiagonalMatrix() {
+        double[] vector = new double[3];
+        assertTrue(NormalEstimator.smallestEigenvector(3, 0, 0, 1, 0, 2, vector));
+        assertEquals(0, vector[0], 1e-9);
+        assertEquals(1, Math.abs(vector[1]), 1e-9);
+        assertEquals(0, vector[2], 1e-9);
+        assertFalse(NormalEstimator.smallestEigenvector(2, 0, 0, 2, 0, 2, vector));
+    }
+
+    @Test
+    public void estimate_orientsNormalsTowardsSensorOfEveryFrame() {
+        // Two frames see a tilted wall z = 2 + 0.5 x from opposite sides.
+        Random random = new Random(1);
+        PointCloudFrame frame = new PointCloudFrame(2000);
+        float[] points = new float[2000 * 4];
+        for (int i = 0; i < 2000; i++) {
+            float x = random.nextFloat() - 0.5f;
+            float y = random.nextFloat() - 0.5f;
+            points[i * 4] = x;
+            points[i * 4 + 1] = y;
+            points[i * 4 + 2] = 2 + 0.5f * x + 0.0005f * (float) random.nextGaussian();
+            points[i * 4 + 3] = 1;
+        }
+        Octree tree = new Octree(4000);
+        frame.set(0, FloatBuffer.wrap(points), 1000);
+        frame.setPose(new double[]{0, 0, 0}, new double[]{0, 0, 0, 1});
+        frame.setWorldFrame(true);
+        tree.insert(frame);
+        // The second sensor is at z = 5, on the other side of the wall.
+        for (int i = 1000; i < 2000; i++) {
+            points[i * 4 + 2] -= 5;
+        }
+        FloatBuffer second = FloatBuffer.wrap(points);
+        second.position(1000 * 4);
+        tree.insert(second, 1000, new RigidTransform().set(0, 0, 5, 0, 0, 0, 1));
+        tree.compact();
+
+        float[] normals = new float[tree.size() * 3];
+        new NormalEstimator(12, new ForkJoinPool(4)).estimate(tree, normals);
+
+        double length = Math.sqrt(1 + 0.25);
+        float[] origin = new float[3];
+        for (int i = 0; i < tree.size(); i++) {
+            assertTrue(tree.getOrigin(i, origin));
+            // The first sensor looks along +z, so its normals point to -z.
+            double sign = origin[2] == 0 ? 1 : -1;
+            assertEquals(sign * 0.5 / length, normals[i * 3], 0.05);
+            assertEquals(0, normals[i * 3 + 1], 0.05);
+            assertEquals(sign * -1 / length, normals[i * 3 + 2], 0.05);
+        }
+    }
+
+    @Test
+    public void estimate_doesNotDependOnParallelism() {
+        Random random = new Random(2);
+        Octree tree = new Octree(20000);
+        for (int i = 0; i < 20000; i++) {
+            double theta = random.nextDouble() * Math.PI;
+            double phi = random.nextDouble() * 2 * Math.PI;
+            tree.insertPoint((float) (Math.sin(theta) * Math.cos(phi)),
+                    (float) (Math.sin(theta) * Math.sin(phi)), (float) Math.cos(theta), 1);
+        }
+        tree.compact();
+        float[] sequential = new float[tree.size() * 3];
+        float[] parallel = new float[tree.size() * 3];
+
+        new NormalEstimator(10, new ForkJoinPool(1)).estimate(tree, sequential);
+        new NormalEstimator(10, new ForkJoinPool(8)).estimate(tree, parallel);
+
+        assertArrayEquals(sequential, parallel, 0);
+        for (int i = 0; i < tree.size(); i++) {
+            // Normals of a sphere are radial, either way without a sensor origin.
+            double dot = sequential[i * 3] * tree.getX(i) + sequential[i * 3 + 1] * tree.getY(i)
+                    + sequential[i * 3 + 2] * tree.getZ(i);
+            assertEquals(1, Math.abs(dot), 0.01);
+        }
+    }
+}
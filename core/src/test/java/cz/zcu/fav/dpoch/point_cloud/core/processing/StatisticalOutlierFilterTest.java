@@ -0,0 +1,93 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.spatial.Octree;
+
+import static org.junit.Assert.*;
+
+public class StatisticalOutlierFilterTest {
+
+    private static final int GRID = 100;
+
+    /**
+     * Creates a noisy 1 x 1 m wall at 2 m depth followed by points flying in front of it.
+     */
+    private static float[] wallWithOutliers(int outliers) {
+        Random random = new Random(1);
+        float[] points = new float[(GRID * GRID + outliers) * 4];
+        for (int i = 0; i < GRID * GRID; i++) {
+            points[i * 4] = (i % GRID) * 0.01f;
+            points[i * 4 + 1] = (i / GRID) * 0.01f;
+            points[i * 4 + 2] = 2 + 0.001f * (float) random.nextGaussian();
+            points[i * 4 + 3] = 1;
+        }
+        for (int i = GRID * GRID; i < GRID * GRID + outliers; i++) {
+            points[i * 4] = random.nextFloat();
+            points[i * 4 + 1] = random.nextFloat();
+            points[i * 4 + 2] = 0.5f + random.nextFloat();
+            points[i * 4 + 3] = 0.2f;
+        }
+        return points;
+    }
+
+    @Test
+    public void findOutliers_marksFlyingPoints() {
+        float[] points = wallWithOutliers(50);
+        Octree tree = new Octree(points.length / 4);
+        tree.insert(FloatBuffer.wrap(points), points.length / 4, null);
+        StatisticalOutlierFilter filter = new StatisticalOutlierFilter(8, 1, new ForkJoinPool(4));
+        boolean[] outliers = new boolean[tree.size()];
+
+        assertEquals(50, filter.findOutliers(tree, outliers));
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(i >= GRID * GRID, outliers[i]);
+        }
+        assertTrue(filter.getLastStddev() > 0);
+    }
+
+    @Test
+    public void computeMeanDistances_doesNotDependOnParallelism() {
+        float[] points = wallWithOutliers(500);
+        Octree tree = new Octree(points.length / 4);
+        tree.insert(FloatBuffer.wrap(points), points.length / 4, null);
+        tree.compact();
+        float[] sequential = new float[tree.size()];
+        float[] parallel = new float[tree.size()];
+
+        new StatisticalOutlierFilter(16, 1, new ForkJoinPool(1))
+                .computeMeanDistances(tree, sequential);
+        new StatisticalOutlierFilter(16, 1, new ForkJoinPool(8))
+                .computeMeanDistances(tree, parallel);
+
+        assertArrayEquals(sequential, parallel, 0);
+        for (float distance : sequential) {
+            assertTrue(distance > 0);
+        }
+    }
+
+    @Test
+    public void filter_removesOutliersAndInvalidPointsFromFrame() {
+        float[] points = wallWithOutliers(20);
+        points[4] = Float.NaN;
+        PointCloudFrame frame = new PointCloudFrame(points.length / 4);
+        frame.set(0, FloatBuffer.wrap(points), points.length / 4);
+        StatisticalOutlierFilter filter = new StatisticalOutlierFilter();
+
+        filter.filter(frame);
+
+        assertEquals(GRID * GRID - 1, frame.getNumPoints());
+        assertEquals(21, filter.getRemovedCount());
+        FloatBuffer kept = frame.getPoints();
+        for (int i = 0; i < frame.getNumPoints(); i++) {
+            assertEquals(2, kept.get(i * 4 + 2), 0.01f);
+        }
+        assertEquals(0, kept.get(0), 0);
+        assertEquals(0.02f, kept.get(4), 0);
+    }
+}
@@ -0,0 +1,195 @@
+package cz.zcu.fav.dpoch.point_cloud.core.processing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionReader;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.TsdfSink;
+
+import static org.junit.Assert.*;
+
+public class TsdfVolumeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fills a frame with a square of a wall at z = 2 in the world, seen from a sensor at the given
+     * position, in the sensor frame.
+     */
+    private static void wall(PointCloudFrame frame, double sensorX, double sensorY,
+                             float halfSize, float spacing) {
+        int side = (int) (2 * halfSize / spacing) + 1;
+        float[] points = new float[side * side * PointCloudFrame.FLOATS_PER_POINT];
+        int index = 0;
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                points[index++] = (float) (column * spacing - halfSize - sensorX);
+                points[index++] = (float) (row * spacing - halfSize - sensorY);
+                points[index++] = 2;
+                points[index++] = 1;
+            }
+        }
+        frame.set(0, FloatBuffer.wrap(points), side * side);
+        frame.setPose(new double[]{sensorX, sensorY, 0}, new double[]{0, 0, 0, 1});
+    }
+
+    @Test
+    public void integrate_recoversSurfaceFromPosedFrames() {
+        TsdfVolume volume = new TsdfVolume(0.02f, 0.08f, 16, new ForkJoinPool(2));
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 5; i++) {
+            wall(frame, 0.1 * (i - 2), 0.05 * i, 0.5f, 0.01f);
+            assertTrue(volume.integrate(frame));
+        }
+
+        assertEquals(5, volume.getFrameCount());
+        assertEquals(0.0f, volume.getDistance(0.01f, 0.01f, 2.01f), 0.011f);
+        assertEquals(0.05f, volume.getDistance(0.01f, 0.01f, 1.95f), 0.011f);
+        assertEquals(-0.05f, volume.getDistance(0.01f, 0.01f, 2.05f), 0.011f);
+        assertEquals(0.07f, volume.getDistance(0.01f, 0.01f, 1.93f), 0.011f);
+        assertTrue(Float.isNaN(volume.getDistance(0.01f, 0.01f, 1.0f)));
+        assertEquals(16, volume.getWeight(0.01f, 0.01f, 2.01f), 0);
+
+        volume.extractSurface(frame);
+        assertTrue(frame.isWorldFrame());
+        assertFalse(frame.hasPose());
+        assertTrue(frame.getNumPoints() > 1000);
+        FloatBuffer points = frame.getPoints();
+        for (int i = 0; i < frame.getNumPoints(); i++) {
+            int index = i * PointCloudFrame.FLOATS_PER_POINT;
+            // Voxels at the edge of the wall are seen by few rays from one side only.
+            boolean edge = Math.abs(points.get(index)) > 0.45f
+                    || Math.abs(points.get(index + 1)) > 0.45f;
+            assertEquals(2, points.get(index + 2), edge ? 0.01f : 0.003f);
+        }
+    }
+
+    @Test
+    public void integrate_walksAxisAlignedRaysFromOffsetSensor() {
+        TsdfVolume volume = new TsdfVolume(0.02f, 0.08f, 16, new ForkJoinPool(1));
+        PointCloudFrame frame = new PointCloudFrame(1);
+        frame.set(0, FloatBuffer.wrap(new float[]{0, 0, 1, 1}), 1);
+        // The ray has no x and y component, the sensor is off the voxel boundaries.
+        frame.setPose(new double[]{0.003, 0.013, 0}, new double[]{0, 0, 0, 1});
+        assertTrue(volume.integrate(frame));
+
+        // Four voxels in front of the surface and four behind it, all in one column.
+        assertEquals(8, volume.getVoxelUpdateCount());
+        assertEquals(0.05f, volume.getDistance(0.01f, 0.01f, 0.95f), 1e-5f);
+        assertEquals(-0.01f, volume.getDistance(0.01f, 0.01f, 1.01f), 1e-5f);
+        assertEquals(-0.07f, volume.getDistance(0.01f, 0.01f, 1.07f), 1e-5f);
+        assertTrue(Float.isNaN(volume.getDistance(-0.01f, 0.01f, 0.99f)));
+        assertTrue(Float.isNaN(volume.getDistance(0.01f, -0.01f, 0.99f)));
+    }
+
+    @Test
+    public void tsdfSink_skipsUnposedFramesOfSession() throws Exception {
+        File file = this.folder.newFile("session" + SessionFormat.FILE_EXTENSION);
+        SessionWriter writer = new SessionWriter(file);
+        TsdfVolume posed = new TsdfVolume(0.02f);
+        PointCloudFrame frame = new PointCloudFrame(0);
+        for (int i = 0; i < 3; i++) {
+            wall(frame, 0.1 * i, 0, 0.5f, 0.02f);
+            writer.write(frame);
+            posed.integrate(frame);
+        }
+        // Stored in the sensor frame because the pose tracker had no pose for it yet.
+        wall(frame, 1, 1, 0.5f, 0.02f);
+        frame.clearPose();
+        writer.write(frame);
+        writer.close();
+
+        TsdfSink sink = new TsdfSink(this.folder.newFile("surface.ply"), new TsdfVolume(0.02f));
+        SessionReader reader = new SessionReader(file);
+        for (int i = 0; i < reader.getFrameCount(); i++) {
+            reader.readFrame(i, frame);
+            sink.write(frame);
+        }
+        reader.close();
+        sink.close();
+
+        assertEquals(3, sink.getFrameCount());
+        assertEquals(1, sink.getSkippedFrameCount());
+        PointCloudFrame expected = new PointCloudFrame(0);
+        PointCloudFrame actual = new PointCloudFrame(0);
+        posed.extractSurface(expected);
+        sink.extractSurface(actual);
+        assertEquals(expected.getPoints(), actual.getPoints());
+    }
+
+    @Test
+    public void integrate_allocatesBlocksOnlyNearSurface() {
+        PointCloudFrame frame = new PointCloudFrame(0);
+        TsdfVolume small = new TsdfVolume(0.02f);
+        wall(frame, 0, 0, 0.5f, 0.01f);
+        small.integrate(frame);
+        TsdfVolume large = new TsdfVolume(0.02f);
+        wall(frame, 0, 0, 1, 0.01f);
+        large.integrate(frame);
+
+        // Blocks of 16 cm cover a 1 m wall about 7 by 7 times in one or two layers.
+        assertTrue(small.getBlockCount() <= 2 * 8 * 8);
+        double ratio = large.getBlockCount() / (double) small.getBlockCount();
+        assertTrue("Ratio " + ratio, ratio > 3 && ratio < 5);
+        assertEquals(small.getBlockCount() * TsdfVolume.BLOCK_VOXELS * 8L, small.getMemoryBytes());
+
+        // Observing the same wall again does not allocate anything.
+        int blocks = large.getBlockCount();
+        large.integrate(frame);
+        assertEquals(blocks, large.getBlockCount());
+    }
+
+    @Test
+    public void integrate_doesNotDependOnThreads() {
+        PointCloudFrame frame = new PointCloudFrame(0);
+        TsdfVolume serial = new TsdfVolume(0.01f, 0.04f, 8, new ForkJoinPool(1));
+        TsdfVolume parallel = new TsdfVolume(0.01f, 0.04f, 8, new ForkJoinPool(4));
+        for (int i = 0; i < 4; i++) {
+            wall(frame, 0.13 * i, -0.07 * i, 0.6f, 0.007f);
+            serial.integrate(frame);
+            parallel.integrate(frame);
+        }
+        assertEquals(serial.getVoxelUpdateCount(), parallel.getVoxelUpdateCount());
+
+        PointCloudFrame serialSurface = new PointCloudFrame(0);
+        PointCloudFrame parallelSurface = new PointCloudFrame(0);
+        serial.extractSurface(serialSurface);
+        parallel.extractSurface(parallelSurface);
+        assertEquals(serialSurface.getPoints(), parallelSurface.getPoints());
+    }
+
+    @Test
+    public void integrate_skipsFramesWithoutPoseAndInvalidPoints() {
+        TsdfVolume volume = new TsdfVolume(0.05f);
+        PointCloudFrame frame = new PointCloudFrame(3);
+        frame.set(0, FloatBuffer.wrap(new float[]{
+                0, 0, 1, 1,
+                Float.NaN, 0, 1, 1,
+                0, 0, 0, 1}), 3);
+        frame.setWorldFrame(true);
+        assertFalse(volume.integrate(frame));
+        frame.setWorldFrame(false);
+        assertFalse(volume.integrate(frame));
+        assertEquals(2, volume.getSkippedFrameCount());
+        assertEquals(0, volume.getBlockCount());
+
+        // Points seen from a fixed sensor are fused without a pose.
+        volume.integrate(frame.getPoints(), frame.getNumPoints(), null, new double[3]);
+        assertEquals(1, volume.getPointCount());
+        assertEquals(2, volume.getRejectedCount());
+        assertEquals(0, volume.getDistance(0.01f, 0.01f, 1.01f), 0.03f);
+
+        volume.clear();
+        assertEquals(0, volume.getBlockCount());
+        assertTrue(Float.isNaN(volume.getDistance(0.01f, 0.01f, 1.01f)));
+    }
+}
@@ -0,0 +1,192 @@
+package cz.zcu.fav.dpoch.point_cloud.core.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.TextFileSink;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+
+import static org.junit.Assert.*;
+
+public class PointCloudSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Feeds a pose tracker and a pipeline the way the activities do.
+     */
+    private static class PipelineListener implements PointCloudSource.Listener {
+        final PoseTracker poseTracker = new PoseTracker();
+        final CapturePipeline pipeline;
+        final List<float[]> firstPoints = new ArrayList<float[]>();
+        int accepted = 0;
+
+        PipelineListener(CapturePipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void onDeviceToSensor(double[] translation, double[] rotation) {
+            this.poseTracker.setDeviceToSensor(translation, rotation);
+        }
+
+        @Override
+        public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+            this.poseTracker.onDevicePose(timestamp, translation, rotation);
+        }
+
+        @Override
+        public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+            float[] first = new float[Math.min(numPoints, 1) * 4];
+            points.duplicate().get(first);
+            this.firstPoints.add(first);
+            RigidTransform sensorPose = this.poseTracker.sensorPoseAt(timestamp);
+            if (this.pipeline != null && this.pipeline.submit(timestamp, points, numPoints, sensorPose)) {
+                this.accepted++;
+            }
+        }
+    }
+
+    private static class SlowSink implements FrameSink {
+        int written = 0;
+
+        @Override
+        public void write(PointCloudFrame frame) throws IOException {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            this.written++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void synthetic_deliversEveryFrameThroughPipeline() throws Exception {
+        File file = folder.newFile("synthetic.pcs");
+        CapturePipeline pipeline = new CapturePipeline(new SessionWriter(file), 4, OverflowPolicy.BLOCK, 0);
+        pipeline.start();
+        PipelineListener listener = new PipelineListener(pipeline);
+        SyntheticSource source = new SyntheticSource(5000, 30, 40, false);
+        source.start(listener);
+        source.join();
+        source.close();
+        pipeline.close();
+
+        assertNull(source.getError());
+        assertEquals(40, source.getDeliveredCount());
+        assertEquals(40, listener.accepted);
+        assertEquals(40, pipeline.getWrittenCount());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void synthetic_dropsFramesBehindSlowSink() throws Exception {
+        SlowSink sink = new SlowSink();
+        CapturePipeline pipeline = new CapturePipeline(sink, 2, OverflowPolicy.DROP_NEWEST, 0);
+        pipeline.start();
+        PipelineListener listener = new PipelineListener(pipeline);
+        SyntheticSource source = new SyntheticSource(1000, 30, 100, false);
+        source.start(listener);
+        source.join();
+        source.close();
+        pipeline.close();
+
+        assertTrue(pipeline.getDroppedCount() > 0);
+        assertEquals(100, sink.written + pipeline.getDroppedCount());
+        assertEquals(sink.written, listener.accepted);
+    }
+
+    @Test
+    public void synthetic_pacesFramesInRealTime() throws Exception {
+        PipelineListener listener = new PipelineListener(null);
+        SyntheticSource source = new SyntheticSource(10, 50, 6, true);
+        long start = System.nanoTime();
+        source.start(listener);
+        source.join();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        source.close();
+
+        assertEquals(6, listener.firstPoints.size());
+        assertTrue(elapsedMillis >= 100);
+    }
+
+    @Test
+    public void sessionReplay_restoresSensorFramePoints() throws Exception {
+        File file = folder.newFile("replayed.pcs");
+        CapturePipeline pipeline = new CapturePipeline(new SessionWriter(file), 4, OverflowPolicy.BLOCK, 0);
+        pipeline.start();
+        PipelineListener recorder = new PipelineListener(pipeline);
+        SyntheticSource synthetic = new SyntheticSource(100, 10, 20, false);
+        synthetic.start(recorder);
+        synthetic.join();
+        synthetic.close();
+        pipeline.close();
+
+        PipelineListener replayer = new PipelineListener(null);
+        SessionReplaySource replay = new SessionReplaySource(file, false);
+        replay.start(replayer);
+        replay.join();
+        replay.close();
+
+        assertNull(replay.getError());
+        assertEquals(20, replay.getFrameCount());
+        assertEquals(20, replayer.firstPoints.size());
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(recorder.firstPoints.get(i), replayer.firstPoints.get(i), 1e-4f);
+        }
+        assertNotNull(replayer.poseTracker.sensorPoseAt(1.0));
+    }
+
+    @Test
+    public void legacyReplay_readsTextAndBinaryFiles() throws Exception {
+        File directory = folder.newFolder();
+        float[] points = {1.5f, -2, 3.25f, 0.5f, 4, 5, 6, 1};
+        PointCloudFrame frame = new PointCloudFrame(2);
+        frame.set(0, FloatBuffer.wrap(points), 2);
+        TextFileSink textSink = new TextFileSink(directory);
+        textSink.write(frame);
+        DataOutputStream outputStream = new DataOutputStream(
+                new FileOutputStream(new File(directory, TextFileSink.FILE_PREFIX + 10)));
+        for (float value : points) {
+            outputStream.writeFloat(-value);
+        }
+        outputStream.close();
+        assertTrue(new File(directory, TextFileSink.FILE_PREFIX + "2.ply").createNewFile());
+
+        List<File> files = LegacyFileReplaySource.listFiles(directory);
+        assertEquals(Arrays.asList(new File(directory, "points1"), new File(directory, "points10")), files);
+
+        PipelineListener listener = new PipelineListener(null);
+        LegacyFileReplaySource replay = new LegacyFileReplaySource(files,
+                LegacyFileReplaySource.DEFAULT_FRAME_INTERVAL, false);
+        replay.start(listener);
+        replay.join();
+        replay.close();
+
+        assertNull(replay.getError());
+        assertArrayEquals(new float[]{1.5f, -2, 3.25f, 0.5f}, listener.firstPoints.get(0), 0);
+        assertArrayEquals(new float[]{-1.5f, 2, -3.25f, -0.5f}, listener.firstPoints.get(1), 0);
+    }
+}
@@ -0,0 +1,215 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class OctreeTest {
+
+    private static float[] randomPoints(int n, float extent, long seed) {
+        Random random = new Random(seed);
+        float[] points = new float[n * 4];
+        for (int i = 0; i < n; i++) {
+            // Clustered around a few centers like surfaces of a room.
+            float offset = (i % 5) * extent / 5;
+            points[i * 4] = offset + random.nextFloat() * extent / 10;
+            points[i * 4 + 1] = (random.nextFloat() - 0.5f) * extent;
+            points[i * 4 + 2] = -offset + (float) random.nextGaussian();
+            points[i * 4 + 3] = random.nextFloat();
+        }
+        return points;
+    }
+
+    private static Octree build(float[] points, int leafCapacity) {
+        Octree octree = new Octree(points.length / 4, leafCapacity, 0.001f);
+        assertEquals(points.length / 4,
+                octree.insert(FloatBuffer.wrap(points), points.length / 4, null));
+        return octree;
+    }
+
+    private static float distanceSquared(float[] points, int i, float x, float y, float z) {
+        float dx = points[i * 4] - x;
+        float dy = points[i * 4 + 1] - y;
+        float dz = points[i * 4 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static float[] sortedCoordinates(float[] points) {
+        float[] xs = new float[points.length / 4];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = points[i * 4] * 1000 + points[i * 4 + 1];
+        }
+        Arrays.sort(xs);
+        return xs;
+    }
+
+    @Test
+    public void queryBox_matchesBruteForce() {
+        float[] points = randomPoints(20000, 20, 1);
+        Octree octree = build(points, 8);
+        Random random = new Random(2);
+        IntList result = new IntList();
+        for (int q = 0; q < 50; q++) {
+            float minX = random.nextFloat() * 20 - 2, minY = random.nextFloat() * 20 - 10;
+            float minZ = random.nextFloat() * -20;
+            float maxX = minX + random.nextFloat() * 5, maxY = minY + random.nextFloat() * 5;
+            float maxZ = minZ + random.nextFloat() * 5;
+            IntList expected = new IntList();
+            for (int i = 0; i < points.length / 4; i++) {
+                float x = points[i * 4], y = points[i * 4 + 1], z = points[i * 4 + 2];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                    expected.add(i);
+                }
+            }
+            result.clear();
+            octree.queryBox(minX, minY, minZ, maxX, maxY, maxZ, result);
+            result.sort();
+            assertArrayEquals(expected.toArray(), result.toArray());
+        }
+    }
+
+    @Test
+    public void queryRadius_matchesBruteForce() {
+        float[] points = randomPoints(20000, 20, 3);
+        Octree octree = build(points, 16);
+        Random random = new Random(4);
+        IntList result = new IntList();
+        for (int q = 0; q < 50; q++) {
+            int center = random.nextInt(points.length / 4);
+            float x = points[center * 4], y = points[center * 4 + 1], z = points[center * 4 + 2];
+            float radius = random.nextFloat();
+            IntList expected = new IntList();
+            for (int i = 0; i < points.length / 4; i++) {
+                if (distanceSquared(points, i, x, y, z) <= radius * radius) {
+                    expected.add(i);
+                }
+            }
+            result.clear();
+            octree.queryRadius(x, y, z, radius, result);
+            result.sort();
+            assertArrayEquals(expected.toArray(), result.toArray());
+        }
+    }
+
+    @Test
+    public void nearest_matchesBruteForce() {
+        float[] points = randomPoints(20000, 20, 5);
+        Octree octree = build(points, 32);
+        Random random = new Random(6);
+        int k = 10;
+        int[] indices = new int[k];
+        float[] distances = new float[k];
+        float[] all = new float[points.length / 4];
+        for (int q = 0; q < 100; q++) {
+            float x = random.nextFloat() * 30 - 5;
+            float y = random.nextFloat() * 30 - 15;
+            float z = random.nextFloat() * -30;
+            for (int i = 0; i < all.length; i++) {
+                all[i] = distanceSquared(points, i, x, y, z);
+            }
+            Arrays.sort(all);
+
+            assertEquals(k, octree.nearest(x, y, z, k, indices, distances));
+            for (int i = 0; i < k; i++) {
+                assertEquals(all[i], distances[i], 0);
+                assertEquals(distances[i], distanceSquared(points, indices[i], x, y, z), 0);
+            }
+        }
+    }
+
+    @Test
+    public void compact_keepsPointsAndQueryResults() {
+        float[] points = randomPoints(5000, 10, 7);
+        Octree octree = build(points, 8);
+        octree.compact();
+        assertEquals(5000, octree.size());
+
+        PointCloudFrame exported = new PointCloudFrame(1);
+        octree.export(exported);
+        float[] compacted = new float[points.length];
+        exported.getPoints().get(compacted);
+        float[] expected = sortedCoordinates(points);
+        assertArrayEquals(expected, sortedCoordinates(compacted), 0);
+
+        IntList result = new IntList();
+        float x = points[0], y = points[1], z = points[2];
+        octree.queryRadius(x, y, z, 1, result);
+        int expectedCount = 0;
+        for (int i = 0; i < points.length / 4; i++) {
+            if (distanceSquared(points, i, x, y, z) <= 1) {
+                expectedCount++;
+            }
+        }
+        assertEquals(expectedCount, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            int point = result.get(i);
+            assertTrue(distanceSquared(compacted, point, x, y, z) <= 1);
+        }
+    }
+
+    @Test
+    public void nearestNeighbours_excludesThePointItself() {
+        Octree octree = new Octree(10);
+        for (int i = 0; i < 5; i++) {
+            octree.insertPoint(i, 0, 0, 1);
+        }
+        int[] indices = new int[10];
+        float[] distances = new float[10];
+
+        assertEquals(4, octree.nearestNeighbours(2, 10, indices, distances));
+        assertEquals(1, distances[0], 0);
+        assertEquals(1, distances[1], 0);
+        assertEquals(4, distances[2], 0);
+        assertEquals(4, distances[3], 0);
+        int[] nearest = {indices[0], indices[1]};
+        Arrays.sort(nearest);
+        assertArrayEquals(new int[]{1, 3}, nearest);
+    }
+
+    @Test
+    public void insert_growsRootAndKeepsMemoryBudget() {
+        Octree octree = new Octree(4);
+        assertEquals(0, octree.insertPoint(0.5f, 0.5f, 0.5f, 1));
+        assertEquals(1, octree.insertPoint(-900, 40, 2000, 1));
+        assertEquals(-1, octree.insertPoint(Float.NaN, 0, 0, 1));
+        assertEquals(-1, octree.insertPoint(2e6f, 0, 0, 1));
+        assertEquals(2, octree.insertPoint(100, -100, 3, 1));
+        assertEquals(3, octree.insertPoint(0.5f, 0.5f, 0.6f, 1));
+        assertEquals(-1, octree.insertPoint(1, 1, 1, 1));
+        assertEquals(4, octree.size());
+        assertEquals(3, octree.getRejectedCount());
+
+        IntList result = new IntList();
+        octree.queryBox(-1000, 0, 0, 0, 100, 3000, result);
+        assertArrayEquals(new int[]{1}, result.toArray());
+        int[] indices = new int[1];
+        float[] distances = new float[1];
+        assertEquals(1, octree.nearest(99, -99, 3, 1, indices, distances));
+        assertEquals(2, indices[0]);
+    }
+
+    @Test
+    public void insert_transformsFramesAndExportsInInsertionOrder() {
+        Octree octree = new Octree(100);
+        PointCloudFrame frame = new PointCloudFrame(2);
+        frame.set(0, FloatBuffer.wrap(new float[]{1, 0, 0, 0.5f, 0, 1, 0, 1}), 2);
+        frame.setPose(new double[]{0, 0, 5}, new double[]{0, 0, 0, 1});
+        assertEquals(2, octree.insert(frame));
+
+        assertEquals(1, octree.getX(0), 0);
+        assertEquals(5, octree.getZ(1), 0);
+        assertEquals(0.5f, octree.getConfidence(0), 0);
+        PointCloudFrame exported = new PointCloudFrame(1);
+        octree.export(exported);
+        float[] values = new float[8];
+        exported.getPoints().get(values);
+        assertArrayEquals(new float[]{1, 0, 5, 0.5f, 0, 1, 5, 1}, values, 0);
+        assertTrue(exported.isWorldFrame());
+    }
+}
@@ -0,0 +1,171 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class TileStoreTest {
+
+    private static final int CACHE_POINTS = 8192;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Returns random points spread over a 20 x 20 x 3 m building.
+     */
+    private static float[] building(int numPoints, long seed) {
+        Random random = new Random(seed);
+        float[] points = new float[numPoints * 4];
+        for (int i = 0; i < points.length; i += 4) {
+            points[i] = random.nextFloat() * 20 - 10;
+            points[i + 1] = random.nextFloat() * 20 - 10;
+            points[i + 2] = random.nextFloat() * 3;
+            points[i + 3] = random.nextFloat();
+        }
+        return points;
+    }
+
+    private static void addAll(TileStore store, float[] points) throws IOException {
+        PointCloudFrame frame = new PointCloudFrame(1000);
+        for (int i = 0; i < points.length; i += 4000) {
+            frame.set(0, FloatBuffer.wrap(points, i, 4000), 1000);
+            frame.setWorldFrame(true);
+            store.add(frame);
+            assertTrue(store.getCachedPoints() <= CACHE_POINTS);
+        }
+    }
+
+    /**
+     * Returns the points inside the box as sorted strings, independent of their order.
+     */
+    private static String[] inside(float[] points, int numPoints, float[] box) {
+        String[] found = new String[numPoints];
+        int count = 0;
+        for (int i = 0; i < numPoints * 4; i += 4) {
+            if (points[i] >= box[0] && points[i] <= box[3] && points[i + 1] >= box[1]
+                    && points[i + 1] <= box[4] && points[i + 2] >= box[2] && points[i + 2] <= box[5]) {
+                found[count++] = points[i] + " " + points[i + 1] + " " + points[i + 2] + " " + points[i + 3];
+            }
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    private static String[] query(TileStore store, float[] box) throws IOException {
+        PointCloudFrame result = new PointCloudFrame(0);
+        int count = store.queryBox(box[0], box[1], box[2], box[3], box[4], box[5], result);
+        assertEquals(count, result.getNumPoints());
+        assertTrue(result.isWorldFrame());
+        float[] points = new float[count * 4];
+        result.getPoints().get(points);
+        return inside(points, count, box);
+    }
+
+    @Test
+    public void add_keepsCacheBoundedAndQueriesMatchBruteForce() throws Exception {
+        TileStore store = new TileStore(folder.newFolder(), 1f, CACHE_POINTS);
+        float[] points = building(200000, 1);
+        addAll(store, points);
+
+        assertEquals(200000, store.getPointCount());
+        assertEquals(20 * 20 * 3, store.getTileCount());
+        assertTrue(store.getEvictionCount() > 0);
+
+        float[] box = {-2.5f, 1.2f, 0.5f, 0.7f, 3.9f, 1.5f};
+        assertArrayEquals(inside(points, 200000, box), query(store, box));
+        // 4 x 3 x 2 tiles intersect the box.
+        assertEquals(24, store.getTileReads());
+        assertTrue(store.getCachedPoints() <= CACHE_POINTS);
+
+        float[] everything = {-100, -100, -100, 100, 100, 100};
+        assertEquals(200000, query(store, everything).length);
+        assertTrue(store.getCachedPoints() <= CACHE_POINTS);
+        store.close();
+        assertEquals(0, store.getCachedPoints());
+    }
+
+    @Test
+    public void queryBox_visitsPointsWithoutCollectingThem() throws Exception {
+        TileStore store = new TileStore(folder.newFolder(), 1f, CACHE_POINTS);
+        float[] points = building(50000, 3);
+        addAll(store, points);
+
+        final double[] sums = new double[2];
+        long count = store.queryBox(-100, -100, -100, 100, 100, 100, new TileStore.PointVisitor() {
+            @Override
+            public void visit(float x, float y, float z, float confidence) {
+                sums[0] += z;
+                sums[1]++;
+            }
+        });
+        assertEquals(50000, count);
+        assertEquals(50000, sums[1], 0);
+        double sum = 0;
+        for (int i = 2; i < points.length; i += 4) {
+            sum += points[i];
+        }
+        assertEquals(sum, sums[0], 1e-6 * sum);
+        store.close();
+    }
+
+    @Test
+    public void reopen_continuesStoredTiles() throws Exception {
+        File directory = folder.newFolder();
+        TileStore store = new TileStore(directory, 1f, CACHE_POINTS);
+        float[] points = building(20000, 2);
+        addAll(store, Arrays.copyOf(points, 10000 * 4));
+        store.close();
+
+        store = new TileStore(directory, 1f, CACHE_POINTS);
+        assertEquals(10000, store.getPointCount());
+        addAll(store, Arrays.copyOfRange(points, 10000 * 4, points.length));
+        float[] box = {-10, -10, 0, 10, 10, 3};
+        assertArrayEquals(inside(points, 20000, box), query(store, box));
+        store.close();
+
+        try {
+            new TileStore(directory, 2f, CACHE_POINTS);
+            fail("Tile size of the store was not checked.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void tilesLargerThanCache_areScannedFromFiles() throws Exception {
+        TileStore store = new TileStore(folder.newFolder(), 100f, CACHE_POINTS);
+        float[] points = building(50000, 3);
+        addAll(store, points);
+        // One tile around the origin in every quadrant.
+        assertEquals(4, store.getTileCount());
+
+        float[] box = {0, 0, 0, 5, 5, 1};
+        assertArrayEquals(inside(points, 50000, box), query(store, box));
+        assertEquals(0, store.getTileLoads());
+        assertTrue(store.getCachedPoints() <= CACHE_POINTS);
+        store.close();
+    }
+
+    @Test
+    public void add_rejectsInvalidPoints() throws Exception {
+        TileStore store = new TileStore(folder.newFolder());
+        store.addPoint(Float.NaN, 0, 0, 1);
+        store.addPoint(1e30f, 0, 0, 1);
+        store.addPoint(1, 2, 3, 1);
+        assertEquals(2, store.getRejectedCount());
+        assertEquals(1, store.getPointCount());
+        store.close();
+    }
+}
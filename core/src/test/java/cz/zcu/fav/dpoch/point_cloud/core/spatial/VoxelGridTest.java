@@ -0,0 +1,83 @@
+package cz.zcu.fav.dpoch.point_cloud.core.spatial;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+
+import static org.junit.Assert.*;
+
+public class VoxelGridTest {
+
+    @Test
+    public void add_mergesRepeatedFramesIntoCentroids() {
+        VoxelGrid grid = new VoxelGrid(0.1f);
+        PointCloudFrame frame = new PointCloudFrame(2);
+        for (int i = 0; i < 100; i++) {
+            float jitter = (i % 2 == 0 ? 1 : -1) * 0.01f;
+            frame.set(i, FloatBuffer.wrap(new float[]{
+                    0.05f + jitter, 0.05f, 0.05f, 1,
+                    -0.55f, 2.05f + jitter, 0.95f, 0.5f}), 2);
+            grid.add(frame);
+        }
+
+        assertEquals(2, grid.getVoxelCount());
+        assertEquals(200, grid.getPointCount());
+        grid.export(frame);
+        FloatBuffer points = frame.getPoints();
+        assertArrayEquals(new float[]{0.05f, 0.05f, 0.05f, 1}, next(points), 1e-5f);
+        assertArrayEquals(new float[]{-0.55f, 2.05f, 0.95f, 0.5f}, next(points), 1e-5f);
+    }
+
+    @Test
+    public void add_transformsFramesInSensorFrame() {
+        VoxelGrid grid = new VoxelGrid(0.5f);
+        PointCloudFrame frame = new PointCloudFrame(1);
+        frame.set(0, FloatBuffer.wrap(new float[]{0.1f, 0.1f, 0.1f, 1}), 1);
+        frame.setPose(new double[]{10, 0, 0}, new double[]{0, 0, 0, 1});
+        grid.add(frame);
+
+        grid.export(frame);
+        assertTrue(frame.isWorldFrame());
+        assertEquals(10.1f, frame.getPoints().get(0), 1e-5f);
+    }
+
+    @Test
+    public void add_keepsDistinctVoxelsAndRejectsInvalidPoints() {
+        VoxelGrid grid = new VoxelGrid(0.01f);
+        for (int x = -50; x < 50; x++) {
+            for (int y = -50; y < 50; y++) {
+                for (int z = 0; z < 3; z++) {
+                    grid.addPoint(x * 0.01f + 0.005f, y * 0.01f + 0.005f, z * 0.01f + 0.005f, 1);
+                }
+            }
+        }
+        grid.addPoint(Float.NaN, 0, 0, 1);
+        grid.addPoint(1e9f, 0, 0, 1);
+
+        assertEquals(30000, grid.getVoxelCount());
+        assertEquals(2, grid.getRejectedCount());
+    }
+
+    @Test
+    public void gridKey_roundTripsCoordinates() {
+        int[] values = {GridKey.MIN_COORDINATE, -1, 0, 1, GridKey.MAX_COORDINATE};
+        for (int x : values) {
+            for (int y : values) {
+                for (int z : values) {
+                    long key = GridKey.pack(x, y, z);
+                    assertEquals(x, GridKey.unpackX(key));
+                    assertEquals(y, GridKey.unpackY(key));
+                    assertEquals(z, GridKey.unpackZ(key));
+                }
+            }
+        }
+    }
+
+    private static float[] next(FloatBuffer points) {
+        float[] point = new float[4];
+        points.get(point);
+        return point;
+    }
+}
@@ -1,16 +1,30 @@
 package cz.zcu.fav.dpoch.point_cloud_generator;
 
         import com.google.atap.tangoservice.Tango;
-        import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
         import com.google.atap.tangoservice.TangoConfig;
-        import com.google.atap.tangoservice.TangoCoordinateFramePair;
         import com.google.atap.tangoservice.TangoErrorException;
-        import com.google.atap.tangoservice.TangoEvent;
         import com.google.atap.tangoservice.TangoInvalidException;
         import com.google.atap.tangoservice.TangoOutOfDateException;
-        import com.google.atap.tangoservice.TangoPointCloudData;
-        import com.google.atap.tangoservice.TangoPoseData;
-        import com.google.atap.tangoservice.TangoXyzIjData;
+
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.BackpressureController;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePolicy;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.CaptureScheduler;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.ConfidenceFilter;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.FrameSink;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.MotionGate;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+        import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+        import cz.zcu.fav.dpoch.point_cloud.core.io.DurableSessionWriter;
+        import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+        import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+        import cz.zcu.fav.dpoch.point_cloud.core.io.SessionRecovery;
+        import cz.zcu.fav.dpoch.point_cloud.core.metrics.CaptureMetrics;
+        import cz.zcu.fav.dpoch.point_cloud.core.net.NetworkSink;
+        import cz.zcu.fav.dpoch.point_cloud.core.net.StreamFormat;
+        import cz.zcu.fav.dpoch.point_cloud.core.metrics.MetricsSnapshot;
+        import cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker;
+        import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
 
         import android.app.Activity;
         import android.os.Bundle;
@@ -21,14 +35,12 @@ package cz.zcu.fav.dpoch.point_cloud_generator;
         import android.widget.Button;
         import android.view.View;
 
-        import java.io.BufferedWriter;
-        import java.io.DataOutputStream;
         import java.io.File;
-        import java.io.FileOutputStream;
-        import java.io.FileWriter;
-        import java.io.PrintWriter;
+        import java.io.IOException;
+        import java.net.InetSocketAddress;
         import java.nio.FloatBuffer;
-        import java.util.ArrayList;
+        import java.util.concurrent.ExecutorService;
+        import java.util.concurrent.Executors;
 
 
 /**
@@ -38,12 +50,46 @@ package cz.zcu.fav.dpoch.point_cloud_generator;
 public class PointCloudGeneratorActivity extends Activity {
 
     private static final String TAG = PointCloudGeneratorActivity.class.getSimpleName();
+    private static final int WRITER_QUEUE_CAPACITY = 8;
+    private static final int INITIAL_POINT_CAPACITY = 40000;
+    // Points outside of these limits are noise and are not written.
+    private static final float MIN_CONFIDENCE = 0.5f;
+    private static final float MIN_DEPTH = 0.3f;
+    private static final float MAX_DEPTH = 4.5f;
+    // While a point cloud would wait longer than this for the writer, the capture rate is lowered.
+    private static final long TARGET_WRITE_LATENCY_NANOS = 500000000L;
+    private static final int MAX_FRAME_STRIDE = 4;
+    private static final int MAX_POINT_STRIDE = 4;
+    // The capture status is refreshed at most this often while point clouds are written.
+    private static final long STATUS_INTERVAL_NANOS = 1000000000L;
+    // Address of a workstation running receive-session, point clouds are streamed there instead
+    // of being written on the device.
+    private static final String EXTRA_STREAM_HOST = "stream_host";
+    // When true, point clouds captured while the device is held still are not written. Off by
+    // default, the button asks for a number of point clouds regardless of motion.
+    private static final String EXTRA_SKIP_STILL = "skip_still";
 
     private Tango mTango;
     private TangoConfig mConfig;
-    private int pointCloudsCounter = 0;
-    private int framesCount = 0;
+    private TangoPointCloudSource mPointCloudSource;
+    // Set on the UI thread and read by the Tango callbacks.
+    private volatile CapturePipeline mCapturePipeline;
+    private CaptureMetrics mCaptureMetrics;
+    private volatile NetworkSink mNetworkSink;
+    // The metrics are exported next to the session file, or named after the stream.
+    private File mMetricsFile;
+    private PoseTracker mPoseTracker;
+    // Captures the number of point clouds requested by the button, shared with the Tango thread.
+    private final CaptureScheduler mCaptureScheduler = new CaptureScheduler();
+    // Closes finished sessions and recovers sessions left by a crash one after another, off the
+    // UI thread. A session is closed before the next start checks whether it needs recovery.
+    private final ExecutorService mRecoveryExecutor = Executors.newSingleThreadExecutor();
     private TextView outputText;
+    // Messages shown above the capture status, used on the UI thread only.
+    private final StringBuilder mOutputLog = new StringBuilder();
+    private String mStatus = "";
+    // Time the status was last refreshed, used on the writer thread only.
+    private long mLastStatusNanos;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,9 +103,9 @@ public class PointCloudGeneratorActivity extends Activity {
             public void onClick(View v) {
                 String input = editText.getText().toString();
                 try {
-                    framesCount = pointCloudsCounter + framesCount + Integer.parseInt(input);
-                }catch(NumberFormatException e){
-                    outputText.append(R.string.wrong_input + "\n");
+                    mCaptureScheduler.start(CapturePolicy.frames(Integer.parseInt(input)));
+                }catch(IllegalArgumentException e){
+                    appendOutput(getString(R.string.wrong_input) + "\n");
                 }
             }
         });
@@ -68,6 +114,7 @@ public class PointCloudGeneratorActivity extends Activity {
     @Override
     protected void onResume() {
         super.onResume();
+        startCapturePipeline();
 
         // Initialize Tango Service as a normal Android Service. Since we call mTango.disconnect()
         // in onPause, this will unbind Tango Service, so every time onResume gets called we
@@ -104,11 +151,172 @@ public class PointCloudGeneratorActivity extends Activity {
         super.onPause();
         synchronized (this) {
             try {
+                if (mPointCloudSource != null) {
+                    mPointCloudSource.close();
+                    mPointCloudSource = null;
+                }
                 mTango.disconnect();
             } catch (TangoErrorException e) {
                 Log.e(TAG, getString(R.string.exception_tango_error), e);
             }
         }
+        stopCapturePipeline();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Queued closing and recovery are finished, the thread then ends.
+        mRecoveryExecutor.shutdown();
+    }
+
+    /**
+     * Creates the pipeline that writes captured point clouds on its own thread, so file I/O does
+     * not block Tango callbacks. When the writer falls behind, point clouds are captured less
+     * often and thinned out, and the callback waits only when the queue fills up anyway. All
+     * point clouds captured until the activity is paused are stored compactly encoded in one
+     * session file, or streamed with the device poses to a workstation when started with its
+     * address. The capture metrics are exported next to the session file. Frames are committed
+     * in batches, so a crash loses at most the last batch; sessions left by a crash are recovered
+     * first.
+     */
+    private void startCapturePipeline() {
+        recoverSessions();
+        long startMillis = System.currentTimeMillis();
+        File file = new File(getExternalFilesDir(null),
+                "session" + startMillis + SessionFormat.FILE_EXTENSION);
+        String streamHost = getIntent().getStringExtra(EXTRA_STREAM_HOST);
+        final FrameSink sink;
+        if (streamHost != null) {
+            mMetricsFile = new File(getExternalFilesDir(null), "stream" + startMillis);
+            mNetworkSink = new NetworkSink(InetSocketAddress.createUnresolved(streamHost,
+                    StreamFormat.DEFAULT_PORT), new FrameCodec(), NetworkSink.DEFAULT_MAX_IN_FLIGHT);
+            sink = mNetworkSink;
+            appendOutput("Streaming point clouds to " + streamHost + "\n");
+        } else {
+            try {
+                sink = new DurableSessionWriter(file, new FrameCodec(),
+                        DurableSessionWriter.DEFAULT_BATCH_FRAMES,
+                        DurableSessionWriter.DEFAULT_WINDOW_NANOS);
+            } catch (IOException e) {
+                Log.e(TAG, getString(R.string.exception_file_writing), e);
+                showsToastAndFinishOnUiThread(R.string.exception_file_writing);
+                return;
+            }
+            mMetricsFile = file;
+            appendOutput("Writing point clouds into " + file.getPath() + "\n");
+        }
+
+        CapturePipeline pipeline = new CapturePipeline(sink, WRITER_QUEUE_CAPACITY,
+                OverflowPolicy.BLOCK, INITIAL_POINT_CAPACITY);
+        pipeline.setScheduler(mCaptureScheduler);
+        pipeline.setFilter(new ConfidenceFilter(MIN_CONFIDENCE, MIN_DEPTH, MAX_DEPTH));
+        mCaptureMetrics = new CaptureMetrics(WRITER_QUEUE_CAPACITY);
+        pipeline.setMetrics(mCaptureMetrics);
+        if (getIntent().getBooleanExtra(EXTRA_SKIP_STILL, false)) {
+            // Point clouds of a device held still repeat the last one and are not written.
+            pipeline.setMotionGate(new MotionGate());
+        }
+        pipeline.setBackpressure(new BackpressureController(TARGET_WRITE_LATENCY_NANOS,
+                MAX_FRAME_STRIDE, MAX_POINT_STRIDE));
+        final CaptureMetrics metrics = mCaptureMetrics;
+        mLastStatusNanos = System.nanoTime();
+        pipeline.setCallback(new CapturePipeline.Callback() {
+            @Override
+            public void onFrameWritten(PointCloudFrame frame, long writeNanos) {
+                // Snapshots are taken only when the status is due, not for every frame.
+                long now = System.nanoTime();
+                if (now - mLastStatusNanos >= STATUS_INTERVAL_NANOS) {
+                    mLastStatusNanos = now;
+                    setStatusOnUiThread(summarizeCapture(metrics.snapshot()));
+                }
+            }
+
+            @Override
+            public void onWriteFailed(PointCloudFrame frame, IOException e) {
+                Log.e(TAG, getString(R.string.exception_file_writing), e);
+                showsToastAndFinishOnUiThread(R.string.exception_file_writing);
+            }
+        });
+        pipeline.start();
+        // Published only once configured, the Tango callbacks may use it right away.
+        mCapturePipeline = pipeline;
+    }
+
+    /**
+     * Repairs the session files whose writer did not close them, so they can be read. The files
+     * are listed before the new session is created and repaired in the background.
+     */
+    private void recoverSessions() {
+        final File[] files = getExternalFilesDir(null).listFiles();
+        if (files == null) {
+            return;
+        }
+        mRecoveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File file : files) {
+                    if (!file.getName().endsWith(SessionFormat.FILE_EXTENSION)) {
+                        continue;
+                    }
+                    try {
+                        if (SessionRecovery.isNeeded(file)) {
+                            SessionRecovery recovery = SessionRecovery.recover(file);
+                            appendOutputOnUiThread("Recovered " + recovery.getFrameCount()
+                                    + " point clouds of " + file.getName() + "\n");
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, getString(R.string.exception_file_writing), e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops passing point clouds to the pipeline. The remaining queued point clouds are written,
+     * the pipeline is closed and its metrics are exported in the background, since draining the
+     * queue and forcing the last batch to storage may take longer than the UI thread may block.
+     */
+    private void stopCapturePipeline() {
+        final CapturePipeline pipeline = mCapturePipeline;
+        if (pipeline == null) {
+            return;
+        }
+        mCapturePipeline = null;
+        mNetworkSink = null;
+        final CaptureMetrics metrics = mCaptureMetrics;
+        final File metricsFile = mMetricsFile;
+        mRecoveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.close();
+                } catch (IOException e) {
+                    Log.e(TAG, getString(R.string.exception_file_writing), e);
+                }
+                MetricsSnapshot snapshot = metrics.snapshot();
+                setStatusOnUiThread(summarizeCapture(snapshot));
+                try {
+                    snapshot.writeFiles(metricsFile);
+                } catch (IOException e) {
+                    Log.e(TAG, getString(R.string.exception_file_writing), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a one line summary of the capture metrics.
+     */
+    private static String summarizeCapture(MetricsSnapshot snapshot) {
+        return "Written " + snapshot.getCounter(CaptureMetrics.FRAMES_WRITTEN)
+                + " point clouds, " + (long) snapshot.getRate(CaptureMetrics.POINTS_WRITTEN)
+                + " points/s, p99 latency "
+                + snapshot.getHistogram(CaptureMetrics.CALLBACK_TO_DISK).getQuantile(0.99) / 1000000
+                + "ms, " + snapshot.getCounter(CaptureMetrics.FRAMES_GATED_STATIONARY)
+                + " skipped while still, " + snapshot.getCounter(CaptureMetrics.FRAMES_UNPOSED)
+                + " without pose. \n";
     }
 
     /**
@@ -129,92 +337,87 @@ public class PointCloudGeneratorActivity extends Activity {
      * Listen to new Point Cloud data.
      */
     private void startupTango() {
-        // Lock configuration and connect to Tango.
-        // Select coordinate frame pair.
-        final ArrayList<TangoCoordinateFramePair> framePairs =
-                new ArrayList<TangoCoordinateFramePair>();
-        framePairs.add(new TangoCoordinateFramePair(
-                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                TangoPoseData.COORDINATE_FRAME_DEVICE));
-
-        // Listen for new Tango data.
-        mTango.connectListener(framePairs, new OnTangoUpdateListener() {
-            @Override
-            public void onPoseAvailable(final TangoPoseData pose) {
-                // We are not using TangoPoseData for this application.
-            }
-
+        mPoseTracker = new PoseTracker();
+        mPointCloudSource = new TangoPointCloudSource(mTango);
+        mPointCloudSource.start(new PointCloudSource.Listener() {
             @Override
-            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
-                // We are not using onXyzIjAvailable for this app.
+            public void onDeviceToSensor(double[] translation, double[] rotation) {
+                mPoseTracker.setDeviceToSensor(translation, rotation);
             }
 
             @Override
-            public void onPointCloudAvailable(final TangoPointCloudData pointCloudData) {
-                if(pointCloudsCounter < framesCount){
-                    writePointCloudTxt(pointCloudData);
-                } else if(framesCount != 0) {
-                    framesCount = 0;
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+                // Device poses are used to transform point clouds into the start of service frame.
+                mPoseTracker.onDevicePose(timestamp, translation, rotation);
+                NetworkSink networkSink = mNetworkSink;
+                if (networkSink != null) {
+                    networkSink.writePose(timestamp, translation, rotation);
                 }
             }
 
             @Override
-            public void onTangoEvent(final TangoEvent event) {
-                // Ignoring TangoEvents.
-            }
-
-            @Override
-            public void onFrameAvailable(int cameraId) {
-                // We are not using onFrameAvailable for this application.
+            public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+                CapturePipeline pipeline = mCapturePipeline;
+                if (pipeline != null) {
+                    // The scheduler decides whether the point cloud is captured.
+                    pipeline.submit(timestamp, points, numPoints,
+                            mPoseTracker.sensorPoseAt(timestamp));
+                }
             }
         });
     }
 
-    private void writePointCloudTxt(TangoPointCloudData pointCloudData)  {
-        long start = System.currentTimeMillis();
-        this.pointCloudsCounter++;
-        outputText.append("Writing point cloud " + pointCloudsCounter + "into file. \n");
-        String filename = "points" + this.pointCloudsCounter;
-        PrintWriter writer;
-
-        try {
-            File file = new File(getExternalFilesDir(null), filename);
-            outputText.append(file.getPath() + "\n");
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
-            FloatBuffer buffer = pointCloudData.points;
-            while(buffer.hasRemaining()){
-                writer.println(buffer.get());
-            }
-            writer.close();
-        } catch (Exception e) {
-            showsToastAndFinishOnUiThread(R.string.exception_file_writing);
-        }
-        long end = System.currentTimeMillis();
-        outputText.append("Writing of " + filename + "is finished and took " + (end - start) + "ms. \n");
+    /**
+     * Appends a message to the output text. Must be called on the UI thread.
+     *
+     * @param text Text to append.
+     */
+    private void appendOutput(String text) {
+        mOutputLog.append(text);
+        showOutput();
     }
 
+    /**
+     * Replaces the capture status below the messages. Must be called on the UI thread.
+     *
+     * @param status New status line.
+     */
+    private void setStatus(String status) {
+        mStatus = status;
+        showOutput();
+    }
 
-    private void writePointCloudBin(TangoPointCloudData pointCloudData) {
-        long start = System.currentTimeMillis();
-        this.pointCloudsCounter++;
-        outputText.append("Writing point cloud " + pointCloudsCounter + "into file. \n");
-        String filename = "points" + this.pointCloudsCounter;
-        DataOutputStream  outputStream;
+    private void showOutput() {
+        outputText.setText(mOutputLog);
+        outputText.append(mStatus);
+    }
 
-        try {
-            File file = new File(getExternalFilesDir(null), filename);
-            outputText.append(file.getPath() + "\n");
-            outputStream = new DataOutputStream(new FileOutputStream(file));
-            FloatBuffer buffer = pointCloudData.points;
-            while(buffer.hasRemaining()){
-                outputStream.writeFloat(buffer.get());
+    /**
+     * Appends a message to the output text on UI thread.
+     *
+     * @param text Text to append.
+     */
+    private void appendOutputOnUiThread(final String text) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                appendOutput(text);
             }
-            outputStream.close();
-        } catch (Exception e) {
-            showsToastAndFinishOnUiThread(R.string.exception_file_writing);
-        }
-        long end = System.currentTimeMillis();
-        outputText.append("Writing of " + filename + "is finished and took " + (end - start) + "ms. \n");
+        });
+    }
+
+    /**
+     * Replaces the capture status on UI thread.
+     *
+     * @param status New status line.
+     */
+    private void setStatusOnUiThread(final String status) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                setStatus(status);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,96 @@
+package cz.zcu.fav.dpoch.point_cloud_generator;
+
+import android.util.Log;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoEvent;
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.google.atap.tangoservice.TangoXyzIjData;
+
+import java.util.ArrayList;
+
+import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
+
+/**
+ * Adapts a connected {@link Tango} service to {@link PointCloudSource}. Data are delivered on the
+ * Tango callback thread. Closing the source only stops the delivery, the service is disconnected
+ * by its owner.
+ */
+class TangoPointCloudSource implements PointCloudSource {
+
+    private static final String TAG = TangoPointCloudSource.class.getSimpleName();
+
+    private final Tango tango;
+    private volatile Listener listener;
+
+    /**
+     * @param tango Connected Tango service.
+     */
+    TangoPointCloudSource(Tango tango) {
+        this.tango = tango;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        // Select coordinate frame pair.
+        final ArrayList<TangoCoordinateFramePair> framePairs =
+                new ArrayList<TangoCoordinateFramePair>();
+        framePairs.add(new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                TangoPoseData.COORDINATE_FRAME_DEVICE));
+
+        // The fixed pose of the depth camera relative to the device.
+        TangoPoseData deviceToDepth = this.tango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_DEVICE,
+                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH));
+        if (deviceToDepth.statusCode == TangoPoseData.POSE_VALID) {
+            listener.onDeviceToSensor(deviceToDepth.translation, deviceToDepth.rotation);
+        } else {
+            Log.w(TAG, "Depth camera extrinsics are not available.");
+            listener.onDeviceToSensor(new double[]{0, 0, 0}, new double[]{0, 0, 0, 1});
+        }
+        this.listener = listener;
+
+        // Listen for new Tango data.
+        this.tango.connectListener(framePairs, new Tango.OnTangoUpdateListener() {
+            @Override
+            public void onPoseAvailable(final TangoPoseData pose) {
+                Listener listener = TangoPointCloudSource.this.listener;
+                if (listener != null && pose.statusCode == TangoPoseData.POSE_VALID) {
+                    listener.onDevicePose(pose.timestamp, pose.translation, pose.rotation);
+                }
+            }
+
+            @Override
+            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
+                // We are not using onXyzIjAvailable for this app.
+            }
+
+            @Override
+            public void onPointCloudAvailable(final TangoPointCloudData pointCloudData) {
+                Listener listener = TangoPointCloudSource.this.listener;
+                if (listener != null) {
+                    listener.onPointCloud(pointCloudData.timestamp, pointCloudData.points,
+                            pointCloudData.numPoints);
+                }
+            }
+
+            @Override
+            public void onTangoEvent(final TangoEvent event) {
+                // Ignoring TangoEvents.
+            }
+
+            @Override
+            public void onFrameAvailable(int cameraId) {
+                // We are not using onFrameAvailable for this application.
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        this.listener = null;
+    }
+}
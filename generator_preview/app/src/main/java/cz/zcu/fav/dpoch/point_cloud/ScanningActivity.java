@@ -14,35 +14,60 @@ import android.widget.Toast;
 import com.google.atap.tangoservice.Tango;
 import com.google.atap.tangoservice.TangoCameraIntrinsics;
 import com.google.atap.tangoservice.TangoConfig;
-import com.google.atap.tangoservice.TangoCoordinateFramePair;
 import com.google.atap.tangoservice.TangoErrorException;
-import com.google.atap.tangoservice.TangoEvent;
 import com.google.atap.tangoservice.TangoInvalidException;
 import com.google.atap.tangoservice.TangoOutOfDateException;
-import com.google.atap.tangoservice.TangoPointCloudData;
-import com.google.atap.tangoservice.TangoPoseData;
-import com.google.atap.tangoservice.TangoXyzIjData;
 import com.google.tango.support.TangoSupport;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import cz.zcu.fav.dpoch.point_cloud.core.capture.BackpressureController;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePipeline;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CapturePolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.CaptureScheduler;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.ConfidenceFilter;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.OverflowPolicy;
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.MappedSessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionFormat;
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.CaptureMetrics;
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.Histogram;
+import cz.zcu.fav.dpoch.point_cloud.core.metrics.MetricsSnapshot;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.PoseTracker;
+import cz.zcu.fav.dpoch.point_cloud.core.pose.RigidTransform;
+import cz.zcu.fav.dpoch.point_cloud.core.source.PointCloudSource;
+
 public class ScanningActivity extends AppCompatActivity {
     private static final String TAG = ScanningActivity.class.getSimpleName();
     private static final int INVALID_TEXTURE_ID = 0;
-
-    private StringBuffer outputMessage;
-    private int pointCloudsCounter = 0;
+    private static final int WRITER_QUEUE_CAPACITY = 8;
+    private static final int INITIAL_POINT_CAPACITY = 40000;
+    // Points outside of these limits are noise and are not written.
+    private static final float MIN_CONFIDENCE = 0.5f;
+    private static final float MIN_DEPTH = 0.3f;
+    private static final float MAX_DEPTH = 4.5f;
+    // While a point cloud would wait longer than this for the writer, the capture rate is lowered.
+    private static final long TARGET_WRITE_LATENCY_NANOS = 500000000L;
+    private static final int MAX_FRAME_STRIDE = 4;
+    private static final int MAX_POINT_STRIDE = 4;
+
+    // Switched by the scanning button, shared with the Tango thread.
+    private final CaptureScheduler captureScheduler = new CaptureScheduler();
+    // Policy of the current or last scan, UI thread only.
+    private CapturePolicy scanPolicy;
+    // Set on the UI thread and read by the Tango callbacks.
+    private volatile CapturePipeline capturePipeline;
+    private CaptureMetrics captureMetrics;
+    private File sessionFile;
+    private PoseTracker poseTracker;
 
     private Tango tango;
     private TangoConfig tangoConfig;
+    private TangoPointCloudSource pointCloudSource;
     private boolean isConnected = false;
-    private boolean isScanning = false;
 
     private GLSurfaceView previewView;
     private VideoRenderer renderer;
@@ -56,7 +81,6 @@ public class ScanningActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_scanning);
 
-        this.outputMessage = new StringBuffer();
         this.previewView = (GLSurfaceView) findViewById(R.id.textureView);
         setupRenderer();
     }
@@ -68,6 +92,7 @@ public class ScanningActivity extends AppCompatActivity {
         // Set render mode to RENDERMODE_CONTINUOUSLY to force getting onDraw callbacks until the
         // Tango Service is properly set up and we start getting onFrameAvailable callbacks.
         previewView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        startCapturePipeline();
         createTango();
     }
 
@@ -79,6 +104,7 @@ public class ScanningActivity extends AppCompatActivity {
             disconnectTango();
             resetUI();
         }
+        stopCapturePipeline();
     }
 
     /*
@@ -138,40 +164,10 @@ public class ScanningActivity extends AppCompatActivity {
      * Listen to new Point Cloud data.
      */
     private void startupTango() {
-        // Lock configuration and connect to Tango.
-        // Select coordinate frame pair.
-        final ArrayList<TangoCoordinateFramePair> framePairs =
-                new ArrayList<TangoCoordinateFramePair>();
-        framePairs.add(new TangoCoordinateFramePair(
-                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                TangoPoseData.COORDINATE_FRAME_DEVICE));
-
-        // Listen for new Tango data.
-        this.tango.connectListener(framePairs, new Tango.OnTangoUpdateListener() {
-            @Override
-            public void onPoseAvailable(final TangoPoseData pose) {
-                // We are not using TangoPoseData for this application.
-            }
-
-            @Override
-            public void onXyzIjAvailable(TangoXyzIjData xyzIj) {
-                // We are not using onXyzIjAvailable for this app.
-            }
-
-            @Override
-            public void onPointCloudAvailable(final TangoPointCloudData pointCloudData) {
-                if (isScanning) {
-                    writePointCloudTxt(pointCloudData);
-                }
-            }
-
+        this.poseTracker = new PoseTracker();
+        this.pointCloudSource = new TangoPointCloudSource(this.tango) {
             @Override
-            public void onTangoEvent(final TangoEvent event) {
-                // Ignoring TangoEvents.
-            }
-
-            @Override
-            public void onFrameAvailable(int cameraId) {
+            protected void onFrameAvailable(int cameraId) {
                 Log.d(TAG, "onFrameAvailable");
 
                 if (cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR) {
@@ -190,11 +186,39 @@ public class ScanningActivity extends AppCompatActivity {
                     previewView.requestRender();
                 }
             }
+        };
+        this.pointCloudSource.start(new PointCloudSource.Listener() {
+            @Override
+            public void onDeviceToSensor(double[] translation, double[] rotation) {
+                poseTracker.setDeviceToSensor(translation, rotation);
+            }
+
+            @Override
+            public void onDevicePose(double timestamp, double[] translation, double[] rotation) {
+                // Device poses are used to transform point clouds into the start of service frame.
+                poseTracker.onDevicePose(timestamp, translation, rotation);
+            }
+
+            @Override
+            public void onPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+                CapturePipeline pipeline = capturePipeline;
+                if (pipeline == null) {
+                    return;
+                }
+                RigidTransform sensorPose = poseTracker.sensorPoseAt(timestamp);
+                if (pipeline.submit(timestamp, points, numPoints, sensorPose)) {
+                    updateCounterOnUiThread();
+                }
+            }
         });
     }
 
     private synchronized void disconnectTango() {
         try {
+            if (this.pointCloudSource != null) {
+                this.pointCloudSource.close();
+                this.pointCloudSource = null;
+            }
             this.tango.disconnectCamera(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
             // We need to invalidate the connected texture ID so that we cause a
             // re-connection in the OpenGL thread after resume.
@@ -202,12 +226,104 @@ public class ScanningActivity extends AppCompatActivity {
             this.tango.disconnect();
             this.tango = null;
             this.isConnected = false;
-            this.isScanning = false;
+            this.captureScheduler.stop();
         } catch (TangoErrorException e) {
             Log.e(TAG, getString(R.string.exception_tango_error), e);
         }
     }
 
+    /*
+     * ------------------------------- CAPTURE ----------------------------------
+     */
+
+    /**
+     * Creates the pipeline that writes captured point clouds on its own thread, so file I/O does
+     * not block Tango callbacks. When the writer falls behind, point clouds are captured less
+     * often and thinned out, and if the queue fills up anyway the oldest waiting ones are dropped.
+     * All point clouds captured until the activity is paused are stored in one memory-mapped
+     * session file, its capture metrics are exported next to it.
+     */
+    private void startCapturePipeline() {
+        final File file = new File(getExternalFilesDir(null),
+                "session" + System.currentTimeMillis() + SessionFormat.FILE_EXTENSION);
+        final MappedSessionWriter sink;
+        try {
+            sink = new MappedSessionWriter(file);
+        } catch (IOException e) {
+            Log.e(TAG, getString(R.string.exception_file_writing), e);
+            showsToastAndFinishOnUiThread(R.string.exception_file_writing);
+            return;
+        }
+
+        CapturePipeline pipeline = new CapturePipeline(sink, WRITER_QUEUE_CAPACITY,
+                OverflowPolicy.DROP_OLDEST, INITIAL_POINT_CAPACITY);
+        pipeline.setScheduler(this.captureScheduler);
+        pipeline.setFilter(new ConfidenceFilter(MIN_CONFIDENCE, MIN_DEPTH, MAX_DEPTH));
+        this.captureMetrics = new CaptureMetrics(WRITER_QUEUE_CAPACITY);
+        pipeline.setMetrics(this.captureMetrics);
+        pipeline.setBackpressure(new BackpressureController(
+                TARGET_WRITE_LATENCY_NANOS, MAX_FRAME_STRIDE, MAX_POINT_STRIDE));
+        this.sessionFile = file;
+        pipeline.setCallback(new CapturePipeline.Callback() {
+            @Override
+            public void onFrameWritten(PointCloudFrame frame, long writeNanos) {
+                // Written frames are counted by the capture metrics.
+            }
+
+            @Override
+            public void onWriteFailed(PointCloudFrame frame, IOException e) {
+                Log.e(TAG, getString(R.string.exception_file_writing), e);
+                showsToastAndFinishOnUiThread(R.string.exception_file_writing);
+            }
+        });
+        pipeline.start();
+        // Published only once configured, the Tango callbacks may use it right away.
+        this.capturePipeline = pipeline;
+    }
+
+    /**
+     * Writes the remaining queued point clouds, closes the pipeline and exports its metrics.
+     */
+    private void stopCapturePipeline() {
+        CapturePipeline pipeline = this.capturePipeline;
+        if (pipeline == null) {
+            return;
+        }
+        this.capturePipeline = null;
+        try {
+            pipeline.close();
+        } catch (IOException e) {
+            Log.e(TAG, getString(R.string.exception_file_writing), e);
+        }
+        try {
+            this.captureMetrics.snapshot().writeFiles(this.sessionFile);
+        } catch (IOException e) {
+            Log.e(TAG, getString(R.string.exception_file_writing), e);
+        }
+    }
+
+    /**
+     * Returns a short summary of the capture metrics for the output screen.
+     */
+    private String summarizeCapture() {
+        if (this.captureMetrics == null) {
+            return "";
+        }
+        MetricsSnapshot snapshot = this.captureMetrics.snapshot();
+        Histogram.Snapshot latency = snapshot.getHistogram(CaptureMetrics.CALLBACK_TO_DISK);
+        return "Writing point clouds into " + this.sessionFile.getPath() + "\n"
+                + "Point clouds written: " + snapshot.getCounter(CaptureMetrics.FRAMES_WRITTEN)
+                + ", dropped: " + snapshot.getCounter(CaptureMetrics.FRAMES_DROPPED)
+                + ", skipped: " + snapshot.getCounter(CaptureMetrics.FRAMES_THROTTLED)
+                + ", without pose: " + snapshot.getCounter(CaptureMetrics.FRAMES_UNPOSED) + "\n"
+                + "Points per second: " + (long) snapshot.getRate(CaptureMetrics.POINTS_WRITTEN)
+                + "\n"
+                + "Callback to disk p50/p99: " + latency.getQuantile(0.5) / 1000000 + "/"
+                + latency.getQuantile(0.99) / 1000000 + " ms\n"
+                + "Maximal queue depth: "
+                + snapshot.getHistogram(CaptureMetrics.QUEUE_DEPTH).getMax() + "\n";
+    }
+
     /*
      * ------------------------------- RENDERER ----------------------------------
      */
@@ -288,7 +404,8 @@ public class ScanningActivity extends AppCompatActivity {
      */
 
     public void startScanning(View v) {
-        this.isScanning = true;
+        this.scanPolicy = CapturePolicy.continuous();
+        this.captureScheduler.start(this.scanPolicy);
         ImageButton imageButton = (ImageButton) findViewById(R.id.controlScanning);
         imageButton.setImageResource(R.drawable.ic_recording);
         imageButton.setOnClickListener(new View.OnClickListener() {
@@ -300,14 +417,14 @@ public class ScanningActivity extends AppCompatActivity {
     }
 
     public void finishScanning(View v) {
-        this.isScanning = false;
+        this.captureScheduler.stop();
         Intent i = new Intent(this, OutputActivity.class);
-        i.putExtra("MESSAGE", this.outputMessage.toString());
+        i.putExtra("MESSAGE", summarizeCapture());
         startActivity(i);
     }
 
     private void resetUI() {
-        this.pointCloudsCounter = 0;
+        this.scanPolicy = null;
         ImageButton imageButton = (ImageButton) findViewById(R.id.controlScanning);
         imageButton.setImageResource(R.drawable.ic_camera);
         imageButton.setOnClickListener(new View.OnClickListener() {
@@ -320,41 +437,14 @@ public class ScanningActivity extends AppCompatActivity {
         counterView.setText("");
     }
 
-    private void writePointCloudTxt(TangoPointCloudData pointCloudData)  {
-        this.pointCloudsCounter++;
-        this.outputMessage.append("Writing point cloud " + this.pointCloudsCounter + " into ");
-        this.updateCounterOnUiThread();
-
-        String filename = "points" + this.pointCloudsCounter;
-        PrintWriter writer;
-        long start = 0, end = 0;
-
-        try {
-            File file = new File(getExternalFilesDir(null), filename);
-            this.outputMessage.append(file.getPath() + "\n");
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
-            FloatBuffer buffer = pointCloudData.points;
-            start = System.currentTimeMillis();
-            while(buffer.hasRemaining()){
-                writer.println(buffer.get());
-            }
-
-            end = System.currentTimeMillis();
-            writer.close();
-        } catch (Exception e) {
-            showsToastAndFinishOnUiThread(R.string.exception_file_writing);
-        }
-
-        this.outputMessage.append("Writing of " + filename + " is finished and took " + (end - start) + "ms. \n");
-        this.outputMessage.append("----------------\n");
-    }
-
     private void updateCounterOnUiThread() {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 TextView counterView = (TextView) findViewById(R.id.counterText);
-                counterView.setText("" + pointCloudsCounter);
+                if (scanPolicy != null) {
+                    counterView.setText("" + scanPolicy.getCapturedCount());
+                }
             }
         });
     }
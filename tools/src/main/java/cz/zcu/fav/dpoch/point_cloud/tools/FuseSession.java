@@ -0,0 +1,101 @@
+package cz.zcu.fav.dpoch.point_cloud.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import cz.zcu.fav.dpoch.point_cloud.core.capture.PointCloudFrame;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionReader;
+import cz.zcu.fav.dpoch.point_cloud.core.io.TsdfSink;
+import cz.zcu.fav.dpoch.point_cloud.core.processing.Parallel;
+import cz.zcu.fav.dpoch.point_cloud.core.processing.TsdfVolume;
+
+/**
+ * Fuses the posed frames of a recorded session into a truncated signed distance field and writes
+ * its surface into a PLY file.
+ *
+ * <pre>fuse-session [-v voxel size] [-t truncation] [-w max weight] input.pcs output.ply</pre>
+ */
+public final class FuseSession {
+
+    private static final String USAGE = "Usage: fuse-session [-v voxel size in meters] "
+            + "[-t truncation in meters] [-w max weight] input.pcs output.ply";
+
+    // Default edge length of a voxel in meters.
+    private static final float DEFAULT_VOXEL_SIZE = 0.01f;
+
+    private FuseSession() {
+    }
+
+    public static void main(String[] args) {
+        float voxelSize = DEFAULT_VOXEL_SIZE;
+        float truncation = Float.NaN;
+        float maxWeight = TsdfVolume.DEFAULT_MAX_WEIGHT;
+        int argument = 0;
+        try {
+            while (argument < args.length && args[argument].startsWith("-")) {
+                String option = args[argument++];
+                if (argument == args.length) {
+                    usage("Missing value of " + option);
+                }
+                if (option.equals("-v")) {
+                    voxelSize = Float.parseFloat(args[argument++]);
+                } else if (option.equals("-t")) {
+                    truncation = Float.parseFloat(args[argument++]);
+                } else if (option.equals("-w")) {
+                    maxWeight = Float.parseFloat(args[argument++]);
+                } else {
+                    usage("Unknown option " + option);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("Invalid number " + args[argument - 1]);
+        }
+        if (args.length - argument != 2) {
+            usage(null);
+        }
+        File input = new File(args[argument]);
+        File output = new File(args[argument + 1]);
+        if (truncation != truncation) {
+            truncation = TsdfVolume.DEFAULT_TRUNCATION_VOXELS * voxelSize;
+        }
+
+        try {
+            TsdfSink sink = new TsdfSink(output, new TsdfVolume(voxelSize, truncation, maxWeight,
+                    Parallel.defaultPool()));
+            SessionReader reader = new SessionReader(input);
+            long points = 0;
+            long start = System.nanoTime();
+            try {
+                PointCloudFrame frame = new PointCloudFrame(0);
+                for (int i = 0; i < reader.getFrameCount(); i++) {
+                    reader.readFrame(i, frame);
+                    sink.write(frame);
+                    points += frame.getNumPoints();
+                }
+            } finally {
+                reader.close();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sink.close();
+            System.out.println(String.format(Locale.US, "Fused %d frames, %d points in %.1f s "
+                            + "(%.0f points/s) into %.1f MB of voxels, skipped %d frames without "
+                            + "pose, wrote %s",
+                    sink.getFrameCount(), points, seconds, points / seconds,
+                    sink.getMemoryBytes() / 1e6, sink.getSkippedFrameCount(), output.getPath()));
+        } catch (IOException e) {
+            System.err.println("Fusing failed: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+    }
+
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}
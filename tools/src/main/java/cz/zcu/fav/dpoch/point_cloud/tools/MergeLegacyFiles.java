@@ -0,0 +1,91 @@
+package cz.zcu.fav.dpoch.point_cloud.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import cz.zcu.fav.dpoch.point_cloud.core.io.LegacyFileMerger;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.source.LegacyFileReplaySource;
+
+/**
+ * Merges a directory of legacy {@code pointsN} files, text or big-endian binary, into a single
+ * session file with one frame per file in the order of their numbers.
+ *
+ * <pre>merge-legacy [-t threads] [-i frame interval] directory output.pcs</pre>
+ */
+public final class MergeLegacyFiles {
+
+    private static final String USAGE =
+            "Usage: merge-legacy [-t threads] [-i frame interval in seconds] directory output.pcs";
+
+    private MergeLegacyFiles() {
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double frameInterval = LegacyFileReplaySource.DEFAULT_FRAME_INTERVAL;
+        int argument = 0;
+        try {
+            while (argument < args.length && args[argument].startsWith("-")) {
+                String option = args[argument++];
+                if (argument == args.length) {
+                    usage("Missing value of " + option);
+                }
+                if (option.equals("-t")) {
+                    threads = Integer.parseInt(args[argument++]);
+                } else if (option.equals("-i")) {
+                    frameInterval = Double.parseDouble(args[argument++]);
+                } else {
+                    usage("Unknown option " + option);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("Invalid number " + args[argument - 1]);
+        }
+        if (args.length - argument != 2) {
+            usage(null);
+        }
+        File directory = new File(args[argument]);
+        File output = new File(args[argument + 1]);
+        if (!directory.isDirectory()) {
+            usage(directory.getPath() + " is not a directory");
+        }
+
+        List<File> files = LegacyFileReplaySource.listFiles(directory);
+        if (files.isEmpty()) {
+            System.err.println("No pointsN files in " + directory.getPath());
+            System.exit(1);
+        }
+        try {
+            LegacyFileMerger merger = new LegacyFileMerger(threads, frameInterval);
+            SessionWriter writer = new SessionWriter(output);
+            try {
+                merger.merge(files, writer);
+            } finally {
+                writer.close();
+            }
+            double seconds = merger.getElapsedNanos() / 1e9;
+            System.out.println(String.format(Locale.US, "Merged %d files, %d points, %.1f MB in "
+                            + "%.2f s (%.1f MB/s) into %s", merger.getFileCount(),
+                    merger.getPointCount(), merger.getInputBytes() / 1e6, seconds,
+                    merger.getInputBytes() / 1e6 / seconds, output.getPath()));
+        } catch (IOException e) {
+            System.err.println("Merging failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+    }
+
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}
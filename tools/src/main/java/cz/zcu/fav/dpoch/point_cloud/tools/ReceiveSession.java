@@ -0,0 +1,86 @@
+package cz.zcu.fav.dpoch.point_cloud.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import cz.zcu.fav.dpoch.point_cloud.core.io.FrameCodec;
+import cz.zcu.fav.dpoch.point_cloud.core.io.SessionWriter;
+import cz.zcu.fav.dpoch.point_cloud.core.net.NetworkReceiver;
+import cz.zcu.fav.dpoch.point_cloud.core.net.StreamFormat;
+
+/**
+ * Receives one stream of frames from a device and writes it into a session file while the scan
+ * is captured.
+ *
+ * <pre>receive-session [-p port] [-c] output.pcs</pre>
+ */
+public final class ReceiveSession {
+
+    private static final String USAGE =
+            "Usage: receive-session [-p port] [-c encode frames] output.pcs";
+
+    private ReceiveSession() {
+    }
+
+    public static void main(String[] args) {
+        int port = StreamFormat.DEFAULT_PORT;
+        boolean encode = false;
+        int argument = 0;
+        try {
+            while (argument < args.length && args[argument].startsWith("-")) {
+                String option = args[argument++];
+                if (option.equals("-c")) {
+                    encode = true;
+                } else if (option.equals("-p")) {
+                    if (argument == args.length) {
+                        usage("Missing value of " + option);
+                    }
+                    port = Integer.parseInt(args[argument++]);
+                } else {
+                    usage("Unknown option " + option);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("Invalid number " + args[argument - 1]);
+        }
+        if (args.length - argument != 1) {
+            usage(null);
+        }
+        File output = new File(args[argument]);
+
+        try {
+            NetworkReceiver receiver = new NetworkReceiver(port);
+            SessionWriter writer = null;
+            try {
+                writer = encode ? new SessionWriter(output, new FrameCodec()) : new SessionWriter(output);
+                System.out.println("Waiting for a stream on port " + receiver.getPort());
+                long start = System.nanoTime();
+                receiver.receive(writer);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format(Locale.US, "Received %d frames and %d poses, "
+                                + "%.1f MB in %.1f s (%.1f MB/s) into %s", receiver.getFrameCount(),
+                        receiver.getPoseCount(), receiver.getReceivedBytes() / 1e6, seconds,
+                        receiver.getReceivedBytes() / 1e6 / seconds, output.getPath()));
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+                receiver.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Receiving failed: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+    }
+
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}